@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import java_cup.runtime.ComplexSymbolFactory.ComplexSymbol;
+import java_cup.runtime.Symbol;
+
+/**
+ *
+ */
+
+/**
+ * Runs each phase of the compiler on its own, for the benchmarks in the bench
+ * package. Lives in the default package, next to the compiler classes.
+ *
+ * @author charl
+ */
+public class BenchmarkPhases implements bench.CompilerPhases {
+	/**
+	 * Throws away warnings and errors
+	 */
+	private static final PrintStream discard = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	private String name;
+	private String source;
+	/**
+	 * The tokens of the source, replayed to the parser
+	 */
+	private List<ComplexSymbol> tokens;
+	/**
+	 * A tree parsed from the source, for the semantic analyzer
+	 */
+	private Tree parsed;
+	/**
+	 * A tree parsed and analyzed from the source, for the code generator
+	 */
+	private Tree analyzed;
+	/**
+	 * The limits of the compilations of the phases
+	 */
+	private CompileLimits limits = new CompileLimits();
+
+	@Override
+	public void prepare(String name, String source) throws Exception {
+		this.name = name;
+		this.source = source;
+		tokens = new ArrayList<ComplexSymbol>();
+		Scan scanner = new Scan(new StringReader(source), newCompilation());
+		Symbol token;
+		do {
+			token = scanner.next_token();
+			tokens.add((ComplexSymbol) token);
+		} while (token.sym != sym.EOF);
+		parsed = (Tree) parse();
+		analyzed = (Tree) parse();
+		new SemanticAnalyzer(analyzed, newCompilation()).analyze();
+	}
+
+	@Override
+	public void limit(String limits) {
+		this.limits = CompileLimits.parse(limits);
+	}
+
+	@Override
+	public int scan() throws Exception {
+		Scan scanner = new Scan(new StringReader(source), newCompilation());
+		int count = 0;
+		while (scanner.next_token().sym != sym.EOF) {
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public Object parse() throws Exception {
+		Compilation compilation = newCompilation();
+		parser p = new parser(new ReplayScan(tokens, compilation), compilation);
+		p.parse();
+		return p.tree;
+	}
+
+	@Override
+	public Object analyze() throws Exception {
+		SemanticAnalyzer analyzer = new SemanticAnalyzer(parsed, newCompilation());
+		analyzer.analyze();
+		return analyzer;
+	}
+
+	@Override
+	public Object generate() throws Exception {
+		CodeGen codeGen = new CodeGen(analyzed, "D", newCompilation());
+		codeGen.generate(discard);
+		return codeGen;
+	}
+
+	@Override
+	public Object compile() throws Exception {
+		CompileResult result = Compilation.capture(name, new StringReader(source), new CompilerMetrics(false),
+				limits);
+		if (!result.isSuccess()) {
+			throw new IOException(name + " does not compile:\n" + result.getDiagnostics());
+		}
+		return result;
+	}
+
+	/**
+	 * @return a compilation of the input that throws away warnings and errors
+	 */
+	private Compilation newCompilation() {
+		return new Compilation(name, discard, new CompilerMetrics(false), limits);
+	}
+
+	/**
+	 * A scanner that returns recorded tokens instead of reading input. The parser
+	 * marks the tokens it has used, so copies are returned. Like Scan, keeps
+	 * returning EOF at the end of the input
+	 */
+	private static class ReplayScan extends Scan {
+		private final List<ComplexSymbol> tokens;
+		private final Compilation compilation;
+		private int next = 0;
+
+		ReplayScan(List<ComplexSymbol> tokens, Compilation compilation) {
+			super(new StringReader(""), compilation);
+			this.tokens = tokens;
+			this.compilation = compilation;
+		}
+
+		@Override
+		public Symbol next_token() {
+			ComplexSymbol token = tokens.get(Math.min(next++, tokens.size() - 1));
+			return compilation.getSymbolFactory().newSymbol(token.getName(), token.sym, token.xleft, token.xright,
+					token.value);
+		}
+	}
+}
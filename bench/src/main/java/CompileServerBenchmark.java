@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ */
+
+/**
+ * Measures the time a compile server takes to answer requests, as seen by its
+ * clients. Several clients send the given files over and over, each over its
+ * own connection, and the p50 and p99 request latencies are printed.
+ *
+ * @author charl
+ */
+public class CompileServerBenchmark {
+
+	/**
+	 * Usage: -port N [-clients C] [-requests R] [-warmup W] file... Each of the C
+	 * clients sends W requests that are not measured, then R requests that are
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If the server could not be reached
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = -1;
+		int clients = 8;
+		int requests = 200;
+		int warmup = 50;
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-clients") && i + 1 < args.length) {
+				clients = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-requests") && i + 1 < args.length) {
+				requests = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-warmup") && i + 1 < args.length) {
+				warmup = Integer.parseInt(args[++i]);
+			} else {
+				names.add(args[i]);
+			}
+		}
+		if (port < 0 || names.isEmpty()) {
+			System.err.println("Usage: CompileServerBenchmark -port N [-clients C] [-requests R] [-warmup W] file...");
+			System.exit(1);
+		}
+
+		List<byte[]> sources = new ArrayList<byte[]>();
+		for (String name : names) {
+			sources.add(Files.readAllBytes(Paths.get(name)));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		long start = System.nanoTime();
+		for (int c = 0; c < clients; c++) {
+			results.add(pool.submit(new Client(port, names, sources, warmup, requests, c)));
+		}
+		long[] latencies = new long[clients * requests];
+		int count = 0;
+		for (Future<long[]> result : results) {
+			long[] clientLatencies = getResult(result);
+			System.arraycopy(clientLatencies, 0, latencies, count, clientLatencies.length);
+			count += clientLatencies.length;
+		}
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+
+		Arrays.sort(latencies);
+		System.out.println("clients: " + clients + ", requests: " + latencies.length + ", files: " + names.size());
+		System.out.printf("p50: %.3f ms%n", percentile(latencies, 0.50) / 1e6);
+		System.out.printf("p99: %.3f ms%n", percentile(latencies, 0.99) / 1e6);
+		System.out.printf("max: %.3f ms%n", latencies[latencies.length - 1] / 1e6);
+		System.out.printf("throughput: %.1f requests/s%n", clients * (warmup + requests) / (elapsed / 1e9));
+	}
+
+	/**
+	 * @param sorted
+	 *            The latencies, sorted
+	 * @param p
+	 *            The percentile, between 0 and 1
+	 * @return the latency at the given percentile (nearest rank)
+	 */
+	static long percentile(long[] sorted, double p) {
+		int rank = (int) Math.ceil(p * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	private static long[] getResult(Future<long[]> result) throws IOException, InterruptedException {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			throw new IOException("A client failed", e.getCause());
+		}
+	}
+
+	/**
+	 * One client, sending the files in turn over a single connection
+	 */
+	private static class Client implements Callable<long[]> {
+		private final int port;
+		private final List<String> names;
+		private final List<byte[]> sources;
+		private final int warmup;
+		private final int requests;
+		private final int offset;
+
+		Client(int port, List<String> names, List<byte[]> sources, int warmup, int requests, int offset) {
+			this.port = port;
+			this.names = names;
+			this.sources = sources;
+			this.warmup = warmup;
+			this.requests = requests;
+			this.offset = offset;
+		}
+
+		@Override
+		public long[] call() throws IOException {
+			long[] latencies = new long[requests];
+			try (CompileClient client = new CompileClient(port)) {
+				for (int i = 0; i < warmup + requests; i++) {
+					int file = (offset + i) % names.size();
+					long start = System.nanoTime();
+					client.compile(names.get(file), sources.get(file));
+					long latency = System.nanoTime() - start;
+					if (i >= warmup) {
+						latencies[i - warmup] = latency;
+					}
+				}
+			}
+			return latencies;
+		}
+	}
+}
@@ -0,0 +1,305 @@
+import java.io.StringReader;
+
+/**
+ *
+ */
+
+/**
+ * Compiles programs nested a million levels deep, on a thread with a small
+ * stack, to check that no pass of the compiler recurses over the tree. Each
+ * shape of program either compiles, and then the generated code must grow by
+ * exactly one instruction per level, or must fail with an error at a known
+ * place, which checks that the analyzer walked down to the innermost level.
+ * <p>
+ * Shapes whose code is indented once per level, like nested ifs and whiles,
+ * print code quadratic in the depth, so they are checked through an error in
+ * the innermost level instead, which is found before any code is generated.
+ *
+ * @author charl
+ */
+public class DeepNestingCheck {
+	/**
+	 * The stack of the thread compiling, far smaller than the default
+	 */
+	private static final long stackSize = 256 * 1024;
+	/**
+	 * The depth of the tree printed with Tree.toString, which indents each level
+	 * by one more tab than the last
+	 */
+	private static final int printDepth = 5000;
+
+	private static final Shape[] shapes = {
+			new Shape("add, left deep", "main() { int x; x = ", "1 + ", "1", "", "; }", "i32.add"),
+			new Shape("add, right deep", "main() { int x; x = ", "1 + (", "1", ")", "; }", "i32.add"),
+			new Shape("unary minus", "main() { int x; x = ", "-", "1", "", "; }", "i32.sub"),
+			new Shape("and", "main() { boolean b; b = true; b = ", "b && ", "b", "", "; }", "(if"),
+			new Shape("blocks", "main() ", "{ printi(1); ", "", "}", "", "call $Dprinti"),
+			new Shape("call arguments", "int f(int x) { return x; } main() { ", "f(", "true", ")", "; }",
+					"Type mismatch", "true"),
+			new Shape("else if", "main() { boolean b; b = true; ", "if (b) ; else ", "printi(true);", "", " }",
+					"Type mismatch", "true"),
+			new Shape("while", "main() { boolean b; b = true; ", "while (b) ", "{ break; printi(true); }", "", " }",
+					"Type mismatch", "true"),
+			new Shape("return", "int f() { boolean b; b = true; ", "if (b) return 1; else ", ";", "", " } main() { }",
+					"Function does not return", null) };
+
+	/**
+	 * A program made of a prefix, a part repeated once per level, a core, a part
+	 * repeated once per level to close the levels, and a suffix
+	 */
+	private static class Shape {
+		private final String name;
+		private final String prefix;
+		private final String open;
+		private final String core;
+		private final String close;
+		private final String suffix;
+		/**
+		 * For a shape that compiles, the instruction one more of which is generated
+		 * per level
+		 */
+		private final String instruction;
+		/**
+		 * For a shape that fails, the error expected
+		 */
+		private final String error;
+		/**
+		 * The token of the core the error is on, or null if it is on the first token
+		 * of the program
+		 */
+		private final String errorToken;
+
+		private Shape(String name, String prefix, String open, String core, String close, String suffix,
+				String instruction) {
+			this(name, prefix, open, core, close, suffix, instruction, null, null);
+		}
+
+		private Shape(String name, String prefix, String open, String core, String close, String suffix,
+				String error, String errorToken) {
+			this(name, prefix, open, core, close, suffix, null, error, errorToken);
+		}
+
+		private Shape(String name, String prefix, String open, String core, String close, String suffix,
+				String instruction, String error, String errorToken) {
+			this.name = name;
+			this.prefix = prefix;
+			this.open = open;
+			this.core = core;
+			this.close = close;
+			this.suffix = suffix;
+			this.instruction = instruction;
+			this.error = error;
+			this.errorToken = errorToken;
+		}
+
+		/**
+		 * @return the program nested the given number of levels deep
+		 */
+		private String program(int depth) {
+			StringBuffer program = new StringBuffer(
+					prefix.length() + depth * (open.length() + close.length()) + core.length() + suffix.length());
+			program.append(prefix);
+			for (int i = 0; i < depth; i++) {
+				program.append(open);
+			}
+			program.append(core);
+			for (int i = 0; i < depth; i++) {
+				program.append(close);
+			}
+			return program.append(suffix).toString();
+		}
+
+		/**
+		 * @return the start of the first line of the error expected at the given
+		 *         depth
+		 */
+		private String expectedError(int depth) {
+			long column = 1;
+			if (errorToken != null) {
+				column += prefix.length() + (long) depth * open.length() + core.indexOf(errorToken);
+			}
+			return "Error: " + error + " at line 1, column " + column + " ";
+		}
+	}
+
+	/**
+	 * Usage: [-depth N] [-shape name]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If the thread checking was interrupted
+	 */
+	public static void main(String[] args) throws Exception {
+		int depth = 1000000;
+		String only = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-depth")) {
+				depth = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-shape")) {
+				only = args[i + 1];
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		final int checkDepth = depth;
+		final String checkShape = only;
+		final boolean[] passed = new boolean[1];
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				passed[0] = checkAll(checkDepth, checkShape);
+			}
+		}, "deep", stackSize);
+		thread.start();
+		thread.join();
+		System.exit(passed[0] ? 0 : 1);
+	}
+
+	/**
+	 * Checks every shape, or the one named, and the printing of a deep tree and
+	 * the replacing of a deep subtree
+	 *
+	 * @return true if every check passed
+	 */
+	private static boolean checkAll(int depth, String only) {
+		boolean passed = true;
+		int checked = 0;
+		for (Shape shape : shapes) {
+			if (only != null && !shape.name.equals(only)) {
+				continue;
+			}
+			checked++;
+			long start = System.nanoTime();
+			String failure;
+			try {
+				failure = check(shape, depth);
+			} catch (StackOverflowError e) {
+				failure = "ran out of stack";
+			}
+			System.out.printf("%-16s %8d levels %8.1f s  %s%n", shape.name, depth, (System.nanoTime() - start) / 1e9,
+					failure == null ? "ok" : "FAILED, " + failure);
+			passed &= failure == null;
+		}
+		if (only == null) {
+			String failure;
+			try {
+				failure = checkPrint(printDepth);
+			} catch (StackOverflowError e) {
+				failure = "ran out of stack";
+			}
+			System.out.printf("%-16s %8d levels %10s  %s%n", "print", printDepth, "",
+					failure == null ? "ok" : "FAILED, " + failure);
+			passed &= failure == null;
+			failure = checkReplace(depth);
+			System.out.printf("%-16s %8d levels %10s  %s%n", "replace", depth, "",
+					failure == null ? "ok" : "FAILED, " + failure);
+			passed &= failure == null;
+		} else if (checked == 0) {
+			System.out.println("Unknown shape " + only);
+			passed = false;
+		}
+		return passed;
+	}
+
+	/**
+	 * Compiles the shape at the given depth
+	 *
+	 * @return null if it compiled as expected, or what went wrong
+	 */
+	private static String check(Shape shape, int depth) {
+		CompileResult result = Compilation.capture("deep.j--", new StringReader(shape.program(depth)));
+		if (shape.error != null) {
+			if (result.isSuccess()) {
+				return "compiled, expected " + shape.expectedError(depth).trim();
+			}
+			if (!result.getDiagnostics().startsWith(shape.expectedError(depth))) {
+				return "expected " + shape.expectedError(depth).trim() + ", got " + firstLine(result);
+			}
+			return null;
+		}
+		if (!result.isSuccess()) {
+			return firstLine(result);
+		}
+		//Compared with a single level, so the instructions of the prefix don't count
+		CompileResult single = Compilation.capture("deep.j--", new StringReader(shape.program(1)));
+		long extra = count(new String(result.getOutput()), shape.instruction)
+				- count(new String(single.getOutput()), shape.instruction);
+		if (extra != depth - 1) {
+			return (depth - 1) + " more " + shape.instruction + " expected than at 1 level, got " + extra;
+		}
+		return null;
+	}
+
+	/**
+	 * Prints a chain of unary minuses the given number of levels deep
+	 *
+	 * @return null if every level was printed, or what went wrong
+	 */
+	private static String checkPrint(int depth) {
+		TreeNode root = new TreeNode(TreeNodeType.NUM).setAttr("1");
+		for (int i = 0; i < depth; i++) {
+			root = new TreeNode(TreeNodeType.UNARY_SUB).addChild(root);
+		}
+		long levels = count(new Tree(root).toString(), "UNARY_SUB");
+		return levels == depth ? null : depth + " levels expected, printed " + levels;
+	}
+
+	/**
+	 * Replaces a chain of unary minuses the given number of levels deep, the
+	 * first child of an addition, by a number, and then the number by the chain
+	 *
+	 * @return null if the size and height of the addition followed, or what went
+	 *         wrong
+	 */
+	private static String checkReplace(int depth) {
+		TreeNode chain = new TreeNode(TreeNodeType.NUM).setAttr("1");
+		for (int i = 0; i < depth; i++) {
+			chain = new TreeNode(TreeNodeType.UNARY_SUB).addChild(chain);
+		}
+		TreeNode add = new TreeNode(TreeNodeType.ADD).addChild(chain)
+				.addChild(new TreeNode(TreeNodeType.UNARY_SUB).addChild(new TreeNode(TreeNodeType.NUM).setAttr("2")));
+		add.setChild(0, new TreeNode(TreeNodeType.NUM).setAttr("1"));
+		if (add.getSize() != 4 || add.getHeight() != 3) {
+			return "4 nodes of 3 levels expected after replacing the chain, got " + add.getSize() + " of "
+					+ add.getHeight();
+		}
+		add.setChild(0, chain);
+		if (add.getSize() != depth + 4 || add.getHeight() != depth + 2) {
+			return (depth + 4) + " nodes of " + (depth + 2) + " levels expected after putting the chain back, got "
+					+ add.getSize() + " of " + add.getHeight();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of lines of the text that start with the instruction,
+	 *         after their indentation
+	 */
+	private static long count(String text, String instruction) {
+		long count = 0;
+		int start = 0;
+		while (start < text.length()) {
+			int end = text.indexOf('\n', start);
+			if (end < 0) {
+				end = text.length();
+			}
+			int first = start;
+			while (first < end && Character.isWhitespace(text.charAt(first))) {
+				first++;
+			}
+			if (text.startsWith(instruction, first)) {
+				count++;
+			}
+			start = end + 1;
+		}
+		return count;
+	}
+
+	private static String firstLine(CompileResult result) {
+		String diagnostics = result.getDiagnostics();
+		int end = diagnostics.indexOf('\n');
+		return end < 0 ? diagnostics : diagnostics.substring(0, end);
+	}
+}
@@ -0,0 +1,240 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import bench.SyntheticProgram;
+
+/**
+ *
+ */
+
+/**
+ * Compares the streams the compiler used to read sources and write code with
+ * SourceReader and ChannelOutputStream, on a generated source of several
+ * megabytes. Reading, writing and whole compiles are each timed, and on Linux
+ * the read and write system calls of the thread, and the bytes they copied,
+ * are counted from /proc/thread-self/io. A mapped source is not read with read
+ * calls at all, so it copies no bytes through them.
+ *
+ * @author charl
+ */
+public class FileIOBenchmark {
+	private static final File procIO = new File("/proc/thread-self/io");
+	/**
+	 * The size of the buffer the scanner reads into
+	 */
+	private static final int scanBuffer = 16384;
+
+	private final File source;
+	private final File target;
+	private final String wat;
+	/**
+	 * The counters read by counters() itself, taken out of every measurement
+	 */
+	private final long[] overhead;
+
+	/**
+	 * Usage: [-lines N] [-runs N]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If the files could not be written
+	 */
+	public static void main(String[] args) throws Exception {
+		long lines = 200000;
+		int runs = 5;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-lines")) {
+				lines = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-runs")) {
+				runs = Integer.parseInt(args[i + 1]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		final long programLines = lines;
+		final int programRuns = runs;
+		final Exception[] failure = new Exception[1];
+		//Large programs need a deep stack to parse
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new FileIOBenchmark(programLines).run(programRuns);
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		}, "io", 512L * 1024 * 1024);
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Generates the source and compiles it once, for the code to write
+	 *
+	 * @param lines
+	 *            The number of lines of the source
+	 * @throws Exception
+	 *             If the source could not be written or compiled
+	 */
+	private FileIOBenchmark(long lines) throws Exception {
+		source = File.createTempFile("fileio", ".j--");
+		source.deleteOnExit();
+		target = File.createTempFile("fileio", ".wat");
+		target.deleteOnExit();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(source)))) {
+			new SyntheticProgram(new SyntheticProgram.Options(), out).write(lines);
+		}
+		CompileResult result = Compilation.capture(source.getPath(), SourceReader.open(source));
+		if (!result.isSuccess()) {
+			throw new IOException("The generated program did not compile:\n" + result.getDiagnostics());
+		}
+		wat = new String(result.getOutput());
+		long[] before = counters();
+		overhead = minus(counters(), before);
+		System.out.printf("%d lines, %.1f MB of source, %.1f MB of code%n", lines, source.length() / 1048576.0,
+				result.getOutput().length / 1048576.0);
+	}
+
+	/**
+	 * Runs every measurement the given number of times, and prints the median of
+	 * each
+	 */
+	private void run(int runs) throws Exception {
+		System.out.printf("%-26s %10s %10s %12s %10s %12s%n", "", "ms", "reads", "read MB", "writes", "written MB");
+		String[] names = { "read, stream", "read, mapped", "write, stream", "write, channel", "compile, streams",
+				"compile, mapped+channel" };
+		for (int m = 0; m < names.length; m++) {
+			long[] nanos = new long[runs];
+			long[] counts = null;
+			//One more run than measured, to warm up
+			for (int i = -1; i < runs; i++) {
+				long[] before = counters();
+				long start = System.nanoTime();
+				measure(m);
+				long time = System.nanoTime() - start;
+				long[] used = minus(minus(counters(), before), overhead);
+				if (i >= 0) {
+					nanos[i] = time;
+					counts = used;
+				}
+			}
+			Arrays.sort(nanos);
+			System.out.printf("%-26s %10.1f %10s %12s %10s %12s%n", names[m], nanos[runs / 2] / 1e6,
+					count(counts[2]), megabytes(counts[0]), count(counts[3]), megabytes(counts[1]));
+		}
+	}
+
+	/**
+	 * Runs one of the measurements once
+	 */
+	private void measure(int m) throws Exception {
+		switch (m) {
+		case 0:
+			readAll(new InputStreamReader(new FileInputStream(source)));
+			break;
+		case 1:
+			readAll(SourceReader.open(source));
+			break;
+		case 2:
+			writeAll(systemOut(), wat);
+			break;
+		case 3:
+			writeAll(new PrintStream(ChannelOutputStream.create(target)), wat);
+			break;
+		case 4:
+			try (PrintStream out = systemOut()) {
+				new Compilation(source.getPath(), System.err)
+						.compile(new InputStreamReader(new FileInputStream(source)), out);
+			}
+			break;
+		default:
+			try (PrintStream out = new PrintStream(ChannelOutputStream.create(target))) {
+				new Compilation(source.getPath(), System.err).compile(SourceReader.open(source), out);
+			}
+		}
+	}
+
+	/**
+	 * @return a stream to the target file buffered like System.out
+	 */
+	private PrintStream systemOut() throws IOException {
+		return new PrintStream(new BufferedOutputStream(new FileOutputStream(target), 8192));
+	}
+
+	/**
+	 * Reads the whole input in chunks the size of the buffer of the scanner
+	 */
+	private static void readAll(Reader reader) throws IOException {
+		char[] buffer = new char[scanBuffer];
+		while (reader.read(buffer, 0, buffer.length) >= 0) {
+		}
+		reader.close();
+	}
+
+	/**
+	 * Writes the code through the same writers as the code generator
+	 */
+	private static void writeAll(OutputStream out, String code) throws IOException {
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), 65536));
+		writer.write(code);
+		writer.close();
+	}
+
+	/**
+	 * @return the bytes read, the bytes written, the read calls and the write
+	 *         calls of this thread so far, or -1s if they are not known
+	 */
+	private static long[] counters() throws IOException {
+		long[] counts = { -1, -1, -1, -1 };
+		if (!procIO.canRead()) {
+			return counts;
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		Files.copy(Paths.get(procIO.getPath()), content);
+		for (String line : content.toString("US-ASCII").split("\n")) {
+			String[] field = line.split(":\\s*");
+			int index = Arrays.asList("rchar", "wchar", "syscr", "syscw").indexOf(field[0]);
+			if (index >= 0) {
+				counts[index] = Long.parseLong(field[1].trim());
+			}
+		}
+		return counts;
+	}
+
+	private static long[] minus(long[] a, long[] b) {
+		long[] difference = new long[a.length];
+		for (int i = 0; i < a.length; i++) {
+			difference[i] = a[i] < 0 ? -1 : a[i] - b[i];
+		}
+		return difference;
+	}
+
+	private static String count(long n) {
+		return n < 0 ? "?" : Long.toString(n);
+	}
+
+	private static String megabytes(long n) {
+		return n < 0 ? "?" : String.format("%.1f", n / 1048576.0);
+	}
+}
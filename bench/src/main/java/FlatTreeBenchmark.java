@@ -0,0 +1,178 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import bench.SyntheticProgram;
+
+/**
+ *
+ */
+
+/**
+ * Measures the memory the tree of a generated program takes per node, kept as
+ * TreeNodes and kept in a FlatTree, once parsed and once analyzed, when the
+ * signatures and scopes are added. The memory is what the heap holds after a
+ * full collection with the tree, less what it holds before the program is
+ * parsed, so it counts the names and the strings of the tree too. Then times
+ * compiling the whole program both ways, and checks the code is the same.
+ *
+ * @author charl
+ */
+public class FlatTreeBenchmark {
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final byte[] source;
+	/**
+	 * The tree being measured, kept so the collector doesn't free it
+	 */
+	private Object kept;
+
+	/**
+	 * Usage: [-lines N] [-runs N]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If the program could not be compiled
+	 */
+	public static void main(String[] args) throws Exception {
+		long lines = 100000;
+		int runs = 3;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-lines")) {
+				lines = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-runs")) {
+				runs = Integer.parseInt(args[i + 1]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		final long programLines = lines;
+		final int programRuns = runs;
+		final Exception[] failure = new Exception[1];
+		//Large programs need a deep stack to parse
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new FlatTreeBenchmark(programLines).run(programRuns);
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		}, "compile", 512L * 1024 * 1024);
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Generates the program
+	 *
+	 * @param lines
+	 *            The number of lines of the program
+	 */
+	private FlatTreeBenchmark(long lines) throws IOException {
+		StringWriter program = new StringWriter();
+		new SyntheticProgram(new SyntheticProgram.Options(), program).write(lines);
+		source = program.toString().getBytes(StandardCharsets.US_ASCII);
+		System.out.printf("%d lines, %.1f MB of source%n", lines, source.length / 1048576.0);
+	}
+
+	/**
+	 * Measures the memory of each tree, then times the given number of
+	 * compilations each way, and prints the median
+	 */
+	private void run(int runs) throws Exception {
+		System.out.printf("%-24s %10s %10s %12s%n", "", "nodes", "MB", "bytes/node");
+		//The TreeNodes, parsed then analyzed
+		Compilation compilation = new Compilation("synthetic", System.err);
+		long before = retained();
+		Tree tree = new DescentParser(FastScan.open(ByteBuffer.wrap(source), compilation), compilation).parse();
+		kept = tree;
+		int nodes = tree.root.getSize();
+		print("TreeNode, parsed", nodes, retained() - before);
+		new SemanticAnalyzer(tree, compilation).analyze();
+		print("TreeNode, analyzed", nodes, retained() - before);
+		tree = null;
+		kept = null;
+		//The FlatTree, parsed then analyzed
+		compilation = new Compilation("synthetic", System.err);
+		before = retained();
+		FlatTree flatTree = flatten(compilation);
+		kept = flatTree;
+		print("FlatTree, parsed", nodes, retained() - before);
+		flatTree.analyze(compilation);
+		print("FlatTree, analyzed", nodes, retained() - before);
+		flatTree = null;
+		kept = null;
+
+		System.out.printf("%n%-24s %10s%n", "", "ms");
+		byte[] expected = null;
+		for (int m = 0; m < 2; m++) {
+			long[] nanos = new long[runs];
+			for (int i = 0; i < runs; i++) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				long start = System.nanoTime();
+				new Compilation("synthetic", System.err).setFlat(m == 1).compile(ByteBuffer.wrap(source),
+						new PrintStream(out));
+				nanos[i] = System.nanoTime() - start;
+				if (expected == null) {
+					expected = out.toByteArray();
+				} else if (!Arrays.equals(expected, out.toByteArray())) {
+					throw new IllegalStateException("The code compiled from the FlatTree differs");
+				}
+			}
+			Arrays.sort(nanos);
+			System.out.printf("%-24s %10.1f%n", m == 0 ? "compile, TreeNode" : "compile, FlatTree",
+					nanos[runs / 2] / 1e6);
+		}
+	}
+
+	/**
+	 * Parses the program into a FlatTree, a declaration at a time
+	 */
+	private FlatTree flatten(Compilation compilation) throws Exception {
+		final FlatTree flatTree = new FlatTree(compilation.getNames());
+		DescentParser p = new DescentParser(FastScan.open(ByteBuffer.wrap(source), compilation), compilation);
+		p.listener = new DeclarationListener() {
+			@Override
+			public void declaration(TreeNode node) {
+				flatTree.add(node);
+			}
+		};
+		p.parse();
+		flatTree.trim();
+		return flatTree;
+	}
+
+	private static void print(String name, int nodes, long bytes) {
+		System.out.printf("%-24s %10d %10.1f %12.1f%n", name, nodes, bytes / 1048576.0, (double) bytes / nodes);
+	}
+
+	/**
+	 * @return the bytes the heap holds after a full collection
+	 */
+	private long retained() throws InterruptedException {
+		long used = Long.MAX_VALUE;
+		//Until a collection frees nothing more
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			Thread.sleep(20);
+			long now = memory.getHeapMemoryUsage().getUsed();
+			if (now >= used) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+}
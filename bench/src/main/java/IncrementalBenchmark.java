@@ -0,0 +1,209 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Set;
+
+import bench.SyntheticProgram;
+
+/**
+ *
+ */
+
+/**
+ * Measures the time from an edit to the tree of the edited program with
+ * IncrementalParser, on a generated program, against scanning and parsing the
+ * whole program again with the generated parser and with DescentParser. The
+ * edits change a digit, put in a line break, or put an empty statement after
+ * a brace, at random places, so the program stays valid. Every so many edits,
+ * and after the last, the tree is checked against that of the whole edited
+ * program, node by node with the location of each.
+ *
+ * @author charl
+ */
+public class IncrementalBenchmark {
+	private static final String[] kinds = { "change a digit", "insert a line break", "insert a statement" };
+
+	private final Random random;
+	private final IncrementalParser incremental;
+	private Tree tree;
+
+	/**
+	 * Usage: [-lines N] [-edits N] [-check N] [-seed N]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If the program could not be parsed
+	 */
+	public static void main(String[] args) throws Exception {
+		long lines = 100000;
+		int edits = 100;
+		int check = 20;
+		long seed = 1;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-lines")) {
+				lines = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-edits")) {
+				edits = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-check")) {
+				check = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(args[i + 1]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		final long programLines = lines;
+		final int programEdits = edits;
+		final int programCheck = check;
+		final long programSeed = seed;
+		final Exception[] failure = new Exception[1];
+		//Large programs need a deep stack to parse
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new IncrementalBenchmark(programLines, programSeed).run(programEdits, programCheck);
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		}, "parse", 512L * 1024 * 1024);
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Generates and parses the program
+	 *
+	 * @param lines
+	 *            The number of lines of the program
+	 */
+	private IncrementalBenchmark(long lines, long seed) throws Exception {
+		random = new Random(seed);
+		StringWriter program = new StringWriter();
+		new SyntheticProgram(new SyntheticProgram.Options(), program).write(lines);
+		byte[] source = program.toString().getBytes(StandardCharsets.US_ASCII);
+		incremental = new IncrementalParser(new Compilation("synthetic", System.err));
+		tree = incremental.parse(source);
+		System.out.printf("%d lines, %.1f MB of source, %d declarations, %d nodes%n", lines,
+				source.length / 1048576.0, tree.root.getChildren().size(), tree.root.getSize());
+	}
+
+	/**
+	 * Times parsing the whole program again, then the given number of edits of
+	 * each kind, and prints the median and the slowest of each
+	 */
+	private void run(int edits, int check) throws Exception {
+		System.out.printf("%-28s %10s %10s %12s %10s%n", "", "median ms", "max ms", "reparsed", "kept");
+		for (int m = 0; m < 2; m++) {
+			long[] nanos = new long[3];
+			for (int i = 0; i < nanos.length; i++) {
+				long start = System.nanoTime();
+				parseWhole(incremental.getSource(), m == 1, new PrintStream(new ByteArrayOutputStream()));
+				nanos[i] = System.nanoTime() - start;
+			}
+			Arrays.sort(nanos);
+			System.out.printf("%-28s %10.2f %10.2f %12s %10s%n",
+					m == 0 ? "whole program, parser" : "whole program, DescentParser", nanos[1] / 1e6,
+					nanos[2] / 1e6, "all", "none");
+		}
+		for (int k = 0; k < kinds.length; k++) {
+			long[] nanos = new long[edits];
+			long reparsed = 0;
+			long kept = 0;
+			for (int i = 0; i < edits; i++) {
+				Set<TreeNode> before = Collections.newSetFromMap(new IdentityHashMap<TreeNode, Boolean>());
+				before.addAll(tree.root.getChildren());
+				long start = System.nanoTime();
+				edit(k);
+				nanos[i] = System.nanoTime() - start;
+				if (!incremental.parsedInPart()) {
+					throw new IllegalStateException("An edit that keeps the program valid was parsed whole");
+				}
+				reparsed += incremental.getReparsed();
+				for (TreeNode declaration : tree.root.getChildren()) {
+					if (before.contains(declaration)) {
+						kept++;
+					}
+				}
+				if ((i + 1) % check == 0 || (k == kinds.length - 1 && i == edits - 1)) {
+					check();
+				}
+			}
+			Arrays.sort(nanos);
+			System.out.printf("%-28s %10.3f %10.3f %12.1f %10.1f%n", kinds[k], nanos[edits / 2] / 1e6,
+					nanos[edits - 1] / 1e6, (double) reparsed / edits, (double) kept / edits);
+		}
+	}
+
+	/**
+	 * Makes an edit of the given kind at a random place
+	 */
+	private void edit(int kind) throws Exception {
+		byte[] source = incremental.getSource();
+		if (kind == 1) {
+			int offset = random.nextInt(source.length);
+			while (offset > 0 && source[offset - 1] != '\n') {
+				offset--;
+			}
+			tree = incremental.edit(offset, 0, new byte[] { '\n' });
+			return;
+		}
+		byte wanted = kind == 0 ? (byte) '0' : (byte) '{';
+		int offset = random.nextInt(source.length);
+		while (!(kind == 0 ? source[offset] >= '0' && source[offset] <= '9' : source[offset] == wanted)) {
+			offset = (offset + 1) % source.length;
+		}
+		if (kind == 0) {
+			tree = incremental.edit(offset, 1, new byte[] { (byte) ('1' + random.nextInt(9)) });
+		} else {
+			tree = incremental.edit(offset + 1, 0, " ;".getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	/**
+	 * Checks the tree against that of parsing the whole program again
+	 */
+	private void check() throws Exception {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(expected);
+		ParseDifferential.dump(parseWhole(incremental.getSource(), true, out).root, out);
+		out.flush();
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		out = new PrintStream(actual);
+		ParseDifferential.dump(tree.root, out);
+		out.flush();
+		if (!Arrays.equals(expected.toByteArray(), actual.toByteArray())) {
+			throw new IllegalStateException("The tree of an edit differs from that of the whole program");
+		}
+	}
+
+	/**
+	 * Scans and parses the whole program, in a compilation of its own
+	 *
+	 * @param descent
+	 *            true to parse with DescentParser, false with the generated
+	 *            parser
+	 */
+	private static Tree parseWhole(byte[] source, boolean descent, PrintStream err) throws Exception {
+		Compilation compilation = new Compilation("synthetic", err);
+		Scan scanner = TokenBuffer.tokenize(ByteBuffer.wrap(source), compilation).scanner(compilation);
+		if (descent) {
+			return new DescentParser(scanner, compilation).parse();
+		}
+		parser p = new parser(scanner, compilation);
+		p.parse();
+		return p.tree;
+	}
+}
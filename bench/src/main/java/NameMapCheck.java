@@ -0,0 +1,63 @@
+/**
+ *
+ */
+
+/**
+ * Fills a NameMap with far more names than a 16 bit slot can tell apart, and
+ * checks that every name is found at its index, that names not added aren't,
+ * and that the lookups take time linear in the names. A table that spreads
+ * the names over only part of its slots probes further for each name it
+ * holds, so the lookups take time quadratic in the names instead, minutes
+ * for a few hundred thousand.
+ *
+ * @author charl
+ */
+public class NameMapCheck {
+
+	/**
+	 * Usage: [-names N] [-seconds S]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 */
+	public static void main(String[] args) {
+		int count = 320000;
+		double seconds = 10;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-names")) {
+				count = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-seconds")) {
+				seconds = Double.parseDouble(args[i + 1]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		NameTable table = new NameTable();
+		Name[] names = new Name[count * 2];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = table.intern("n" + i);
+		}
+		long start = System.nanoTime();
+		NameMap map = new NameMap();
+		//Every other name, so the ids of the names added aren't all of them
+		for (int i = 0; i < count; i++) {
+			map.add(names[i * 2]);
+		}
+		String failure = null;
+		for (int i = 0; i < names.length && failure == null; i++) {
+			int index = map.get(names[i]);
+			int expected = i % 2 == 0 ? i / 2 : -1;
+			if (index != expected) {
+				failure = "found " + names[i] + " at " + index + " instead of " + expected;
+			}
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		if (failure == null && elapsed > seconds) {
+			failure = "took longer than " + seconds + " s";
+		}
+		System.out.printf("%d names, added and looked up in %.2f s  %s%n", count, elapsed,
+				failure == null ? "ok" : "FAILED, " + failure);
+		System.exit(failure == null ? 0 : 1);
+	}
+}
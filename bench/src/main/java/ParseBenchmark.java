@@ -0,0 +1,158 @@
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import bench.SyntheticProgram;
+
+/**
+ *
+ */
+
+/**
+ * Measures the time to initialize the generated parser and load its tables,
+ * then the throughput of the generated parser, of DescentParser, and of
+ * ParallelParser on the common pool, in tokens per second, and the bytes they
+ * allocate per token on the thread that parses, on a generated program of many
+ * functions. The program is scanned into a TokenBuffer once, and each parse
+ * reads the symbols back from it, so the scanner is left out of the time.
+ * Reading the symbols alone is timed too, which is what every parser spends on
+ * top of parsing.
+ *
+ * @author charl
+ */
+public class ParseBenchmark {
+	private final byte[] bytes;
+	private final TokenBuffer tokens;
+	/**
+	 * Reads the bytes allocated by the thread
+	 */
+	private final CompilerMetrics allocation = new CompilerMetrics(true);
+
+	/**
+	 * Usage: [-lines N] [-runs N]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If the program could not be parsed
+	 */
+	public static void main(String[] args) throws Exception {
+		//Timed first, before anything else loads the parser
+		long start = System.nanoTime();
+		Class.forName("parser");
+		long initialized = System.nanoTime();
+		ParseTables.get();
+		System.out.printf("parser initialized in %.2f ms, its tables loaded in %.2f ms%n", (initialized - start) / 1e6,
+				(System.nanoTime() - initialized) / 1e6);
+		long lines = 200000;
+		int runs = 5;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-lines")) {
+				lines = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-runs")) {
+				runs = Integer.parseInt(args[i + 1]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		final long programLines = lines;
+		final int programRuns = runs;
+		final Exception[] failure = new Exception[1];
+		//Large programs need a deep stack to parse
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new ParseBenchmark(programLines).run(programRuns);
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		}, "parse", 512L * 1024 * 1024);
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Generates and scans the program, and checks both parsers build a tree of
+	 * the same size
+	 *
+	 * @param lines
+	 *            The number of lines of the program
+	 */
+	private ParseBenchmark(long lines) throws Exception {
+		StringWriter program = new StringWriter();
+		new SyntheticProgram(new SyntheticProgram.Options(), program).write(lines);
+		bytes = program.toString().getBytes(StandardCharsets.US_ASCII);
+		tokens = TokenBuffer.tokenize(ByteBuffer.wrap(bytes), new Compilation("synthetic", System.err),
+				Integer.MAX_VALUE);
+		if (parse(1) != parse(2) || parse(1) != parse(3)) {
+			throw new IllegalStateException("The parsers built trees of different sizes");
+		}
+		System.out.printf("%d lines, %.1f MB of source, %d tokens, %d nodes%n", lines, bytes.length / 1048576.0,
+				tokens.size(), parse(1));
+	}
+
+	/**
+	 * Runs every measurement the given number of times, and prints the median of
+	 * each
+	 */
+	private void run(int runs) throws Exception {
+		System.out.printf("%-24s %10s %12s %10s%n", "", "ms", "Mtokens/s", "B/token");
+		String[] names = { "read symbols", "parser", "DescentParser", "ParallelParser" };
+		for (int m = 0; m < names.length; m++) {
+			long[] nanos = new long[runs];
+			long allocated = 0;
+			//One more run than measured, to warm up
+			for (int i = -1; i < runs; i++) {
+				long startAllocated = allocation.allocated();
+				long start = System.nanoTime();
+				parse(m);
+				long time = System.nanoTime() - start;
+				if (i >= 0) {
+					nanos[i] = time;
+					allocated = allocation.allocated() - startAllocated;
+				}
+			}
+			Arrays.sort(nanos);
+			long median = nanos[runs / 2];
+			System.out.printf("%-24s %10.1f %12.2f %10.1f%n", names[m], median / 1e6,
+					tokens.size() / 1e6 / (median / 1e9), (double) allocated / tokens.size());
+		}
+	}
+
+	/**
+	 * Parses the program once
+	 *
+	 * @param m
+	 *            0 to only read the symbols, 1 to parse with the generated
+	 *            parser, 2 with DescentParser, 3 with ParallelParser
+	 * @return the number of nodes of the tree, or of symbols read
+	 */
+	private int parse(int m) throws Exception {
+		Compilation compilation = new Compilation("synthetic", System.err);
+		Scan scanner = tokens.scanner(compilation);
+		Tree tree;
+		if (m == 0) {
+			int count = 1;
+			while (scanner.next_token().sym != sym.EOF) {
+				count++;
+			}
+			return count;
+		} else if (m == 1) {
+			parser p = new parser(scanner, compilation);
+			p.parse();
+			tree = p.tree;
+		} else if (m == 2) {
+			tree = new DescentParser(scanner, compilation).parse();
+		} else {
+			tree = new ParallelParser(tokens, compilation).parse();
+		}
+		return tree.root.getSize();
+	}
+}
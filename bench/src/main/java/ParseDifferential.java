@@ -0,0 +1,349 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import java_cup.runtime.ComplexSymbolFactory.Location;
+
+import bench.SyntheticProgram;
+
+/**
+ *
+ */
+
+/**
+ * Parses sources with the generated parser, with DescentParser, and with
+ * ParallelParser on a pool of four threads, and compares the trees they build,
+ * node by node with the location of each, and the syntax errors they print.
+ * ParallelParser only reads the plain ASCII sources, through a TokenBuffer.
+ * The tree of the generated parser is also kept in a FlatTree, a declaration
+ * at a time, and made into TreeNodes again.
+ * Each copy of a valid test program is also made from it by a single edit
+ * given to IncrementalParser. The sources are the test programs under src,
+ * starting with ms2, which is about the parser, a generated program, programs
+ * nested deeper than DescentParser follows, and copies of the test programs
+ * with random tokens deleted, doubled or inserted, which DescentParser hands
+ * to the generated parser.
+ *
+ * @author charl
+ */
+public class ParseDifferential {
+	/**
+	 * The directories of test programs, relative to src
+	 */
+	private static final String[] corpora = { "ms2", "ms1", "ms3/Pass", "ms3/Fail", "final" };
+	/**
+	 * The tokens inserted into the test programs
+	 */
+	private static final String[] pieces = { "(", ")", "{", "}", ";", ",", "=", "==", "+", "-", "!", "&&", "if",
+			"else", "while", "return", "break", "int", "void", "x", "main", "1", "\"s\"" };
+
+	/**
+	 * The pool ParallelParser runs on, with more than one thread however many
+	 * processors there are
+	 */
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+	private int sources = 0;
+	private int handedOver = 0;
+	private int inParallel = 0;
+	private int inPart = 0;
+	private int differed = 0;
+
+	/**
+	 * Usage: [-src directory] [-mutations N] [-seed N]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If a source could not be read
+	 */
+	public static void main(String[] args) throws Exception {
+		File src = new File("src");
+		int mutations = 20;
+		long seed = 1;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-src")) {
+				src = new File(args[i + 1]);
+			} else if (args[i].equals("-mutations")) {
+				mutations = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(args[i + 1]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		ParseDifferential differential = new ParseDifferential();
+		Random generator = new Random(seed);
+		for (String corpus : corpora) {
+			File[] files = new File(src, corpus).listFiles();
+			if (files == null) {
+				System.err.println("Missing test directory " + new File(src, corpus));
+				System.exit(1);
+			}
+			Arrays.sort(files);
+			for (File file : files) {
+				if (!file.isFile() || file.getName().endsWith(".png")) {
+					continue;
+				}
+				String name = corpus + "/" + file.getName();
+				byte[] source = Files.readAllBytes(file.toPath());
+				differential.compare(name, source);
+				for (int i = 0; i < mutations; i++) {
+					byte[] mutated = mutate(source, generator);
+					differential.compare(name + " mutation " + i, mutated);
+					differential.compareEdit(name + " mutation " + i, source, mutated);
+				}
+			}
+		}
+		StringWriter program = new StringWriter();
+		new SyntheticProgram(new SyntheticProgram.Options(), program).write(20000);
+		differential.compare("synthetic", program.toString().getBytes(StandardCharsets.US_ASCII));
+		differential.compare("nested parentheses", nested("main() { return ", "(", "1", ")", "; }", 1000));
+		differential.compare("nested blocks", nested("main() ", "{", "", "}", "", 1000));
+		differential.compare("nested ifs", nested("main() { ", "if (true) ", ";", "", " }", 1000));
+		differential.compare("nested minus", nested("main() { x = ", "-", "1", "", "; }", 1000));
+		System.out.println(differential.sources + " sources, " + differential.handedOver
+				+ " handed over to the generated parser, " + differential.inParallel + " parsed in parallel, "
+				+ differential.inPart + " edits parsed in part, " + differential.differed + " differed");
+		System.exit(differential.differed == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Parses the source with every parser, and reports the first difference
+	 * from the generated parser
+	 */
+	private void compare(String name, byte[] source) {
+		sources++;
+		String expected = parse(name, source, 0);
+		compare(name, expected, parse(name, source, 1), "DescentParser:");
+		String parallel = parse(name, source, 2);
+		if (parallel != null) {
+			compare(name, expected, parallel, "ParallelParser:");
+		}
+		compare(name, expected, parse(name, source, 3), "FlatTree:");
+	}
+
+	/**
+	 * Parses the edited source with the generated parser, and with
+	 * IncrementalParser as an edit of the original, if the original is a valid
+	 * program of plain ASCII, and reports the first difference
+	 */
+	private void compareEdit(String name, byte[] original, byte[] edited) {
+		ByteArrayOutputStream transcript = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(transcript);
+		IncrementalParser p = new IncrementalParser(new Compilation(name, out));
+		try {
+			p.parse(original);
+		} catch (Exception e) {
+			return;
+		}
+		out.flush();
+		if (transcript.size() > 0 || !FastScan.canScan(ByteBuffer.wrap(original))) {
+			return;
+		}
+		try {
+			int prefix = 0;
+			while (prefix < original.length && prefix < edited.length && original[prefix] == edited[prefix]) {
+				prefix++;
+			}
+			int suffix = 0;
+			while (suffix < original.length - prefix && suffix < edited.length - prefix
+					&& original[original.length - 1 - suffix] == edited[edited.length - 1 - suffix]) {
+				suffix++;
+			}
+			Tree tree = p.edit(prefix, original.length - prefix - suffix,
+					Arrays.copyOfRange(edited, prefix, edited.length - suffix));
+			if (p.parsedInPart()) {
+				inPart++;
+			}
+			out.println(tree == null ? "no tree" : "tree");
+			if (tree != null) {
+				dump(tree.root, out);
+			}
+		} catch (CompilerExitException e) {
+			out.println("stopped: " + e.getMessage());
+		} catch (Exception | Error e) {
+			out.println("failed: " + e);
+		}
+		out.flush();
+		compare(name, parse(name, edited, 0), transcript.toString(), "IncrementalParser:");
+	}
+
+	/**
+	 * Reports the first difference between the transcripts of the generated
+	 * parser and another
+	 */
+	private void compare(String name, String expected, String actual, String parser) {
+		if (expected.equals(actual)) {
+			return;
+		}
+		differed++;
+		String[] expectedLines = expected.split("\n", -1);
+		String[] actualLines = actual.split("\n", -1);
+		int line = 0;
+		while (line < expectedLines.length && line < actualLines.length
+				&& expectedLines[line].equals(actualLines[line])) {
+			line++;
+		}
+		System.out.println("DIFFERS " + name + " at node or error " + (line + 1));
+		System.out.printf("  %-18s %s%n", "parser:", line < expectedLines.length ? expectedLines[line] : "(nothing)");
+		System.out.printf("  %-18s %s%n", parser, line < actualLines.length ? actualLines[line] : "(nothing)");
+	}
+
+	/**
+	 * Parses the whole source
+	 *
+	 * @param m
+	 *            0 to parse with the generated parser, 1 with DescentParser, 2
+	 *            with ParallelParser, 3 with the generated parser into a
+	 *            FlatTree
+	 * @return the warnings and errors, then the nodes of the tree, one per line,
+	 *         or null if the source isn't plain ASCII and m is 2
+	 */
+	private String parse(String name, byte[] source, int m) {
+		ByteArrayOutputStream transcript = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(transcript);
+		Compilation compilation = new Compilation(name, out);
+		Scan scanner = new Scan(new InputStreamReader(new ByteArrayInputStream(source)), compilation);
+		try {
+			Tree tree;
+			if (m == 2) {
+				TokenBuffer tokens = TokenBuffer.tokenize(ByteBuffer.wrap(source), compilation, Integer.MAX_VALUE);
+				if (tokens == null) {
+					return null;
+				}
+				ParallelParser p = new ParallelParser(tokens, compilation);
+				tree = p.parse(pool);
+				if (p.parsedInParallel()) {
+					inParallel++;
+				}
+			} else if (m == 1) {
+				DescentParser p = new DescentParser(scanner, compilation);
+				tree = p.parse();
+				if (p.handedOver()) {
+					handedOver++;
+				}
+			} else if (m == 3) {
+				final FlatTree flatTree = new FlatTree(compilation.getNames());
+				parser p = new parser(scanner, compilation);
+				p.listener = new DeclarationListener() {
+					@Override
+					public void declaration(TreeNode node) {
+						flatTree.add(node);
+					}
+				};
+				p.parse();
+				tree = p.tree == null ? null : flatTree.inflate();
+			} else {
+				parser p = new parser(scanner, compilation);
+				p.parse();
+				tree = p.tree;
+			}
+			out.println(tree == null ? "no tree" : "tree");
+			if (tree != null) {
+				dump(tree.root, out);
+			}
+		} catch (CompilerExitException e) {
+			out.println("stopped: " + e.getMessage());
+		} catch (Exception | Error e) {
+			out.println("failed: " + e);
+		}
+		out.flush();
+		return transcript.toString();
+	}
+
+	/**
+	 * Prints every node of the tree, depth first, with its depth, type,
+	 * attribute, location, size and height
+	 */
+	static void dump(TreeNode root, PrintStream out) {
+		Deque<TreeNode> nodes = new ArrayDeque<TreeNode>();
+		Deque<Integer> depths = new ArrayDeque<Integer>();
+		nodes.push(root);
+		depths.push(0);
+		while (!nodes.isEmpty()) {
+			TreeNode node = nodes.pop();
+			int depth = depths.pop();
+			Location loc = node.getLoc();
+			out.println(depth + " " + node.getType() + " [" + node.getAttr() + "] "
+					+ (loc == null ? "no location"
+							: loc.getUnit() + ":" + loc.getLine() + ":" + loc.getColumn() + ":" + loc.getOffset())
+					+ " size " + node.getSize() + " height " + node.getHeight() + " children "
+					+ node.getChildren().size());
+			for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+				TreeNode child = node.getChild(i);
+				if (child == null) {
+					out.println(depth + 1 + " null");
+				} else {
+					nodes.push(child);
+					depths.push(depth + 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the source with up to three tokens deleted, doubled or
+	 *         inserted. The source is cut at spaces and punctuation, which is
+	 *         close enough to its tokens
+	 */
+	private static byte[] mutate(byte[] source, Random generator) {
+		String[] tokens = new String(source, StandardCharsets.ISO_8859_1).split("(?<=[ \\t\\n(){};,])|(?=[(){};,])");
+		StringBuffer mutated = new StringBuffer();
+		int changes = 1 + generator.nextInt(3);
+		int[] positions = new int[changes];
+		for (int i = 0; i < changes; i++) {
+			positions[i] = generator.nextInt(tokens.length);
+		}
+		for (int t = 0; t < tokens.length; t++) {
+			boolean changed = false;
+			for (int position : positions) {
+				if (position == t && !changed) {
+					changed = true;
+					switch (generator.nextInt(3)) {
+					case 0:
+						break;
+					case 1:
+						mutated.append(tokens[t]).append(tokens[t]);
+						break;
+					default:
+						mutated.append(tokens[t]).append(' ').append(pieces[generator.nextInt(pieces.length)])
+								.append(' ');
+					}
+				}
+			}
+			if (!changed) {
+				mutated.append(tokens[t]);
+			}
+		}
+		return mutated.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return a program of the given prefix, then the opening piece the given
+	 *         number of times, the innermost piece, the closing piece as many
+	 *         times, and the suffix
+	 */
+	private static byte[] nested(String prefix, String open, String inner, String close, String suffix, int depth) {
+		StringBuffer program = new StringBuffer(prefix);
+		for (int i = 0; i < depth; i++) {
+			program.append(open);
+		}
+		program.append(inner);
+		for (int i = 0; i < depth; i++) {
+			program.append(close);
+		}
+		return program.append(suffix).toString().getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,473 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+
+/**
+ *
+ */
+
+/**
+ * Compiles every test program under src in parallel and compares the results
+ * with a stored baseline: whether the compile succeeded, the size and hash of
+ * the generated code, the warnings and errors printed, and the compile time.
+ * Needs nothing but the compiler, so it runs offline.
+ * <p>
+ * The baseline is baseline.tsv in the baseline directory, and the expected
+ * warnings and errors of case x are in expected/x.err there (no file means
+ * none are expected). Stack trace lines are ignored when comparing, since they
+ * change with every edit of the compiler. A compile that got slower by more
+ * than the tolerance is reported, and only fails the run with -strict, since
+ * timings depend on the machine.
+ * <p>
+ * With -stream, the cases are compiled in the streaming mode of the compiler
+ * instead, and compared with the same baseline, since both modes must print
+ * the same code and the same warnings and errors. With -tokens, they are
+ * scanned into a TokenBuffer before they are parsed, which must not change
+ * anything either.
+ * <p>
+ * Besides the test programs, the cases under generated/ are made by the
+ * harness, programs too large to keep in the repository: wide-signature
+ * declares a function of 40,000 parameters and calls it, so a compiler that
+ * takes time or memory quadratic in the parameters of a function gets slower
+ * or runs out of memory.
+ *
+ * @author charl
+ */
+public class RegressionHarness {
+	/**
+	 * The directories of test programs, relative to src
+	 */
+	private static final String[] corpora = { "ms1", "ms2", "ms3/Pass", "ms3/Fail", "final" };
+	/**
+	 * The cases made by the harness
+	 */
+	private static final String wideSignature = "generated/wide-signature.t1";
+	private static final int wideParameters = 40000;
+	/**
+	 * Slowdowns smaller than this, in microseconds, are noise
+	 */
+	private static final long minimumSlowdownMicros = 1000;
+	/**
+	 * A line starting a stack trace, with the exception's message
+	 */
+	private static final Pattern exception = Pattern.compile("([a-z_$][\\w$]*\\.)+[\\w$]*(Exception|Error): .*");
+
+	private final File src;
+	private final File baselineDirectory;
+	private final int repeat;
+	private final double tolerance;
+	private final boolean streaming;
+	private final boolean tokens;
+
+	/**
+	 * @param src
+	 *            The directory holding the test program directories
+	 * @param baselineDirectory
+	 *            The directory holding baseline.tsv and expected/
+	 * @param repeat
+	 *            How many times each case is compiled, the fastest time is kept
+	 * @param tolerance
+	 *            How much slower than the baseline a case may get, as a fraction
+	 * @param streaming
+	 *            true to compile the cases in the streaming mode
+	 * @param tokens
+	 *            true to scan the cases into a TokenBuffer before parsing them
+	 */
+	public RegressionHarness(File src, File baselineDirectory, int repeat, double tolerance, boolean streaming,
+			boolean tokens) {
+		this.src = src;
+		this.baselineDirectory = baselineDirectory;
+		this.repeat = repeat;
+		this.tolerance = tolerance;
+		this.streaming = streaming;
+		this.tokens = tokens;
+	}
+
+	/**
+	 * Usage: [-src dir] [-baseline dir] [-j threads] [-repeat N] [-tolerance
+	 * fraction] [-strict] [-stream|-tokens] [-update]. With -update, the baseline is
+	 * replaced by the current results instead of being compared with them
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If the test programs or the baseline could not be read
+	 */
+	public static void main(String[] args) throws Exception {
+		File src = new File("src");
+		File baselineDirectory = new File("bench/regression");
+		int threads = Runtime.getRuntime().availableProcessors();
+		int repeat = 3;
+		double tolerance = 0.5;
+		boolean strict = false;
+		boolean update = false;
+		boolean streaming = false;
+		boolean tokens = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-src") && i + 1 < args.length) {
+				src = new File(args[++i]);
+			} else if (args[i].equals("-baseline") && i + 1 < args.length) {
+				baselineDirectory = new File(args[++i]);
+			} else if (args[i].equals("-j") && i + 1 < args.length) {
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-repeat") && i + 1 < args.length) {
+				repeat = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-tolerance") && i + 1 < args.length) {
+				tolerance = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-strict")) {
+				strict = true;
+			} else if (args[i].equals("-stream")) {
+				streaming = true;
+			} else if (args[i].equals("-tokens")) {
+				tokens = true;
+			} else if (args[i].equals("-update")) {
+				update = true;
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		RegressionHarness harness = new RegressionHarness(src, baselineDirectory, repeat, tolerance, streaming,
+				tokens);
+		List<Result> results = harness.runAll(threads);
+		if (update) {
+			harness.writeBaseline(results);
+			System.out.println("Wrote the baseline of " + results.size() + " cases to " + baselineDirectory);
+		} else {
+			System.exit(harness.compare(results, strict) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * @return the paths of the test programs, relative to src
+	 */
+	List<String> findCases() {
+		List<String> cases = new ArrayList<String>();
+		for (String corpus : corpora) {
+			List<String> inputs = new ArrayList<String>();
+			inputs.add(new File(src, corpus).getPath());
+			for (File file : BatchCompiler.collectFiles(inputs)) {
+				cases.add(corpus + "/" + file.getName());
+			}
+		}
+		cases.add(wideSignature);
+		return cases;
+	}
+
+	/**
+	 * Compiles every case twice, on threads with a large stack since the compiler
+	 * recurses over the tree, and keeps the second results
+	 *
+	 * @param threads
+	 *            The number of cases compiled at the same time
+	 * @return the results, in the order of the cases
+	 * @throws Exception
+	 *             If a test program could not be read
+	 */
+	List<Result> runAll(int threads) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(null, r, "regression", 256L * 1024 * 1024);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Result> results = new ArrayList<Result>();
+		try {
+			//The first round only lets the JIT compile the compiler, so the times of the second are comparable
+			for (int round = 0; round < 2; round++) {
+				List<Future<Result>> futures = new ArrayList<Future<Result>>();
+				for (final String name : findCases()) {
+					futures.add(pool.submit(new Callable<Result>() {
+						@Override
+						public Result call() throws IOException {
+							return run(name);
+						}
+					}));
+				}
+				results.clear();
+				for (Future<Result> future : futures) {
+					results.add(future.get());
+				}
+			}
+		} catch (ExecutionException e) {
+			throw (Exception) e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+
+	/**
+	 * Compiles a case repeat times, keeping the fastest time
+	 *
+	 * @param name
+	 *            The path of the test program, relative to src
+	 * @return the result
+	 * @throws IOException
+	 *             If the test program could not be read
+	 */
+	Result run(String name) throws IOException {
+		File file = new File(src, name);
+		byte[] source = null;
+		if (name.equals(wideSignature)) {
+			source = wideSignature();
+			if (streaming) {
+				//The streaming mode reads a file
+				file = File.createTempFile("wide-signature", ".t1");
+				file.deleteOnExit();
+				Files.write(file.toPath(), source);
+			}
+		} else if (!streaming) {
+			source = Files.readAllBytes(file.toPath());
+		}
+		Result result = new Result();
+		result.name = name;
+		result.micros = Long.MAX_VALUE;
+		for (int i = 0; i < repeat; i++) {
+			long start = System.nanoTime();
+			CompileResult compiled;
+			if (streaming) {
+				compiled = Compilation.captureStreaming(name, file, new CompilerMetrics(false));
+			} else if (tokens) {
+				compiled = Compilation.captureTokens(name, ByteBuffer.wrap(source), new CompilerMetrics(false),
+						new CompileLimits());
+			} else {
+				compiled = Compilation.capture(name, new InputStreamReader(new ByteArrayInputStream(source)));
+			}
+			result.micros = Math.min(result.micros, (System.nanoTime() - start) / 1000);
+			result.success = compiled.isSuccess();
+			result.outputBytes = compiled.getOutput().length;
+			result.outputHash = sha256(compiled.getOutput());
+			result.diagnostics = compiled.getDiagnostics();
+		}
+		return result;
+	}
+
+	/**
+	 * @return a program that declares a function of wideParameters parameters,
+	 *         mostly ints with every third a boolean, and calls it
+	 */
+	private static byte[] wideSignature() {
+		StringBuffer parameters = new StringBuffer();
+		StringBuffer arguments = new StringBuffer();
+		for (int i = 0; i < wideParameters; i++) {
+			if (i > 0) {
+				parameters.append(", ");
+				arguments.append(", ");
+			}
+			boolean flag = i % 3 == 1;
+			parameters.append(flag ? "boolean p" : "int p").append(i);
+			arguments.append(flag ? "true" : Integer.toString(i));
+		}
+		return ("int wide(" + parameters + ") {\n\treturn p0;\n}\n\nmain() {\n\tprinti(wide(" + arguments
+				+ "));\n}\n").getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Compares the results with the baseline, printing a line for every case and
+	 * a summary
+	 *
+	 * @param results
+	 *            The results of the cases
+	 * @param strict
+	 *            true to also fail on slowdowns
+	 * @return true if nothing regressed
+	 * @throws IOException
+	 *             If the baseline could not be read
+	 */
+	boolean compare(List<Result> results, boolean strict) throws IOException {
+		Map<String, Result> baseline = readBaseline();
+		int failed = 0;
+		int slower = 0;
+		System.out.printf("%-8s %-45s %10s %10s %8s%n", "status", "case", "base us", "us", "bytes");
+		for (Result result : results) {
+			Result expected = baseline.remove(result.name);
+			List<String> problems = new ArrayList<String>();
+			String status = "ok";
+			if (expected == null) {
+				problems.add("not in the baseline, run with -update to add it");
+			} else {
+				if (expected.success != result.success) {
+					problems.add(result.success ? "now compiles" : "no longer compiles");
+				}
+				if (!expected.outputHash.equals(result.outputHash)) {
+					problems.add("generated code changed (" + expected.outputBytes + " -> " + result.outputBytes
+							+ " bytes)");
+				}
+				String expectedDiagnostics = readExpectedDiagnostics(result.name);
+				if (!withoutStackTraces(expectedDiagnostics).equals(withoutStackTraces(result.diagnostics))) {
+					problems.add("diagnostics changed, expected:\n" + expectedDiagnostics + "got:\n"
+							+ result.diagnostics);
+				}
+			}
+			if (!problems.isEmpty()) {
+				status = "FAIL";
+				failed++;
+			} else if (result.micros > expected.micros * (1 + tolerance)
+					&& result.micros - expected.micros > minimumSlowdownMicros) {
+				status = "SLOWER";
+				slower++;
+			}
+			System.out.printf("%-8s %-45s %10s %10d %8d%n", status, result.name,
+					expected == null ? "-" : Long.toString(expected.micros), result.micros, result.outputBytes);
+			for (String problem : problems) {
+				System.out.println("         " + problem);
+			}
+		}
+		for (String missing : baseline.keySet()) {
+			System.out.printf("%-8s %s%n", "MISSING", missing);
+			failed++;
+		}
+		System.out.println(results.size() + " cases, " + failed + " failed, " + slower + " slower than "
+				+ (int) (tolerance * 100) + "% over the baseline");
+		return failed == 0 && (!strict || slower == 0);
+	}
+
+	/**
+	 * Replaces the baseline with the results
+	 *
+	 * @param results
+	 *            The results of the cases
+	 * @throws IOException
+	 *             If the baseline could not be written
+	 */
+	void writeBaseline(List<Result> results) throws IOException {
+		File expectedDirectory = new File(baselineDirectory, "expected");
+		deleteRecursively(expectedDirectory);
+		StringBuffer tsv = new StringBuffer("# case\tsuccess\toutput bytes\toutput sha-256\tcompile us\n");
+		for (Result result : results) {
+			tsv.append(result.name + "\t" + result.success + "\t" + result.outputBytes + "\t" + result.outputHash
+					+ "\t" + result.micros + "\n");
+			if (!result.diagnostics.isEmpty()) {
+				File file = new File(expectedDirectory, result.name + ".err");
+				file.getParentFile().mkdirs();
+				try (FileOutputStream out = new FileOutputStream(file)) {
+					out.write(result.diagnostics.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+		baselineDirectory.mkdirs();
+		try (PrintStream out = new PrintStream(new File(baselineDirectory, "baseline.tsv"), "UTF-8")) {
+			out.print(tsv);
+		}
+	}
+
+	/**
+	 * @return the results in the baseline, by case
+	 * @throws IOException
+	 *             If the baseline could not be read
+	 */
+	private Map<String, Result> readBaseline() throws IOException {
+		Map<String, Result> baseline = new LinkedHashMap<String, Result>();
+		for (String line : Files.readAllLines(new File(baselineDirectory, "baseline.tsv").toPath(),
+				StandardCharsets.UTF_8)) {
+			if (line.startsWith("#") || line.isEmpty()) {
+				continue;
+			}
+			String[] fields = line.split("\t");
+			Result result = new Result();
+			result.name = fields[0];
+			result.success = Boolean.parseBoolean(fields[1]);
+			result.outputBytes = Integer.parseInt(fields[2]);
+			result.outputHash = fields[3];
+			result.micros = Long.parseLong(fields[4]);
+			baseline.put(result.name, result);
+		}
+		return baseline;
+	}
+
+	/**
+	 * @param name
+	 *            The path of the test program, relative to src
+	 * @return the expected warnings and errors of the case
+	 * @throws IOException
+	 *             If the file could not be read
+	 */
+	private String readExpectedDiagnostics(String name) throws IOException {
+		File file = new File(new File(baselineDirectory, "expected"), name + ".err");
+		if (!file.exists()) {
+			return "";
+		}
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param diagnostics
+	 *            Warnings and errors
+	 * @return the diagnostics without the lines of stack traces, and with only
+	 *         the class of an exception, whose message changes with the JDK
+	 */
+	private static String withoutStackTraces(String diagnostics) {
+		StringBuffer s = new StringBuffer();
+		for (String line : diagnostics.split("\r?\n")) {
+			if (exception.matcher(line).matches()) {
+				s.append(line, 0, line.indexOf(':')).append('\n');
+			} else if (!line.startsWith("\tat ") && !line.startsWith("\t... ")) {
+				s.append(line).append('\n');
+			}
+		}
+		return s.toString();
+	}
+
+	/**
+	 * @param bytes
+	 *            The bytes to hash
+	 * @return the SHA-256 of the bytes, as hexadecimal
+	 */
+	private static String sha256(byte[] bytes) {
+		try {
+			StringBuffer hex = new StringBuffer();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			//Every Java platform is required to have SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * The outcome of compiling one case
+	 */
+	static class Result {
+		String name;
+		boolean success;
+		int outputBytes;
+		String outputHash;
+		String diagnostics;
+		long micros;
+	}
+}
@@ -0,0 +1,249 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import bench.SyntheticProgram;
+
+/**
+ *
+ */
+
+/**
+ * Measures how the compile time and memory of each phase grow with the size of
+ * the program, on generated programs from 1 thousand to 10 million lines. Prints
+ * one CSV row per size, then warns about every phase whose time per line grows
+ * by more than half between two sizes, since that phase is slower than linear.
+ * <p>
+ * The larger sizes need a large heap and stack, for example java -Xmx16g
+ * -Xss64m. A size that runs out of either is reported and ends the run.
+ *
+ * @author charl
+ */
+public class ScalingBenchmark {
+	/**
+	 * How much the time per line of a phase can grow between two sizes before it
+	 * is reported
+	 */
+	private static final double superlinearRatio = 1.5;
+	/**
+	 * Phases faster than this, in nanoseconds, are too noisy to compare
+	 */
+	private static final long minimumNanos = 5000000;
+
+	/**
+	 * Usage: [-sizes lines,lines,...] [-csv file] [-nesting N] [-expression N]
+	 * [-globals N] [-strings N] [-calls N] [-seed N]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws IOException
+	 *             If the programs could not be written
+	 */
+	public static void main(String[] args) throws IOException {
+		long[] sizes = { 1000, 10000, 100000, 1000000, 10000000 };
+		String csvFile = null;
+		SyntheticProgram.Options options = new SyntheticProgram.Options();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "-sizes":
+				String[] list = value.split(",");
+				sizes = new long[list.length];
+				for (int j = 0; j < list.length; j++) {
+					sizes[j] = Long.parseLong(list[j].trim());
+				}
+				break;
+			case "-csv":
+				csvFile = value;
+				break;
+			case "-nesting":
+				options.nestingDepth = Integer.parseInt(value);
+				break;
+			case "-expression":
+				options.expressionDepth = Integer.parseInt(value);
+				break;
+			case "-globals":
+				options.globals = Integer.parseInt(value);
+				break;
+			case "-strings":
+				options.strings = Integer.parseInt(value);
+				break;
+			case "-calls":
+				options.calls = Integer.parseInt(value);
+				break;
+			case "-seed":
+				options.seed = Long.parseLong(value);
+				break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		PrintStream csv = csvFile == null ? System.out : new PrintStream(new FileOutputStream(csvFile), true);
+		StringBuffer header = new StringBuffer("lines,bytes");
+		for (String phase : CompilerMetrics.PHASES) {
+			header.append("," + phase + "_ms");
+		}
+		header.append(",total_ms,allocated_mb,peak_heap_mb,us_per_line");
+		csv.println(header);
+
+		//Let the JIT compile the compiler before anything is measured
+		Row warmup = measure(10000, options);
+		if (warmup.metrics == null) {
+			System.err.println("The warm up program did not compile: " + warmup.failure);
+			System.exit(1);
+		}
+		List<Row> rows = new ArrayList<Row>();
+		for (long size : sizes) {
+			Row row = measure(size, options);
+			if (row.metrics == null) {
+				System.err.println(size + " lines: " + row.failure);
+				break;
+			}
+			rows.add(row);
+			csv.println(row.toCSV());
+		}
+		reportSuperlinear(rows);
+		if (csv != System.out) {
+			csv.close();
+		}
+	}
+
+	/**
+	 * Generates a program of the given size, then compiles it with the metrics
+	 * enabled, throwing away the generated code
+	 *
+	 * @param size
+	 *            The number of lines of the program
+	 * @param options
+	 *            The knobs of the generator
+	 * @return the measurements
+	 * @throws IOException
+	 *             If the program could not be written
+	 */
+	private static Row measure(long size, SyntheticProgram.Options options) throws IOException {
+		File file = File.createTempFile("scaling", ".j--");
+		Row row = new Row();
+		try {
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+				row.lines = new SyntheticProgram(options, out).write(size);
+			}
+			row.bytes = file.length();
+
+			List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					heapPools.add(pool);
+				}
+			}
+			System.gc();
+			for (MemoryPoolMXBean pool : heapPools) {
+				pool.resetPeakUsage();
+			}
+
+			CompilerMetrics metrics = new CompilerMetrics(true);
+			PrintStream discard = new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+				}
+			});
+			long start = System.nanoTime();
+			try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+				new Compilation(file.getPath(), System.err, metrics).compile(reader, discard);
+				row.totalNanos = System.nanoTime() - start;
+				row.metrics = metrics;
+			} catch (CompilerExitException e) {
+				row.failure = "did not compile: " + e.getMessage();
+			} catch (OutOfMemoryError e) {
+				row.failure = "ran out of heap, use a larger -Xmx";
+			} catch (StackOverflowError e) {
+				row.failure = "ran out of stack, use a larger -Xss";
+			} catch (Exception e) {
+				row.failure = "failed: " + e;
+			}
+			for (MemoryPoolMXBean pool : heapPools) {
+				row.peakHeapBytes += pool.getPeakUsage().getUsed();
+			}
+		} finally {
+			file.delete();
+		}
+		return row;
+	}
+
+	/**
+	 * Prints a warning for every phase whose time per line grows by more than
+	 * superlinearRatio from one size to the next
+	 *
+	 * @param rows
+	 *            The measurements, from the smallest size to the largest
+	 */
+	private static void reportSuperlinear(List<Row> rows) {
+		boolean found = false;
+		for (int i = 1; i < rows.size(); i++) {
+			Row before = rows.get(i - 1);
+			Row after = rows.get(i);
+			for (int phase = 0; phase < CompilerMetrics.PHASES.length; phase++) {
+				long beforeNanos = before.metrics.getWallNanos(phase);
+				long afterNanos = after.metrics.getWallNanos(phase);
+				if (beforeNanos < minimumNanos || afterNanos < minimumNanos) {
+					continue;
+				}
+				double ratio = ((double) afterNanos / after.lines) / ((double) beforeNanos / before.lines);
+				if (ratio > superlinearRatio) {
+					System.err.printf("Superlinear: %s takes %.2fx the time per line at %d lines as at %d lines%n",
+							CompilerMetrics.PHASES[phase], ratio, after.lines, before.lines);
+					found = true;
+				}
+			}
+		}
+		if (!found) {
+			System.err.println("No phase grew faster than linearly");
+		}
+	}
+
+	/**
+	 * The measurements of one size
+	 */
+	private static class Row {
+		long lines;
+		long bytes;
+		long totalNanos;
+		long peakHeapBytes;
+		/**
+		 * null if the program did not compile
+		 */
+		CompilerMetrics metrics;
+		String failure;
+
+		String toCSV() {
+			StringBuffer s = new StringBuffer(lines + "," + bytes);
+			long allocated = 0;
+			for (int phase = 0; phase < CompilerMetrics.PHASES.length; phase++) {
+				s.append(String.format(",%.3f", metrics.getWallNanos(phase) / 1e6));
+				allocated += metrics.getAllocatedBytes(phase);
+			}
+			s.append(String.format(",%.3f,%.1f,%.1f,%.3f", totalNanos / 1e6, allocated / 1048576.0,
+					peakHeapBytes / 1048576.0, totalNanos / 1e3 / lines));
+			return s.toString();
+		}
+	}
+}
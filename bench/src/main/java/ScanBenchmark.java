@@ -0,0 +1,232 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import java_cup.runtime.ComplexSymbolFactory.ComplexSymbol;
+import java_cup.runtime.ComplexSymbolFactory.Location;
+import java_cup.runtime.Symbol;
+
+import bench.SyntheticProgram;
+
+/**
+ *
+ */
+
+/**
+ * Measures the throughput of Scan, FastScan and TokenBuffer, in megabytes of
+ * source per second, and the bytes they allocate per token, on a generated
+ * program. The scanners are timed alone, on a source already in memory, and
+ * as part of whole compiles of the file, where the parser and the later passes
+ * take most of the time. A TokenBuffer is timed both filled alone, and filled
+ * then read back as the symbols the parser reads, and filled in sixteen chunks
+ * tokenized in parallel on the common pool. The scanners only keep the
+ * offset of each token, so they are also timed asking the line and column of
+ * every token, which is what tracking them as they scan cost.
+ *
+ * @author charl
+ */
+public class ScanBenchmark {
+	private final File source;
+	private final byte[] bytes;
+	private final long tokens;
+	/**
+	 * Reads the bytes allocated by the thread
+	 */
+	private final CompilerMetrics allocation = new CompilerMetrics(true);
+	/**
+	 * Where the generated code is thrown away
+	 */
+	private final PrintStream discard = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	/**
+	 * Usage: [-lines N] [-runs N]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If the source could not be written
+	 */
+	public static void main(String[] args) throws Exception {
+		long lines = 200000;
+		int runs = 5;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-lines")) {
+				lines = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-runs")) {
+				runs = Integer.parseInt(args[i + 1]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		final long programLines = lines;
+		final int programRuns = runs;
+		final Exception[] failure = new Exception[1];
+		//Large programs need a deep stack to parse
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new ScanBenchmark(programLines).run(programRuns);
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		}, "scan", 512L * 1024 * 1024);
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Generates the source, and checks both scanners return as many tokens
+	 *
+	 * @param lines
+	 *            The number of lines of the source
+	 * @throws Exception
+	 *             If the source could not be written
+	 */
+	private ScanBenchmark(long lines) throws Exception {
+		source = File.createTempFile("scan", ".j--");
+		source.deleteOnExit();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(source)))) {
+			new SyntheticProgram(new SyntheticProgram.Options(), out).write(lines);
+		}
+		bytes = Files.readAllBytes(source.toPath());
+		tokens = scan(0);
+		if (scan(1) != tokens || scan(3) != tokens || scan(4) != tokens) {
+			throw new IllegalStateException("Scan, FastScan and TokenBuffer returned a different number of tokens");
+		}
+		System.out.printf("%d lines, %.1f MB of source, %d tokens%n", lines, bytes.length / 1048576.0, tokens);
+	}
+
+	/**
+	 * Runs every measurement the given number of times, and prints the median of
+	 * each
+	 */
+	private void run(int runs) throws Exception {
+		System.out.printf("%-24s %10s %10s %10s%n", "", "ms", "MB/s", "B/token");
+		String[] names = { "scan, Scan", "scan, FastScan", "fill, TokenBuffer", "fill+read, TokenBuffer",
+				"compile, Scan", "compile, FastScan", "compile, TokenBuffer", "scan+lines, Scan", "scan+lines, FastScan", "fill, 16 chunks" };
+		for (int m = 0; m < names.length; m++) {
+			long[] nanos = new long[runs];
+			long allocated = 0;
+			//One more run than measured, to warm up
+			for (int i = -1; i < runs; i++) {
+				long startAllocated = allocation.allocated();
+				long start = System.nanoTime();
+				measure(m);
+				long time = System.nanoTime() - start;
+				if (i >= 0) {
+					nanos[i] = time;
+					allocated = allocation.allocated() - startAllocated;
+				}
+			}
+			Arrays.sort(nanos);
+			long median = nanos[runs / 2];
+			System.out.printf("%-24s %10.1f %10.1f %10.1f%n", names[m], median / 1e6,
+					bytes.length / 1048576.0 / (median / 1e9), (double) allocated / tokens);
+		}
+	}
+
+	/**
+	 * Runs one of the measurements once
+	 */
+	private void measure(int m) throws Exception {
+		switch (m) {
+		case 0:
+		case 1:
+		case 2:
+		case 3:
+			scan(m);
+			break;
+		case 4:
+			new Compilation(source.getPath(), System.err).compile(SourceReader.open(source), discard);
+			break;
+		case 5:
+			new Compilation(source.getPath(), System.err).compile(FastScan.read(source), discard);
+			break;
+		case 6:
+			new Compilation(source.getPath(), System.err).compileTokens(FastScan.read(source), discard);
+			break;
+		case 7:
+		case 8:
+			scan(m - 7, true);
+			break;
+		default:
+			scan(4);
+		}
+	}
+
+	/**
+	 * Scans the source in memory up to EOF
+	 *
+	 * @param m
+	 *            0 to scan with Scan, 1 with FastScan, 2 to fill a TokenBuffer, 3
+	 *            to fill a TokenBuffer and read its symbols, 4 to fill it in
+	 *            sixteen chunks
+	 * @return the number of tokens, or the size of the buffer without EOF
+	 */
+	private long scan(int m) throws Exception {
+		return scan(m, false);
+	}
+
+	/**
+	 * Scans the source in memory up to EOF
+	 *
+	 * @param m
+	 *            0 to scan with Scan, 1 with FastScan, 2 to fill a TokenBuffer, 3
+	 *            to fill a TokenBuffer and read its symbols, 4 to fill it in
+	 *            sixteen chunks
+	 * @param lines
+	 *            Whether to ask the line and column of every token
+	 * @return the number of tokens, or the size of the buffer without EOF
+	 */
+	private long scan(int m, boolean lines) throws Exception {
+		Compilation compilation = new Compilation(source.getPath(), System.err);
+		Scan scanner;
+		if (m == 0) {
+			scanner = new Scan(new InputStreamReader(new ByteArrayInputStream(bytes)), compilation);
+		} else if (m == 1) {
+			scanner = FastScan.open(ByteBuffer.wrap(bytes), compilation);
+		} else {
+			TokenBuffer buffer = TokenBuffer.tokenize(ByteBuffer.wrap(bytes), compilation,
+					m == 4 ? bytes.length / 16 : Integer.MAX_VALUE);
+			if (m != 3) {
+				return buffer.size() - 1;
+			}
+			scanner = buffer.scanner(compilation);
+		}
+		long count = 0;
+		long sum = 0;
+		Symbol token;
+		while ((token = scanner.next_token()).sym != sym.EOF) {
+			count++;
+			if (lines) {
+				Location left = ((ComplexSymbol) token).getLeft();
+				sum += left.getLine() + left.getColumn();
+			}
+		}
+		//Used, so the lines aren't optimized away
+		return sum < 0 ? -count : count;
+	}
+}
@@ -0,0 +1,221 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import java_cup.runtime.ComplexSymbolFactory.ComplexSymbol;
+import java_cup.runtime.Symbol;
+
+import bench.SyntheticProgram;
+
+/**
+ *
+ */
+
+/**
+ * Scans sources with Scan, with FastScan, and into a TokenBuffer, in one go
+ * and in chunks of a line each, and compares what they return: every token,
+ * with its value and locations, and every warning, in order. The
+ * sources are the test programs under src, a generated program, and random
+ * inputs made of the pieces the scanner finds hardest: unclosed strings,
+ * escapes, comments at the end of the input, lone carriage returns, unknown
+ * characters, and a few inputs that aren't plain ASCII and must be left to
+ * Scan.
+ *
+ * @author charl
+ */
+public class ScanDifferential {
+	/**
+	 * The directories of test programs, relative to src
+	 */
+	private static final String[] corpora = { "ms1", "ms2", "ms3/Pass", "ms3/Fail", "final" };
+	/**
+	 * The pieces random inputs are made of
+	 */
+	private static final String[] pieces = { "int", "boolean", "true", "false", "void", "if", "else", "while",
+			"break", "return", "in", "boolean2", "_x", "Main", "0", "42", "007", "+", "-", "*", "/", "%", "<", "<=",
+			">", ">=", "=", "==", "!", "!=", "&", "&&", "|", "||", "(", ")", "{", "}", ",", ";", "\"", "\"s\"",
+			"\"a\\n\\t\\\"\\\\\"", "\"bad\\q\"", "\\", "//", "// comment", " ", "  ", "\t", "\r", "\n", "\r\n",
+			"\n\r", "#", "$", "'", "\0", "\u007f", "~" };
+	/**
+	 * Pieces that aren't plain ASCII, which make the input go to Scan
+	 */
+	private static final String[] slowPieces = { "é", "\u000b", "\u000c", "€" };
+	/**
+	 * The ways a source is scanned
+	 */
+	private static final int SCAN = 0;
+	private static final int FAST_SCAN = 1;
+	private static final int TOKEN_BUFFER = 2;
+	private static final int CHUNKS = 3;
+
+	private int sources = 0;
+	private int fast = 0;
+	private int buffered = 0;
+	private int differed = 0;
+
+	/**
+	 * Usage: [-src directory] [-random N] [-seed N]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If a source could not be read
+	 */
+	public static void main(String[] args) throws Exception {
+		File src = new File("src");
+		int random = 10000;
+		long seed = 1;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-src")) {
+				src = new File(args[i + 1]);
+			} else if (args[i].equals("-random")) {
+				random = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(args[i + 1]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		ScanDifferential differential = new ScanDifferential();
+		for (String corpus : corpora) {
+			File[] files = new File(src, corpus).listFiles();
+			if (files == null) {
+				System.err.println("Missing test directory " + new File(src, corpus));
+				System.exit(1);
+			}
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.isFile()) {
+					differential.compare(corpus + "/" + file.getName(), Files.readAllBytes(file.toPath()));
+				}
+			}
+		}
+		StringWriter program = new StringWriter();
+		new SyntheticProgram(new SyntheticProgram.Options(), program).write(20000);
+		differential.compare("synthetic", program.toString().getBytes(StandardCharsets.US_ASCII));
+		Random generator = new Random(seed);
+		for (int i = 0; i < random; i++) {
+			differential.compare("random " + i, randomInput(generator));
+		}
+		System.out.println(differential.sources + " sources, " + differential.fast + " scanned by FastScan, "
+				+ differential.buffered + " into a TokenBuffer, " + differential.differed + " differed");
+		System.exit(differential.differed == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Scans the source with Scan, and with FastScan and a TokenBuffer, and
+	 * reports the first difference of each
+	 */
+	private void compare(String name, byte[] source) {
+		sources++;
+		String expected = scan(name, source, SCAN);
+		boolean same = compare(name, expected, scan(name, source, FAST_SCAN), "FastScan");
+		same &= compare(name, expected, scan(name, source, TOKEN_BUFFER), "TokenBuffer");
+		same &= compare(name, expected, scan(name, source, CHUNKS), "chunks");
+		if (!same) {
+			differed++;
+		}
+	}
+
+	/**
+	 * Reports the first difference of what a scanner returned with what Scan did
+	 *
+	 * @return true if there was none
+	 */
+	private boolean compare(String name, String expected, String actual, String scanner) {
+		if (expected.equals(actual)) {
+			return true;
+		}
+		String[] expectedLines = expected.split("\n", -1);
+		String[] actualLines = actual.split("\n", -1);
+		int line = 0;
+		while (line < expectedLines.length && line < actualLines.length
+				&& expectedLines[line].equals(actualLines[line])) {
+			line++;
+		}
+		System.out.println("DIFFERS " + name + " in " + scanner + " at token or warning " + (line + 1));
+		System.out.printf("  %-12s %s%n", "Scan:", line < expectedLines.length ? expectedLines[line] : "(nothing)");
+		System.out.printf("  %-12s %s%n", scanner + ":", line < actualLines.length ? actualLines[line] : "(nothing)");
+		return false;
+	}
+
+	/**
+	 * Scans the whole source, up to EOF or until the scanner gives up
+	 *
+	 * @param scanner
+	 *            SCAN, FAST_SCAN, TOKEN_BUFFER or CHUNKS
+	 * @return the tokens and warnings, one per line
+	 */
+	private String scan(String name, byte[] source, int scanner) {
+		ByteArrayOutputStream transcript = new ByteArrayOutputStream();
+		//The warnings are printed to the same stream as the tokens, so their order is kept
+		PrintStream out = new PrintStream(transcript);
+		Compilation compilation = new Compilation(name, out);
+		try {
+			Scan tokens;
+			if (scanner == FAST_SCAN) {
+				tokens = FastScan.open(ByteBuffer.wrap(source), compilation);
+				if (tokens instanceof FastScan) {
+					fast++;
+				}
+			} else if (scanner == TOKEN_BUFFER || scanner == CHUNKS) {
+				//In chunks, every line is tokenized on its own
+				TokenBuffer buffer = TokenBuffer.tokenize(ByteBuffer.wrap(source), compilation,
+						scanner == CHUNKS ? 1 : Integer.MAX_VALUE);
+				if (buffer != null) {
+					if (scanner == TOKEN_BUFFER) {
+						buffered++;
+					}
+					tokens = buffer.scanner(compilation);
+				} else {
+					tokens = FastScan.open(ByteBuffer.wrap(source), compilation);
+				}
+			} else {
+				tokens = new Scan(new InputStreamReader(new ByteArrayInputStream(source)), compilation);
+			}
+			Symbol token;
+			do {
+				token = tokens.next_token();
+				ComplexSymbol symbol = (ComplexSymbol) token;
+				out.println(symbol.getName() + " " + symbol.sym + " [" + symbol.value + "] " + symbol.getLeft() + " - "
+						+ symbol.getRight());
+			} while (token.sym != sym.EOF);
+			//EOF is returned again when asked for more
+			out.println(tokens.next_token().sym);
+		} catch (CompilerExitException e) {
+			out.println("stopped: " + e.getMessage());
+		} catch (Exception | Error e) {
+			out.println("failed: " + e);
+		}
+		out.flush();
+		return transcript.toString();
+	}
+
+	/**
+	 * @return a random input, one in twenty of which isn't plain ASCII
+	 */
+	private static byte[] randomInput(Random generator) {
+		StringBuffer input = new StringBuffer();
+		int length = generator.nextInt(40);
+		for (int i = 0; i < length; i++) {
+			if (generator.nextInt(100) == 0) {
+				input.append((char) generator.nextInt(128));
+			} else {
+				input.append(pieces[generator.nextInt(pieces.length)]);
+			}
+		}
+		if (generator.nextInt(20) == 0) {
+			input.insert(generator.nextInt(input.length() + 1), slowPieces[generator.nextInt(slowPieces.length)]);
+		}
+		return input.toString().getBytes();
+	}
+}
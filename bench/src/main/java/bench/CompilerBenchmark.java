@@ -0,0 +1,74 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ */
+
+/**
+ * Measures each phase of the compiler on its own, and all of them together, on
+ * the test programs that compile and on generated programs. Run with
+ * java -jar bench/target/benchmarks.jar
+ *
+ * @author charl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xss16m")
+public class CompilerBenchmark {
+	/**
+	 * The path of a test program relative to src, or synthetic:N for a generated
+	 * program with N functions
+	 */
+	@Param({ "ms2/gen.t18", "ms3/Pass/Fib.t1", "ms3/Pass/gen.t2", "final/RunTime.t2", "final/Runtime.t1",
+			"final/Test.t3", "final/gen.t22", "final/gen.t32", "synthetic:10", "synthetic:100", "synthetic:1000" })
+	public String input;
+
+	private CompilerPhases phases;
+
+	@Setup
+	public void setup() throws Exception {
+		phases = CompilerPhases.create(input);
+	}
+
+	@Benchmark
+	public int scan() throws Exception {
+		return phases.scan();
+	}
+
+	@Benchmark
+	public Object parse() throws Exception {
+		return phases.parse();
+	}
+
+	@Benchmark
+	public Object analyze() throws Exception {
+		return phases.analyze();
+	}
+
+	@Benchmark
+	public Object generate() throws Exception {
+		return phases.generate();
+	}
+
+	@Benchmark
+	public Object endToEnd() throws Exception {
+		return phases.compile();
+	}
+}
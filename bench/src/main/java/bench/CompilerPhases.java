@@ -0,0 +1,130 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ *
+ */
+
+/**
+ * The phases of the compiler, as the benchmarks see them. The compiler classes
+ * are in the default package, which a benchmark (that JMH requires to be in a
+ * package) cannot name, so BenchmarkPhases implements this interface from the
+ * default package and is loaded by name.
+ *
+ * @author charl
+ */
+public interface CompilerPhases {
+
+	/**
+	 * Prepares the input for every phase: records its tokens, and parses and
+	 * analyzes it once, so each phase can be run on its own
+	 *
+	 * @param name
+	 *            The name of the input, used in warnings and errors
+	 * @param source
+	 *            The J-- program
+	 * @throws Exception
+	 *             If the input does not compile
+	 */
+	void prepare(String name, String source) throws Exception;
+
+	/**
+	 * Holds the compilations of every later phase to the given limits
+	 *
+	 * @param limits
+	 *            The limits, as a comma separated list of name=value, or an empty
+	 *            string for none
+	 */
+	void limit(String limits);
+
+	/**
+	 * @return the number of tokens in the input
+	 * @throws Exception
+	 *             If the scanner failed
+	 */
+	int scan() throws Exception;
+
+	/**
+	 * Parses the recorded tokens, without scanning
+	 *
+	 * @return the tree
+	 * @throws Exception
+	 *             If the parser failed
+	 */
+	Object parse() throws Exception;
+
+	/**
+	 * Runs the semantic analyzer on the parsed tree
+	 *
+	 * @return the analyzer
+	 * @throws Exception
+	 *             If the analyzer failed
+	 */
+	Object analyze() throws Exception;
+
+	/**
+	 * Generates code for the analyzed tree, writing it to a stream that throws it
+	 * away
+	 *
+	 * @return the code generator
+	 * @throws Exception
+	 *             If the generator failed
+	 */
+	Object generate() throws Exception;
+
+	/**
+	 * Runs every phase on the source, printing the generated code to memory
+	 *
+	 * @return the result of the compilation
+	 * @throws Exception
+	 *             If the compilation failed
+	 */
+	Object compile() throws Exception;
+
+	/**
+	 * Creates the phases for an input. The input is either the path of a test
+	 * program, relative to src, or synthetic:N for a generated program with N
+	 * functions
+	 *
+	 * @param input
+	 *            The input to prepare
+	 * @return the prepared phases
+	 * @throws Exception
+	 *             If the input could not be read or does not compile
+	 */
+	static CompilerPhases create(String input) throws Exception {
+		String source;
+		if (input.startsWith("synthetic:")) {
+			source = SyntheticProgram.generate(Integer.parseInt(input.substring("synthetic:".length())));
+		} else {
+			source = readResource(input);
+		}
+		CompilerPhases phases = (CompilerPhases) Class.forName("BenchmarkPhases").newInstance();
+		phases.prepare(input, source);
+		return phases;
+	}
+
+	/**
+	 * @param name
+	 *            The path of the test program, relative to src
+	 * @return the test program
+	 * @throws IOException
+	 *             If the program is not in the benchmark jar
+	 */
+	static String readResource(String name) throws IOException {
+		try (InputStream in = CompilerPhases.class.getClassLoader().getResourceAsStream(name)) {
+			if (in == null) {
+				throw new IOException("No test program " + name);
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) > 0;) {
+				bytes.write(buffer, 0, read);
+			}
+			return new String(bytes.toByteArray(), "UTF-8");
+		}
+	}
+}
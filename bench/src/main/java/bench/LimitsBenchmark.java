@@ -0,0 +1,74 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ */
+
+/**
+ * Measures what checking the CompileLimits costs: the phases that check them
+ * are run with no limits, when nothing is counted, and with every limit set
+ * too high to be reached, when everything is counted and checked. Run with
+ * java -jar bench/target/benchmarks.jar LimitsBenchmark
+ *
+ * @author charl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2)
+public class LimitsBenchmark {
+	/**
+	 * Every limit, far above what the inputs use
+	 */
+	private static final String unreachable = "bytes=1000000000,tokens=1000000000,nodes=1000000000,depth=1000000000,"
+			+ "scopes=1000000000,instructions=1000000000,millis=3600000";
+
+	/**
+	 * The path of a test program relative to src, or synthetic:N for a generated
+	 * program with N functions
+	 */
+	@Param({ "final/gen.t32", "synthetic:100", "synthetic:1000" })
+	public String input;
+
+	@Param({ "none", "all" })
+	public String limits;
+
+	private CompilerPhases phases;
+
+	@Setup
+	public void setup() throws Exception {
+		phases = CompilerPhases.create(input);
+		phases.limit(limits.equals("all") ? unreachable : "");
+	}
+
+	@Benchmark
+	public Object parse() throws Exception {
+		return phases.parse();
+	}
+
+	@Benchmark
+	public Object generate() throws Exception {
+		return phases.generate();
+	}
+
+	@Benchmark
+	public Object endToEnd() throws Exception {
+		return phases.compile();
+	}
+}
@@ -0,0 +1,229 @@
+package bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ */
+
+/**
+ * Measures how long a new JVM takes to compile a tiny program, the way scripts
+ * run the compiler: once per file. Each configuration of the JVM is started
+ * many times, in turns, and the time until the first byte of output and the
+ * time until the JVM exits are reported. The configurations are no class data
+ * sharing at all, the archive of the JDK classes that comes with the JDK, the
+ * application archive made by mvn package (compiler/target/compiler.jsa), and
+ * that archive with only the C1 JIT compiler, like the jmmc launcher.
+ *
+ * @author charl
+ */
+public class StartupBenchmark {
+	private final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+	private final String jar;
+	private final int runs;
+	private final File stderr;
+
+	/**
+	 * @param jar
+	 *            The compiler jar
+	 * @param runs
+	 *            How many times each configuration is started for each input
+	 * @throws IOException
+	 *             If the file for the warnings and errors could not be created
+	 */
+	private StartupBenchmark(String jar, int runs) throws IOException {
+		this.jar = jar;
+		this.runs = runs;
+		this.stderr = File.createTempFile("startup", ".err");
+		this.stderr.deleteOnExit();
+	}
+
+	/**
+	 * Usage: [-jar compiler.jar] [-archive compiler.jsa] [-runs N] [-warmup N]
+	 * [file...]. Without files, a generated program with one function is
+	 * compiled
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If a JVM could not be started
+	 */
+	public static void main(String[] args) throws Exception {
+		String jar = "compiler/target/compiler-1.0-SNAPSHOT.jar";
+		String archive = null;
+		int runs = 20;
+		int warmup = 3;
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-jar") && i + 1 < args.length) {
+				jar = args[++i];
+			} else if (args[i].equals("-archive") && i + 1 < args.length) {
+				archive = args[++i];
+			} else if (args[i].equals("-runs") && i + 1 < args.length) {
+				runs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-warmup") && i + 1 < args.length) {
+				warmup = Integer.parseInt(args[++i]);
+			} else if (args[i].startsWith("-")) {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			} else {
+				inputs.add(args[i]);
+			}
+		}
+		if (!new File(jar).isFile()) {
+			System.err.println("The compiler jar " + jar + " was not found, run mvn package first");
+			System.exit(1);
+		}
+		if (archive == null) {
+			archive = new File(new File(jar).getParentFile(), "compiler.jsa").getPath();
+		}
+		if (inputs.isEmpty()) {
+			File tiny = File.createTempFile("tiny", ".j--");
+			tiny.deleteOnExit();
+			try (Writer out = new OutputStreamWriter(new FileOutputStream(tiny), "UTF-8")) {
+				out.write(SyntheticProgram.generate(1));
+			}
+			inputs.add(tiny.getPath());
+		}
+
+		StartupBenchmark benchmark = new StartupBenchmark(jar, runs);
+		List<String[]> configurations = new ArrayList<String[]>();
+		List<String> names = new ArrayList<String>();
+		names.add("no sharing");
+		configurations.add(new String[] { "-Xshare:off" });
+		names.add("JDK archive");
+		configurations.add(new String[0]);
+		//-Xshare:on fails instead of quietly running without the archive, if it can't be used
+		String[] appCDS = { "-XX:SharedArchiveFile=" + archive, "-Xshare:on" };
+		String problem = benchmark.check(appCDS, inputs.get(0));
+		if (problem == null) {
+			names.add("AppCDS");
+			configurations.add(appCDS);
+			names.add("AppCDS, C1 only");
+			configurations.add(new String[] { appCDS[0], appCDS[1], "-XX:TieredStopAtLevel=1" });
+		} else {
+			System.err.println("The archive " + archive + " can't be used, run mvn package on Java 13 or later:");
+			System.err.println(problem);
+		}
+
+		System.out.printf("%-40s %-16s %12s %12s %12s %12s%n", "input", "configuration", "first ms", "first p90",
+				"exit ms", "exit p90");
+		for (String input : inputs) {
+			for (int i = 0; i < warmup; i++) {
+				for (String[] configuration : configurations) {
+					benchmark.run(configuration, input);
+				}
+			}
+			long[][] first = new long[configurations.size()][runs];
+			long[][] exit = new long[configurations.size()][runs];
+			//Take turns, so a slow moment of the machine is shared by all the configurations
+			for (int i = 0; i < runs; i++) {
+				for (int c = 0; c < configurations.size(); c++) {
+					long[] times = benchmark.run(configurations.get(c), input);
+					first[c][i] = times[0];
+					exit[c][i] = times[1];
+				}
+			}
+			for (int c = 0; c < configurations.size(); c++) {
+				Arrays.sort(first[c]);
+				Arrays.sort(exit[c]);
+				System.out.printf("%-40s %-16s %12.1f %12.1f %12.1f %12.1f%n", new File(input).getName(),
+						names.get(c), percentile(first[c], 50), percentile(first[c], 90), percentile(exit[c], 50),
+						percentile(exit[c], 90));
+			}
+		}
+	}
+
+	/**
+	 * Compiles the input once with the options
+	 *
+	 * @param options
+	 *            The options of the JVM
+	 * @param input
+	 *            The file to compile
+	 * @return the warnings and errors of the JVM if it failed, or null
+	 * @throws Exception
+	 *             If the JVM could not be started
+	 */
+	private String check(String[] options, String input) throws Exception {
+		Process process = start(options, input);
+		drain(process.getInputStream());
+		if (process.waitFor() == 0) {
+			return null;
+		}
+		return new String(Files.readAllBytes(stderr.toPath()), "UTF-8");
+	}
+
+	/**
+	 * Compiles the input once with the options
+	 *
+	 * @param options
+	 *            The options of the JVM
+	 * @param input
+	 *            The file to compile
+	 * @return the nanoseconds until the first byte of output, and until the JVM
+	 *         exited
+	 * @throws Exception
+	 *             If the JVM could not be started
+	 */
+	private long[] run(String[] options, String input) throws Exception {
+		long start = System.nanoTime();
+		Process process = start(options, input);
+		InputStream out = process.getInputStream();
+		int b = out.read();
+		long first = System.nanoTime() - start;
+		drain(out);
+		int status = process.waitFor();
+		long exit = System.nanoTime() - start;
+		if (b < 0 || status != 0) {
+			throw new IOException(input + " did not compile with " + Arrays.toString(options) + ":\n"
+					+ new String(Files.readAllBytes(stderr.toPath()), "UTF-8"));
+		}
+		return new long[] { first, exit };
+	}
+
+	/**
+	 * Starts a JVM compiling the input, with its warnings and errors going to the
+	 * stderr file
+	 */
+	private Process start(String[] options, String input) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(java);
+		command.addAll(Arrays.asList(options));
+		command.add("-jar");
+		command.add(jar);
+		command.add(input);
+		return new ProcessBuilder(command).redirectError(stderr).start();
+	}
+
+	/**
+	 * Reads and throws away the rest of a stream
+	 */
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		while (in.read(buffer) >= 0) {
+		}
+		in.close();
+	}
+
+	/**
+	 * @param sorted
+	 *            Nanoseconds, sorted
+	 * @param percent
+	 *            The percentile
+	 * @return the percentile of the times, in milliseconds
+	 */
+	private static double percentile(long[] sorted, int percent) {
+		int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percent / 100.0) - 1);
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+}
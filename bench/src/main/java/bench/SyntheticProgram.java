@@ -0,0 +1,305 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ *
+ */
+
+/**
+ * Generates valid J-- programs of any size, for measuring how the compiler
+ * scales. The same options and seed always give the same program. The program
+ * is written as it is generated, so programs much larger than the heap can be
+ * written.
+ * <p>
+ * Every function takes two ints and returns an int. Its body is loops and ifs
+ * nested to the nesting depth, assignments of expressions of the expression
+ * depth, prints of string literals, and calls to functions declared before it,
+ * so the program always terminates. The functions read and write the global
+ * variables. A main function calls the last function.
+ *
+ * @author charl
+ */
+public class SyntheticProgram {
+	/**
+	 * The knobs of the generator
+	 */
+	public static class Options {
+		/**
+		 * The number of functions, if no number of lines is given
+		 */
+		public int functions = 100;
+		/**
+		 * How deep loops and ifs are nested in each function
+		 */
+		public int nestingDepth = 2;
+		/**
+		 * How deep the operators of each expression are nested
+		 */
+		public int expressionDepth = 3;
+		/**
+		 * The number of global int variables
+		 */
+		public int globals = 10;
+		/**
+		 * The number of string literals printed by each function
+		 */
+		public int strings = 1;
+		/**
+		 * The number of calls to other functions in each function
+		 */
+		public int calls = 1;
+		/**
+		 * The seed of the choices of variables, operators and called functions
+		 */
+		public long seed = 1;
+	}
+
+	private static final String[] intOperators = { "+", "-", "*", "/", "%" };
+	private static final String[] compareOperators = { "<", ">", "<=", ">=", "==", "!=" };
+
+	private final Options options;
+	private final Random random;
+	private final Writer out;
+	private long lines = 0;
+
+	/**
+	 * Creates a generator writing to out
+	 *
+	 * @param options
+	 *            The knobs of the generator
+	 * @param out
+	 *            Where the program is written
+	 */
+	public SyntheticProgram(Options options, Writer out) {
+		this.options = options;
+		this.random = new Random(options.seed);
+		this.out = out;
+	}
+
+	/**
+	 * @param functions
+	 *            The number of functions, at least 1
+	 * @return a program with the given number of functions and the default
+	 *         options
+	 */
+	public static String generate(int functions) {
+		Options options = new Options();
+		options.functions = functions;
+		StringWriter s = new StringWriter();
+		try {
+			new SyntheticProgram(options, s).write(-1);
+		} catch (IOException e) {
+			//A StringWriter doesn't throw
+			throw new IllegalStateException(e);
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Writes the program
+	 *
+	 * @param targetLines
+	 *            The number of lines to reach. Functions are added until the
+	 *            program has at least this many lines. If negative, the number of
+	 *            functions in the options is used instead
+	 * @return the number of lines written
+	 * @throws IOException
+	 *             If writing failed
+	 */
+	public long write(long targetLines) throws IOException {
+		line("// Generated J-- program, seed " + options.seed);
+		line("");
+		for (int i = 0; i < options.globals; i++) {
+			line("int g" + i + ";");
+		}
+		line("");
+		int functions = 0;
+		while (targetLines < 0 ? functions < options.functions : lines < targetLines || functions == 0) {
+			writeFunction(functions++);
+		}
+		line("main() {");
+		line("\tprinti(f" + (functions - 1) + "(1, 2));");
+		line("}");
+		out.flush();
+		return lines;
+	}
+
+	/**
+	 * Writes the function with the given number
+	 *
+	 * @param f
+	 *            The number of the function
+	 * @throws IOException
+	 *             If writing failed
+	 */
+	private void writeFunction(int f) throws IOException {
+		line("int f" + f + "(int x, int y) {");
+		line("\tint a;");
+		line("\tint b;");
+		for (int level = 0; level < options.nestingDepth; level++) {
+			line("\tint i" + level + ";");
+		}
+		line("\ta = " + intExpression(options.expressionDepth) + ";");
+		line("\tb = " + intExpression(options.expressionDepth) + ";");
+		for (int i = 0; i < options.strings; i++) {
+			line("\tprints(\"f" + f + " string " + i + "\\n\");");
+		}
+		//Calls only go to functions declared before, so the program terminates
+		for (int i = 0; f > 0 && i < options.calls; i++) {
+			int callee = random.nextInt(f);
+			line("\ta = a + f" + callee + "(" + intExpression(1) + ", b);");
+		}
+		writeNested(0, "\t");
+		if (options.globals > 0) {
+			line("\tg" + random.nextInt(options.globals) + " = a;");
+		}
+		line("\treturn a + b;");
+		line("}");
+		line("");
+	}
+
+	/**
+	 * Writes a loop containing an if, with the next level nested inside the if,
+	 * until the nesting depth is reached
+	 *
+	 * @param level
+	 *            The nesting level
+	 * @param tabs
+	 *            The indentation of the level
+	 * @throws IOException
+	 *             If writing failed
+	 */
+	private void writeNested(int level, String tabs) throws IOException {
+		if (level >= options.nestingDepth) {
+			line(tabs + "a = " + intExpression(options.expressionDepth) + ";");
+			return;
+		}
+		line(tabs + "i" + level + " = 0;");
+		line(tabs + "while (i" + level + " < 3) {");
+		line(tabs + "\tif (" + booleanExpression() + ") {");
+		writeNested(level + 1, tabs + "\t\t");
+		line(tabs + "\t} else {");
+		line(tabs + "\t\tb = " + intExpression(options.expressionDepth) + ";");
+		line(tabs + "\t}");
+		line(tabs + "\ti" + level + " = i" + level + " + 1;");
+		line(tabs + "}");
+	}
+
+	/**
+	 * @param depth
+	 *            How deep the operators are nested
+	 * @return an int expression
+	 */
+	private String intExpression(int depth) {
+		if (depth <= 0) {
+			switch (random.nextInt(5)) {
+			case 0:
+				return "x";
+			case 1:
+				return "y";
+			case 2:
+				return "a";
+			case 3:
+				if (options.globals > 0) {
+					return "g" + random.nextInt(options.globals);
+				}
+				//No globals, use a literal
+			default:
+				return Integer.toString(1 + random.nextInt(9));
+			}
+		}
+		if (random.nextInt(8) == 0) {
+			return "-(" + intExpression(depth - 1) + ")";
+		}
+		return "(" + intExpression(depth - 1) + " " + intOperators[random.nextInt(intOperators.length)] + " "
+				+ intExpression(depth - 1) + ")";
+	}
+
+	/**
+	 * @return a boolean expression comparing two int expressions
+	 */
+	private String booleanExpression() {
+		int depth = Math.max(0, options.expressionDepth - 1);
+		String compare = intExpression(depth) + " " + compareOperators[random.nextInt(compareOperators.length)]
+				+ " " + intExpression(depth);
+		switch (random.nextInt(3)) {
+		case 0:
+			return compare + " && !(" + intExpression(0) + " == " + intExpression(0) + ")";
+		case 1:
+			return compare + " || " + intExpression(0) + " > 5";
+		default:
+			return compare;
+		}
+	}
+
+	/**
+	 * Writes a line of the program
+	 */
+	private void line(String s) throws IOException {
+		out.write(s);
+		out.write('\n');
+		lines++;
+	}
+
+	/**
+	 * Writes a generated program to stdout or a file. Usage: [-functions N]
+	 * [-lines N] [-nesting N] [-expression N] [-globals N] [-strings N] [-calls
+	 * N] [-seed N] [-o file]
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws IOException
+	 *             If writing failed
+	 */
+	public static void main(String[] args) throws IOException {
+		Options options = new Options();
+		long targetLines = -1;
+		String file = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "-functions":
+				options.functions = Integer.parseInt(value);
+				break;
+			case "-lines":
+				targetLines = Long.parseLong(value);
+				break;
+			case "-nesting":
+				options.nestingDepth = Integer.parseInt(value);
+				break;
+			case "-expression":
+				options.expressionDepth = Integer.parseInt(value);
+				break;
+			case "-globals":
+				options.globals = Integer.parseInt(value);
+				break;
+			case "-strings":
+				options.strings = Integer.parseInt(value);
+				break;
+			case "-calls":
+				options.calls = Integer.parseInt(value);
+				break;
+			case "-seed":
+				options.seed = Long.parseLong(value);
+				break;
+			case "-o":
+				file = value;
+				break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+		try (Writer out = new BufferedWriter(
+				new OutputStreamWriter(file == null ? System.out : new FileOutputStream(file), "UTF-8"))) {
+			new SyntheticProgram(options, out).write(targetLines);
+		}
+	}
+}
@@ -0,0 +1,6 @@
+@echo off
+rem Runs the compiler built by mvn package, with the same arguments as Scan. See jmmc
+set target=%~dp0target
+set share=
+if exist "%target%\compiler.jsa" set share=-XX:SharedArchiveFile="%target%\compiler.jsa" -Xshare:auto -Xlog:disable -Xlog:all=warning:stderr
+java %share% -XX:TieredStopAtLevel=1 %JAVA_OPTS% -jar "%target%\compiler-1.0-SNAPSHOT.jar" %*
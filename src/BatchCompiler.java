@@ -0,0 +1,365 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ */
+
+/**
+ * Compiles many J-- files in a single JVM, so the JVM start up and the loading
+ * of the scanner and parser tables are only paid for once. Each input file is
+ * compiled to its own .wat file, and a failure in one file does not stop the
+ * compilation of the others. The files are compiled in parallel on a
+ * work-stealing pool, but the warnings and errors of each file are printed
+ * together, in the order the files were given.
+ *
+ * @author charl
+ */
+public class BatchCompiler {
+
+	/**
+	 * Compiles the files given. Usage: [-d outputDirectory] [-j threads] [-cache
+	 * cacheDirectory [-cache-mb megabytes]] [-metrics report.json] [-limits
+	 * name=value,...] [-fast] file|directory...
+	 *
+	 * @param args
+	 *            The files and directories to compile
+	 */
+	public static void main(String[] args) {
+		System.exit(compileAll(args));
+	}
+
+	/**
+	 * Compiles every file given, and every J-- file inside the directories given.
+	 * The output of file x is written to x.wat, either next to x, or in the
+	 * directory specified with -d. The files are compiled by as many threads as
+	 * there are cores, or by the number of threads specified with -j. With -cache,
+	 * files that were compiled before are not compiled again, their stored code is
+	 * used instead. With -metrics, the time and allocations of each phase, and
+	 * counts of what they produced, are written to a JSON report. With -limits,
+	 * each file is compiled within the CompileLimits given. With -fast, plain
+	 * ASCII files are scanned by FastScan
+	 *
+	 * @param args
+	 *            The command line arguments: [-d outputDirectory] [-j threads]
+	 *            [-cache cacheDirectory [-cache-mb megabytes]] [-metrics
+	 *            report.json] [-limits name=value,...] [-fast] file|directory...
+	 * @return 0 if all files compiled, 1 otherwise
+	 */
+	public static int compileAll(String[] args) {
+		File outputDirectory = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String cacheDirectory = null;
+		long cacheBytes = CompileCache.DEFAULT_MAX_BYTES;
+		String metricsFile = null;
+		CompileLimits limits = new CompileLimits();
+		boolean fast = false;
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-d") && i + 1 < args.length) {
+				outputDirectory = new File(args[++i]);
+				outputDirectory.mkdirs();
+			} else if (args[i].equals("-j") && i + 1 < args.length) {
+				try {
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+				} catch (NumberFormatException e) {
+					System.err.println("The number of threads " + args[i] + " is not a number");
+					return 1;
+				}
+			} else if (args[i].equals("-cache") && i + 1 < args.length) {
+				cacheDirectory = args[++i];
+			} else if (args[i].equals("-cache-mb") && i + 1 < args.length) {
+				try {
+					cacheBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+				} catch (NumberFormatException e) {
+					System.err.println("The cache size " + args[i] + " is not a number of megabytes");
+					return 1;
+				}
+			} else if (args[i].equals("-metrics") && i + 1 < args.length) {
+				metricsFile = args[++i];
+			} else if (args[i].equals("-limits") && i + 1 < args.length) {
+				try {
+					limits = CompileLimits.parse(args[++i]);
+				} catch (IllegalArgumentException e) {
+					System.err.println(e.getMessage());
+					return 1;
+				}
+			} else if (args[i].equals("-fast")) {
+				fast = true;
+			} else {
+				inputs.add(args[i]);
+			}
+		}
+
+		final CompileCache cache;
+		try {
+			cache = cacheDirectory == null ? null : new CompileCache(Paths.get(cacheDirectory), "", cacheBytes);
+		} catch (IOException e) {
+			System.err.println("Could not open the cache " + cacheDirectory + ": " + e.getMessage());
+			return 1;
+		}
+		final boolean collectMetrics = metricsFile != null;
+		final CompileLimits fileLimits = limits;
+		final boolean fastScan = fast;
+		List<File> files = collectFiles(inputs);
+		List<Callable<CompileResult>> tasks = new ArrayList<Callable<CompileResult>>();
+		for (final File file : files) {
+			tasks.add(new Callable<CompileResult>() {
+				@Override
+				public CompileResult call() {
+					return compileFile(file, cache, collectMetrics, fileLimits, fastScan);
+				}
+			});
+		}
+
+		int failed = 0;
+		List<CompileResult> written = new ArrayList<CompileResult>();
+		ExecutorService pool = threads == 1 ? null : Executors.newWorkStealingPool(threads);
+		List<Future<CompileResult>> results = new ArrayList<Future<CompileResult>>();
+		if (pool != null) {
+			for (Callable<CompileResult> task : tasks) {
+				results.add(pool.submit(task));
+			}
+		}
+		//Write the results in the order the files were given, so the output doesn't depend on
+		//which file finished first
+		for (int i = 0; i < files.size(); i++) {
+			File file = files.get(i);
+			CompileResult result = pool == null ? compileFile(file, cache, collectMetrics, fileLimits, fastScan)
+					: getResult(file, results.get(i));
+			File watFile = new File(outputDirectory == null ? file.getParentFile() : outputDirectory,
+					file.getName() + ".wat");
+			if (!writeResult(result, watFile)) {
+				failed++;
+			}
+			if (collectMetrics) {
+				written.add(result);
+			}
+		}
+		if (pool != null) {
+			pool.shutdown();
+		}
+		System.err.println("Compiled " + (files.size() - failed) + " of " + files.size() + " files");
+		if (cache != null) {
+			System.err.println("Cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+		}
+		if (collectMetrics && !writeMetrics(written, new File(metricsFile))) {
+			return 1;
+		}
+		return failed == 0 ? 0 : 1;
+	}
+
+	/**
+	 * Compiles a single file, keeping the generated code and the warnings and
+	 * errors in the result
+	 *
+	 * @param file
+	 *            The J-- file to compile
+	 * @return The result of the compilation
+	 */
+	public static CompileResult compileFile(File file) {
+		return compileFile(file, null, false);
+	}
+
+	/**
+	 * Compiles a single file through the cache, keeping the generated code and the
+	 * warnings and errors in the result
+	 *
+	 * @param file
+	 *            The J-- file to compile
+	 * @param cache
+	 *            The cache to look the file up in, or null to always compile it
+	 * @param collectMetrics
+	 *            true to record the time and allocations of the phases in the
+	 *            result
+	 * @return The result of the compilation
+	 */
+	public static CompileResult compileFile(File file, CompileCache cache, boolean collectMetrics) {
+		return compileFile(file, cache, collectMetrics, new CompileLimits());
+	}
+
+	/**
+	 * Compiles a single file through the cache within the given limits, keeping
+	 * the generated code and the warnings and errors in the result
+	 *
+	 * @param file
+	 *            The J-- file to compile
+	 * @param cache
+	 *            The cache to look the file up in, or null to always compile it
+	 * @param collectMetrics
+	 *            true to record the time and allocations of the phases in the
+	 *            result
+	 * @param limits
+	 *            The resources the compilation may use
+	 * @return The result of the compilation
+	 */
+	public static CompileResult compileFile(File file, CompileCache cache, boolean collectMetrics,
+			CompileLimits limits) {
+		return compileFile(file, cache, collectMetrics, limits, false);
+	}
+
+	/**
+	 * Compiles a single file through the cache within the given limits, keeping
+	 * the generated code and the warnings and errors in the result
+	 *
+	 * @param file
+	 *            The J-- file to compile
+	 * @param cache
+	 *            The cache to look the file up in, or null to always compile it
+	 * @param collectMetrics
+	 *            true to record the time and allocations of the phases in the
+	 *            result
+	 * @param limits
+	 *            The resources the compilation may use
+	 * @param fast
+	 *            true to scan the file with FastScan if it is plain ASCII
+	 * @return The result of the compilation
+	 */
+	public static CompileResult compileFile(File file, CompileCache cache, boolean collectMetrics,
+			CompileLimits limits, boolean fast) {
+		try {
+			CompilerMetrics metrics = new CompilerMetrics(collectMetrics);
+			if (cache != null) {
+				//The cache needs the bytes of the source for its key
+				return cache.compile(file.getPath(), Files.readAllBytes(file.toPath()), metrics, limits, fast);
+			}
+			if (fast) {
+				return Compilation.capture(file.getPath(), FastScan.read(file), metrics, limits);
+			}
+			return Compilation.capture(file.getPath(), SourceReader.open(file), metrics, limits);
+		} catch (IOException e) {
+			return new CompileResult(file.getPath(), false, new byte[0],
+					"Could not read " + file.getPath() + ": " + e.getMessage() + System.lineSeparator());
+		}
+	}
+
+	/**
+	 * Prints the warnings and errors of the result, then writes the generated code
+	 * to the output file if the compilation succeeded
+	 *
+	 * @param result
+	 *            The result of compiling a file
+	 * @param watFile
+	 *            The file to write the generated WebAssembly text to
+	 * @return true if the file was compiled and written, false otherwise
+	 */
+	private static boolean writeResult(CompileResult result, File watFile) {
+		System.err.print(result.getDiagnostics());
+		if (!result.isSuccess()) {
+			return false;
+		}
+		try (FileOutputStream out = new FileOutputStream(watFile)) {
+			out.write(result.getOutput());
+		} catch (IOException e) {
+			System.err.println("Could not write " + watFile.getPath() + ": " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the metrics of each file, and their sum, as a JSON report. Files that
+	 * came from the cache or could not be read have null metrics
+	 *
+	 * @param results
+	 *            The results of the compilations, in the order the files were
+	 *            given
+	 * @param report
+	 *            The file to write the report to
+	 * @return true if the report was written, false otherwise
+	 */
+	private static boolean writeMetrics(List<CompileResult> results, File report) {
+		CompilerMetrics total = new CompilerMetrics(true);
+		StringBuffer json = new StringBuffer("{\"files\": [");
+		for (int i = 0; i < results.size(); i++) {
+			CompileResult result = results.get(i);
+			CompilerMetrics metrics = result.getMetrics();
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("  {\"file\": " + CompilerMetrics.quote(result.getInputFileName()) + ", \"success\": "
+					+ result.isSuccess() + ", \"metrics\": " + (metrics == null ? "null" : metrics.toJSON()) + "}");
+			if (metrics != null) {
+				total.addAll(metrics);
+			}
+		}
+		json.append("\n], \"total\": " + total.toJSON() + "}\n");
+		try (FileOutputStream out = new FileOutputStream(report)) {
+			out.write(json.toString().getBytes("UTF-8"));
+		} catch (IOException e) {
+			System.err.println("Could not write " + report.getPath() + ": " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for the compilation of a file to finish
+	 *
+	 * @param file
+	 *            The file being compiled
+	 * @param result
+	 *            The pending compilation
+	 * @return The result of the compilation
+	 */
+	private static CompileResult getResult(File file, Future<CompileResult> result) {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new CompileResult(file.getPath(), false, new byte[0], "Interrupted" + System.lineSeparator());
+		} catch (ExecutionException e) {
+			StringWriter trace = new StringWriter();
+			e.getCause().printStackTrace(new PrintWriter(trace));
+			return new CompileResult(file.getPath(), false, new byte[0], trace.toString());
+		}
+	}
+
+	/**
+	 * Expands the list of inputs into the list of files to compile. Files are used
+	 * as is. Directories are replaced by the J-- files inside them (files ending
+	 * in .j-- or .t followed by a number, like the test programs), sorted by name
+	 *
+	 * @param inputs
+	 *            The file and directory names
+	 * @return The files to compile
+	 */
+	static List<File> collectFiles(List<String> inputs) {
+		List<File> files = new ArrayList<File>();
+		for (String input : inputs) {
+			File file = new File(input);
+			if (file.isDirectory()) {
+				File[] children = file.listFiles();
+				Arrays.sort(children);
+				for (File child : children) {
+					if (child.isFile() && isSourceFile(child.getName())) {
+						files.add(child);
+					}
+				}
+			} else {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * @param name
+	 *            The file name
+	 * @return true if the file name looks like a J-- program
+	 */
+	private static boolean isSourceFile(String name) {
+		return name.endsWith(".j--") || name.matches(".*\\.t[0-9]+");
+	}
+}
@@ -0,0 +1,118 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ */
+
+/**
+ * Writes the generated code to a file through a FileChannel. The bytes are
+ * collected in several direct buffers, which are written together with a
+ * single gathering write once they are all full. A FileOutputStream instead
+ * makes a system call for every 8 KB the encoder hands it, and copies each of
+ * them into a native buffer first.
+ *
+ * @author charl
+ */
+public class ChannelOutputStream extends OutputStream {
+	private static final int bufferSize = 64 * 1024;
+	private static final int buffers = 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer[] pending = new ByteBuffer[buffers];
+	/**
+	 * The buffer being filled
+	 */
+	private int current = 0;
+
+	/**
+	 * Creates or truncates the file, and opens it for writing
+	 *
+	 * @param file
+	 *            The file to write
+	 * @return a stream writing to the file
+	 * @throws IOException
+	 *             If the file could not be opened
+	 */
+	public static ChannelOutputStream create(File file) throws IOException {
+		return new ChannelOutputStream(FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+	}
+
+	/**
+	 * @param channel
+	 *            Where the bytes are written. Closed when the stream is closed
+	 */
+	public ChannelOutputStream(FileChannel channel) {
+		this.channel = channel;
+		for (int i = 0; i < buffers; i++) {
+			pending[i] = ByteBuffer.allocateDirect(bufferSize);
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (!pending[current].hasRemaining()) {
+			nextBuffer();
+		}
+		pending[current].put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!pending[current].hasRemaining()) {
+				nextBuffer();
+			}
+			int n = Math.min(len, pending[current].remaining());
+			pending[current].put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Moves on to the next buffer, writing all of them if they are full
+	 */
+	private void nextBuffer() throws IOException {
+		if (current + 1 < buffers) {
+			current++;
+		} else {
+			writePending();
+		}
+	}
+
+	/**
+	 * Writes the filled part of every buffer, then empties them
+	 */
+	private void writePending() throws IOException {
+		for (int i = 0; i <= current; i++) {
+			pending[i].flip();
+		}
+		while (pending[current].hasRemaining()) {
+			channel.write(pending, 0, current + 1);
+		}
+		for (int i = 0; i <= current; i++) {
+			pending[i].clear();
+		}
+		current = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writePending();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writePending();
+		} finally {
+			channel.close();
+		}
+	}
+}
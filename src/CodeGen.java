@@ -1,3 +1,8 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.util.Stack;
 
 /**
@@ -15,12 +20,28 @@ public class CodeGen {
 	private Tree tree;
 	private final boolean debug = true;
 	private int tabs = 0;
-	private StringBuffer code = new StringBuffer();
-	private StringBuffer output = new StringBuffer();
+	/**
+	 * The instructions of the function being generated. They are written to the
+	 * output once the function is finished, after the locals of the function
+	 */
+	private StringBuilder code = new StringBuilder();
+	/**
+	 * Where the module is written as it is generated, so only the function being
+	 * generated and the string literals are held in memory
+	 */
+	private PrintWriter output;
 
-	private StringBuffer stringsToPrint = new StringBuffer();
+	/**
+	 * The data segments of the string literals, written at the end of the module
+	 */
+	private StringBuilder stringsToPrint = new StringBuilder();
 	private int stringOffset;
 	private String nameOfDefaultScope;
+	/**
+	 * The name of the runtime function halt() in the generated code, after which
+	 * the code is unreachable
+	 */
+	private String haltName;
 	/**
 	 * Tracks how many blocks have been used before. Use to find what number the
 	 * next block should be.
@@ -36,6 +57,31 @@ public class CodeGen {
 	 * Tracks what the current loop to break out of is
 	 */
 	private Stack<Integer> loopStack = new Stack<Integer>();
+	/**
+	 * The visitors generating the code. Each walks one statement or expression at a
+	 * time
+	 */
+	private final StatementGenerator statementGenerator = new StatementGenerator();
+	private final ExpressionGenerator expressionGenerator = new ExpressionGenerator();
+	private final ExpressionNamer expressionNamer = new ExpressionNamer();
+	/**
+	 * Where the time and allocations of the generation are recorded
+	 */
+	private CompilerMetrics metrics;
+	/**
+	 * The number of lines of code generated, each holding one instruction or the
+	 * start or end of an S-expression
+	 */
+	private long lines;
+	/**
+	 * The compilation whose limits the generated code is checked against, or
+	 * null if it is not limited
+	 */
+	private Compilation compilation;
+	/**
+	 * The number of lines at which the limits are next checked
+	 */
+	private long nextCheck = Long.MAX_VALUE;
 
 	/**
 	 * Creates a new code generator with the given tree and nameOfDefaultScope
@@ -44,22 +90,126 @@ public class CodeGen {
 	 * @param nameOfDefaultScope
 	 */
 	public CodeGen(Tree tree, String nameOfDefaultScope) {
+		this(tree, nameOfDefaultScope, new CompilerMetrics(false));
+	}
+
+	/**
+	 * Creates a new code generator with the given tree and nameOfDefaultScope,
+	 * recording the time and allocations of the generation in metrics
+	 * 
+	 * @param tree
+	 * @param nameOfDefaultScope
+	 * @param metrics
+	 */
+	public CodeGen(Tree tree, String nameOfDefaultScope, CompilerMetrics metrics) {
 		this.tree = tree;
 		this.nameOfDefaultScope = nameOfDefaultScope;
+		this.haltName = "$" + nameOfDefaultScope + "halt";
+		this.metrics = metrics;
+	}
 
+	/**
+	 * Creates a new code generator with the given tree and nameOfDefaultScope,
+	 * recording the time and allocations of the generation in the metrics of the
+	 * compilation, and stopping once the code goes over its limits
+	 * 
+	 * @param tree
+	 * @param nameOfDefaultScope
+	 * @param compilation
+	 */
+	public CodeGen(Tree tree, String nameOfDefaultScope, Compilation compilation) {
+		this(tree, nameOfDefaultScope, compilation.getMetrics());
+		if (compilation.getLimits().isLimited()) {
+			this.compilation = compilation;
+			nextCheck = 0;
+		}
 	}
 
 	/**
 	 * Generate compiled code. This is output to System.out
+	 * 
+	 * @throws IOException
+	 *             If the code could not be written
+	 */
+	public void generate() throws IOException {
+		generate(System.out);
+	}
+
+	/**
+	 * Generate compiled code, writing each function to out as soon as it is
+	 * finished. The data segments of the strings and the size of the memory are
+	 * written at the end. If the generation fails, part of the module has
+	 * already been written
+	 * 
+	 * @param out
+	 *            The stream to print the compiled code to
+	 * @throws IOException
+	 *             If the code could not be written
+	 */
+	public void generate(PrintStream out) throws IOException {
+		begin(out);
+		long time = metrics.time();
+		long allocated = metrics.allocated();
+		genAST();
+		metrics.add(CompilerMetrics.GEN_AST, time, allocated);
+		finish();
+	}
+
+	/**
+	 * Starts the module, writing the runtime functions to out. The global
+	 * declarations are then given one at a time to generateDeclaration, and the
+	 * module is ended by finish. Used by the streaming mode, where there is no
+	 * tree
+	 * 
+	 * @param out
+	 *            The stream to print the compiled code to
 	 */
-	public void generate() {
+	public void begin(PrintStream out) {
+		output = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), 65536));
 		openStructOutput("module");
 
+		long time = metrics.time();
+		long allocated = metrics.allocated();
 		runTime();
-		genAST();
+		metrics.add(CompilerMetrics.RUNTIME, time, allocated);
+	}
+
+	/**
+	 * Generates the code of a single analyzed global declaration, and writes it
+	 * 
+	 * @param node
+	 *            The declaration
+	 */
+	public void generateDeclaration(TreeNode node) {
+		long time = metrics.time();
+		long allocated = metrics.allocated();
+		genDeclaration(node);
+		metrics.add(CompilerMetrics.GEN_AST, time, allocated);
+	}
+
+	/**
+	 * Ends the module with the strings and the memory, and flushes it
+	 * 
+	 * @throws IOException
+	 *             If the code could not be written
+	 */
+	public void finish() throws IOException {
+		long time = metrics.time();
+		long allocated = metrics.allocated();
 		genStrings();
+		metrics.add(CompilerMetrics.GEN_STRINGS, time, allocated);
 
 		closeStructOutput();
+		metrics.countInstructions(lines);
+
+		time = metrics.time();
+		allocated = metrics.allocated();
+		output.println();
+		output.flush();
+		metrics.add(CompilerMetrics.PRINT, time, allocated);
+		if (output.checkError()) {
+			throw new IOException("The generated code could not be written");
+		}
 	}
 
 	/**
@@ -67,39 +217,49 @@ public class CodeGen {
 	 */
 	private void genAST() {
 		for (TreeNode node : tree.root.getChildren()) {
-			switch (node.getType()) {
-			case mainfunctiondeclaration:
-				//Rename the function to $main
-				openStructOutput("func $main");
-				// Generate the code for the function
-				genFunc(node);
-				closeStructOutput();
-				//start the main program
-				printLineTabbedOutput("(start $main)");
-				break;
-			case functiondeclaration:
-				//Find the parameters of the function
-				StringBuffer params = new StringBuffer(" ");
-				for (TreeNode param : node.getChild(2).getChildren()) {
-					params.append("(param " + getNameOf(param.getChild(1)) + " i32) ");
-				}
-				//Find the return type of the function
-				StringBuffer ret = new StringBuffer();
-				if (node.getChild(0).getType() != TreeNodeType.VOID) {
-					ret.append("(result i32)");
-				}
-				//Create a function with the specified signature
-				openStructOutput("func " + getNameOf(node.getChild(1)) + params.toString() + ret.toString());
-
-				genFunc(node);
+			genDeclaration(node);
+		}
+	}
 
-				closeStructOutput();
-				break;
-			case variabledeclaration:
-				//Create a local variable
-				printLineTabbedOutput("(global " + getNameOf(node.getChild(1)) + " (mut i32) (i32.const 0))");
-				break;
+	/**
+	 * Generate code for a global declaration
+	 * 
+	 * @param node
+	 *            The declaration
+	 */
+	private void genDeclaration(TreeNode node) {
+		switch (node.getType()) {
+		case mainfunctiondeclaration:
+			//Rename the function to $main
+			openStructOutput("func $main");
+			// Generate the code for the function
+			genFunc(node);
+			closeStructOutput();
+			//start the main program
+			printLineTabbedOutput("(start $main)");
+			break;
+		case functiondeclaration:
+			//Find the parameters of the function
+			StringBuffer params = new StringBuffer(" ");
+			for (TreeNode param : node.getChild(2).getChildren()) {
+				params.append("(param " + getNameOf(param.getChild(1)) + " i32) ");
 			}
+			//Find the return type of the function
+			StringBuffer ret = new StringBuffer();
+			if (node.getChild(0).getType() != TreeNodeType.VOID) {
+				ret.append("(result i32)");
+			}
+			//Create a function with the specified signature
+			openStructOutput("func " + getNameOf(node.getChild(1)) + params.toString() + ret.toString());
+
+			genFunc(node);
+
+			closeStructOutput();
+			break;
+		case variabledeclaration:
+			//Create a local variable
+			printLineTabbedOutput("(global " + getNameOf(node.getChild(1)) + " (mut i32) (i32.const 0))");
+			break;
 		}
 	}
 
@@ -148,7 +308,7 @@ public class CodeGen {
 	 * Adds the code to add strings into the linear memory to output
 	 */
 	private void genStrings() {
-		output.append(stringsToPrint.toString());
+		output.append(stringsToPrint);
 		printLineTabbedOutput("(memory " + ((stringOffset + 65535) / 65536) + ")");
 	}
 
@@ -170,85 +330,105 @@ public class CodeGen {
 	 * @param node
 	 */
 	private void genBlockOrStatement(TreeNode node) {
+		statementGenerator.walk(node);
+	}
 
-		switch (node.getType()) {
-		case block:
-			for (TreeNode n : node.getChildren()) {
-				genBlockOrStatement(n);
-			}
-			break;
-		case variabledeclaration:
-			printLineTabbedOutput("(local " + getNameOf(node.getChild(1)) + " i32)");
-			break;
-		case statementexpression:
-			genExpression(node.getChild(0));
-			printLineTabbedCode("drop"); //need to drop the result of the expression out of the stack, since all expressions evaluate to a value. This is the top level call of the expression
-			break;
-		case functioninvocation:
-			funcInvoke(node);
-			if (!node.getChild(0).sig.startsWith("void")) { //need to drop a value out of the stack if the function returned something, as this is a top level call
-				printLineTabbedCode("drop");
-			}
-			break;
-		case nullStatement:
-			//do not need to do anything
-			break;
-		case IF:
-			genExpression(node.getChild(0));
-			openStructCode("if");
-
-			openStructCode("then");
-			genBlockOrStatement(node.getChild(1));
-			closeStructCode();
-
-			closeStructCode();
-			break;
-		case IFELSE:
-			genExpression(node.getChild(0));
-
-			openStructCode("if");
+	/**
+	 * Walks the statements of a function, generating the code of each statement
+	 * around the code of the statements inside it
+	 * 
+	 * @author charl
+	 */
+	private class StatementGenerator extends TreeVisitor<RuntimeException, RuntimeException> {
+		@Override
+		protected void enter(TreeNode node) {
+			switch (node.getType()) {
+			case variabledeclaration:
+				printLineTabbedOutput("(local " + getNameOf(node.getChild(1)) + " i32)");
+				break;
+			case statementexpression:
+				genExpression(node.getChild(0));
+				printLineTabbedCode("drop"); //need to drop the result of the expression out of the stack, since all expressions evaluate to a value. This is the top level call of the expression
+				break;
+			case functioninvocation:
+				genExpressionNoDebug(node);
+				if (node.getChild(0).getSig().getReturnType() != Type.VOID) { //need to drop a value out of the stack if the function returned something, as this is a top level call
+					printLineTabbedCode("drop");
+				}
+				break;
+			case IF:
+			case IFELSE:
+				genExpression(node.getChild(0));
 
-			openStructCode("then");
-			genBlockOrStatement(node.getChild(1));
-			closeStructCode();
+				openStructCode("if");
 
-			openStructCode("else");
-			genBlockOrStatement(node.getChild(2));
-			closeStructCode();
+				openStructCode("then");
+				break;
+			case WHILE:
+				int num = blockNum;
+				loopStack.add(num);
+				openStructCode("block $B" + num);
+				genExpression(node.getChild(0));
+				printLineTabbedCode("i32.eqz");
+				printLineTabbedCode("br_if $B" + num);
 
-			closeStructCode();
-			break;
-		case WHILE:
-			int num = blockNum;
-			loopStack.add(num);
-			openStructCode("block $B" + num);
-			genExpression(node.getChild(0));
-			printLineTabbedCode("i32.eqz");
-			printLineTabbedCode("br_if $B" + num);
+				openStructCode("loop $L" + num);
+				blockNum++;
+				break;
+			case RETURN:
+				if (node.getChildren().size() > 0) {
+					genExpression(node.getChild(0));
+				}
+				printLineTabbedCode("return");
 
-			openStructCode("loop $L" + num);
-			blockNum++;
+				break;
+			case BREAK:
+				printLineTabbedCode("br $B" + loopStack.peek());
+				break;
+			default:
+				//blocks and null statements do not need anything
+			}
+		}
 
-			genBlockOrStatement(node.getChild(1));
+		@Override
+		protected TreeNode next(TreeNode node, int step) {
+			switch (node.getType()) {
+			case block:
+				return step < node.getChildren().size() ? node.getChild(step) : null;
+			case IF:
+			case WHILE:
+				return step == 0 ? node.getChild(1) : null;
+			case IFELSE:
+				if (step == 1) {
+					closeStructCode();
+
+					openStructCode("else");
+				}
+				return step < 2 ? node.getChild(step + 1) : null;
+			default:
+				return null;
+			}
+		}
 
-			genExpression(node.getChild(0));
-			printLineTabbedCode("br_if $L" + num);
+		@Override
+		protected void exit(TreeNode node) {
+			switch (node.getType()) {
+			case IF:
+			case IFELSE:
+				closeStructCode();
 
-			closeStructCode();
-			closeStructCode();
-			loopStack.pop();
-			break;
-		case RETURN:
-			if (node.getChildren().size() > 0) {
+				closeStructCode();
+				break;
+			case WHILE:
 				genExpression(node.getChild(0));
-			}
-			printLineTabbedCode("return");
-
-			break;
-		case BREAK:
-			printLineTabbedCode("br $B" + loopStack.peek());
-			break;
+				printLineTabbedCode("br_if $L" + loopStack.peek());
 
+				closeStructCode();
+				closeStructCode();
+				loopStack.pop();
+				break;
+			default:
+			}
 		}
 	}
 
@@ -277,189 +457,228 @@ public class CodeGen {
 	 *            The node that contains an expression
 	 */
 	private void genExpressionNoDebug(TreeNode expressionNode) {
-		switch (expressionNode.getType()) {
-		case ID:
-			if (expressionNode.getScope() instanceof GlobalScope) {
-				printLineTabbedCode("global.get " + getNameOf(expressionNode));
-			} else {
-				printLineTabbedCode("local.get " + getNameOf(expressionNode));
-			}
-			break;
-		case NUM:
-			printLineTabbedCode("i32.const " + expressionNode.getAttr());
-			break;
-		case TRUE:
-			printLineTabbedCode("i32.const 1");
-			break;
-		case FALSE:
-			printLineTabbedCode("i32.const 0");
-			break;
-		case STRING:
-			break;
-		case ASSIGN:
-			genExpressionNoDebug(expressionNode.getChild(1));
-			if (expressionNode.getChild(0).getScope() instanceof GlobalScope) {
-				printLineTabbedCode("global.set " + getNameOf(expressionNode.getChild(0)));
-				printLineTabbedCode("global.get " + getNameOf(expressionNode.getChild(0))); //The assign operator still evaluates to a value
-			} else {
-				printLineTabbedCode("local.set " + getNameOf(expressionNode.getChild(0)));
-				printLineTabbedCode("local.get " + getNameOf(expressionNode.getChild(0))); //The assign operator still evaluates to a value
-			}
-			break;
-		case EQ:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.eq");
-			break;
-		case NEQ:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.ne");
-			break;
-		case LT:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.lt_s");
-			break;
-		case GT:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.gt_s");
-			break;
-		case LE:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.le_s");
-			break;
-		case GE:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.ge_s");
-			break;
-		case SUB:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.sub");
-			break;
-		case MUL:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.mul");
-			break;
-		case DIV:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.div_s");
-			break;
-		case MOD:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.rem_s");
-			break;
-		case ADD:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("i32.add");
-			break;
-		case AND:
-			//Convert to shortcircuiting:
-			//			If(a){
-			//				return b
-			//			}else {
-			//				return false;
-			//			}
-			genExpressionNoDebug(expressionNode.getChild(0));
-
-			openStructCode("if");
-
-			openStructCode("then");
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("local.set " + boolTemp);
-			closeStructCode();
-
-			openStructCode("else");
-			printLineTabbedCode("i32.const 0");
-			printLineTabbedCode("local.set " + boolTemp);
-			closeStructCode();
-
-			closeStructCode();
-
-			printLineTabbedCode("local.get " + boolTemp);
-			break;
-		case OR:
-			//Convert to shortcircuiting:
-			//			If(a){
-			//				return true
-			//			}else {
-			//				return b;
-			//			}
-			genExpressionNoDebug(expressionNode.getChild(0));
-			openStructCode("if");
-
-			openStructCode("then");
-			printLineTabbedCode("i32.const 1");
-			printLineTabbedCode("local.set " + boolTemp);
-			closeStructCode();
-
-			openStructCode("else");
-			genExpressionNoDebug(expressionNode.getChild(1));
-			printLineTabbedCode("local.set " + boolTemp);
-			closeStructCode();
-
-			closeStructCode();
-			printLineTabbedCode("local.get " + boolTemp);
-			break;
-		case UNARY_SUB:
-			printLineTabbedCode("i32.const 0");
-			genExpressionNoDebug(expressionNode.getChild(0));
-			printLineTabbedCode("i32.sub");
-			break;
-		case NOT:
-			genExpressionNoDebug(expressionNode.getChild(0));
-			printLineTabbedCode("i32.eqz");//  0 eqz = 1, 1 eqz = 0
-			break;
-		case functioninvocation:
-			funcInvoke(expressionNode);
-			break;
-		default:
-
-		}
+		expressionGenerator.walk(expressionNode);
 	}
 
 	/**
-	 * Generate code for the function call represented by the input node
+	 * Walks an expression, generating the code of each operator around the code
+	 * of its operands. The arguments of a function call are generated like with
+	 * genExpression
 	 * 
-	 * @param node
+	 * @author charl
 	 */
-	private void funcInvoke(TreeNode funcNode) {
-		GlobalScope gScope = (GlobalScope) funcNode.getChild(0).getScope();
-		if (gScope.getFuncInputType(funcNode.getChild(0).getAttr()).contains(Type.STRING)) {//Only the special runtime function prints() can have a string as the argument
-			String arg = funcNode.getChild(1).getChild(0).getAttr();
-			printLineTabbedCode("i32.const " + stringOffset);
-			printLineTabbedCode("i32.const " + stringLength(arg));
-			printLineTabbedCode("call " + getNameOf(funcNode.getChild(0)));
-			addString(arg);
-		} else {
-			TreeNode argList = funcNode.getChild(1);
-			for (TreeNode argument : argList.getChildren()) {
-				genExpression(argument);
+	private class ExpressionGenerator extends TreeVisitor<RuntimeException, RuntimeException> {
+		@Override
+		protected void enter(TreeNode expressionNode) {
+			switch (expressionNode.getType()) {
+			case ID:
+				if (expressionNode.getScope() instanceof GlobalScope) {
+					printLineTabbedCode("global.get " + getNameOf(expressionNode));
+				} else {
+					printLineTabbedCode("local.get " + getNameOf(expressionNode));
+				}
+				break;
+			case NUM:
+				printLineTabbedCode("i32.const " + expressionNode.getAttr());
+				break;
+			case TRUE:
+				printLineTabbedCode("i32.const 1");
+				break;
+			case FALSE:
+				printLineTabbedCode("i32.const 0");
+				break;
+			case UNARY_SUB:
+				printLineTabbedCode("i32.const 0");
+				break;
+			case functioninvocation:
+				if (hasStringArgument(expressionNode)) {//Only the special runtime function prints() can have a string as the argument
+					String arg = expressionNode.getChild(1).getChild(0).getAttr();
+					printLineTabbedCode("i32.const " + stringOffset);
+					printLineTabbedCode("i32.const " + stringLength(arg));
+					printLineTabbedCode("call " + getNameOf(expressionNode.getChild(0)));
+					addString(arg);
+				}
+				break;
+			default:
+			}
+		}
+
+		@Override
+		protected TreeNode next(TreeNode expressionNode, int step) {
+			switch (expressionNode.getType()) {
+			case ASSIGN:
+				return step == 0 ? expressionNode.getChild(1) : null;
+			case EQ:
+			case NEQ:
+			case LT:
+			case GT:
+			case LE:
+			case GE:
+			case SUB:
+			case MUL:
+			case DIV:
+			case MOD:
+			case ADD:
+				return step < 2 ? expressionNode.getChild(step) : null;
+			case AND:
+				//Convert to shortcircuiting:
+				//			If(a){
+				//				return b
+				//			}else {
+				//				return false;
+				//			}
+				if (step == 1) {
+					openStructCode("if");
+
+					openStructCode("then");
+				}
+				return step < 2 ? expressionNode.getChild(step) : null;
+			case OR:
+				//Convert to shortcircuiting:
+				//			If(a){
+				//				return true
+				//			}else {
+				//				return b;
+				//			}
+				if (step == 1) {
+					openStructCode("if");
+
+					openStructCode("then");
+					printLineTabbedCode("i32.const 1");
+					printLineTabbedCode("local.set " + boolTemp);
+					closeStructCode();
+
+					openStructCode("else");
+				}
+				return step < 2 ? expressionNode.getChild(step) : null;
+			case UNARY_SUB:
+			case NOT:
+				return step == 0 ? expressionNode.getChild(0) : null;
+			case functioninvocation:
+				if (hasStringArgument(expressionNode)) {
+					return null;
+				}
+				//Each argument is generated like with genExpression
+				TreeNode argList = expressionNode.getChild(1);
+				if (step > 0 && debug) {
+					printLineTabbedCode(";; " + getExpressionName(argList.getChild(step - 1)));
+					printLineTabbedCode("");
+				}
+				if (step < argList.getChildren().size()) {
+					if (debug) {
+						printLineTabbedCode("");
+					}
+					return argList.getChild(step);
+				}
+				return null;
+			default:
+				return null;
 			}
-			printLineTabbedCode("call " + getNameOf(funcNode.getChild(0)));
 		}
-		if (getNameOf(funcNode.getChild(0)).equals("$" + nameOfDefaultScope + "halt")) {
-			printLineTabbedCode("unreachable");
+
+		@Override
+		protected void exit(TreeNode expressionNode) {
+			switch (expressionNode.getType()) {
+			case ASSIGN:
+				if (expressionNode.getChild(0).getScope() instanceof GlobalScope) {
+					printLineTabbedCode("global.set " + getNameOf(expressionNode.getChild(0)));
+					printLineTabbedCode("global.get " + getNameOf(expressionNode.getChild(0))); //The assign operator still evaluates to a value
+				} else {
+					printLineTabbedCode("local.set " + getNameOf(expressionNode.getChild(0)));
+					printLineTabbedCode("local.get " + getNameOf(expressionNode.getChild(0))); //The assign operator still evaluates to a value
+				}
+				break;
+			case EQ:
+				printLineTabbedCode("i32.eq");
+				break;
+			case NEQ:
+				printLineTabbedCode("i32.ne");
+				break;
+			case LT:
+				printLineTabbedCode("i32.lt_s");
+				break;
+			case GT:
+				printLineTabbedCode("i32.gt_s");
+				break;
+			case LE:
+				printLineTabbedCode("i32.le_s");
+				break;
+			case GE:
+				printLineTabbedCode("i32.ge_s");
+				break;
+			case SUB:
+				printLineTabbedCode("i32.sub");
+				break;
+			case MUL:
+				printLineTabbedCode("i32.mul");
+				break;
+			case DIV:
+				printLineTabbedCode("i32.div_s");
+				break;
+			case MOD:
+				printLineTabbedCode("i32.rem_s");
+				break;
+			case ADD:
+				printLineTabbedCode("i32.add");
+				break;
+			case AND:
+				printLineTabbedCode("local.set " + boolTemp);
+				closeStructCode();
+
+				openStructCode("else");
+				printLineTabbedCode("i32.const 0");
+				printLineTabbedCode("local.set " + boolTemp);
+				closeStructCode();
+
+				closeStructCode();
+
+				printLineTabbedCode("local.get " + boolTemp);
+				break;
+			case OR:
+				printLineTabbedCode("local.set " + boolTemp);
+				closeStructCode();
+
+				closeStructCode();
+				printLineTabbedCode("local.get " + boolTemp);
+				break;
+			case UNARY_SUB:
+				printLineTabbedCode("i32.sub");
+				break;
+			case NOT:
+				printLineTabbedCode("i32.eqz");//  0 eqz = 1, 1 eqz = 0
+				break;
+			case functioninvocation:
+				if (!hasStringArgument(expressionNode)) {
+					printLineTabbedCode("call " + getNameOf(expressionNode.getChild(0)));
+				}
+				if (getNameOf(expressionNode.getChild(0)).equals(haltName)) {
+					printLineTabbedCode("unreachable");
+				}
+				break;
+			default:
+			}
 		}
 	}
 
+	/**
+	 * @param funcNode
+	 *            A function call
+	 * @return true if the function called takes a string. Only the special runtime
+	 *         function prints() can
+	 */
+	private boolean hasStringArgument(TreeNode funcNode) {
+		return funcNode.getChild(0).getSig().takes(Type.STRING);
+	}
+
 	/**
 	 * Returns the name of that should be used to access the variable represented by
-	 * the ID.
+	 * the ID. Its scope builds it once for each variable or function
 	 * 
 	 * @param IDnode
 	 * @return
 	 */
 	private String getNameOf(TreeNode IDnode) {
-		return "$" + IDnode.getScope().getName() + IDnode.getAttr();
+		return IDnode.getScope().getCodeName(IDnode.getName());
 	}
 
 	/**
@@ -490,18 +709,12 @@ public class CodeGen {
 	}
 
 	/**
-	 * Print the compiled code.
-	 */
-	public void fprint() {
-		System.out.println(output);
-	}
-
-	/**
-	 * Appends the content of code into the output, then clears code
+	 * Writes the content of code to the output, then clears code, keeping its
+	 * capacity for the next function
 	 */
 	private void printCodeToOutput() {
-		output.append(code.toString());
-		code = new StringBuffer();
+		output.append(code);
+		code.setLength(0);
 	}
 
 	/**
@@ -517,6 +730,9 @@ public class CodeGen {
 		}
 		code.append(s);
 		code.append('\n');
+		if (++lines >= nextCheck) {
+			nextCheck = compilation.checkInstructions(lines);
+		}
 	}
 
 	/**
@@ -532,6 +748,9 @@ public class CodeGen {
 		}
 		output.append(s);
 		output.append("\r\n");
+		if (++lines >= nextCheck) {
+			nextCheck = compilation.checkInstructions(lines);
+		}
 	}
 
 	/**
@@ -593,56 +812,97 @@ public class CodeGen {
 	 * @return A string representation of the node
 	 */
 	private String getExpressionName(TreeNode expressionNode) {
-		switch (expressionNode.getType()) {
-		case ID:
-		case STRING:
-		case NUM:
-			//Return the attribute
-			return expressionNode.getAttr();
-		case BOOL:
-		case TRUE:
-		case FALSE:
-			//return the literal
-			return expressionNode.getType().toString();
-		case functioninvocation:
-			//Make a string representation of the arguments for error messaging
-			StringBuffer paramNames = new StringBuffer();
-			for (TreeNode args : expressionNode.getChild(1).getChildren()) {
-				if (paramNames.length() != 0)
-					paramNames.append(", ");
-				paramNames.append(getExpressionName(args));
+		expressionNamer.name.setLength(0);
+		expressionNamer.walk(expressionNode);
+		return expressionNamer.name.toString();
+	}
 
+	/**
+	 * Walks an expression, writing each operand and operator in order
+	 * 
+	 * @author charl
+	 */
+	private class ExpressionNamer extends TreeVisitor<RuntimeException, RuntimeException> {
+		private StringBuilder name = new StringBuilder();
+		/**
+		 * For each function call being written, where its arguments start in name
+		 */
+		private Stack<Integer> argStarts = new Stack<Integer>();
+
+		@Override
+		protected void enter(TreeNode expressionNode) {
+			switch (expressionNode.getType()) {
+			case ID:
+			case STRING:
+			case NUM:
+				//The attribute
+				name.append(expressionNode.getAttr());
+				break;
+			case BOOL:
+			case TRUE:
+			case FALSE:
+				//The literal
+				name.append(expressionNode.getType().toString());
+				break;
+			case functioninvocation:
+				//The id, then the arguments of the function call
+				name.append(expressionNode.getChild(0).getAttr() + "(");
+				argStarts.push(name.length());
+				break;
+			case UNARY_SUB:
+			case NOT:
+				//The operator, then the right of the operator
+				name.append(expressionNode.getType());
+				break;
+			default:
 			}
+		}
 
-			//return the id and the arguments of the function call
-			return expressionNode.getChild(0).getAttr() + "(" + paramNames + ")";
-
-		case ASSIGN:
-		case EQ:
-		case NEQ:
-		case SUB:
-		case MUL:
-		case DIV:
-		case MOD:
-		case ADD:
-		case LT:
-		case GT:
-		case LE:
-		case GE:
-		case AND:
-		case OR:
-			//return the left of the operator, the operator, the right of the operator
-			return getExpressionName(expressionNode.getChild(0)) + " " + expressionNode.getType() + " "
-					+ getExpressionName(expressionNode.getChild(1));
-
-		case UNARY_SUB:
-		case NOT:
-			//return the operator and the right of the operator
-			return expressionNode.getType() + getExpressionName(expressionNode.getChild(0));
-		default:
-			return "";
+		@Override
+		protected TreeNode next(TreeNode expressionNode, int step) {
+			switch (expressionNode.getType()) {
+			case functioninvocation:
+				TreeNode argList = expressionNode.getChild(1);
+				if (step < argList.getChildren().size()) {
+					if (name.length() != argStarts.peek())
+						name.append(", ");
+					return argList.getChild(step);
+				}
+				return null;
+			case ASSIGN:
+			case EQ:
+			case NEQ:
+			case SUB:
+			case MUL:
+			case DIV:
+			case MOD:
+			case ADD:
+			case LT:
+			case GT:
+			case LE:
+			case GE:
+			case AND:
+			case OR:
+				//The left of the operator, the operator, the right of the operator
+				if (step == 1) {
+					name.append(" " + expressionNode.getType() + " ");
+				}
+				return step < 2 ? expressionNode.getChild(step) : null;
+			case UNARY_SUB:
+			case NOT:
+				return step < 1 ? expressionNode.getChild(0) : null;
+			default:
+				return null;
+			}
 		}
 
+		@Override
+		protected void exit(TreeNode expressionNode) {
+			if (expressionNode.getType() == TreeNodeType.functioninvocation) {
+				argStarts.pop();
+				name.append(')');
+			}
+		}
 	}
 
 	/**
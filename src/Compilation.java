@@ -0,0 +1,939 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+import java_cup.runtime.ComplexSymbolFactory;
+import java_cup.runtime.ComplexSymbolFactory.ComplexSymbol;
+import java_cup.runtime.ComplexSymbolFactory.Location;
+import java_cup.runtime.Symbol;
+
+/**
+ *
+ */
+
+/**
+ * Everything that belongs to the compilation of a single file: the file name,
+ * the symbol factory, the identifiers, the warning count, where warnings and
+ * errors are printed, and the resources used against the limits of the
+ * compilation. Nothing is shared between compilations, so several can run at
+ * the same time in one JVM
+ *
+ * @author charl
+ */
+public class Compilation {
+	/**
+	 * The maximum number of warnings printed before the compilation is stopped
+	 */
+	static final int maxWarnings = 10;
+	/**
+	 * How many tokens or lines of code go by between two checks of the limits,
+	 * so the clock isn't read for every one
+	 */
+	static final long checkInterval = 1024;
+	/**
+	 * Throws away the warnings of the signature scan, which the parser prints
+	 * again
+	 */
+	private static final PrintStream discard = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+	/**
+	 * The name of the file being compiled, used in warning and error messages
+	 */
+	private final String inputFileName;
+	/**
+	 * Where the warnings and errors of this compilation are printed
+	 */
+	private final PrintStream err;
+	/**
+	 * Creates the tokens and the nonterminals of the parse, counting them if the
+	 * compilation is limited
+	 */
+	private final ComplexSymbolFactory symbolFactory;
+	/**
+	 * The identifiers found by the scanner, shared by the analyzer and the code
+	 * generator
+	 */
+	private final NameTable names = new NameTable();
+	/**
+	 * The signature of a function of no parameters returning each type, from
+	 * which the signatures of the functions of this compilation are made
+	 */
+	private final Signature[] functions = Signature.functions();
+	/**
+	 * The time and allocations of the phases of this compilation
+	 */
+	private final CompilerMetrics metrics;
+	/**
+	 * The number of warnings printed so far
+	 */
+	private int warningCount = 0;
+	/**
+	 * The resources this compilation may use
+	 */
+	private final CompileLimits limits;
+	/**
+	 * Whether the program is parsed by DescentParser instead of the generated
+	 * parser
+	 */
+	private boolean descent = false;
+	/**
+	 * Whether the global declarations of a program scanned into a TokenBuffer
+	 * are parsed in parallel
+	 */
+	private boolean parallel = false;
+	/**
+	 * Whether the tree of the program is kept in a FlatTree
+	 */
+	private boolean flat = false;
+	/**
+	 * The System.nanoTime by which the compilation must be finished, if it has a
+	 * time limit
+	 */
+	private final long deadline;
+	private final boolean timed;
+	/**
+	 * The resources used so far. The nodes are those of the declarations already
+	 * handed to the listener in streaming mode, which are no longer in the tree
+	 */
+	private long chars;
+	private long tokens;
+	private long streamedNodes;
+	private long scopes;
+	/**
+	 * The number of tokens at which the limits are next checked
+	 */
+	private long nextTokenCheck;
+
+	/**
+	 * Creates a compilation of the file with the given name
+	 *
+	 * @param inputFileName
+	 *            The name of the file, used in warning and error messages
+	 * @param err
+	 *            Where warnings and errors are printed
+	 */
+	public Compilation(String inputFileName, PrintStream err) {
+		this(inputFileName, err, new CompilerMetrics(false));
+	}
+
+	/**
+	 * Creates a compilation of the file with the given name, recording the time
+	 * and allocations of its phases in the given metrics
+	 *
+	 * @param inputFileName
+	 *            The name of the file, used in warning and error messages
+	 * @param err
+	 *            Where warnings and errors are printed
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 */
+	public Compilation(String inputFileName, PrintStream err, CompilerMetrics metrics) {
+		this(inputFileName, err, metrics, new CompileLimits());
+	}
+
+	/**
+	 * Creates a compilation of the file with the given name, which stops with an
+	 * error once it uses more than the given limits. The time limit starts now
+	 *
+	 * @param inputFileName
+	 *            The name of the file, used in warning and error messages
+	 * @param err
+	 *            Where warnings and errors are printed
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @param limits
+	 *            The resources the compilation may use
+	 */
+	public Compilation(String inputFileName, PrintStream err, CompilerMetrics metrics, CompileLimits limits) {
+		this.inputFileName = inputFileName;
+		this.err = err;
+		this.metrics = metrics;
+		this.limits = limits;
+		long millis = limits.get(CompileLimits.MILLIS);
+		timed = millis < Long.MAX_VALUE / 1000000;
+		deadline = timed ? System.nanoTime() + millis * 1000000 : Long.MAX_VALUE;
+		nextTokenCheck = nextCheck(CompileLimits.TOKENS, 0);
+		//Without limits, nothing is counted
+		symbolFactory = limits.isLimited() ? new LimitedSymbolFactory() : new ComplexSymbolFactory();
+	}
+
+	/**
+	 * Runs the lexer, parser, semantic analyzer and code generator on the input,
+	 * and prints the generated code to out, one function at a time
+	 *
+	 * @param reader
+	 *            The input to compile
+	 * @param out
+	 *            Where the generated code is printed
+	 * @throws CompilerExitException
+	 *             If the compilation was stopped by an error or went over a limit,
+	 *             which has already been printed
+	 * @throws Exception
+	 *             If the parser or code generator failed unexpectedly
+	 */
+	public void compile(Reader reader, PrintStream out) throws Exception {
+		try {
+			compileTree(new Scan(limit(reader), this), out);
+		} catch (CompileLimitException e) {
+			throw stop(e);
+		}
+	}
+
+	/**
+	 * Compiles the bytes of a source like compile(Reader, PrintStream), scanning
+	 * them with FastScan if they are plain ASCII
+	 *
+	 * @param source
+	 *            The input to compile, from its position to its limit
+	 * @param out
+	 *            Where the generated code is printed
+	 * @throws CompilerExitException
+	 *             If the compilation was stopped by an error or went over a limit,
+	 *             which has already been printed
+	 * @throws Exception
+	 *             If the parser or code generator failed unexpectedly
+	 * @see FastScan
+	 */
+	public void compile(ByteBuffer source, PrintStream out) throws Exception {
+		try {
+			//The whole source is already read, so it is counted at once
+			countChars(source.remaining());
+			compileTree(FastScan.open(source, this), out);
+		} catch (CompileLimitException e) {
+			throw stop(e);
+		}
+	}
+
+	/**
+	 * Compiles the bytes of a source like compile(ByteBuffer, PrintStream), but
+	 * scans a plain ASCII source into a TokenBuffer first, whose symbols are only
+	 * created as the parser reads them
+	 *
+	 * @param source
+	 *            The input to compile, from its position to its limit
+	 * @param out
+	 *            Where the generated code is printed
+	 * @throws CompilerExitException
+	 *             If the compilation was stopped by an error or went over a limit,
+	 *             which has already been printed
+	 * @throws Exception
+	 *             If the parser or code generator failed unexpectedly
+	 * @see TokenBuffer
+	 */
+	public void compileTokens(ByteBuffer source, PrintStream out) throws Exception {
+		try {
+			countChars(source.remaining());
+			//Scanned before parsing, so it is added to the scan time after the parse time is worked out
+			CompilerMetrics tokenizing = new CompilerMetrics(metrics.isEnabled());
+			long time = tokenizing.time();
+			long allocated = tokenizing.allocated();
+			TokenBuffer tokens = TokenBuffer.tokenize(source, this);
+			Scan scanner = tokens == null ? FastScan.open(source, this) : tokens.scanner(this);
+			tokenizing.add(CompilerMetrics.SCAN, time, allocated);
+			compileTree(scanner, parallel && !flat ? tokens : null, out);
+			metrics.addAll(tokenizing);
+		} catch (CompileLimitException e) {
+			throw stop(e);
+		}
+	}
+
+	/**
+	 * Compiles the input the normal way, with the whole tree in memory
+	 */
+	private void compileTree(Scan scanner, PrintStream out) throws Exception {
+		compileTree(scanner, null, out);
+	}
+
+	/**
+	 * Compiles the input the normal way, parsing the global declarations in
+	 * parallel if their tokens are given
+	 */
+	private void compileTree(Scan scanner, TokenBuffer tokens, PrintStream out) throws Exception {
+		if (flat) {
+			compileFlat(scanner, out);
+			return;
+		}
+		long time = metrics.time();
+		long allocated = metrics.allocated();
+		Tree tree = tokens != null ? new ParallelParser(tokens, this).parse() : parse(scanner);
+		metrics.add(CompilerMetrics.PARSE, time, allocated);
+		//The scanner ran while parsing
+		metrics.subtract(CompilerMetrics.PARSE, CompilerMetrics.SCAN);
+		metrics.countTreeNodes(tree);
+		analyzeAndGenerate(tree, out);
+	}
+
+	/**
+	 * Analyzes the tree and prints its code
+	 */
+	private void analyzeAndGenerate(Tree tree, PrintStream out) throws Exception {
+		SemanticAnalyzer semAnalyze = new SemanticAnalyzer(tree, this);
+		semAnalyze.analyze();
+		CodeGen codeGen = new CodeGen(tree, semAnalyze.defaultScopeName, this);
+		if (metrics.isEnabled()) {
+			PrintStream counted = new PrintStream(metrics.countOutput(out));
+			codeGen.generate(counted);
+			counted.flush();
+		} else {
+			codeGen.generate(out);
+		}
+	}
+
+	/**
+	 * Compiles the input with the tree in a FlatTree. Each global declaration is
+	 * added to it as the parser finishes it, so the whole program is never held
+	 * as TreeNodes. The declarations are then analyzed and generated one at a
+	 * time, and all of them are analyzed before any code is printed, so the
+	 * output is the same as with the whole tree
+	 */
+	private void compileFlat(Scan scanner, PrintStream out) throws Exception {
+		long time = metrics.time();
+		long allocated = metrics.allocated();
+		final FlatTree flatTree = new FlatTree(names);
+		Tree tree = parse(scanner, new DeclarationListener() {
+			@Override
+			public void declaration(TreeNode node) {
+				if (node != null) {
+					metrics.countTreeNodes(node);
+					flatTree.add(node);
+				}
+			}
+		});
+		flatTree.trim();
+		metrics.add(CompilerMetrics.PARSE, time, allocated);
+		metrics.subtract(CompilerMetrics.PARSE, CompilerMetrics.SCAN);
+		if (tree == null) {
+			//An empty program has no main function, as with the whole tree
+			analyzeAndGenerate(null, out);
+			return;
+		}
+		metrics.countTreeNodes(tree);
+		SemanticAnalyzer semAnalyze = flatTree.analyze(this);
+		CodeGen codeGen = new CodeGen(null, semAnalyze.defaultScopeName, this);
+		PrintStream counted = metrics.isEnabled() ? new PrintStream(metrics.countOutput(out)) : out;
+		flatTree.generate(codeGen, counted);
+		counted.flush();
+	}
+
+	/**
+	 * Parses the whole program, with DescentParser if it was asked for
+	 *
+	 * @return the tree of the program, or null if it is empty
+	 */
+	Tree parse(Scan scanner) throws Exception {
+		return parse(scanner, null);
+	}
+
+	/**
+	 * Parses the whole program, handing each global declaration to the listener
+	 * instead of adding it to the tree if one is given
+	 *
+	 * @return the tree of the program, or null if it is empty
+	 */
+	private Tree parse(Scan scanner, DeclarationListener listener) throws Exception {
+		if (descent) {
+			DescentParser p = new DescentParser(scanner, this);
+			p.listener = listener;
+			return p.parse();
+		}
+		parser p = new parser(scanner, this);
+		p.listener = listener;
+		p.parse();
+		return p.tree;
+	}
+
+	/**
+	 * Compiles the file in streaming mode. SignatureScan first finds the global
+	 * declarations, so pass 0 can fill the global scope. Then each declaration is
+	 * analyzed and its code printed as soon as it is parsed, and then dropped, so
+	 * the memory used grows with the largest function instead of the whole
+	 * program. The file is read twice.
+	 * <p>
+	 * The warnings and errors are the same as with compile, but when the
+	 * compilation fails, part of the module may already have been printed to out.
+	 * Programs the signature scan doesn't understand are compiled with compile
+	 *
+	 * @param source
+	 *            The file to compile
+	 * @param out
+	 *            Where the generated code is printed
+	 * @throws CompilerExitException
+	 *             If the compilation was stopped by an error or went over a limit,
+	 *             which has already been printed
+	 * @throws Exception
+	 *             If the file could not be read, or the parser or code generator
+	 *             failed unexpectedly
+	 */
+	public void compileStreaming(File source, PrintStream out) throws Exception {
+		try {
+			compileDeclarations(source, out);
+		} catch (CompileLimitException e) {
+			throw stop(e);
+		}
+	}
+
+	/**
+	 * Compiles the file in streaming mode
+	 */
+	private void compileDeclarations(File source, PrintStream out) throws Exception {
+		long time = metrics.time();
+		long allocated = metrics.allocated();
+		Tree declarations;
+		//The signature scan is held to the same limits, counted on their own
+		Compilation signatures = new Compilation(inputFileName, discard, new CompilerMetrics(false), limits);
+		try (Reader reader = signatures.limit(SourceReader.open(source))) {
+			declarations = SignatureScan.scan(new Scan(reader, signatures));
+		}
+		metrics.add(CompilerMetrics.PASS0, time, allocated);
+		if (declarations == null) {
+			try (Reader reader = SourceReader.open(source)) {
+				compile(reader, out);
+			}
+			return;
+		}
+
+		PrintStream counted = metrics.isEnabled() ? new PrintStream(metrics.countOutput(out)) : out;
+		final SemanticAnalyzer semAnalyze = new SemanticAnalyzer(declarations, this);
+		semAnalyze.declareGlobals();
+		final CodeGen codeGen = new CodeGen(null, semAnalyze.defaultScopeName, this);
+		codeGen.begin(counted);
+		try (Reader reader = limit(SourceReader.open(source))) {
+			parser p = new parser(new Scan(reader, this), this);
+			p.listener = new DeclarationListener() {
+				@Override
+				public void declaration(TreeNode node) {
+					metrics.countTreeNodes(node);
+					if (semAnalyze.analyzeDeclaration(node)) {
+						codeGen.generateDeclaration(node);
+					}
+				}
+			};
+			time = metrics.time();
+			allocated = metrics.allocated();
+			p.parse();
+			metrics.add(CompilerMetrics.PARSE, time, allocated);
+			//The scanner, the analyzer and the code generator ran while parsing
+			metrics.subtract(CompilerMetrics.PARSE, CompilerMetrics.SCAN);
+			metrics.subtract(CompilerMetrics.PARSE, CompilerMetrics.PASS1);
+			metrics.subtract(CompilerMetrics.PARSE, CompilerMetrics.PASS2);
+			metrics.subtract(CompilerMetrics.PARSE, CompilerMetrics.GEN_AST);
+			//The root of the tree, which is all the parser kept
+			metrics.countTreeNodes(p.tree);
+		}
+		semAnalyze.finish();
+		codeGen.finish();
+		counted.flush();
+	}
+
+	/**
+	 * Compiles the input, keeping the generated code and the warnings and errors in
+	 * the result instead of printing them. Never throws, a failed compilation is
+	 * reported through the result
+	 *
+	 * @param inputFileName
+	 *            The name of the file, used in warning and error messages
+	 * @param reader
+	 *            The input to compile
+	 * @return The result of the compilation
+	 */
+	public static CompileResult capture(String inputFileName, Reader reader) {
+		return capture(inputFileName, reader, new CompilerMetrics(false));
+	}
+
+	/**
+	 * Compiles the input, keeping the generated code, the warnings and errors, and
+	 * the metrics in the result instead of printing them. Never throws, a failed
+	 * compilation is reported through the result
+	 *
+	 * @param inputFileName
+	 *            The name of the file, used in warning and error messages
+	 * @param reader
+	 *            The input to compile
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @return The result of the compilation
+	 */
+	public static CompileResult capture(String inputFileName, Reader reader, CompilerMetrics metrics) {
+		return capture(inputFileName, reader, null, null, metrics, new CompileLimits(), false);
+	}
+
+	/**
+	 * Compiles the input within the given limits, keeping the generated code, the
+	 * warnings and errors, and the metrics in the result instead of printing them.
+	 * Never throws, a failed compilation, or one that went over a limit or ran out
+	 * of memory or stack, is reported through the result
+	 *
+	 * @param inputFileName
+	 *            The name of the file, used in warning and error messages
+	 * @param reader
+	 *            The input to compile
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @param limits
+	 *            The resources the compilation may use
+	 * @return The result of the compilation
+	 */
+	public static CompileResult capture(String inputFileName, Reader reader, CompilerMetrics metrics,
+			CompileLimits limits) {
+		return capture(inputFileName, reader, null, null, metrics, limits, false);
+	}
+
+	/**
+	 * Compiles the bytes of a source within the given limits, scanning them with
+	 * FastScan if they are plain ASCII, and keeps the generated code, the
+	 * warnings and errors, and the metrics in the result instead of printing them.
+	 * Never throws, a failed compilation is reported through the result
+	 *
+	 * @param inputFileName
+	 *            The name of the file, used in warning and error messages
+	 * @param source
+	 *            The input to compile, from its position to its limit
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @param limits
+	 *            The resources the compilation may use
+	 * @return The result of the compilation
+	 * @see #compile(ByteBuffer, PrintStream)
+	 */
+	public static CompileResult capture(String inputFileName, ByteBuffer source, CompilerMetrics metrics,
+			CompileLimits limits) {
+		return capture(inputFileName, null, source, null, metrics, limits, false);
+	}
+
+	/**
+	 * Compiles the file in streaming mode, keeping the generated code, the
+	 * warnings and errors, and the metrics in the result instead of printing them.
+	 * Never throws, a failed compilation is reported through the result
+	 *
+	 * @param inputFileName
+	 *            The name of the file, used in warning and error messages
+	 * @param source
+	 *            The file to compile
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @return The result of the compilation
+	 * @see #compileStreaming(File, PrintStream)
+	 */
+	public static CompileResult captureStreaming(String inputFileName, File source, CompilerMetrics metrics) {
+		return capture(inputFileName, null, null, source, metrics, new CompileLimits(), false);
+	}
+
+	/**
+	 * Compiles the bytes of a source through a TokenBuffer, keeping the generated
+	 * code, the warnings and errors, and the metrics in the result instead of
+	 * printing them. Never throws, a failed compilation is reported through the
+	 * result
+	 *
+	 * @param inputFileName
+	 *            The name of the file, used in warning and error messages
+	 * @param source
+	 *            The input to compile, from its position to its limit
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @param limits
+	 *            The resources the compilation may use
+	 * @return The result of the compilation
+	 * @see #compileTokens(ByteBuffer, PrintStream)
+	 */
+	public static CompileResult captureTokens(String inputFileName, ByteBuffer source, CompilerMetrics metrics,
+			CompileLimits limits) {
+		return capture(inputFileName, null, source, null, metrics, limits, true);
+	}
+
+	/**
+	 * Compiles the reader, or the bytes, through a TokenBuffer if tokens is true,
+	 * or the file in streaming mode if there is neither
+	 */
+	private static CompileResult capture(String inputFileName, Reader reader, ByteBuffer bytes, File source,
+			CompilerMetrics metrics, CompileLimits limits, boolean tokens) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+		PrintStream err = new PrintStream(diagnostics);
+		boolean success = false;
+		try {
+			Compilation compilation = new Compilation(inputFileName, err, metrics, limits);
+			if (reader != null) {
+				compilation.compile(reader, new PrintStream(output));
+			} else if (bytes != null && tokens) {
+				compilation.compileTokens(bytes, new PrintStream(output));
+			} else if (bytes != null) {
+				compilation.compile(bytes, new PrintStream(output));
+			} else {
+				compilation.compileStreaming(source, new PrintStream(output));
+			}
+			success = true;
+		} catch (CompilerExitException e) {
+			//The reason has already been printed to err
+		} catch (Exception e) {
+			e.printStackTrace(err);
+		} catch (OutOfMemoryError | StackOverflowError e) {
+			//Everything the compilation allocated is garbage now, so only this compilation fails
+			output = null;
+			err.println("Error: The compilation ran out of " + (e instanceof OutOfMemoryError ? "memory" : "stack")
+					+ " in file " + inputFileName);
+		}
+		err.flush();
+		return new CompileResult(inputFileName, success, success ? output.toByteArray() : new byte[0],
+				diagnostics.toString(), metrics.isEnabled() ? metrics : null);
+	}
+
+	/**
+	 * Print a warning. When the total number of printed warnings exceeds ten, this
+	 * will also stop the compilation.
+	 *
+	 * @param s
+	 *            The warning to be printed
+	 * @throws CompilerExitException
+	 *             If there have been too many warnings
+	 */
+	public void warning(String s) throws CompilerExitException {
+		err.println(s);
+		if (warningCount < maxWarnings) {
+			warningCount++;
+		} else {
+			err.println("Too many errors. Compiler exiting with code 1");
+			throw new CompilerExitException("Too many errors");
+		}
+	}
+
+	/**
+	 * Forgets the warnings printed so far, so the next version of a program
+	 * parsed again by this compilation may print as many as the first
+	 */
+	void resetWarnings() {
+		warningCount = 0;
+	}
+
+	/**
+	 * @return the name of the file being compiled
+	 */
+	public String getInputFileName() {
+		return inputFileName;
+	}
+
+	/**
+	 * @return where the warnings and errors of this compilation are printed
+	 */
+	public PrintStream getErr() {
+		return err;
+	}
+
+	/**
+	 * @return the symbol factory of this compilation
+	 */
+	public ComplexSymbolFactory getSymbolFactory() {
+		return symbolFactory;
+	}
+
+	/**
+	 * @return the identifiers of this compilation
+	 */
+	public NameTable getNames() {
+		return names;
+	}
+
+	/**
+	 * @return the signature of a function of no parameters returning the type,
+	 *         from which the signatures of this compilation are made
+	 */
+	public Signature getFunction(Type returnType) {
+		return functions[returnType.ordinal()];
+	}
+
+	/**
+	 * @return the time and allocations of the phases of this compilation
+	 */
+	public CompilerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Chooses the parser of the program. Doesn't apply to the streaming mode,
+	 * which hands each declaration on as the generated parser finishes it
+	 *
+	 * @param descent
+	 *            true to parse with DescentParser, which builds the same tree
+	 *            without the tables of the generated parser
+	 * @return this compilation
+	 * @throws IllegalArgumentException
+	 *             If descent is true and the compilation has limits, which only
+	 *             the generated parser checks
+	 */
+	public Compilation setDescent(boolean descent) {
+		if (descent) {
+			checkUnlimited("DescentParser");
+		}
+		this.descent = descent;
+		return this;
+	}
+
+	/**
+	 * Chooses whether the global declarations of a plain ASCII program compiled
+	 * by compileTokens are parsed in parallel, by a DescentParser each
+	 *
+	 * @param parallel
+	 *            true to parse the declarations in parallel
+	 * @return this compilation
+	 * @throws IllegalArgumentException
+	 *             If parallel is true and the compilation has limits, which only
+	 *             the generated parser checks
+	 * @see ParallelParser
+	 */
+	public Compilation setParallel(boolean parallel) {
+		if (parallel) {
+			checkUnlimited("ParallelParser");
+		}
+		this.parallel = parallel;
+		return this;
+	}
+
+	/**
+	 * Chooses whether the tree of the program is kept in a FlatTree, which takes
+	 * a fraction of the memory of TreeNodes, instead of as TreeNodes. Doesn't
+	 * apply to the streaming mode, and the declarations aren't parsed in
+	 * parallel
+	 *
+	 * @param flat
+	 *            true to keep the tree in a FlatTree
+	 * @return this compilation
+	 * @see FlatTree
+	 */
+	public Compilation setFlat(boolean flat) {
+		this.flat = flat;
+		return this;
+	}
+
+	/**
+	 * @return the resources this compilation may use
+	 */
+	public CompileLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Refuses a parser that doesn't check the limits for a compilation that has
+	 * some, instead of quietly parsing with the generated parser
+	 *
+	 * @param parser
+	 *            The name of the parser
+	 * @throws IllegalArgumentException
+	 *             If the compilation has limits
+	 */
+	void checkUnlimited(String parser) {
+		if (limits.isLimited()) {
+			throw new IllegalArgumentException(
+					parser + " doesn't check the limits " + limits + ", only the generated parser does");
+		}
+	}
+
+	/**
+	 * @param reader
+	 *            The input of this compilation
+	 * @return a reader that counts the characters read from the input against
+	 *         the limit, or the input itself if it is not limited
+	 */
+	Reader limit(Reader reader) {
+		if (limits.get(CompileLimits.BYTES) == Long.MAX_VALUE) {
+			return reader;
+		}
+		return new FilterReader(reader) {
+			@Override
+			public int read() throws IOException {
+				int c = super.read();
+				if (c >= 0) {
+					countChars(1);
+				}
+				return c;
+			}
+
+			@Override
+			public int read(char[] buffer, int off, int len) throws IOException {
+				int read = super.read(buffer, off, len);
+				if (read > 0) {
+					countChars(read);
+				}
+				return read;
+			}
+		};
+	}
+
+	/**
+	 * Counts characters read from the input
+	 */
+	private void countChars(int read) {
+		chars += read;
+		if (chars > limits.get(CompileLimits.BYTES)) {
+			throw exceeded(CompileLimits.BYTES, null);
+		}
+	}
+
+	/**
+	 * Counts a token created by the scanner. The clock is only read every
+	 * checkInterval tokens
+	 *
+	 * @param loc
+	 *            Where the token starts
+	 */
+	private void countToken(Location loc) {
+		if (++tokens >= nextTokenCheck) {
+			if (tokens > limits.get(CompileLimits.TOKENS)) {
+				throw exceeded(CompileLimits.TOKENS, loc);
+			}
+			checkTime(loc);
+			nextTokenCheck = nextCheck(CompileLimits.TOKENS, tokens);
+		}
+	}
+
+	/**
+	 * Checks the subtree built by a reduction of the parser against the depth and
+	 * node limits. The tree of the program is built from the bottom up, so every
+	 * node is checked as soon as it is in the tree
+	 *
+	 * @param value
+	 *            The value of the nonterminal
+	 * @param left
+	 *            The first symbol of the nonterminal
+	 */
+	private void checkReduction(Object value, Symbol left) {
+		if (!(value instanceof TreeNode)) {
+			return;
+		}
+		TreeNode node = (TreeNode) value;
+		if (node.getHeight() > limits.get(CompileLimits.DEPTH)) {
+			throw exceeded(CompileLimits.DEPTH, left instanceof ComplexSymbol ? ((ComplexSymbol) left).xleft : null);
+		}
+		if (streamedNodes + node.getSize() > limits.get(CompileLimits.NODES)) {
+			throw exceeded(CompileLimits.NODES, left instanceof ComplexSymbol ? ((ComplexSymbol) left).xleft : null);
+		}
+	}
+
+	/**
+	 * Checks the stack of the parser against the depth limit. A nested statement
+	 * isn't reduced until its innermost statement is, so a program nested deeply
+	 * enough can fill the memory with the stack before any of it is in the tree
+	 *
+	 * @param size
+	 *            The number of symbols on the stack
+	 * @param last
+	 *            The last token read, or null
+	 */
+	void checkParseStack(int size, Symbol last) {
+		if (size > limits.get(CompileLimits.DEPTH)) {
+			throw exceeded(CompileLimits.DEPTH, last instanceof ComplexSymbol ? ((ComplexSymbol) last).xleft : null);
+		}
+	}
+
+	/**
+	 * Counts the nodes of a declaration handed to the listener in streaming mode,
+	 * which is dropped once its code is generated
+	 *
+	 * @param declaration
+	 *            The declaration
+	 */
+	void countStreamed(TreeNode declaration) {
+		streamedNodes += declaration.getSize();
+	}
+
+	/**
+	 * Counts a scope created by the semantic analyzer
+	 *
+	 * @param loc
+	 *            Where the scope starts
+	 */
+	void countScope(Location loc) {
+		if (++scopes > limits.get(CompileLimits.SCOPES)) {
+			throw exceeded(CompileLimits.SCOPES, loc);
+		}
+		checkTime(loc);
+	}
+
+	/**
+	 * Checks the lines of code generated so far against the limit, and the time
+	 *
+	 * @param lines
+	 *            The lines of code generated so far
+	 * @return the number of lines at which to check again
+	 */
+	long checkInstructions(long lines) {
+		if (lines > limits.get(CompileLimits.INSTRUCTIONS)) {
+			throw exceeded(CompileLimits.INSTRUCTIONS, null);
+		}
+		checkTime(null);
+		return nextCheck(CompileLimits.INSTRUCTIONS, lines);
+	}
+
+	/**
+	 * @param loc
+	 *            Where the compilation is in the input, or null if not known
+	 */
+	private void checkTime(Location loc) {
+		if (timed && System.nanoTime() - deadline > 0) {
+			throw exceeded(CompileLimits.MILLIS, loc);
+		}
+	}
+
+	/**
+	 * @return the count of the limit at which to check again: after checkInterval
+	 *         more, or just over the limit if that comes first
+	 */
+	private long nextCheck(int limit, long used) {
+		long maximum = limits.get(limit);
+		return maximum - used > checkInterval ? used + checkInterval : maximum + 1;
+	}
+
+	private CompileLimitException exceeded(int limit, Location loc) {
+		return new CompileLimitException(limit, limits.get(limit), loc, inputFileName);
+	}
+
+	/**
+	 * Prints the limit gone over as the error of the compilation
+	 *
+	 * @return the exception stopping the compilation
+	 */
+	private CompilerExitException stop(CompileLimitException e) {
+		err.println(e.getMessage());
+		return new CompilerExitException(e.getMessage());
+	}
+
+	/**
+	 * A symbol factory that counts the tokens the scanner creates and checks the
+	 * tree each reduction of the parser builds against the limits
+	 */
+	private class LimitedSymbolFactory extends ComplexSymbolFactory {
+		@Override
+		public Symbol newSymbol(String name, int id, Location left, Location right, Object value) {
+			countToken(left);
+			return super.newSymbol(name, id, left, right, value);
+		}
+
+		@Override
+		public Symbol newSymbol(String name, int id, Location left, Location right) {
+			countToken(left);
+			return super.newSymbol(name, id, left, right);
+		}
+
+		@Override
+		public Symbol newSymbol(String name, int id, Symbol left, Symbol right, Object value) {
+			checkReduction(value, left);
+			return super.newSymbol(name, id, left, right, value);
+		}
+
+		@Override
+		public Symbol newSymbol(String name, int id, Symbol left, Object value) {
+			checkReduction(value, left);
+			return super.newSymbol(name, id, left, value);
+		}
+	}
+}
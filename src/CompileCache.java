@@ -0,0 +1,423 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ */
+
+/**
+ * A directory of previously generated code, keyed by the SHA-256 of the
+ * source, the build of the compiler, the options that change the generated
+ * code, and the limits of the compilation.
+ * A hit returns the stored code without scanning, parsing, analyzing or
+ * generating anything.
+ * <p>
+ * Only compilations that succeeded without any warning are stored, so a hit
+ * never hides a warning, and, since every limit but the time gives the same
+ * answer for the same source, never returns code the limits would refuse.
+ * Entries are written to a temporary file and then moved into place, so
+ * several compilers can share one directory. When the directory grows over
+ * its size limit, the entries used least recently are deleted, along with the
+ * temporary files writers left behind.
+ *
+ * @author charl
+ */
+public class CompileCache {
+	/**
+	 * Part of every key: the SHA-256 of the compiler jar, or of the class files
+	 * when the compiler isn't run from a jar, so every build of the compiler has
+	 * entries of its own and none is used by a build that generates other code.
+	 * If the classes can't be read, a version of this JVM only is used
+	 */
+	public static final String COMPILER_VERSION = compilerVersion();
+	/**
+	 * The size limit used when none is given, in bytes
+	 */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+	/**
+	 * How old a temporary file must be to be taken for one left by a writer that
+	 * stopped, in milliseconds. A writer moves its file into place as soon as
+	 * the code is written
+	 */
+	private static final long STALE_MILLIS = 10 * 60 * 1000;
+
+	private final Path directory;
+	private final String options;
+	private final long maxBytes;
+	/**
+	 * The size of the entries, counting the ones written since the last eviction
+	 */
+	private final AtomicLong size = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Opens the cache in the given directory, creating the directory if needed,
+	 * and deleting stale temporary files and the entries over the size limit
+	 *
+	 * @param directory
+	 *            Where the entries are stored
+	 * @param options
+	 *            The options that change the generated code
+	 * @param maxBytes
+	 *            The size the entries are kept under
+	 * @throws IOException
+	 *             If the directory could not be created or read
+	 */
+	public CompileCache(Path directory, String options, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.options = options;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(directory);
+		//Counts the entries, and clears what stopped writers left
+		evict();
+	}
+
+	/**
+	 * Compiles the source, or returns the stored code if the same source has been
+	 * compiled before
+	 *
+	 * @param name
+	 *            The file name to use in warning and error messages
+	 * @param source
+	 *            The source to compile
+	 * @return The result of the compilation
+	 */
+	public CompileResult compile(String name, byte[] source) {
+		return compile(name, source, new CompilerMetrics(false));
+	}
+
+	/**
+	 * Compiles the source, or returns the stored code if the same source has been
+	 * compiled before. The metrics are only recorded if the source is compiled
+	 *
+	 * @param name
+	 *            The file name to use in warning and error messages
+	 * @param source
+	 *            The source to compile
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @return The result of the compilation
+	 */
+	public CompileResult compile(String name, byte[] source, CompilerMetrics metrics) {
+		return compile(name, source, metrics, new CompileLimits());
+	}
+
+	/**
+	 * Compiles the source within the given limits, or returns the stored code if
+	 * the same source has been compiled before within the same limits
+	 *
+	 * @param name
+	 *            The file name to use in warning and error messages
+	 * @param source
+	 *            The source to compile
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @param limits
+	 *            The resources the compilation may use
+	 * @return The result of the compilation
+	 */
+	public CompileResult compile(String name, byte[] source, CompilerMetrics metrics, CompileLimits limits) {
+		return compile(name, source, metrics, limits, false);
+	}
+
+	/**
+	 * Compiles the source within the given limits, or returns the stored code if
+	 * the same source has been compiled before
+	 *
+	 * @param name
+	 *            The file name to use in warning and error messages
+	 * @param source
+	 *            The source to compile
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @param limits
+	 *            The resources the compilation may use
+	 * @param fast
+	 *            true to scan the source with FastScan if it is plain ASCII
+	 * @return The result of the compilation
+	 */
+	public CompileResult compile(String name, byte[] source, CompilerMetrics metrics, CompileLimits limits,
+			boolean fast) {
+		return compile(name, source, Charset.defaultCharset(), metrics, limits, fast);
+	}
+
+	/**
+	 * Compiles the source, decoded with the given charset, within the given
+	 * limits, or returns the stored code if the same source has been compiled
+	 * before within the same limits
+	 *
+	 * @param name
+	 *            The file name to use in warning and error messages
+	 * @param source
+	 *            The source to compile
+	 * @param charset
+	 *            The charset of the source
+	 * @param metrics
+	 *            Where the time and allocations of the phases are recorded
+	 * @param limits
+	 *            The resources the compilation may use
+	 * @param fast
+	 *            true to scan the source with FastScan if it is plain ASCII
+	 * @return The result of the compilation
+	 */
+	public CompileResult compile(String name, byte[] source, Charset charset, CompilerMetrics metrics,
+			CompileLimits limits, boolean fast) {
+		String key = key(source, charset, limits);
+		byte[] output = get(key);
+		if (output != null) {
+			return new CompileResult(name, true, output, "");
+		}
+		CompileResult result = fast && FastScan.canScan(ByteBuffer.wrap(source))
+				? Compilation.capture(name, ByteBuffer.wrap(source), metrics, limits)
+				: Compilation.capture(name,
+						new InputStreamReader(new ByteArrayInputStream(source), charset), metrics, limits);
+		if (result.isSuccess() && result.getDiagnostics().isEmpty()) {
+			try {
+				put(key, result.getOutput());
+			} catch (IOException e) {
+				//The cache is only an optimization, the result is still good
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param source
+	 *            The source to compile
+	 * @param charset
+	 *            The charset of the source
+	 * @param limits
+	 *            The resources the compilation may use, of which all but the
+	 *            time are part of the key
+	 * @return the key of the source, as hexadecimal
+	 */
+	public String key(byte[] source, Charset charset, CompileLimits limits) {
+		StringBuffer checked = new StringBuffer();
+		for (int limit = 0; limit < CompileLimits.NAMES.length; limit++) {
+			if (limit != CompileLimits.MILLIS) {
+				checked.append(limits.get(limit)).append(',');
+			}
+		}
+		MessageDigest digest = sha256();
+		digest.update((COMPILER_VERSION + "\0" + options + "\0" + charset.name() + "\0" + checked + "\0")
+				.getBytes(StandardCharsets.UTF_8));
+		digest.update(source);
+		return hex(digest.digest());
+	}
+
+	/**
+	 * @return the SHA-256 of the jar or the class files the compiler was loaded
+	 *         from, as hexadecimal
+	 */
+	private static String compilerVersion() {
+		MessageDigest digest = sha256();
+		try {
+			URL location = CompileCache.class.getProtectionDomain().getCodeSource().getLocation();
+			Path classes = Paths.get(location.toURI());
+			if (Files.isDirectory(classes)) {
+				final List<Path> files = new ArrayList<Path>();
+				Files.walkFileTree(classes, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+						if (file.toString().endsWith(".class")) {
+							files.add(file);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+				});
+				//The order the directory lists them in can change
+				Collections.sort(files);
+				for (Path file : files) {
+					digest.update((classes.relativize(file) + "\0").getBytes(StandardCharsets.UTF_8));
+					digest.update(Files.readAllBytes(file));
+				}
+			} else {
+				digest.update(Files.readAllBytes(classes));
+			}
+		} catch (IOException | URISyntaxException | RuntimeException e) {
+			//No code source, or not a file
+			digest.update(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return hex(digest.digest());
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//Every Java platform is required to have SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuffer hex = new StringBuffer();
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @param key
+	 *            The key of the source
+	 * @return the stored code, or null if there is none
+	 */
+	public byte[] get(String key) {
+		Path file = directory.resolve(key + ".wat");
+		try {
+			byte[] output = Files.readAllBytes(file);
+			//Mark the entry as used, for the eviction
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			hits.incrementAndGet();
+			return output;
+		} catch (IOException e) {
+			//Missing, or deleted by another compiler in the meantime
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the code generated for a source, then deletes the least recently
+	 * used entries if the cache is over its size limit
+	 *
+	 * @param key
+	 *            The key of the source
+	 * @param output
+	 *            The generated code
+	 * @throws IOException
+	 *             If the entry could not be written
+	 */
+	public void put(String key, byte[] output) throws IOException {
+		Path file = directory.resolve(key + ".wat");
+		Path temp = Files.createTempFile(directory, key, ".tmp");
+		try {
+			Files.write(temp, output);
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		if (size.addAndGet(output.length) > maxBytes) {
+			evict();
+		}
+	}
+
+	/**
+	 * Deletes the temporary files left by writers that stopped before moving
+	 * them into place, then the least recently used entries until the cache is
+	 * under its size limit
+	 *
+	 * @throws IOException
+	 *             If the directory could not be read
+	 */
+	private synchronized void evict() throws IOException {
+		long stale = System.currentTimeMillis() - STALE_MILLIS;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.tmp")) {
+			for (Path file : files) {
+				try {
+					if (Files.getLastModifiedTime(file).toMillis() < stale) {
+						Files.deleteIfExists(file);
+					}
+				} catch (NoSuchFileException e) {
+					//Moved into place or deleted by another compiler
+				}
+			}
+		}
+		List<Entry> entries = listEntries();
+		long total = 0;
+		for (Entry entry : entries) {
+			total += entry.size;
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return Long.compare(a.lastUsed, b.lastUsed);
+			}
+		});
+		for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+			Files.deleteIfExists(entries.get(i).file);
+			total -= entries.get(i).size;
+		}
+		size.set(total);
+	}
+
+	/**
+	 * @return the entries in the directory
+	 * @throws IOException
+	 *             If the directory could not be read
+	 */
+	private List<Entry> listEntries() throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.wat")) {
+			for (Path file : files) {
+				try {
+					entries.add(new Entry(file, Files.size(file), Files.getLastModifiedTime(file).toMillis()));
+				} catch (NoSuchFileException e) {
+					//Evicted by another compiler
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * @return the number of lookups that found stored code
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that found nothing
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * A stored entry, for the eviction
+	 */
+	private static class Entry {
+		final Path file;
+		final long size;
+		final long lastUsed;
+
+		Entry(Path file, long size, long lastUsed) {
+			this.file = file;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
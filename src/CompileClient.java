@@ -0,0 +1,88 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ *
+ */
+
+/**
+ * A connection to a compile server listening on the loopback interface. Sends
+ * one request at a time and waits for its response.
+ *
+ * @author charl
+ */
+public class CompileClient implements Closeable {
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private int nextId = 0;
+
+	/**
+	 * Connects to the compile server on 127.0.0.1
+	 *
+	 * @param port
+	 *            The port the server is listening on
+	 * @throws IOException
+	 *             If the connection failed
+	 */
+	public CompileClient(int port) throws IOException {
+		socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+	/**
+	 * Compiles the file with the given name. Usage: port file. The generated code
+	 * is printed to stdout and the warnings and errors to stderr, the same as
+	 * compiling the file with Scan
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws IOException
+	 *             If the server could not be reached
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: CompileClient port file");
+			System.exit(1);
+		}
+		CompileResult result;
+		try (CompileClient client = new CompileClient(Integer.parseInt(args[0]))) {
+			result = client.compile(args[1], Files.readAllBytes(Paths.get(args[1])));
+		}
+		System.out.write(result.getOutput());
+		System.out.flush();
+		System.err.print(result.getDiagnostics());
+		System.exit(result.isSuccess() ? 0 : 1);
+	}
+
+	/**
+	 * Sends the source to the server and waits for the result
+	 *
+	 * @param name
+	 *            The file name to use in warning and error messages
+	 * @param source
+	 *            The source to compile
+	 * @return The result of the compilation
+	 * @throws IOException
+	 *             If the server could not be reached
+	 */
+	public CompileResult compile(String name, byte[] source) throws IOException {
+		CompileProtocol.writeTextRequest(out, nextId++, name, source);
+		return CompileProtocol.readResponse(in, name);
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,53 @@
+import java_cup.runtime.ComplexSymbolFactory.Location;
+
+/**
+ *
+ */
+
+/**
+ * Thrown when a compilation goes over one of its CompileLimits. It is
+ * unchecked, since the limits are checked deep inside the scanner, the parser
+ * and the code generator, and it is turned into a printed error and a
+ * CompilerExitException by the compilation.
+ *
+ * @author charl
+ */
+public class CompileLimitException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	private final int limit;
+	private final long maximum;
+
+	/**
+	 * Creates a CompileLimitException for the given limit
+	 *
+	 * @param limit
+	 *            The limit gone over, one of the constants of CompileLimits
+	 * @param maximum
+	 *            The value of the limit
+	 * @param loc
+	 *            Where in the input the limit was gone over, or null if not known
+	 * @param inputFileName
+	 *            The name of the file being compiled
+	 */
+	public CompileLimitException(int limit, long maximum, Location loc, String inputFileName) {
+		super("Error: Compile limit exceeded" + (loc != null ? " at " + loc : "") + " in file " + inputFileName
+				+ " on limit: " + CompileLimits.NAMES[limit] + "\nThe " + CompileLimits.NAMES[limit] + " limit is "
+				+ maximum);
+		this.limit = limit;
+		this.maximum = maximum;
+	}
+
+	/**
+	 * @return the limit gone over, one of the constants of CompileLimits
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the value of the limit
+	 */
+	public long getMaximum() {
+		return maximum;
+	}
+}
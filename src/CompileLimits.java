@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ *
+ */
+
+/**
+ * The resources a single compilation may use, so a compile server can refuse
+ * a hostile or runaway program with an error instead of running out of memory
+ * or time. Every limit is unlimited until it is set. A compilation that goes
+ * over a limit stops with a CompileLimitException, which the compilation
+ * prints as an error.
+ * <p>
+ * The limits are given on the command line as a comma separated list of
+ * name=value, for example tokens=100000,millis=2000.
+ *
+ * @author charl
+ */
+public class CompileLimits {
+	/**
+	 * The names of the limits, as given on the command line
+	 */
+	public static final String[] NAMES = { "bytes", "tokens", "nodes", "depth", "scopes", "instructions",
+			"millis" };
+	/**
+	 * The characters of source read
+	 */
+	public static final int BYTES = 0;
+	/**
+	 * The tokens read by the parser
+	 */
+	public static final int TOKENS = 1;
+	/**
+	 * The nodes of the tree
+	 */
+	public static final int NODES = 2;
+	/**
+	 * The levels of the tree, and the symbols on the stack of the parser, which
+	 * holds one or more for every statement or expression still open
+	 */
+	public static final int DEPTH = 3;
+	/**
+	 * The function, block and loop scopes created by the semantic analyzer
+	 */
+	public static final int SCOPES = 4;
+	/**
+	 * The lines of generated code, each holding one instruction or the start or
+	 * end of an S-expression
+	 */
+	public static final int INSTRUCTIONS = 5;
+	/**
+	 * The wall time since the compilation was created
+	 */
+	public static final int MILLIS = 6;
+
+	private final long[] maximums = new long[NAMES.length];
+
+	/**
+	 * Creates limits that allow everything
+	 */
+	public CompileLimits() {
+		for (int i = 0; i < maximums.length; i++) {
+			maximums[i] = Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Reads limits from the command line
+	 *
+	 * @param spec
+	 *            The limits, as a comma separated list of name=value
+	 * @return the limits
+	 * @throws IllegalArgumentException
+	 *             If a limit is unknown or its value is not a positive number
+	 */
+	public static CompileLimits parse(String spec) {
+		CompileLimits limits = new CompileLimits();
+		for (String limit : spec.split(",")) {
+			if (limit.trim().isEmpty()) {
+				continue;
+			}
+			String[] field = limit.split("=", 2);
+			int index = Arrays.asList(NAMES).indexOf(field[0].trim());
+			if (index < 0 || field.length != 2) {
+				throw new IllegalArgumentException("Unknown limit " + limit + ", the limits are "
+						+ String.join(", ", NAMES));
+			}
+			long maximum;
+			try {
+				maximum = Long.parseLong(field[1].trim());
+			} catch (NumberFormatException e) {
+				maximum = -1;
+			}
+			if (maximum <= 0) {
+				throw new IllegalArgumentException("The limit " + limit + " is not a positive number");
+			}
+			limits.set(index, maximum);
+		}
+		return limits;
+	}
+
+	/**
+	 * Sets a limit
+	 *
+	 * @param limit
+	 *            The limit, one of the constants of this class
+	 * @param maximum
+	 *            The most the compilation may use
+	 * @return these limits
+	 */
+	public CompileLimits set(int limit, long maximum) {
+		maximums[limit] = maximum;
+		return this;
+	}
+
+	/**
+	 * @param limit
+	 *            The limit, one of the constants of this class
+	 * @return the most the compilation may use, Long.MAX_VALUE if unlimited
+	 */
+	public long get(int limit) {
+		return maximums[limit];
+	}
+
+	/**
+	 * @return true if any limit is set, so the compilation has to count
+	 */
+	public boolean isLimited() {
+		for (long maximum : maximums) {
+			if (maximum != Long.MAX_VALUE) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer s = new StringBuffer();
+		for (int i = 0; i < NAMES.length; i++) {
+			if (maximums[i] != Long.MAX_VALUE) {
+				if (s.length() > 0) {
+					s.append(',');
+				}
+				s.append(NAMES[i] + "=" + maximums[i]);
+			}
+		}
+		return s.toString();
+	}
+}
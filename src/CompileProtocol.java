@@ -0,0 +1,168 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ *
+ */
+
+/**
+ * The framing used between the compile server and its clients. Every field is
+ * written with a DataOutputStream, so a frame can be read back without looking
+ * for separators in the source or the generated code.
+ * <p>
+ * A request is: int id, byte kind, UTF name, and if the kind is TEXT, int
+ * length followed by the source bytes. A PATH request compiles the file with
+ * that name on the server, a TEXT request compiles the source sent, using the
+ * name in warning and error messages. The source bytes are UTF-8. PATH
+ * requests are only served from stdin, a server listening on a port refuses
+ * them, since any local user can connect to it.
+ * <p>
+ * A response is: int id of the request, boolean success, int length followed
+ * by the generated code, and int length followed by the warnings and errors
+ * (UTF-8).
+ * <p>
+ * A length is only trusted as far as the bytes that follow it: the array is
+ * grown as they are read, so a frame that claims more than it sends costs no
+ * more than it sent, and a reader can refuse a frame longer than it accepts
+ * before reading it.
+ *
+ * @author charl
+ */
+public class CompileProtocol {
+	/**
+	 * Request kind: compile the file with the given path on the server
+	 */
+	public static final byte PATH = 'P';
+	/**
+	 * Request kind: compile the source sent with the request
+	 */
+	public static final byte TEXT = 'T';
+
+	/**
+	 * Writes a request to compile the given source
+	 *
+	 * @param out
+	 *            Where the request is written
+	 * @param id
+	 *            Copied into the response, so responses can be matched to
+	 *            requests
+	 * @param name
+	 *            The file name to use in warning and error messages
+	 * @param source
+	 *            The source to compile
+	 * @throws IOException
+	 *             If the request could not be written
+	 */
+	public static void writeTextRequest(DataOutputStream out, int id, String name, byte[] source)
+			throws IOException {
+		out.writeInt(id);
+		out.writeByte(TEXT);
+		out.writeUTF(name);
+		writeBytes(out, source);
+		out.flush();
+	}
+
+	/**
+	 * Writes a request to compile the file with the given path on the server
+	 *
+	 * @param out
+	 *            Where the request is written
+	 * @param id
+	 *            Copied into the response, so responses can be matched to
+	 *            requests
+	 * @param path
+	 *            The path of the file to compile
+	 * @throws IOException
+	 *             If the request could not be written
+	 */
+	public static void writePathRequest(DataOutputStream out, int id, String path) throws IOException {
+		out.writeInt(id);
+		out.writeByte(PATH);
+		out.writeUTF(path);
+		out.flush();
+	}
+
+	/**
+	 * Writes the response to a request
+	 *
+	 * @param out
+	 *            Where the response is written
+	 * @param id
+	 *            The id of the request
+	 * @param result
+	 *            The result of the compilation
+	 * @throws IOException
+	 *             If the response could not be written
+	 */
+	public static void writeResponse(DataOutputStream out, int id, CompileResult result) throws IOException {
+		out.writeInt(id);
+		out.writeBoolean(result.isSuccess());
+		writeBytes(out, result.getOutput());
+		writeBytes(out, result.getDiagnostics().getBytes("UTF-8"));
+		out.flush();
+	}
+
+	/**
+	 * Reads the response to a request
+	 *
+	 * @param in
+	 *            Where the response is read from
+	 * @param name
+	 *            The name of the file the request was for
+	 * @return The result of the compilation
+	 * @throws IOException
+	 *             If the response could not be read
+	 */
+	public static CompileResult readResponse(DataInputStream in, String name) throws IOException {
+		in.readInt();
+		boolean success = in.readBoolean();
+		byte[] output = readBytes(in);
+		String diagnostics = new String(readBytes(in), "UTF-8");
+		return new CompileResult(name, success, output, diagnostics);
+	}
+
+	/**
+	 * Writes the length of the array, then the array
+	 */
+	static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads an array written by writeBytes, of any length
+	 */
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		return readBytes(in, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads an array written by writeBytes, growing it as the bytes arrive
+	 *
+	 * @param maximum
+	 *            The longest array accepted
+	 * @throws IOException
+	 *             If the array could not be read, or is longer than the maximum
+	 */
+	static byte[] readBytes(DataInputStream in, int maximum) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Negative frame length " + length);
+		}
+		if (length > maximum) {
+			throw new IOException("Frame of " + length + " bytes is longer than the maximum of " + maximum);
+		}
+		byte[] bytes = new byte[Math.min(length, 1 << 16)];
+		int read = 0;
+		while (read < length) {
+			if (read == bytes.length) {
+				bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+			}
+			in.readFully(bytes, read, bytes.length - read);
+			read = bytes.length;
+		}
+		return bytes;
+	}
+}
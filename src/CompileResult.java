@@ -0,0 +1,93 @@
+/**
+ *
+ */
+
+/**
+ * The outcome of compiling one file: whether it succeeded, the generated code,
+ * and the warnings and errors that were printed while compiling it
+ *
+ * @author charl
+ */
+public class CompileResult {
+	private final String inputFileName;
+	private final boolean success;
+	private final byte[] output;
+	private final String diagnostics;
+	private final CompilerMetrics metrics;
+
+	/**
+	 * Creates a result with the specified values
+	 *
+	 * @param inputFileName
+	 *            The name of the file that was compiled
+	 * @param success
+	 *            true if the compilation finished without an error
+	 * @param output
+	 *            The generated code
+	 * @param diagnostics
+	 *            The warnings and errors printed during the compilation
+	 */
+	public CompileResult(String inputFileName, boolean success, byte[] output, String diagnostics) {
+		this(inputFileName, success, output, diagnostics, null);
+	}
+
+	/**
+	 * Creates a result with the specified values
+	 *
+	 * @param inputFileName
+	 *            The name of the file that was compiled
+	 * @param success
+	 *            true if the compilation finished without an error
+	 * @param output
+	 *            The generated code
+	 * @param diagnostics
+	 *            The warnings and errors printed during the compilation
+	 * @param metrics
+	 *            The time and allocations of the phases, or null if they were not
+	 *            recorded
+	 */
+	public CompileResult(String inputFileName, boolean success, byte[] output, String diagnostics,
+			CompilerMetrics metrics) {
+		this.inputFileName = inputFileName;
+		this.success = success;
+		this.output = output;
+		this.diagnostics = diagnostics;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the name of the file that was compiled
+	 */
+	public String getInputFileName() {
+		return inputFileName;
+	}
+
+	/**
+	 * @return true if the compilation finished without an error
+	 */
+	public boolean isSuccess() {
+		return success;
+	}
+
+	/**
+	 * @return the generated code. Empty if the compilation failed
+	 */
+	public byte[] getOutput() {
+		return output;
+	}
+
+	/**
+	 * @return the warnings and errors printed during the compilation
+	 */
+	public String getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * @return the time and allocations of the phases, or null if they were not
+	 *         recorded or the code came from the cache
+	 */
+	public CompilerMetrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,321 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ */
+
+/**
+ * Keeps the compiler loaded and compiles the requests sent to it, so editors
+ * and build scripts don't pay for the JVM start up and the unpacking of the
+ * parser tables on every compile. Requests are read either from stdin, with
+ * the responses written to stdout, or from TCP connections on the loopback
+ * interface. The frames are described in CompileProtocol.
+ * <p>
+ * Every request is compiled on its own thread. When the JVM has virtual
+ * threads, those are used, so hundreds of waiting clients cost little.
+ * Otherwise a cached thread pool is used. Each compilation can be held to
+ * CompileLimits, so a single request can't take the server down by running
+ * it out of memory or keeping it busy. A source longer than the bytes limit
+ * allows, or than 64 MB without one, is refused before it is read.
+ *
+ * @author charl
+ */
+public class CompileServer {
+	/**
+	 * The longest source accepted when the bytes of a compilation aren't limited
+	 */
+	public static final int DEFAULT_MAX_SOURCE_BYTES = 64 * 1024 * 1024;
+	/**
+	 * The most bytes UTF-8 takes for a character
+	 */
+	private static final int MAX_BYTES_PER_CHAR = 4;
+
+	/**
+	 * Runs the requests and the connections
+	 */
+	private final ExecutorService executor;
+	/**
+	 * Where previously generated code is looked up, or null to always compile
+	 */
+	private final CompileCache cache;
+	/**
+	 * The resources each compilation may use
+	 */
+	private final CompileLimits limits;
+	/**
+	 * Whether plain ASCII sources are scanned by FastScan
+	 */
+	private final boolean fast;
+	/**
+	 * The longest source a request may send
+	 */
+	private final int maxSourceBytes;
+
+	/**
+	 * Creates a server, and loads the scanner and parser tables so the first
+	 * request doesn't pay for it
+	 *
+	 * @param cache
+	 *            Where previously generated code is looked up, or null to always
+	 *            compile
+	 */
+	public CompileServer(CompileCache cache) {
+		this(cache, new CompileLimits());
+	}
+
+	/**
+	 * Creates a server whose compilations are held to the given limits, and loads
+	 * the scanner and parser tables so the first request doesn't pay for it
+	 *
+	 * @param cache
+	 *            Where previously generated code is looked up, or null to always
+	 *            compile
+	 * @param limits
+	 *            The resources each compilation may use
+	 */
+	public CompileServer(CompileCache cache, CompileLimits limits) {
+		this(cache, limits, false);
+	}
+
+	/**
+	 * Creates a server whose compilations are held to the given limits, and loads
+	 * the scanner and parser tables so the first request doesn't pay for it
+	 *
+	 * @param cache
+	 *            Where previously generated code is looked up, or null to always
+	 *            compile
+	 * @param limits
+	 *            The resources each compilation may use
+	 * @param fast
+	 *            true to scan plain ASCII sources with FastScan
+	 */
+	public CompileServer(CompileCache cache, CompileLimits limits, boolean fast) {
+		this.cache = cache;
+		this.limits = limits;
+		this.fast = fast;
+		long chars = limits.get(CompileLimits.BYTES);
+		maxSourceBytes = chars == Long.MAX_VALUE ? DEFAULT_MAX_SOURCE_BYTES
+				: chars > Integer.MAX_VALUE / MAX_BYTES_PER_CHAR ? Integer.MAX_VALUE : (int) chars * MAX_BYTES_PER_CHAR;
+		executor = newThreadPerTaskExecutor();
+		try {
+			Class.forName("Scan");
+			Class.forName("parser");
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Starts the server. Usage: [-cache cacheDirectory] [-limits name=value,...]
+	 * [-fast] [-port N]. Without -port, requests are read from stdin and the
+	 * responses are written to stdout. With -port, the server listens on
+	 * 127.0.0.1, on port N (0 picks a free port), prints the port it is
+	 * listening on, and only compiles the sources sent, refusing PATH requests,
+	 * since any local user can connect and the warnings and errors would show
+	 * them the files the server can read. With -limits, every compilation is held to the CompileLimits
+	 * given. With -fast, plain ASCII sources are scanned by FastScan
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws IOException
+	 *             If the server socket could not be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		CompileCache cache = null;
+		if (args.length >= 2 && args[0].equals("-cache")) {
+			cache = new CompileCache(Paths.get(args[1]), "", CompileCache.DEFAULT_MAX_BYTES);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+		CompileLimits limits = new CompileLimits();
+		if (args.length >= 2 && args[0].equals("-limits")) {
+			limits = CompileLimits.parse(args[1]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+		boolean fast = args.length >= 1 && args[0].equals("-fast");
+		if (fast) {
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+		CompileServer server = new CompileServer(cache, limits, fast);
+		if (args.length == 2 && args[0].equals("-port")) {
+			ServerSocket socket = new ServerSocket(Integer.parseInt(args[1]), 50, InetAddress.getLoopbackAddress());
+			System.out.println("Listening on 127.0.0.1:" + socket.getLocalPort());
+			System.out.flush();
+			server.listen(socket);
+		} else if (args.length == 0) {
+			server.serve(System.in, System.out);
+			server.executor.shutdown();
+		} else {
+			System.err.println("Usage: CompileServer [-cache cacheDirectory] [-limits name=value,...] [-fast] [-port N]");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Accepts connections until the socket is closed, serving each one on its own
+	 * thread
+	 *
+	 * @param socket
+	 *            The socket to accept connections from
+	 * @throws IOException
+	 *             If accepting failed
+	 */
+	public void listen(ServerSocket socket) throws IOException {
+		while (!socket.isClosed()) {
+			final Socket connection = socket.accept();
+			connection.setTcpNoDelay(true);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						serve(connection.getInputStream(), connection.getOutputStream(), false);
+					} catch (IOException e) {
+						System.err.println("Connection failed: " + e.getMessage());
+					} finally {
+						try {
+							connection.close();
+						} catch (IOException e) {
+							//Already closed
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Reads requests until the end of the input, compiling each one on its own
+	 * thread. The responses are written as the compilations finish, so they can
+	 * come back in a different order than the requests; use the id to match them.
+	 * Returns once the response to every request read has been written, so the
+	 * output can then be closed
+	 *
+	 * @param input
+	 *            Where the requests are read from
+	 * @param output
+	 *            Where the responses are written
+	 * @throws IOException
+	 *             If reading a request failed, or if interrupted while waiting
+	 *             for the last responses
+	 */
+	public void serve(InputStream input, OutputStream output) throws IOException {
+		serve(input, output, true);
+	}
+
+	/**
+	 * Reads requests until the end of the input, like serve(InputStream,
+	 * OutputStream), answering PATH requests with an error unless paths is true
+	 */
+	private void serve(InputStream input, OutputStream output, final boolean paths) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+		//The requests whose responses haven't been written, plus one for the reading, which ends last
+		final AtomicInteger pending = new AtomicInteger(1);
+		final CountDownLatch written = new CountDownLatch(1);
+		try {
+			while (true) {
+				final int id;
+				try {
+					id = in.readInt();
+				} catch (EOFException e) {
+					return;
+				}
+				byte kind = in.readByte();
+				final String name = in.readUTF();
+				final byte[] source = kind == CompileProtocol.TEXT ? CompileProtocol.readBytes(in, maxSourceBytes) : null;
+				if (kind != CompileProtocol.TEXT && kind != CompileProtocol.PATH) {
+					throw new IOException("Unknown request kind " + kind);
+				}
+				pending.incrementAndGet();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							CompileResult result = source != null || paths ? compile(name, source)
+									: new CompileResult(name, false, new byte[0],
+											"Error: PATH requests are refused over a socket, send the source of " + name
+													+ " instead\n");
+							synchronized (out) {
+								CompileProtocol.writeResponse(out, id, result);
+							}
+						} catch (IOException e) {
+							System.err.println("Could not send the response for " + name + ": " + e.getMessage());
+						} finally {
+							if (pending.decrementAndGet() == 0) {
+								written.countDown();
+							}
+						}
+					}
+				});
+			}
+		} finally {
+			if (pending.decrementAndGet() == 0) {
+				written.countDown();
+			}
+			try {
+				written.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the last responses");
+			}
+		}
+	}
+
+	/**
+	 * Compiles the source given, or the file with the given name if there is no
+	 * source
+	 *
+	 * @param name
+	 *            The name of the file
+	 * @param source
+	 *            The source to compile, or null to read the file
+	 * @return The result of the compilation
+	 */
+	private CompileResult compile(String name, byte[] source) {
+		if (source == null) {
+			return BatchCompiler.compileFile(new File(name), cache, false, limits, fast);
+		}
+		if (cache != null) {
+			return cache.compile(name, source, StandardCharsets.UTF_8, new CompilerMetrics(false), limits, fast);
+		}
+		if (fast && FastScan.canScan(ByteBuffer.wrap(source))) {
+			return Compilation.capture(name, ByteBuffer.wrap(source), new CompilerMetrics(false), limits);
+		}
+		return Compilation.capture(name,
+				new InputStreamReader(new ByteArrayInputStream(source), StandardCharsets.UTF_8),
+				new CompilerMetrics(false), limits);
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread for each task if the JVM
+	 *         has them, or a cached thread pool otherwise
+	 */
+	private static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+}
@@ -0,0 +1,25 @@
+/**
+ *
+ */
+
+/**
+ * To throw in place of exiting with code 1 when a compilation cannot continue.
+ * The reason has already been printed to the user by the time this is thrown,
+ * so only the compilation of the current file is stopped, not the whole JVM
+ *
+ * @author charl
+ */
+public class CompilerExitException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a CompilerExitException with the specified message
+	 *
+	 * @param message
+	 *            The reason the compilation was stopped
+	 */
+	public CompilerExitException(String message) {
+		super(message);
+	}
+
+}
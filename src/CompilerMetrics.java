@@ -0,0 +1,319 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+
+/**
+ *
+ */
+
+/**
+ * The wall time and allocated bytes of each phase of a compilation, and counts
+ * of what the phases produced. Only collected when enabled, since timing every
+ * token costs a little. The allocated bytes are only known on JVMs that report
+ * them per thread (HotSpot does), and are 0 elsewhere.
+ * <p>
+ * Scanning happens while parsing, as the parser asks for tokens, so the time
+ * spent in the scanner is taken out of the parse time. Likewise, the code
+ * generator writes each function as soon as it is finished, so most of the
+ * printing is in genAST, and print is only the last flush.
+ *
+ * @author charl
+ */
+public class CompilerMetrics {
+	/**
+	 * The names of the phases, in the order they run
+	 */
+	public static final String[] PHASES = { "scan", "parse", "pass0", "pass1", "pass2", "runtime", "genAST",
+			"genStrings", "print" };
+	public static final int SCAN = 0;
+	public static final int PARSE = 1;
+	public static final int PASS0 = 2;
+	public static final int PASS1 = 3;
+	public static final int PASS2 = 4;
+	public static final int RUNTIME = 5;
+	public static final int GEN_AST = 6;
+	public static final int GEN_STRINGS = 7;
+	public static final int PRINT = 8;
+
+	/**
+	 * Reports the bytes allocated by a thread, or null if the JVM can't
+	 */
+	private static final com.sun.management.ThreadMXBean allocationBean = allocationBean();
+
+	private final boolean enabled;
+	private final long[] wallNanos = new long[PHASES.length];
+	private final long[] allocatedBytes = new long[PHASES.length];
+	long tokens;
+	long treeNodes;
+	long scopes;
+	long symbols;
+	long instructions;
+	long outputBytes;
+
+	/**
+	 * Creates empty metrics
+	 *
+	 * @param enabled
+	 *            false to ignore everything, so the compilation doesn't pay for
+	 *            the measurements
+	 */
+	public CompilerMetrics(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return true if the metrics are collected
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the current time, to pass to add once the phase is done
+	 */
+	public long time() {
+		if (!enabled) {
+			return 0;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * @return the bytes allocated by this thread so far, to pass to add once the
+	 *         phase is done
+	 */
+	public long allocated() {
+		if (!enabled || allocationBean == null) {
+			return 0;
+		}
+		return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Adds the time and the bytes allocated since the given start to a phase
+	 *
+	 * @param phase
+	 *            The phase, one of the constants of this class
+	 * @param startTime
+	 *            The value of time() when the phase started
+	 * @param startAllocated
+	 *            The value of allocated() when the phase started
+	 */
+	public void add(int phase, long startTime, long startAllocated) {
+		if (!enabled) {
+			return;
+		}
+		wallNanos[phase] += time() - startTime;
+		allocatedBytes[phase] += allocated() - startAllocated;
+	}
+
+	/**
+	 * Takes the time and allocations of one phase out of another that contains it
+	 *
+	 * @param phase
+	 *            The containing phase
+	 * @param inner
+	 *            The phase that ran inside it
+	 */
+	public void subtract(int phase, int inner) {
+		wallNanos[phase] -= wallNanos[inner];
+		allocatedBytes[phase] -= allocatedBytes[inner];
+	}
+
+	/**
+	 * Counts a token read by the parser
+	 */
+	void countToken() {
+		tokens++;
+	}
+
+	/**
+	 * Counts tokens read by the parser all at once
+	 */
+	void countTokens(int count) {
+		tokens += count;
+	}
+
+	/**
+	 * Records the number of scopes and symbols created by the semantic analyzer
+	 *
+	 * @param scopes
+	 *            The number of scopes
+	 * @param symbols
+	 *            The number of variables and functions declared in them
+	 */
+	void countScopes(long scopes, long symbols) {
+		this.scopes += scopes;
+		this.symbols += symbols;
+	}
+
+	/**
+	 * Records the number of instructions generated
+	 *
+	 * @param instructions
+	 *            The number of lines of generated code
+	 */
+	void countInstructions(long instructions) {
+		this.instructions += instructions;
+	}
+
+	/**
+	 * @param out
+	 *            Where the generated code is printed
+	 * @return a stream that prints to out, counting the bytes printed
+	 */
+	OutputStream countOutput(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				outputBytes++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				outputBytes += len;
+			}
+		};
+	}
+
+	/**
+	 * @param phase
+	 *            The phase, one of the constants of this class
+	 * @return the wall time of the phase, in nanoseconds
+	 */
+	public long getWallNanos(int phase) {
+		return wallNanos[phase];
+	}
+
+	/**
+	 * @param phase
+	 *            The phase, one of the constants of this class
+	 * @return the bytes allocated during the phase
+	 */
+	public long getAllocatedBytes(int phase) {
+		return allocatedBytes[phase];
+	}
+
+	/**
+	 * Adds the phases and counts of another compilation to these
+	 *
+	 * @param other
+	 *            The metrics of the other compilation
+	 */
+	public void addAll(CompilerMetrics other) {
+		for (int i = 0; i < PHASES.length; i++) {
+			wallNanos[i] += other.wallNanos[i];
+			allocatedBytes[i] += other.allocatedBytes[i];
+		}
+		tokens += other.tokens;
+		treeNodes += other.treeNodes;
+		scopes += other.scopes;
+		symbols += other.symbols;
+		instructions += other.instructions;
+		outputBytes += other.outputBytes;
+	}
+
+	/**
+	 * Counts the nodes of the tree. Walks the tree with a stack instead of
+	 * recursion, since the tree of a long expression can be very deep
+	 *
+	 * @param tree
+	 *            The tree to count
+	 */
+	void countTreeNodes(Tree tree) {
+		if (enabled) {
+			countTreeNodes(tree.root);
+		}
+	}
+
+	/**
+	 * Counts the nodes of the subtree rooted at the given node
+	 *
+	 * @param root
+	 *            The root of the subtree
+	 */
+	void countTreeNodes(TreeNode root) {
+		if (!enabled) {
+			return;
+		}
+		ArrayDeque<TreeNode> stack = new ArrayDeque<TreeNode>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.pop();
+			treeNodes++;
+			for (TreeNode child : node.getChildren()) {
+				stack.push(child);
+			}
+		}
+	}
+
+	/**
+	 * @return the metrics as a JSON object
+	 */
+	public String toJSON() {
+		StringBuffer s = new StringBuffer("{\"phases\": {");
+		for (int i = 0; i < PHASES.length; i++) {
+			if (i > 0) {
+				s.append(", ");
+			}
+			s.append("\"" + PHASES[i] + "\": {\"wallNanos\": " + wallNanos[i] + ", \"allocatedBytes\": "
+					+ allocatedBytes[i] + "}");
+		}
+		s.append("}, \"counts\": {");
+		s.append("\"tokens\": " + tokens);
+		s.append(", \"treeNodes\": " + treeNodes);
+		s.append(", \"scopes\": " + scopes);
+		s.append(", \"symbols\": " + symbols);
+		s.append(", \"instructions\": " + instructions);
+		s.append(", \"outputBytes\": " + outputBytes);
+		s.append("}}");
+		return s.toString();
+	}
+
+	/**
+	 * @param s
+	 *            The string to quote
+	 * @return the string as a JSON string literal
+	 */
+	public static String quote(String s) {
+		StringBuffer quoted = new StringBuffer("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * @return the bean reporting allocations per thread, or null if the JVM doesn't
+	 *         have one
+	 */
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+				if (allocationBean.isThreadAllocatedMemorySupported()) {
+					allocationBean.setThreadAllocatedMemoryEnabled(true);
+					return allocationBean;
+				}
+			}
+		} catch (LinkageError e) {
+			//Not a JVM with com.sun.management
+		} catch (UnsupportedOperationException e) {
+			//Not supported
+		}
+		return null;
+	}
+}
@@ -0,0 +1,19 @@
+/**
+ *
+ */
+
+/**
+ * Receives the global declarations of a program one at a time, as the parser
+ * finishes them, in streaming mode
+ *
+ * @author charl
+ */
+public interface DeclarationListener {
+	/**
+	 * @param node
+	 *            The declaration just parsed. The parser keeps no reference to it
+	 * @throws Exception
+	 *             If the declaration could not be handled, which stops the parse
+	 */
+	void declaration(TreeNode node) throws Exception;
+}
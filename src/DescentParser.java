@@ -0,0 +1,632 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import java_cup.runtime.ComplexSymbolFactory.ComplexSymbol;
+import java_cup.runtime.Symbol;
+
+/**
+ *
+ */
+
+/**
+ * A hand written recursive descent parser of the grammar in NewParser.cup,
+ * which builds the same tree as the generated parser, with the same locations,
+ * without a symbol for every nonterminal or a reduction for every level of the
+ * grammar an expression goes through. Statements are parsed by descent and
+ * expressions by precedence climbing, so a literal is a single call.
+ * <p>
+ * The parser only follows valid programs. The tokens of the global
+ * declaration being parsed are kept, and when one of them doesn't follow the
+ * grammar, they and the rest of the input are handed to the generated parser,
+ * which reports the syntax error and recovers from it. Once the first token of
+ * a global declaration is shifted, the generated parser has reduced the
+ * declarations before it, and is in the same state as at the start of the
+ * input, so its errors and the tree of the declarations from that point are
+ * the same as when it parses the whole input. A syntax error at the first
+ * token of a declaration is recovered from inside the declaration before it,
+ * so that one is handed over too. Programs nested too deeply for the stack are
+ * handed over the same way.
+ * <p>
+ * Like the generated parser, it never reads more than one token ahead, so the
+ * warnings of the scanner come out in the same order.
+ *
+ * @author charl
+ */
+public class DescentParser {
+	/**
+	 * The most levels of statements and expressions parsed by descent before the
+	 * declaration is handed to the generated parser, which has no limit
+	 */
+	private static final int maxDepth = 200;
+	/**
+	 * The precedence of each binary operator, by token, or -1 for any other
+	 * token. Higher binds tighter
+	 */
+	private static final int[] precedence = new int[sym.terminalNames.length];
+	/**
+	 * Thrown when a token doesn't follow the grammar, or the program is nested
+	 * too deeply. Carries no stack trace, since it only unwinds to the top
+	 */
+	private static final Mismatch mismatch = new Mismatch();
+
+	static {
+		for (int i = 0; i < precedence.length; i++) {
+			precedence[i] = -1;
+		}
+		precedence[sym.OR] = 0;
+		precedence[sym.AND] = 1;
+		precedence[sym.EQUAL] = 2;
+		precedence[sym.NOT_EQUAL] = 2;
+		precedence[sym.LESSER_THAN] = 3;
+		precedence[sym.GREATER_THAN] = 3;
+		precedence[sym.LESSER_EQUAL] = 3;
+		precedence[sym.GREATER_EQUAL] = 3;
+		precedence[sym.ADD] = 4;
+		precedence[sym.SUBTRACT] = 4;
+		precedence[sym.MULTIPLY] = 5;
+		precedence[sym.DIVIDE] = 5;
+		precedence[sym.MODULUS] = 5;
+	}
+
+	private final Scan scanner;
+	private final Compilation compilation;
+	private final CompilerMetrics metrics;
+	/**
+	 * The next token, which hasn't been parsed yet
+	 */
+	private ComplexSymbol token;
+	/**
+	 * The tokens of the global declaration being parsed, up to and including
+	 * token, and those of the declaration before it, up to and including the
+	 * first token of this one
+	 */
+	private List<Symbol> read = new ArrayList<Symbol>();
+	private List<Symbol> previous = new ArrayList<Symbol>();
+	/**
+	 * The number of statements and expressions being parsed, one inside the
+	 * other
+	 */
+	private int depth = 0;
+	/**
+	 * Whether part of the program was handed to the generated parser
+	 */
+	private boolean handedOver = false;
+	/**
+	 * When set, receives each global declaration as soon as it is parsed, and
+	 * the tree is left empty
+	 */
+	DeclarationListener listener;
+	/**
+	 * The number of declarations handed to the listener
+	 */
+	private int declared = 0;
+
+	/**
+	 * @param scanner
+	 *            The scanner of the program
+	 * @param compilation
+	 *            The compilation the program belongs to, which must have no
+	 *            limits, since this parser doesn't check them
+	 */
+	public DescentParser(Scan scanner, Compilation compilation) {
+		this(scanner, compilation, compilation.getMetrics());
+	}
+
+	/**
+	 * @param metrics
+	 *            Where the tokens read are timed and counted, instead of the
+	 *            metrics of the compilation
+	 */
+	DescentParser(Scan scanner, Compilation compilation, CompilerMetrics metrics) {
+		this.scanner = scanner;
+		this.compilation = compilation;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Parses the whole program
+	 *
+	 * @return the tree of the program, or null if the program is empty
+	 * @throws CompilerExitException
+	 *             If there was a syntax error the generated parser couldn't
+	 *             recover from, or too many errors
+	 * @throws Exception
+	 *             If the program could not be read
+	 */
+	public Tree parse() throws Exception {
+		next();
+		TreeNode declarations = new TreeNode(TreeNodeType.globaldeclarations);
+		//The last declaration parsed, only added once the first token of the next one is
+		TreeNode last = null;
+		while (token.sym != sym.EOF) {
+			//Only the tokens of the last two declarations are kept
+			List<Symbol> older = previous;
+			previous = read;
+			read = older;
+			read.clear();
+			read.add(token);
+			TreeNode declaration;
+			try {
+				declaration = globalDeclaration();
+			} catch (Mismatch e) {
+				if (read.size() > 1 || last == null) {
+					return handOver(declared(declarations, last), read);
+				}
+				return handOver(declarations, previous);
+			}
+			declared(declarations, last);
+			last = declaration;
+		}
+		declared(declarations, last);
+		return last == null ? null : new Tree(declarations);
+	}
+
+	/**
+	 * Parses an input of whole global declarations, without handing anything to
+	 * the generated parser
+	 *
+	 * @param declarations
+	 *            Where the tree of each declaration is added
+	 * @return false if a token doesn't follow the grammar, or the input is
+	 *         nested too deeply
+	 * @throws Exception
+	 *             If the input could not be read
+	 */
+	boolean parseDeclarations(TreeNode declarations) throws Exception {
+		next();
+		try {
+			while (token.sym != sym.EOF) {
+				read.clear();
+				declarations.addChild(globalDeclaration());
+			}
+			return true;
+		} catch (Mismatch e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Parses the rest of the input with the generated parser
+	 *
+	 * @param declarations
+	 *            The declarations before the rest
+	 * @param rest
+	 *            The tokens read from the start of the rest
+	 * @return the tree of the program
+	 */
+	private Tree handOver(final TreeNode declarations, List<Symbol> rest) throws Exception {
+		handedOver = true;
+		parser p = new parser(new Rest(rest), compilation);
+		if (listener != null) {
+			p.listener = new DeclarationListener() {
+				@Override
+				public void declaration(TreeNode node) throws Exception {
+					declared(declarations, node);
+				}
+			};
+		}
+		p.parse();
+		if (p.tree != null) {
+			declarations.addChildren(p.tree.root);
+		}
+		return declarations.getChildren().isEmpty() && declared == 0 ? null : new Tree(declarations);
+	}
+
+	/**
+	 * Adds the declaration to the global declarations, or hands it to the
+	 * listener instead
+	 *
+	 * @param declaration
+	 *            The declaration, or null for none
+	 * @return the global declarations
+	 */
+	private TreeNode declared(TreeNode declarations, TreeNode declaration) throws Exception {
+		if (listener == null || declaration == null) {
+			return declarations.addChild(declaration);
+		}
+		declared++;
+		listener.declaration(declaration);
+		return declarations;
+	}
+
+	/**
+	 * @return true if part of the program was handed to the generated parser,
+	 *         because of a syntax error or deep nesting
+	 */
+	boolean handedOver() {
+		return handedOver;
+	}
+
+	/**
+	 * globaldeclaration: a variable, a function, or the main function
+	 */
+	private TreeNode globalDeclaration() throws Exception {
+		if (token.sym == sym.ID) {
+			TreeNode id = identifier();
+			expect(sym.OPEN_ROUND_BRACES);
+			expect(sym.CLOSE_ROUND_BRACES);
+			return new TreeNode(TreeNodeType.mainfunctiondeclaration, id.getLoc())
+					.addChild(new TreeNode(TreeNodeType.VOID)).addChild(id)
+					.addChild(new TreeNode(TreeNodeType.formalparameterlist)).addChild(block());
+		}
+		TreeNode type;
+		if (token.sym == sym.KW_VOID) {
+			type = new TreeNode(TreeNodeType.VOID, token.xleft);
+			next();
+		} else {
+			type = type();
+		}
+		TreeNode id = identifier();
+		if (token.sym == sym.SEMI_COLON && type.getType() != TreeNodeType.VOID) {
+			next();
+			return new TreeNode(TreeNodeType.variabledeclaration, type.getLoc()).addChild(type).addChild(id);
+		}
+		//The header and the declarator only gather the children of the declaration
+		expect(sym.OPEN_ROUND_BRACES);
+		TreeNode parameters = new TreeNode(TreeNodeType.formalparameterlist);
+		if (token.sym != sym.CLOSE_ROUND_BRACES) {
+			parameters.addChild(formalParameter());
+			while (token.sym == sym.COMMA) {
+				next();
+				parameters.addChild(formalParameter());
+			}
+		}
+		expect(sym.CLOSE_ROUND_BRACES);
+		return new TreeNode(TreeNodeType.functiondeclaration, type.getLoc()).addChild(type).addChild(id)
+				.addChild(parameters).addChild(block());
+	}
+
+	/**
+	 * formalparameter: type identifier
+	 */
+	private TreeNode formalParameter() throws Exception {
+		TreeNode type = type();
+		return new TreeNode(TreeNodeType.formalparameter, type.getLoc()).addChild(type).addChild(identifier());
+	}
+
+	/**
+	 * block: { blockstatements }, whose location is that of its first statement,
+	 * or { }
+	 */
+	private TreeNode block() throws Exception {
+		if (token.sym != sym.OPEN_CURLY_BRACES) {
+			throw mismatch;
+		}
+		ComplexSymbol brace = token;
+		next();
+		TreeNode block = new TreeNode(TreeNodeType.block,
+				token.sym == sym.CLOSE_CURLY_BRACES ? brace.xleft : token.xleft);
+		while (token.sym != sym.CLOSE_CURLY_BRACES) {
+			if (token.sym == sym.KW_INT || token.sym == sym.KW_BOOLEAN) {
+				TreeNode type = type();
+				TreeNode id = identifier();
+				expect(sym.SEMI_COLON);
+				block.addChild(new TreeNode(TreeNodeType.variabledeclaration, type.getLoc()).addChild(type)
+						.addChild(id));
+			} else {
+				block.addChild(statement());
+			}
+		}
+		next();
+		return block;
+	}
+
+	/**
+	 * statement. An else belongs to the innermost if without one, which is what
+	 * the elsematched and elseunmatched rules of the grammar work out
+	 */
+	private TreeNode statement() throws Exception {
+		if (++depth > maxDepth) {
+			throw mismatch;
+		}
+		ComplexSymbol first = token;
+		TreeNode statement;
+		switch (token.sym) {
+		case sym.OPEN_CURLY_BRACES:
+			statement = block();
+			break;
+		case sym.SEMI_COLON:
+			next();
+			statement = new TreeNode(TreeNodeType.nullStatement, first.xleft);
+			break;
+		case sym.ID:
+			TreeNode id = identifier();
+			if (token.sym == sym.ASSIGN) {
+				statement = new TreeNode(TreeNodeType.statementexpression, id.getLoc()).addChild(assignment(id));
+			} else {
+				statement = functionInvocation(id);
+			}
+			expect(sym.SEMI_COLON);
+			break;
+		case sym.KW_BREAK:
+			next();
+			expect(sym.SEMI_COLON);
+			statement = new TreeNode(TreeNodeType.BREAK, first.xleft);
+			break;
+		case sym.KW_RETURN:
+			next();
+			statement = new TreeNode(TreeNodeType.RETURN, first.xleft);
+			if (token.sym != sym.SEMI_COLON) {
+				statement.addChild(expression());
+			}
+			expect(sym.SEMI_COLON);
+			break;
+		case sym.KW_WHILE:
+			next();
+			statement = new TreeNode(TreeNodeType.WHILE, first.xleft).addChild(condition()).addChild(statement());
+			break;
+		case sym.KW_IF:
+			next();
+			TreeNode condition = condition();
+			TreeNode then = statement();
+			if (token.sym == sym.KW_ELSE) {
+				next();
+				statement = new TreeNode(TreeNodeType.IFELSE, first.xleft).addChild(condition).addChild(then)
+						.addChild(statement());
+			} else {
+				statement = new TreeNode(TreeNodeType.IF, first.xleft).addChild(condition).addChild(then);
+			}
+			break;
+		default:
+			throw mismatch;
+		}
+		depth--;
+		return statement;
+	}
+
+	/**
+	 * ( expression ), after while or if
+	 */
+	private TreeNode condition() throws Exception {
+		expect(sym.OPEN_ROUND_BRACES);
+		TreeNode condition = expression();
+		expect(sym.CLOSE_ROUND_BRACES);
+		return condition;
+	}
+
+	/**
+	 * expression: an assignment, or a binary expression
+	 */
+	private TreeNode expression() throws Exception {
+		if (++depth > maxDepth) {
+			throw mismatch;
+		}
+		TreeNode expression;
+		if (token.sym == sym.ID) {
+			//Only an identifier can be assigned to, which the token after it tells
+			TreeNode id = identifier();
+			if (token.sym == sym.ASSIGN) {
+				expression = assignment(id);
+			} else {
+				expression = binary(postfix(id), 0);
+			}
+		} else {
+			expression = binary(unary(), 0);
+		}
+		depth--;
+		return expression;
+	}
+
+	/**
+	 * assignment: identifier = assignmentexpression, whose location is that of
+	 * the =
+	 */
+	private TreeNode assignment(TreeNode id) throws Exception {
+		ComplexSymbol assign = token;
+		next();
+		return new TreeNode(TreeNodeType.ASSIGN, assign.xleft).addChild(id).addChild(expression());
+	}
+
+	/**
+	 * Parses the operators after the left operand that bind at least as tightly
+	 * as the given precedence. The operators of a level are left associative
+	 *
+	 * @param left
+	 *            The left operand
+	 * @param least
+	 *            The least precedence of the operators parsed
+	 * @return the expression
+	 */
+	private TreeNode binary(TreeNode left, int least) throws Exception {
+		while (precedence[token.sym] >= least) {
+			ComplexSymbol operator = token;
+			int level = precedence[operator.sym];
+			next();
+			TreeNode right = unary();
+			while (precedence[token.sym] > level) {
+				right = binary(right, level + 1);
+			}
+			left = new TreeNode(operatorType(operator.sym), operator.xleft).addChild(left).addChild(right);
+		}
+		return left;
+	}
+
+	/**
+	 * unaryexpression: ! or - before a unary expression, or a postfix expression
+	 */
+	private TreeNode unary() throws Exception {
+		ComplexSymbol first = token;
+		switch (token.sym) {
+		case sym.NOT:
+		case sym.SUBTRACT:
+			if (++depth > maxDepth) {
+				throw mismatch;
+			}
+			next();
+			TreeNode operand = unary();
+			depth--;
+			return new TreeNode(first.sym == sym.NOT ? TreeNodeType.NOT : TreeNodeType.UNARY_SUB, first.xleft)
+					.addChild(operand);
+		case sym.ID:
+			return postfix(identifier());
+		case sym.OPEN_ROUND_BRACES:
+			next();
+			TreeNode expression = expression();
+			expect(sym.CLOSE_ROUND_BRACES);
+			return expression;
+		case sym.INT:
+			next();
+			return new TreeNode(TreeNodeType.NUM, first.xleft).setAttr((String) first.value);
+		case sym.STRING:
+			next();
+			return new TreeNode(TreeNodeType.STRING, first.xleft).setAttr((String) first.value);
+		case sym.KW_TRUE:
+			next();
+			return new TreeNode(TreeNodeType.TRUE, first.xleft);
+		case sym.KW_FALSE:
+			next();
+			return new TreeNode(TreeNodeType.FALSE, first.xleft);
+		default:
+			throw mismatch;
+		}
+	}
+
+	/**
+	 * postfixexpression, once its identifier is parsed: the identifier, or a
+	 * function invocation
+	 */
+	private TreeNode postfix(TreeNode id) throws Exception {
+		return token.sym == sym.OPEN_ROUND_BRACES ? functionInvocation(id) : id;
+	}
+
+	/**
+	 * functioninvocation: identifier ( argumentlist ) or identifier ( ), once its
+	 * identifier is parsed
+	 */
+	private TreeNode functionInvocation(TreeNode id) throws Exception {
+		expect(sym.OPEN_ROUND_BRACES);
+		TreeNode arguments = new TreeNode(TreeNodeType.argumentlist);
+		if (token.sym != sym.CLOSE_ROUND_BRACES) {
+			arguments.addChild(expression());
+			while (token.sym == sym.COMMA) {
+				next();
+				arguments.addChild(expression());
+			}
+		}
+		expect(sym.CLOSE_ROUND_BRACES);
+		return new TreeNode(TreeNodeType.functioninvocation, id.getLoc()).addChild(id).addChild(arguments);
+	}
+
+	/**
+	 * type: int or boolean
+	 */
+	private TreeNode type() throws Exception {
+		TreeNode type;
+		if (token.sym == sym.KW_INT) {
+			type = new TreeNode(TreeNodeType.INT, token.xleft);
+		} else if (token.sym == sym.KW_BOOLEAN) {
+			type = new TreeNode(TreeNodeType.BOOL, token.xleft);
+		} else {
+			throw mismatch;
+		}
+		next();
+		return type;
+	}
+
+	/**
+	 * identifier: ID
+	 */
+	private TreeNode identifier() throws Exception {
+		if (token.sym != sym.ID) {
+			throw mismatch;
+		}
+		TreeNode id = new TreeNode(TreeNodeType.ID, token.xleft).setName((Name) token.value);
+		next();
+		return id;
+	}
+
+	/**
+	 * @return the type of the node of a binary operator
+	 */
+	private static TreeNodeType operatorType(int operator) {
+		switch (operator) {
+		case sym.OR:
+			return TreeNodeType.OR;
+		case sym.AND:
+			return TreeNodeType.AND;
+		case sym.EQUAL:
+			return TreeNodeType.EQ;
+		case sym.NOT_EQUAL:
+			return TreeNodeType.NEQ;
+		case sym.LESSER_THAN:
+			return TreeNodeType.LT;
+		case sym.GREATER_THAN:
+			return TreeNodeType.GT;
+		case sym.LESSER_EQUAL:
+			return TreeNodeType.LE;
+		case sym.GREATER_EQUAL:
+			return TreeNodeType.GE;
+		case sym.ADD:
+			return TreeNodeType.ADD;
+		case sym.SUBTRACT:
+			return TreeNodeType.SUB;
+		case sym.MULTIPLY:
+			return TreeNodeType.MUL;
+		case sym.DIVIDE:
+			return TreeNodeType.DIV;
+		default:
+			return TreeNodeType.MOD;
+		}
+	}
+
+	/**
+	 * Moves past the token, which must be of the given kind
+	 */
+	private void expect(int kind) throws Exception {
+		if (token.sym != kind) {
+			throw mismatch;
+		}
+		next();
+	}
+
+	/**
+	 * Reads the next token, timed and counted like the generated parser does
+	 */
+	private void next() throws Exception {
+		if (!metrics.isEnabled()) {
+			token = (ComplexSymbol) scanner.next_token();
+		} else {
+			long time = metrics.time();
+			long allocated = metrics.allocated();
+			token = (ComplexSymbol) scanner.next_token();
+			metrics.add(CompilerMetrics.SCAN, time, allocated);
+			metrics.countToken();
+		}
+		read.add(token);
+	}
+
+	/**
+	 * A token that doesn't follow the grammar
+	 */
+	private static class Mismatch extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private Mismatch() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Returns the tokens already read from where the generated parser takes
+	 * over, then the rest of the input, to the generated parser
+	 */
+	private class Rest extends Scan {
+		private final List<Symbol> tokens;
+		private int next = 0;
+
+		private Rest(List<Symbol> tokens) {
+			super(new StringReader(""), compilation);
+			this.tokens = tokens;
+		}
+
+		@Override
+		public Symbol next_token() throws IOException, CompilerExitException {
+			if (next < tokens.size()) {
+				return tokens.get(next++);
+			}
+			return scanner.next_token();
+		}
+	}
+}
@@ -0,0 +1,529 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import java_cup.runtime.ComplexSymbolFactory.Location;
+import java_cup.runtime.Symbol;
+
+/**
+ *
+ */
+
+/**
+ * A hand written scanner for sources that are plain ASCII, which reads the
+ * bytes of the source straight from a buffer instead of decoding them into
+ * chars and running them through the tables of Scan. It returns the same
+ * tokens, with the same locations, and prints the same warnings as Scan, and
+ * is checked against it by ScanDifferential.
+ * <p>
+ * Any other source, one with a byte over 127 or a vertical tab or form feed
+ * (which Scan counts as line breaks, but doesn't match), is scanned by Scan
+ * instead, decoded like an InputStreamReader would.
+ *
+ * @author charl
+ */
+public class FastScan extends Scan {
+	/**
+	 * Whether the default charset decodes every ASCII byte to the same char, so
+	 * the bytes of a plain ASCII source are its chars
+	 */
+	private static final boolean asciiCharset = isAsciiCharset(Charset.defaultCharset());
+	/**
+	 * The keywords, and their tokens
+	 */
+	private static final String[] keywords = { "int", "boolean", "true", "false", "void", "if", "else", "while",
+			"break", "return" };
+	private static final int[] keywordTokens = { sym.KW_INT, sym.KW_BOOLEAN, sym.KW_TRUE, sym.KW_FALSE, sym.KW_VOID,
+			sym.KW_IF, sym.KW_ELSE, sym.KW_WHILE, sym.KW_BREAK, sym.KW_RETURN };
+
+	private final Compilation compilation;
+	private final String inputFileName;
+	private final ByteBuffer bytes;
+	/**
+	 * The position of the next byte to scan, and the end of the source
+	 */
+	private int pos;
+	private final int end;
+	/**
+	 * Where the lines of the source start, only indexed once a line is printed
+	 */
+	private final LineIndex lines;
+	/**
+	 * The position of the last token scanned
+	 */
+	private int tokenStart;
+	/**
+	 * Where the tokens are recorded while tokenizing, null when the tokens are
+	 * returned one at a time
+	 */
+	private TokenBuffer tokens;
+
+	/**
+	 * @param bytes
+	 *            The source, which must be plain ASCII, from its position to its
+	 *            limit
+	 * @param compilation
+	 *            The compilation the source belongs to
+	 */
+	FastScan(ByteBuffer bytes, Compilation compilation) {
+		this(bytes, new LineIndex(compilation.getInputFileName(), bytes), compilation);
+	}
+
+	/**
+	 * @param bytes
+	 *            The source, or a part of it, which must be plain ASCII, from its
+	 *            position to its limit
+	 * @param lines
+	 *            Where the lines of the whole source start
+	 * @param compilation
+	 *            The compilation the source belongs to
+	 */
+	FastScan(ByteBuffer bytes, LineIndex lines, Compilation compilation) {
+		super(new StringReader(""), compilation);
+		this.compilation = compilation;
+		this.inputFileName = compilation.getInputFileName();
+		this.bytes = bytes;
+		this.lines = lines;
+		pos = bytes.position();
+		end = bytes.limit();
+	}
+
+	/**
+	 * Creates the scanner of a source: a FastScan if the source is plain ASCII,
+	 * otherwise a Scan of the decoded source
+	 *
+	 * @param source
+	 *            The source, from its position to its limit. Not changed
+	 * @param compilation
+	 *            The compilation the source belongs to
+	 * @return the scanner
+	 */
+	public static Scan open(ByteBuffer source, Compilation compilation) {
+		if (canScan(source)) {
+			return new FastScan(source.duplicate(), compilation);
+		}
+		Reader reader;
+		if (source.hasArray()) {
+			reader = new InputStreamReader(new ByteArrayInputStream(source.array(),
+					source.arrayOffset() + source.position(), source.remaining()));
+		} else {
+			reader = new StringReader(Charset.defaultCharset().decode(source.duplicate()).toString());
+		}
+		return new Scan(reader, compilation);
+	}
+
+	/**
+	 * Reads a source file into a buffer for open. Small files are read, larger
+	 * ones are memory mapped
+	 *
+	 * @param file
+	 *            The file
+	 * @return the content of the file
+	 * @throws IOException
+	 *             If the file could not be read, or is too large for a single
+	 *             buffer
+	 */
+	public static ByteBuffer read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(file.getPath() + " is too large to scan from a single buffer");
+			}
+			if (size >= 256 * 1024) {
+				//The mapping stays valid once the channel is closed
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			ByteBuffer bytes = ByteBuffer.allocate((int) size);
+			while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+			}
+			bytes.flip();
+			return bytes;
+		}
+	}
+
+	/**
+	 * @param source
+	 *            The source, from its position to its limit
+	 * @return true if the source can be scanned by FastScan
+	 */
+	static boolean canScan(ByteBuffer source) {
+		return asciiCharset && isPlainAscii(source);
+	}
+
+	/**
+	 * @param source
+	 *            The source, from its position to its limit
+	 * @return true if every byte of the source is ASCII, and none is a vertical
+	 *         tab or a form feed
+	 */
+	static boolean isPlainAscii(ByteBuffer source) {
+		int i = source.position();
+		//Eight bytes at a time: none may have its high bit set, or be a vertical tab or a form feed
+		for (; i + 8 <= source.limit(); i += 8) {
+			long word = source.getLong(i);
+			if ((word & 0x8080808080808080L) != 0 || hasByte(word, 0x0B0B0B0B0B0B0B0BL)
+					|| hasByte(word, 0x0C0C0C0C0C0C0C0CL)) {
+				return false;
+			}
+		}
+		for (; i < source.limit(); i++) {
+			byte b = source.get(i);
+			if (b < 0 || b == 0x0B || b == 0x0C) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param word
+	 *            Eight bytes, none with its high bit set
+	 * @param pattern
+	 *            The byte looked for, repeated eight times
+	 * @return true if one of the bytes of the word is the byte looked for
+	 */
+	static boolean hasByte(long word, long pattern) {
+		long x = word ^ pattern;
+		return ((x - 0x0101010101010101L) & ~x & 0x8080808080808080L) != 0;
+	}
+
+	/**
+	 * @return true if the charset decodes every ASCII byte to the same char
+	 */
+	private static boolean isAsciiCharset(Charset charset) {
+		byte[] ascii = new byte[128];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (byte) i;
+		}
+		String decoded = new String(ascii, charset);
+		if (decoded.length() != ascii.length) {
+			return false;
+		}
+		for (int i = 0; i < ascii.length; i++) {
+			if (decoded.charAt(i) != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Symbol next_token() throws IOException, CompilerExitException {
+		int kind = scanToken();
+		int length = pos - tokenStart;
+		Location left = lines.location(tokenStart, 1);
+		//The locations are never changed, so a token of one character has the same at both ends
+		Location right = length == 1 ? left : lines.location(tokenStart, length);
+		Symbol token;
+		if (kind == sym.ID || kind == sym.INT || kind == sym.STRING) {
+			token = compilation.getSymbolFactory().newSymbol(sym.terminalNames[kind], kind, left, right,
+					value(bytes, kind, tokenStart, length, compilation.getNames()));
+		} else {
+			token = compilation.getSymbolFactory().newSymbol(sym.terminalNames[kind], kind, left, right);
+		}
+		return token;
+	}
+
+	/**
+	 * @return where the lines of the source start
+	 */
+	LineIndex getLines() {
+		return lines;
+	}
+
+	/**
+	 * Scans the whole source into the buffer, up to and including EOF. The
+	 * warnings are recorded with the tokens instead of printed. Tokenizing stops
+	 * early once there are too many warnings, or more tokens than the tokens
+	 * limit allows, since the compilation stops there
+	 *
+	 * @param tokens
+	 *            Where the tokens are recorded
+	 */
+	void tokenize(TokenBuffer tokens) {
+		this.tokens = tokens;
+		long maximum = compilation.getLimits().get(CompileLimits.TOKENS);
+		try {
+			int kind;
+			do {
+				kind = scanToken();
+				tokens.add(kind, tokenStart, pos - tokenStart);
+			} while (kind != sym.EOF && tokens.size() <= maximum);
+		} catch (CompilerExitException e) {
+			//Too many warnings, the last of which stops the compilation when it is printed
+		}
+	}
+
+	/**
+	 * Scans up to the end of the next token
+	 *
+	 * @return the kind of the token, whose start is in tokenStart
+	 */
+	private int scanToken() throws CompilerExitException {
+		while (pos < end) {
+			int start = pos;
+			byte c = bytes.get(pos++);
+			switch (c) {
+			case ' ':
+			case '\t':
+				while (pos < end && (bytes.get(pos) == ' ' || bytes.get(pos) == '\t')) {
+					pos++;
+				}
+				break;
+			case '\r':
+			case '\n':
+				while (pos < end && (bytes.get(pos) == '\r' || bytes.get(pos) == '\n')) {
+					pos++;
+				}
+				break;
+			case '/':
+				if (pos < end && bytes.get(pos) == '/') {
+					//A comment runs to the end of the line
+					while (pos < end && bytes.get(pos) != '\r' && bytes.get(pos) != '\n') {
+						pos++;
+					}
+					break;
+				}
+				return found(sym.DIVIDE, start);
+			case '+':
+				return found(sym.ADD, start);
+			case '-':
+				return found(sym.SUBTRACT, start);
+			case '*':
+				return found(sym.MULTIPLY, start);
+			case '%':
+				return found(sym.MODULUS, start);
+			case '<':
+				return found(next('=') ? sym.LESSER_EQUAL : sym.LESSER_THAN, start);
+			case '>':
+				return found(next('=') ? sym.GREATER_EQUAL : sym.GREATER_THAN, start);
+			case '=':
+				return found(next('=') ? sym.EQUAL : sym.ASSIGN, start);
+			case '!':
+				return found(next('=') ? sym.NOT_EQUAL : sym.NOT, start);
+			case '&':
+				if (next('&')) {
+					return found(sym.AND, start);
+				}
+				unknown(start);
+				break;
+			case '|':
+				if (next('|')) {
+					return found(sym.OR, start);
+				}
+				unknown(start);
+				break;
+			case '(':
+				return found(sym.OPEN_ROUND_BRACES, start);
+			case ')':
+				return found(sym.CLOSE_ROUND_BRACES, start);
+			case '{':
+				return found(sym.OPEN_CURLY_BRACES, start);
+			case '}':
+				return found(sym.CLOSE_CURLY_BRACES, start);
+			case ',':
+				return found(sym.COMMA, start);
+			case ';':
+				return found(sym.SEMI_COLON, start);
+			case '"':
+				if (string(start)) {
+					return found(sym.STRING, start);
+				}
+				break;
+			default:
+				if (isLetter(c)) {
+					while (pos < end && (isLetter(bytes.get(pos)) || isDigit(bytes.get(pos)))) {
+						pos++;
+					}
+					int keyword = keyword(start, pos - start);
+					if (keyword >= 0) {
+						return found(keyword, start);
+					}
+					return found(sym.ID, start);
+				} else if (isDigit(c)) {
+					while (pos < end && isDigit(bytes.get(pos))) {
+						pos++;
+					}
+					return found(sym.INT, start);
+				}
+				unknown(start);
+			}
+		}
+		//Like Scan, keeps returning EOF at the end of the input
+		return found(sym.EOF, pos);
+	}
+
+	/**
+	 * @return the kind of the token found from start to pos
+	 */
+	private int found(int kind, int start) {
+		tokenStart = start;
+		return kind;
+	}
+
+	/**
+	 * Scans a string literal, or warns about one that isn't closed on its line
+	 *
+	 * @param start
+	 *            The position of the opening quotation mark
+	 * @return true if the string was closed
+	 */
+	private boolean string(int start) throws CompilerExitException {
+		while (pos < end) {
+			byte c = bytes.get(pos);
+			if (c == '"' || c == '\n') {
+				break;
+			}
+			if (c == '\\') {
+				if (pos + 1 < end && isEscape(bytes.get(pos + 1))) {
+					pos += 2;
+					continue;
+				}
+				break;
+			}
+			pos++;
+		}
+		if (pos < end && bytes.get(pos) == '"') {
+			pos++;
+			return true;
+		}
+		if (pos < end && bytes.get(pos) == '\n') {
+			pos++;
+			//Like Scan, the newline and the character before it are left out
+			warning("WARNING: Newline in String literal " + text(start, Math.max(start, pos - 2))
+					+ " at end of line " + (lines.line(start) + 1) + " in file " + inputFileName);
+		} else {
+			warning("WARNING: Missing closing quotation after " + text(start, pos) + " at line "
+					+ (lines.line(start) + 1) + ", and column " + (lines.column(start) + 1 + pos - start) + " in file "
+					+ inputFileName);
+		}
+		return false;
+	}
+
+	/**
+	 * Warns about the character at start, which starts no token
+	 */
+	private void unknown(int start) throws CompilerExitException {
+		pos = start + 1;
+		warning("WARNING: Unknown character " + text(start, pos) + " found at line " + (lines.line(start) + 1)
+				+ ", and column " + (lines.column(start) + 1) + " in file " + inputFileName);
+	}
+
+	/**
+	 * Prints a warning, or records it with the next token when tokenizing
+	 */
+	private void warning(String s) throws CompilerExitException {
+		if (tokens == null) {
+			compilation.warning(s);
+		} else if (tokens.warning(s) > Compilation.maxWarnings) {
+			throw new CompilerExitException("Too many errors");
+		}
+	}
+
+	/**
+	 * @return true, moving past it, if the next byte is c
+	 */
+	private boolean next(char c) {
+		if (pos < end && bytes.get(pos) == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the token of the keyword from start, or -1 if it isn't a keyword
+	 */
+	private int keyword(int start, int length) {
+		byte first = bytes.get(start);
+		for (int k = 0; k < keywords.length; k++) {
+			String keyword = keywords[k];
+			if (keyword.length() != length || keyword.charAt(0) != first) {
+				continue;
+			}
+			int i = 1;
+			while (i < length && bytes.get(start + i) == keyword.charAt(i)) {
+				i++;
+			}
+			if (i == length) {
+				return keywordTokens[k];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the source from start to end as a string
+	 */
+	private String text(int start, int end) {
+		return text(bytes, start, end);
+	}
+
+	/**
+	 * @return the value of a token: the name of the identifier interned in
+	 *         names, the number, or the string without its quotation marks, or
+	 *         null for other tokens
+	 */
+	static Object value(ByteBuffer bytes, int kind, int start, int length, NameTable names) {
+		switch (kind) {
+		case sym.ID:
+			return names.intern(bytes, start, length);
+		case sym.INT:
+			return text(bytes, start, start + length);
+		case sym.STRING:
+			return text(bytes, start + 1, start + length - 1);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return the plain ASCII bytes from start to end as a string
+	 */
+	static String text(ByteBuffer bytes, int start, int end) {
+		if (bytes.hasArray()) {
+			//ASCII is ISO 8859-1, which the JVM copies straight into a compact string
+			return new String(bytes.array(), bytes.arrayOffset() + start, end - start, StandardCharsets.ISO_8859_1);
+		}
+		char[] chars = new char[end - start];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) bytes.get(start + i);
+		}
+		return new String(chars);
+	}
+
+	private static boolean isLetter(byte c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	private static boolean isDigit(byte c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @return true if c may follow a backslash in a string
+	 */
+	private static boolean isEscape(byte c) {
+		switch (c) {
+		case 'b':
+		case 'f':
+		case 't':
+		case 'r':
+		case 'n':
+		case '\'':
+		case '"':
+		case '\\':
+			return true;
+		default:
+			return false;
+		}
+	}
+}
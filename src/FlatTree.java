@@ -0,0 +1,454 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import java_cup.runtime.ComplexSymbolFactory.Location;
+
+/**
+ *
+ */
+
+/**
+ * An abstract syntax tree kept in arrays instead of objects. Each node is an
+ * index, and its kind, its first child, its next sibling, its attribute and
+ * the offset of its location are kept in arrays, a byte and four ints per
+ * node, where a TreeNode takes an object, a list of children and an object for
+ * its location. The attribute of an identifier is the id of its name, and any
+ * other attribute is kept once in a table of strings. A null child is a node
+ * of its own, so the children keep their places. The nodes of a subtree are
+ * kept in order, depth first, from its root on.
+ * <p>
+ * The global declarations are added one at a time as the parser finishes them,
+ * so the whole program is never held as TreeNodes. To analyze and generate the
+ * program, each declaration is made into TreeNodes again and given to the
+ * semantic analyzer and the code generator, as in streaming mode. The
+ * signature and scope the analyzer gives each node are kept in side tables,
+ * an int per node each, so the code generator sees them when the declaration
+ * is made into TreeNodes again.
+ *
+ * @author charl
+ * @see Compilation#setFlat(boolean)
+ */
+public class FlatTree {
+	private static final TreeNodeType[] kindsByOrdinal = TreeNodeType.values();
+	/**
+	 * The kind of a null child
+	 */
+	private static final byte NULL = -1;
+	/**
+	 * The attribute of a node that has none, and the offset of a node without a
+	 * location, or whose location is kept in locations
+	 */
+	private static final int NONE = -1;
+	private static final int OTHER = -2;
+	/**
+	 * Stands in for a null child while a tree is walked
+	 */
+	private static final TreeNode nullChild = new TreeNode(null);
+
+	private final NameTable names;
+	/**
+	 * The index of the source the offsets are in, taken from the first location
+	 * added
+	 */
+	private LineIndex lines;
+	private byte[] kinds = new byte[256];
+	private int[] firstChild = new int[256];
+	private int[] nextSibling = new int[256];
+	/**
+	 * The id of the name of an identifier, or NONE, or less than NONE for an
+	 * index in strings, counted down from OTHER
+	 */
+	private int[] attrs = new int[256];
+	/**
+	 * The offset of the first char of the token of each node, or NONE, or
+	 * OTHER for a location that isn't one of the index
+	 */
+	private int[] offsets = new int[256];
+	private int size = 0;
+	private int lastDeclaration = NONE;
+	private final ArrayList<String> strings = new ArrayList<String>();
+	private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+	private final Map<Integer, Location> locations = new HashMap<Integer, Location>();
+	/**
+	 * The signature and the scope of each node, as an index in their table plus
+	 * one, or 0 for none. Only made once the program is analyzed
+	 */
+	private int[] sigs;
+	private int[] scopes;
+	private final ArrayList<Signature> sigTable = new ArrayList<Signature>();
+	private final Map<Signature, Integer> sigIds = new IdentityHashMap<Signature, Integer>();
+	private final ArrayList<Scope> scopeTable = new ArrayList<Scope>();
+	private final Map<Scope, Integer> scopeIds = new IdentityHashMap<Scope, Integer>();
+
+	/**
+	 * Creates a tree of no declarations, whose root is the global declarations
+	 *
+	 * @param names
+	 *            The names of the compilation the program belongs to
+	 */
+	public FlatTree(NameTable names) {
+		this.names = names;
+		append(new TreeNode(TreeNodeType.globaldeclarations));
+	}
+
+	/**
+	 * Adds a global declaration to the root, after the others
+	 *
+	 * @param declaration
+	 *            The declaration, which isn't kept
+	 * @return the node of the declaration
+	 */
+	public int add(TreeNode declaration) {
+		int node = size;
+		new Flattener().walk(declaration);
+		if (lastDeclaration == NONE) {
+			firstChild[0] = node;
+		} else {
+			nextSibling[lastDeclaration] = node;
+		}
+		lastDeclaration = node;
+		return node;
+	}
+
+	/**
+	 * @return the number of nodes, with the root and the null children
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the root, whose children are the global declarations
+	 */
+	public int root() {
+		return 0;
+	}
+
+	/**
+	 * @return the kind of the node, or null for a null child
+	 */
+	public TreeNodeType kind(int node) {
+		return kinds[node] == NULL ? null : kindsByOrdinal[kinds[node]];
+	}
+
+	/**
+	 * @return the first child of the node, or -1 if it has none
+	 */
+	public int firstChild(int node) {
+		return firstChild[node];
+	}
+
+	/**
+	 * @return the next child of the parent of the node, or -1 if it is the last
+	 */
+	public int nextSibling(int node) {
+		return nextSibling[node];
+	}
+
+	/**
+	 * @return the attribute of the node, or null
+	 */
+	public String attr(int node) {
+		int attr = attrs[node];
+		if (attr >= 0) {
+			return names.get(attr).toString();
+		}
+		return attr == NONE ? null : strings.get(OTHER - attr);
+	}
+
+	/**
+	 * @return the location of the node, or null
+	 */
+	public Location location(int node) {
+		int offset = offsets[node];
+		if (offset >= 0) {
+			return lines.location(offset, 1);
+		}
+		return offset == NONE ? null : locations.get(node);
+	}
+
+	/**
+	 * Gives the arrays back the room they grew into, once the tree is complete
+	 */
+	public void trim() {
+		kinds = Arrays.copyOf(kinds, size);
+		firstChild = Arrays.copyOf(firstChild, size);
+		nextSibling = Arrays.copyOf(nextSibling, size);
+		attrs = Arrays.copyOf(attrs, size);
+		offsets = Arrays.copyOf(offsets, size);
+	}
+
+	/**
+	 * Makes the subtree of the node into TreeNodes, with the signatures and
+	 * scopes kept for it. Walked with arrays on the heap, so a subtree of any
+	 * depth can be made
+	 *
+	 * @param node
+	 *            The root of the subtree, which isn't a null child
+	 * @return the root of the TreeNodes
+	 */
+	public TreeNode inflate(int node) {
+		TreeNode[] path = new TreeNode[64];
+		//The next child to make of each node of the path
+		int[] next = new int[64];
+		path[0] = create(node);
+		next[0] = firstChild[node];
+		int depth = 1;
+		while (true) {
+			int top = depth - 1;
+			int child = next[top];
+			if (child < 0) {
+				//A node is added to its parent once it is complete, so the parent counts its size and height
+				if (top == 0) {
+					return path[0];
+				}
+				path[top - 1].addChild(path[top]);
+				path[top] = null;
+				depth--;
+				continue;
+			}
+			next[top] = nextSibling[child];
+			if (kinds[child] == NULL) {
+				path[top].addChild();
+			} else if (firstChild[child] < 0) {
+				path[top].addChild(create(child));
+			} else {
+				if (depth == path.length) {
+					path = Arrays.copyOf(path, depth * 2);
+					next = Arrays.copyOf(next, depth * 2);
+				}
+				path[depth] = create(child);
+				next[depth] = firstChild[child];
+				depth++;
+			}
+		}
+	}
+
+	/**
+	 * @return the whole tree as TreeNodes
+	 */
+	public Tree inflate() {
+		return new Tree(inflate(0));
+	}
+
+	/**
+	 * Analyzes the program a declaration at a time, as in streaming mode: pass 0
+	 * runs on the declarations without their blocks, then each declaration is
+	 * made into TreeNodes and analyzed, and the signatures and scopes of its
+	 * nodes are kept
+	 *
+	 * @param compilation
+	 *            The compilation the program belongs to
+	 * @return the analyzer, which names the default scope for the code generator
+	 * @throws CompilerExitException
+	 *             If a semantic error was found. The error has now been printed
+	 */
+	public SemanticAnalyzer analyze(Compilation compilation) throws CompilerExitException {
+		SemanticAnalyzer semAnalyze = new SemanticAnalyzer(signatures(), compilation);
+		semAnalyze.declareGlobals();
+		for (int declaration = firstChild[0]; declaration >= 0; declaration = nextSibling[declaration]) {
+			TreeNode node = inflate(declaration);
+			if (semAnalyze.analyzeDeclaration(node)) {
+				keepAnnotations(declaration, node);
+			}
+		}
+		semAnalyze.finish();
+		return semAnalyze;
+	}
+
+	/**
+	 * Generates the code of the analyzed program, a declaration at a time
+	 *
+	 * @param codeGen
+	 *            The code generator, made without a tree
+	 * @param out
+	 *            Where the code is printed
+	 * @throws IOException
+	 *             If the code could not be printed
+	 */
+	public void generate(CodeGen codeGen, PrintStream out) throws IOException {
+		codeGen.begin(out);
+		for (int declaration = firstChild[0]; declaration >= 0; declaration = nextSibling[declaration]) {
+			codeGen.generateDeclaration(inflate(declaration));
+		}
+		codeGen.finish();
+	}
+
+	/**
+	 * @return the global declarations as TreeNodes without the blocks of the
+	 *         functions, as SignatureScan finds them, for pass 0
+	 */
+	private Tree signatures() {
+		TreeNode root = create(0);
+		for (int declaration = firstChild[0]; declaration >= 0; declaration = nextSibling[declaration]) {
+			TreeNode signature = create(declaration);
+			int child = firstChild[declaration];
+			//The type, the identifier and the parameters
+			for (int i = 0; i < 3 && child >= 0; i++, child = nextSibling[child]) {
+				signature.addChild(inflate(child));
+			}
+			root.addChild(signature);
+		}
+		return new Tree(root);
+	}
+
+	/**
+	 * Keeps the signature and scope of every node of a declaration made into
+	 * TreeNodes, which are in the same order as the nodes of the declaration
+	 */
+	private void keepAnnotations(final int declaration, TreeNode node) {
+		if (sigs == null) {
+			sigs = new int[kinds.length];
+			scopes = new int[kinds.length];
+		}
+		new TreeVisitor<RuntimeException, RuntimeException>() {
+			private int index = declaration;
+
+			@Override
+			protected void enter(TreeNode node) {
+				if (node != nullChild) {
+					sigs[index] = id(node.sig, sigTable, sigIds);
+					scopes[index] = id(node.getScope(), scopeTable, scopeIds);
+				}
+				index++;
+			}
+
+			@Override
+			protected TreeNode next(TreeNode node, int step) {
+				return FlatTree.next(node, step);
+			}
+		}.walk(node);
+	}
+
+	/**
+	 * @return the index of the value in its table plus one, added if it isn't
+	 *         there, or 0 for null
+	 */
+	private static <T> int id(T value, ArrayList<T> table, Map<T, Integer> ids) {
+		if (value == null) {
+			return 0;
+		}
+		Integer id = ids.get(value);
+		if (id == null) {
+			table.add(value);
+			id = table.size();
+			ids.put(value, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the child of the node at the step, nullChild for a null child, or
+	 *         null once there are no more
+	 */
+	private static TreeNode next(TreeNode node, int step) {
+		if (node == nullChild || step >= node.getChildren().size()) {
+			return null;
+		}
+		TreeNode child = node.getChild(step);
+		return child != null ? child : nullChild;
+	}
+
+	/**
+	 * @return the node as a TreeNode without its children
+	 */
+	private TreeNode create(int node) {
+		TreeNode created = new TreeNode(kindsByOrdinal[kinds[node]], location(node));
+		int attr = attrs[node];
+		if (attr >= 0) {
+			created.setName(names.get(attr));
+		} else if (attr != NONE) {
+			created.setAttr(strings.get(OTHER - attr));
+		}
+		if (sigs != null && (sigs[node] != 0 || scopes[node] != 0)) {
+			created.annotate(sigs[node] == 0 ? null : sigTable.get(sigs[node] - 1),
+					scopes[node] == 0 ? null : scopeTable.get(scopes[node] - 1));
+		}
+		return created;
+	}
+
+	/**
+	 * Adds a node without children or siblings
+	 *
+	 * @return the index of the node
+	 */
+	private int append(TreeNode node) {
+		if (size == kinds.length) {
+			int capacity = size + (size >> 1);
+			kinds = Arrays.copyOf(kinds, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			attrs = Arrays.copyOf(attrs, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+		}
+		int index = size++;
+		firstChild[index] = NONE;
+		nextSibling[index] = NONE;
+		attrs[index] = NONE;
+		offsets[index] = NONE;
+		if (node == nullChild) {
+			kinds[index] = NULL;
+			return index;
+		}
+		kinds[index] = (byte) node.getType().ordinal();
+		Name name = node.getName();
+		if (name != null && names.owns(name)) {
+			attrs[index] = name.getId();
+		} else if (node.getAttr() != null) {
+			attrs[index] = OTHER - (id(node.getAttr(), strings, stringIds) - 1);
+		}
+		Location loc = node.getLoc();
+		if (loc instanceof SourceLocation && ((SourceLocation) loc).getAddend() == 1
+				&& (lines == null || lines == ((SourceLocation) loc).getIndex())) {
+			lines = ((SourceLocation) loc).getIndex();
+			offsets[index] = loc.getOffset();
+		} else if (loc != null) {
+			offsets[index] = OTHER;
+			locations.put(index, loc);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds the nodes of a declaration, depth first, linking each to its parent
+	 * and to the child before it
+	 */
+	private class Flattener extends TreeVisitor<RuntimeException, RuntimeException> {
+		/**
+		 * The node at each depth of the path, and its last child so far
+		 */
+		private int[] nodes = new int[64];
+		private int[] lastChildren = new int[64];
+
+		@Override
+		protected void enter(TreeNode node) {
+			int index = append(node);
+			int depth = getDepth();
+			if (depth > 0) {
+				int parent = nodes[depth - 1];
+				if (lastChildren[depth - 1] == NONE) {
+					firstChild[parent] = index;
+				} else {
+					nextSibling[lastChildren[depth - 1]] = index;
+				}
+				lastChildren[depth - 1] = index;
+			}
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, depth * 2);
+				lastChildren = Arrays.copyOf(lastChildren, depth * 2);
+			}
+			nodes[depth] = index;
+			lastChildren[depth] = NONE;
+		}
+
+		@Override
+		protected TreeNode next(TreeNode node, int step) {
+			return FlatTree.next(node, step);
+		}
+	}
+}
@@ -1,6 +1,4 @@
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
 
 /**
  * 
@@ -17,7 +15,7 @@ public class GlobalScope extends Scope {
 	/**
 	 * @return the mainFuncID
 	 */
-	public String getMainFuncID() {
+	public Name getMainFuncID() {
 		return mainFuncID;
 	}
 
@@ -34,27 +32,20 @@ public class GlobalScope extends Scope {
 
 
 	/**
-	 * Stores the return types of the functions
+	 * Stores the signatures of the functions, their return type and parameter
+	 * types
 	 */
-	private ArrayList<Type> funcGlobalReturnType = new ArrayList<Type>();
+	private ArrayList<Signature> funcGlobalSignature = new ArrayList<Signature>();
 	/**
-	 * Stores the list of parameter types of the functions
+	 * Links the name of a function to the index that is used to access its
+	 * signature in funcGlobalSignature. The number of functions in it is also the
+	 * index of the next function to be added
 	 */
-	private ArrayList<List<Type>> funcGlobalInputType = new ArrayList<List<Type>>();
+	private NameMap funcGlobalNameToInt = new NameMap();
 	/**
-	 * Links the name of a function to the index that is used to access its info in
-	 * funcGlobalReturnType and funcGlobalInputType
+	 * Stores the ID of the main function, null until it is added
 	 */
-	private LinkedHashMap<String, Integer> funcGlobalNameToInt = new LinkedHashMap<String, Integer>();
-	/**
-	 * Stores the ID of the main function
-	 */
-	private String mainFuncID = "";
-	/**
-	 * The number of functions in this scope, which is also the index of the next
-	 * function to be added
-	 */
-	private int numFunc = 0;
+	private Name mainFuncID;
 
 	/**
 	 * Checks if the ID is already in the scope (either a function or a variable
@@ -65,8 +56,8 @@ public class GlobalScope extends Scope {
 	 * @return true if the ID is already in the scope, false otherwise
 	 */
 	@Override
-	public boolean contains(String ID) {
-		return funcGlobalNameToInt.containsKey(ID) || super.contains(ID) || mainFuncID.equals(ID);
+	public boolean contains(Name ID) {
+		return funcGlobalNameToInt.get(ID) >= 0 || super.contains(ID) || mainFuncID == ID;
 	}
 
 	/**
@@ -76,21 +67,21 @@ public class GlobalScope extends Scope {
 	 *            The ID to check
 	 * @return true if there is a function with the ID in the scope, false otherwise
 	 */
-	public boolean containsFunc(String ID) {
-		return funcGlobalNameToInt.containsKey(ID);
+	public boolean containsFunc(Name ID) {
+		return funcGlobalNameToInt.get(ID) >= 0;
 	}
 
 	/**
-	 * Returns the parameter types of the specified function. Does not check if the
-	 * function is in the scope
+	 * Returns the signature of the specified function, shared by every call of
+	 * it. Does not check if the function is in the scope
 	 * 
 	 * @param ID
-	 *            The ID of the function to get the parameter types for
-	 * @return A List containing the parameter types of the function in left to
-	 *         right order.
+	 *            The ID of the function to get the signature for
+	 * @return The signature of the function, with its parameter types in left to
+	 *         right order
 	 */
-	public List<Type> getFuncInputType(String ID) {
-		return funcGlobalInputType.get(funcGlobalNameToInt.get(ID));
+	public Signature getFuncSignature(Name ID) {
+		return funcGlobalSignature.get(funcGlobalNameToInt.get(ID));
 	}
 
 	/**
@@ -101,25 +92,43 @@ public class GlobalScope extends Scope {
 	 *            The ID of the function to get the return type for
 	 * @return The return type of the function
 	 */
-	public Type getFuncReturnType(String ID) {
-		return funcGlobalReturnType.get(funcGlobalNameToInt.get(ID));
+	public Type getFuncReturnType(Name ID) {
+		return getFuncSignature(ID).getReturnType();
 	}
 
 	/**
-	 * Adds the specified function name, with the specified parameter types and
-	 * return type to the scope.Does not check for duplicate IDs.
+	 * Adds the specified function name, with the specified signature to the
+	 * scope. Does not check for duplicate IDs.
 	 * 
 	 * @param funcName
 	 *            The name of the function
-	 * @param argTypes
-	 *            A list of the parameter types
-	 * @param returnType
-	 *            The return type
+	 * @param signature
+	 *            The return type and the parameter types
+	 */
+	public void addFunc(Name funcName, Signature signature) {
+		funcGlobalNameToInt.add(funcName);
+		funcGlobalSignature.add(signature);
+	}
+
+	/**
+	 * @return the number of functions in the scope
+	 */
+	public int getNumFunc() {
+		return funcGlobalNameToInt.size();
+	}
+
+	/**
+	 * Returns the name of the specified function or variable in the generated
+	 * code, which is built once for each
+	 * 
+	 * @param ID
+	 *            The ID of the function or variable
+	 * @return $, then the name of the scope, then the ID
 	 */
-	public void addFunc(String funcName, List<Type> argTypes, Type returnType) {
-		funcGlobalNameToInt.put(funcName, numFunc++);
-		funcGlobalInputType.add(argTypes);
-		funcGlobalReturnType.add(returnType);
+	@Override
+	public String getCodeName(Name ID) {
+		int index = funcGlobalNameToInt.get(ID);
+		return index >= 0 ? funcGlobalNameToInt.getCodeName(index, getName()) : super.getCodeName(ID);
 	}
 
 	/**
@@ -129,7 +138,7 @@ public class GlobalScope extends Scope {
 	 * @param funcName
 	 *            The name of the main function to add
 	 */
-	public void addMainFunc(String funcName) {
+	public void addMainFunc(Name funcName) {
 		mainFuncID = funcName;
 	}
 
@@ -142,13 +151,14 @@ public class GlobalScope extends Scope {
 		super.printLoc();
 		StringBuffer s = new StringBuffer();
 		s.append("main func:\t");
-		s.append(mainFuncID);
+		s.append(mainFuncID == null ? "" : mainFuncID.toString());
 		s.append('\n');
-		for (String name : funcGlobalNameToInt.keySet()) {
-			s.append("func:\t" + funcGlobalReturnType.get(funcGlobalNameToInt.get(name)));
-			s.append(" " + name + "(");
-			for (Type type : funcGlobalInputType.get(funcGlobalNameToInt.get(name))) {
-				s.append(type + " ");
+		for (int i = 0; i < funcGlobalNameToInt.size(); i++) {
+			Signature signature = funcGlobalSignature.get(i);
+			s.append("func:\t" + signature.getReturnType());
+			s.append(" " + funcGlobalNameToInt.getName(i) + "(");
+			for (int j = 0; j < signature.getParameterCount(); j++) {
+				s.append(signature.getParameter(j) + " ");
 			}
 			if (s.charAt(s.length() - 1) == ' ') {
 				s.setCharAt(s.length() - 1, ')');
@@ -0,0 +1,289 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import java_cup.runtime.ComplexSymbolFactory.Location;
+
+/**
+ *
+ */
+
+/**
+ * Parses a program again after each edit, for an editor or a watch mode, by
+ * parsing only the global declarations the edit touched. The tokens, the tree,
+ * and where each declaration starts are kept from the last version. An edit
+ * only scans again the lines it changed, since a token never spans two lines,
+ * and the other tokens are the same, moved by the change in length. The
+ * declarations are then found from the first one the edit touched, until one
+ * ends where a declaration of the last version ended, after the edit; those
+ * are parsed by a DescentParser, and the declarations before and after are
+ * put back in the new tree as they are, the same TreeNodes. The locations of
+ * a declaration after the edit are moved by the change in length: the first
+ * time it moves they are anchored to a shift of its own, and after that only
+ * the shift changes, so an edit takes about the time of the declarations it
+ * touched, and of copying the tokens.
+ * <p>
+ * Only valid programs of plain ASCII are parsed again in part, as
+ * ParallelParser parses them. When an edit makes a warning or a syntax error,
+ * or the last version had one, the whole program is parsed again by
+ * ParallelParser, which prints them as the generated parser does. Each version
+ * may print as many warnings as a compilation before it stops, however many
+ * the versions before it printed.
+ * <p>
+ * The locations of the tree are kept up to date by editing the line index of
+ * the source in place, so after an edit, the tree of the last version is only
+ * valid where it was put back in the new one.
+ *
+ * @author charl
+ */
+public class IncrementalParser {
+	private final Compilation compilation;
+	private byte[] source;
+	/**
+	 * The tokens of the source, and the index of the first token of each global
+	 * declaration, then of EOF, or null if the source isn't a valid program of
+	 * plain ASCII
+	 */
+	private TokenBuffer tokens;
+	private int[] bounds;
+	private Tree tree;
+	/**
+	 * The shift each global declaration moves with, or null for one that hasn't
+	 * moved since it was parsed
+	 */
+	private SourceLocation.Shift[] shifts;
+	/**
+	 * The number of global declarations parsed by the last parse or edit
+	 */
+	private int reparsed = 0;
+	/**
+	 * Whether the last edit only parsed the declarations it touched
+	 */
+	private boolean partial = false;
+
+	/**
+	 * @param compilation
+	 *            The compilation every version of the program belongs to, whose
+	 *            names the trees share
+	 * @throws IllegalArgumentException
+	 *             If the compilation has limits, which DescentParser doesn't
+	 *             check
+	 */
+	public IncrementalParser(Compilation compilation) {
+		compilation.checkUnlimited("IncrementalParser");
+		this.compilation = compilation;
+	}
+
+	/**
+	 * Parses the whole program
+	 *
+	 * @param source
+	 *            The program, which is kept, and must not be changed
+	 * @return the tree of the program, or null if the program is empty
+	 * @throws CompilerExitException
+	 *             If there was a syntax error the generated parser couldn't
+	 *             recover from, or too many errors
+	 * @throws Exception
+	 *             If the program could not be parsed
+	 */
+	public Tree parse(byte[] source) throws Exception {
+		compilation.resetWarnings();
+		this.source = source;
+		partial = false;
+		tokens = null;
+		bounds = null;
+		tree = null;
+		ByteBuffer bytes = ByteBuffer.wrap(source);
+		TokenBuffer all = TokenBuffer.tokenize(bytes, compilation);
+		if (all == null) {
+			tree = new DescentParser(FastScan.open(bytes, compilation), compilation).parse();
+		} else {
+			ParallelParser p = new ParallelParser(all, compilation);
+			tree = p.parse();
+			if (p.parsedInParallel()) {
+				tokens = all;
+				bounds = ParallelParser.bounds(all);
+				shifts = new SourceLocation.Shift[bounds.length - 1];
+			}
+		}
+		reparsed = tree == null ? 0 : tree.root.getChildren().size();
+		return tree;
+	}
+
+	/**
+	 * Replaces part of the program, and parses the global declarations the edit
+	 * touched
+	 *
+	 * @param offset
+	 *            Where the edit starts
+	 * @param removed
+	 *            The number of bytes the edit removes from there
+	 * @param inserted
+	 *            The bytes the edit puts in their place
+	 * @return the tree of the edited program, or null if it is empty
+	 * @throws CompilerExitException
+	 *             If there was a syntax error the generated parser couldn't
+	 *             recover from, or too many errors
+	 * @throws Exception
+	 *             If the program could not be parsed
+	 */
+	public Tree edit(int offset, int removed, byte[] inserted) throws Exception {
+		if (offset < 0 || removed < 0 || offset + removed > source.length) {
+			throw new IndexOutOfBoundsException("The edit of " + removed + " bytes at " + offset
+					+ " is outside the program of " + source.length + " bytes");
+		}
+		compilation.resetWarnings();
+		byte[] edited = new byte[source.length - removed + inserted.length];
+		System.arraycopy(source, 0, edited, 0, offset);
+		System.arraycopy(inserted, 0, edited, offset, inserted.length);
+		System.arraycopy(source, offset + removed, edited, offset + inserted.length,
+				source.length - offset - removed);
+		if (tokens == null) {
+			return parse(edited);
+		}
+		//The whole lines the edit touched
+		int from = offset;
+		while (from > 0 && source[from - 1] != '\n') {
+			from--;
+		}
+		int to = offset + removed;
+		while (to < source.length && source[to] != '\n') {
+			to++;
+		}
+		to = Math.min(to + 1, source.length);
+		int first = tokens.indexAt(from);
+		int last = Math.min(tokens.indexAt(to), tokens.size() - 1);
+		TokenBuffer next = tokens.edit(ByteBuffer.wrap(edited), from, to, compilation);
+		if (next == null) {
+			return parse(edited);
+		}
+		//Tokens from last on are the same, this much further on
+		int shift = next.size() - tokens.size();
+		int moved = last + shift;
+		//The declaration the edit starts in, then the bounds of those after it, until one is that of a declaration after the edit
+		int declaration = Arrays.binarySearch(bounds, first);
+		if (declaration < 0) {
+			declaration = -declaration - 2;
+		}
+		int start = bounds[declaration];
+		int[] found = new int[16];
+		int count = 0;
+		int bound = start;
+		int depth = 0;
+		int resumed;
+		for (int i = start;; i++) {
+			if (i == bound && bound >= moved && (resumed = Arrays.binarySearch(bounds, bound - shift)) >= 0) {
+				break;
+			}
+			if (i == next.size() - 1) {
+				//The braces don't balance, or the last declaration is incomplete
+				return parse(edited);
+			}
+			int kind = next.kind(i);
+			if (kind == sym.OPEN_CURLY_BRACES) {
+				depth++;
+			} else if (kind == sym.CLOSE_CURLY_BRACES && --depth < 0) {
+				return parse(edited);
+			}
+			if (depth == 0 && (kind == sym.CLOSE_CURLY_BRACES || kind == sym.SEMI_COLON)) {
+				if (count == found.length) {
+					found = Arrays.copyOf(found, count * 2);
+				}
+				bound = i + 1;
+				found[count++] = bound;
+			}
+		}
+		TreeNode declarations = new TreeNode(TreeNodeType.globaldeclarations);
+		if (bound > start) {
+			DescentParser p = new DescentParser(next.scanner(compilation, start, bound), compilation);
+			if (!p.parseDeclarations(declarations)) {
+				return parse(edited);
+			}
+		}
+		reparsed = declarations.getChildren().size();
+		TreeNode root = new TreeNode(TreeNodeType.globaldeclarations);
+		List<TreeNode> children = tree == null ? null : tree.root.getChildren();
+		for (int d = 0; d < declaration; d++) {
+			root.addChild(children.get(d));
+		}
+		root.addChildren(declarations);
+		int[] edits = new int[declaration + 1 + count + bounds.length - 1 - resumed];
+		System.arraycopy(bounds, 0, edits, 0, declaration + 1);
+		System.arraycopy(found, 0, edits, declaration + 1, count);
+		for (int d = resumed + 1; d < bounds.length; d++) {
+			edits[declaration + count + d - resumed] = bounds[d] + shift;
+		}
+		SourceLocation.Shift[] moves = new SourceLocation.Shift[edits.length - 1];
+		System.arraycopy(shifts, 0, moves, 0, declaration);
+		int delta = edited.length - source.length;
+		for (int d = resumed; d < bounds.length - 1; d++) {
+			SourceLocation.Shift moving = shifts[d];
+			if (delta != 0 && moving == null) {
+				moving = anchor(children.get(d));
+			}
+			if (moving != null) {
+				moving.chars += delta;
+			}
+			moves[declaration + count + d - resumed] = moving;
+			root.addChild(children.get(d));
+		}
+		source = edited;
+		tokens = next;
+		bounds = edits;
+		shifts = moves;
+		tree = root.getChildren().isEmpty() ? null : new Tree(root);
+		partial = true;
+		return tree;
+	}
+
+	/**
+	 * @return the number of global declarations parsed by the last parse or
+	 *         edit
+	 */
+	public int getReparsed() {
+		return reparsed;
+	}
+
+	/**
+	 * @return true if the last edit only parsed the declarations it touched,
+	 *         false if it parsed the whole program
+	 */
+	public boolean parsedInPart() {
+		return partial;
+	}
+
+	/**
+	 * @return the program as it is after the last edit
+	 */
+	public byte[] getSource() {
+		return source;
+	}
+
+	/**
+	 * Anchors the locations of every node of a declaration to a shift, the
+	 * first time it moves, so it is moved after that by changing the shift
+	 *
+	 * @return the shift
+	 */
+	private static SourceLocation.Shift anchor(TreeNode declaration) {
+		SourceLocation.Shift shift = new SourceLocation.Shift();
+		//Deeply nested programs have deep trees
+		Deque<TreeNode> nodes = new ArrayDeque<TreeNode>();
+		nodes.push(declaration);
+		while (!nodes.isEmpty()) {
+			TreeNode node = nodes.pop();
+			Location loc = node.getLoc();
+			if (loc instanceof SourceLocation) {
+				node.setLoc(((SourceLocation) loc).anchored(shift));
+			}
+			for (TreeNode child : node.getChildren()) {
+				if (child != null) {
+					nodes.push(child);
+				}
+			}
+		}
+		return shift;
+	}
+}
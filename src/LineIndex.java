@@ -0,0 +1,261 @@
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import java_cup.runtime.ComplexSymbolFactory.Location;
+
+/**
+ *
+ */
+
+/**
+ * The offsets at which the lines of a source start, so the scanners only need
+ * to keep the offset of each token. The line and column of an offset are found
+ * by a binary search when they are asked for, which is only when a warning or
+ * an error is printed. Lines end where Scan counted them: at \n, \r, \r\n, and
+ * at a vertical tab, form feed, next line, line separator or paragraph
+ * separator. Columns count chars.
+ * <p>
+ * The index of a source in a buffer is built the first time it is needed, in
+ * one pass over the bytes, eight at a time. A source read through a reader is
+ * indexed as it is read, a buffer at a time, since its chars aren't kept.
+ * <p>
+ * The index of a buffer may be asked for by several threads at once, when the
+ * chunks of a source are tokenized in parallel. It is only ever built once.
+ *
+ * @author charl
+ */
+public class LineIndex {
+	/**
+	 * The name of the file, used in the locations
+	 */
+	private final String unit;
+	/**
+	 * The source until it is indexed, or null if it is read through a reader.
+	 * Cleared once the index is built, which makes the index visible to other
+	 * threads
+	 */
+	private volatile ByteBuffer bytes;
+	/**
+	 * The offsets at which the lines start, in order
+	 */
+	private int[] starts = new int[16];
+	private int size = 0;
+	/**
+	 * The number of chars read through the reader so far, and whether the last
+	 * was a \r, whose line starts after the \n if one follows
+	 */
+	private int read = 0;
+	private boolean cr = false;
+
+	/**
+	 * Creates the index of a source read through reader
+	 *
+	 * @param unit
+	 *            The name of the file, used in the locations
+	 */
+	public LineIndex(String unit) {
+		this.unit = unit;
+		starts[size++] = 0;
+	}
+
+	/**
+	 * Creates the index of a plain ASCII source in a buffer, where the offsets
+	 * are the positions in the buffer
+	 *
+	 * @param unit
+	 *            The name of the file, used in the locations
+	 * @param bytes
+	 *            The source, from its position to its limit. Not changed
+	 */
+	public LineIndex(String unit, ByteBuffer bytes) {
+		this.unit = unit;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @return a reader of in that indexes the chars as they are read
+	 */
+	public Reader reader(Reader in) {
+		return new FilterReader(in) {
+			@Override
+			public int read() throws IOException {
+				int c = super.read();
+				if (c >= 0) {
+					add(c, read++);
+				}
+				return c;
+			}
+
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				int n = super.read(cbuf, off, len);
+				for (int i = off; i < off + n; i++) {
+					char c = cbuf[i];
+					//Most chars end no line
+					if (c > '\r' && c < '\u0085') {
+						cr = false;
+					} else {
+						add(c, read + i - off);
+					}
+				}
+				read += Math.max(n, 0);
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * @return the name of the file
+	 */
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * @return the line of the offset, counted from 0
+	 */
+	public int line(int offset) {
+		if (bytes != null) {
+			index();
+		}
+		//The last line starting at or before the offset
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (starts[middle] <= offset) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the column of the offset, counted from 0
+	 */
+	public int column(int offset) {
+		return offset - starts[line(offset)];
+	}
+
+	/**
+	 * @param offset
+	 *            The offset of a token
+	 * @param column
+	 *            What is added to the column of the offset counted from 0: 1 for
+	 *            the first char of the token, its length for the last
+	 * @return the location, whose line and column are only found when asked for
+	 */
+	public Location location(int offset, int column) {
+		return new SourceLocation(this, offset, column);
+	}
+
+	/**
+	 * Makes this the index of a plain ASCII source edited from the one it
+	 * indexes, where only the whole lines from one offset to another were
+	 * changed. The lines after them only move by the change in length
+	 *
+	 * @param source
+	 *            The edited source, at the same position as the one indexed
+	 * @param from
+	 *            The offset of the first line changed
+	 * @param to
+	 *            The offset after the last line changed, before the edit
+	 * @param delta
+	 *            The change in length
+	 */
+	synchronized void edit(ByteBuffer source, int from, int to, int delta) {
+		if (bytes != null) {
+			//Not indexed yet, so it is only indexed from the edited source
+			bytes = source;
+			return;
+		}
+		int first = line(from) + 1;
+		int last = first;
+		while (last < size && starts[last] <= to) {
+			last++;
+		}
+		int[] after = Arrays.copyOfRange(starts, last, size);
+		size = first;
+		cr = false;
+		for (int i = from; i < to + delta; i++) {
+			add(source.get(i), i);
+		}
+		for (int start : after) {
+			start(start + delta);
+		}
+	}
+
+	/**
+	 * Indexes the char at the offset
+	 */
+	private void add(int c, int offset) {
+		switch (c) {
+		case '\n':
+			if (cr) {
+				//The line of \r\n starts after the \n
+				starts[size - 1] = offset + 1;
+				cr = false;
+			} else {
+				start(offset + 1);
+			}
+			break;
+		case '\r':
+			start(offset + 1);
+			cr = true;
+			break;
+		case '\u000B':
+		case '\u000C':
+		case '\u0085':
+		case '\u2028':
+		case '\u2029':
+			start(offset + 1);
+			cr = false;
+			break;
+		default:
+			cr = false;
+		}
+	}
+
+	/**
+	 * Adds the start of a line
+	 */
+	private void start(int offset) {
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, size * 2);
+		}
+		starts[size++] = offset;
+	}
+
+	/**
+	 * Indexes the whole buffer, the first time a line is asked for
+	 */
+	private synchronized void index() {
+		ByteBuffer source = bytes;
+		if (source == null) {
+			//Indexed by another thread while this one waited
+			return;
+		}
+		int i = source.position();
+		start(i);
+		//Eight bytes at a time, skipping those without a \r or \n
+		for (; i + 8 <= source.limit(); i += 8) {
+			long word = source.getLong(i);
+			if (!FastScan.hasByte(word, 0x0A0A0A0A0A0A0A0AL) && !FastScan.hasByte(word, 0x0D0D0D0D0D0D0D0DL)) {
+				cr = false;
+				continue;
+			}
+			for (int j = i; j < i + 8; j++) {
+				add(source.get(j), j);
+			}
+		}
+		for (; i < source.limit(); i++) {
+			add(source.get(i), i);
+		}
+		bytes = null;
+	}
+}
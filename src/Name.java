@@ -0,0 +1,39 @@
+/**
+ *
+ */
+
+/**
+ * An identifier of a compilation. Every occurrence of the same identifier is
+ * the same Name, made by the NameTable of the compilation, which gives it a
+ * dense id so the scopes can look it up without hashing its text.
+ *
+ * @author charl
+ * @see NameTable
+ */
+public final class Name {
+	/**
+	 * The index of the name in its table
+	 */
+	private final int id;
+	private final String text;
+
+	Name(int id, String text) {
+		this.id = id;
+		this.text = text;
+	}
+
+	/**
+	 * @return the id of the name, from 0 up to the number of names in its table
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the identifier
+	 */
+	@Override
+	public String toString() {
+		return text;
+	}
+}
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+/**
+ *
+ */
+
+/**
+ * The names declared in a scope, each with the index it was added at, keyed by
+ * the id of the name so no text is hashed or compared. Also keeps the name of
+ * each in the generated code, built the first time it is asked for. Nothing is
+ * allocated until the first name is added, since most block scopes declare
+ * none
+ *
+ * @author charl
+ */
+class NameMap {
+	/**
+	 * The open addressed hash table, holding the id of each name plus one, or 0
+	 * for an empty slot, and the index of the name. Kept at most half full
+	 */
+	private int[] keys;
+	private int[] indexes;
+	/**
+	 * 32 less the number of bits of a slot, so a slot is the top bits of the
+	 * spread key
+	 */
+	private int shift;
+	/**
+	 * The names and their names in the generated code, by index
+	 */
+	private Name[] names;
+	private String[] codeNames;
+	private int size = 0;
+
+	/**
+	 * @return the number of names
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the index of the name, or -1 if it isn't in the map
+	 */
+	int get(Name name) {
+		if (size == 0) {
+			return -1;
+		}
+		int key = name.getId() + 1;
+		for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & (keys.length - 1)) {
+			if (keys[slot] == key) {
+				return indexes[slot];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a name, which must not be in the map already
+	 *
+	 * @return the index of the name, which is the number of names added before
+	 */
+	int add(Name name) {
+		if (size == 0 && keys == null) {
+			keys = new int[8];
+			indexes = new int[8];
+			shift = 32 - Integer.numberOfTrailingZeros(keys.length);
+			names = new Name[4];
+			codeNames = new String[4];
+		} else if (size * 2 >= keys.length) {
+			rehash();
+		}
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			codeNames = Arrays.copyOf(codeNames, size * 2);
+		}
+		int key = name.getId() + 1;
+		int slot = slot(key);
+		while (keys[slot] != 0) {
+			slot = (slot + 1) & (keys.length - 1);
+		}
+		keys[slot] = key;
+		indexes[slot] = size;
+		names[size] = name;
+		return size++;
+	}
+
+	/**
+	 * @return the name at the index
+	 */
+	Name getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * @return the name at the index in the generated code: $, then the name of
+	 *         the scope, then the name itself
+	 */
+	String getCodeName(int index, String scopeName) {
+		String codeName = codeNames[index];
+		if (codeName == null) {
+			codeName = "$" + scopeName + names[index];
+			codeNames[index] = codeName;
+		}
+		return codeName;
+	}
+
+	/**
+	 * Doubles the size of the table
+	 */
+	private void rehash() {
+		keys = new int[keys.length * 2];
+		indexes = new int[keys.length];
+		shift--;
+		for (int index = 0; index < size; index++) {
+			int key = names[index].getId() + 1;
+			int slot = slot(key);
+			while (keys[slot] != 0) {
+				slot = (slot + 1) & (keys.length - 1);
+			}
+			keys[slot] = key;
+			indexes[slot] = index;
+		}
+	}
+
+	/**
+	 * @return the slot of the table a key starts looking at. The ids are dense,
+	 *         so they are spread with a multiplication, whose top bits, which
+	 *         depend on every bit of the key, are the slot
+	 */
+	private int slot(int key) {
+		return key * 0x9E3779B9 >>> shift;
+	}
+}
@@ -0,0 +1,177 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ *
+ */
+
+/**
+ * The identifiers of a compilation. The scanners intern each identifier as
+ * they find it, straight from their buffer, so an identifier used many times
+ * is only made into a String once, and every occurrence is the same Name with
+ * the same id. The scopes key on the id and the code generator builds the name
+ * of each symbol in the generated code once, so no identifier is hashed again
+ * after it is scanned.
+ * <p>
+ * A table belongs to one compilation, and isn't safe to share between threads
+ *
+ * @author charl
+ */
+public class NameTable {
+	/**
+	 * The names, by id
+	 */
+	private Name[] names = new Name[64];
+	private int[] hashes = new int[64];
+	private int size = 0;
+	/**
+	 * The open addressed hash table, holding the id of each name plus one, or 0
+	 * for an empty slot. Kept at most half full
+	 */
+	private int[] table = new int[128];
+
+	/**
+	 * @return the number of names
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the name with the given id
+	 */
+	public Name get(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @return true if the name was made by this table
+	 */
+	public boolean owns(Name name) {
+		return name.getId() < size && names[name.getId()] == name;
+	}
+
+	/**
+	 * @return the name of the identifier, added if it isn't in the table
+	 */
+	public Name intern(String text) {
+		int hash = text.hashCode();
+		int index = index(hash);
+		for (int id; (id = table[index]) != 0; index = (index + 1) & (table.length - 1)) {
+			if (hashes[id - 1] == hash && names[id - 1].toString().equals(text)) {
+				return names[id - 1];
+			}
+		}
+		return add(index, hash, text);
+	}
+
+	/**
+	 * @return the name of the identifier in the characters, added if it isn't
+	 *         in the table
+	 */
+	public Name intern(char[] chars, int start, int length) {
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		int index = index(hash);
+		for (int id; (id = table[index]) != 0; index = (index + 1) & (table.length - 1)) {
+			if (hashes[id - 1] == hash && matches(names[id - 1].toString(), chars, start, length)) {
+				return names[id - 1];
+			}
+		}
+		return add(index, hash, new String(chars, start, length));
+	}
+
+	/**
+	 * @return the name of the identifier in the ASCII bytes, added if it isn't
+	 *         in the table
+	 */
+	public Name intern(ByteBuffer bytes, int start, int length) {
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + bytes.get(i);
+		}
+		int index = index(hash);
+		for (int id; (id = table[index]) != 0; index = (index + 1) & (table.length - 1)) {
+			if (hashes[id - 1] == hash && matches(names[id - 1].toString(), bytes, start, length)) {
+				return names[id - 1];
+			}
+		}
+		return add(index, hash, FastScan.text(bytes, start, start + length));
+	}
+
+	/**
+	 * @return the name of the same identifier in this table, which is the name
+	 *         itself if this table made it
+	 */
+	public Name intern(Name name) {
+		return owns(name) ? name : intern(name.toString());
+	}
+
+	/**
+	 * Adds a name at the given empty slot of the table
+	 */
+	private Name add(int index, int hash, String text) {
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+		Name name = new Name(size, text);
+		names[size] = name;
+		hashes[size] = hash;
+		size++;
+		table[index] = size;
+		if (size * 2 > table.length) {
+			rehash();
+		}
+		return name;
+	}
+
+	/**
+	 * Doubles the size of the table
+	 */
+	private void rehash() {
+		table = new int[table.length * 2];
+		for (int id = 0; id < size; id++) {
+			int index = index(hashes[id]);
+			while (table[index] != 0) {
+				index = (index + 1) & (table.length - 1);
+			}
+			table[index] = id + 1;
+		}
+	}
+
+	/**
+	 * @return the slot of the table a hash starts looking at, mixing the high
+	 *         bits in, since names that only differ in their last character
+	 *         have hashes next to each other
+	 */
+	private int index(int hash) {
+		return (hash ^ (hash >>> 16)) & (table.length - 1);
+	}
+
+	private static boolean matches(String text, char[] chars, int start, int length) {
+		if (text.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (text.charAt(i) != chars[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches(String text, ByteBuffer bytes, int start, int length) {
+		if (text.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (text.charAt(i) != bytes.get(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
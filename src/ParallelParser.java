@@ -0,0 +1,203 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *
+ */
+
+/**
+ * Parses the global declarations of a program in parallel. A global
+ * declaration is a variable, which ends at the first semicolon outside of
+ * braces, or a function, which ends at the brace that closes its body, and
+ * strings never hold a brace, so where each declaration ends is found from
+ * the kinds of the tokens alone. The declarations are then split into groups
+ * of about the same number of tokens, each parsed by its own DescentParser on
+ * a fork join pool, and the trees of the groups are joined in the order of the
+ * source. A program of many functions is parsed in about the time of its
+ * largest function, given enough threads.
+ * <p>
+ * The identifiers are all interned before the groups are parsed, in the order
+ * of the source, so they get the same ids as in a parse in one go, and the
+ * parsers only read the names. Only a valid program is parsed in parallel.
+ * When the scanner found a warning, the braces don't balance, or a group
+ * doesn't follow the grammar or is nested too deeply, nothing has been
+ * printed yet, and the whole program is parsed again by a single
+ * DescentParser, which prints the warnings and the syntax errors of the
+ * generated parser in the same order as without this parser.
+ * <p>
+ * The tokens are counted in the metrics of the compilation, but the symbols
+ * the groups create are timed as part of the parse, and the allocations of
+ * the other threads are not counted.
+ *
+ * @author charl
+ */
+public class ParallelParser {
+	/**
+	 * The most tokens in a group that is split further, so a program of many
+	 * small functions isn't parsed a function per task
+	 */
+	private static final int GROUP_SIZE = 4096;
+	private final TokenBuffer tokens;
+	private final Compilation compilation;
+	/**
+	 * Whether the last program was parsed in parallel, rather than in one go
+	 */
+	private boolean parallel = false;
+	/**
+	 * Set by the group that doesn't follow the grammar
+	 */
+	private volatile boolean mismatched;
+
+	/**
+	 * @param tokens
+	 *            The tokens of the program
+	 * @param compilation
+	 *            The compilation the program belongs to, which must have no
+	 *            limits, since DescentParser doesn't check them
+	 */
+	public ParallelParser(TokenBuffer tokens, Compilation compilation) {
+		this.tokens = tokens;
+		this.compilation = compilation;
+	}
+
+	/**
+	 * Parses the whole program on the common pool
+	 *
+	 * @return the tree of the program, or null if the program is empty
+	 * @throws CompilerExitException
+	 *             If there was a syntax error the generated parser couldn't
+	 *             recover from, or too many errors
+	 * @throws Exception
+	 *             If the program could not be parsed
+	 */
+	public Tree parse() throws Exception {
+		return parse(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Parses the whole program on the given pool
+	 *
+	 * @see #parse()
+	 */
+	public Tree parse(ForkJoinPool pool) throws Exception {
+		parallel = false;
+		int[] bounds = bounds(tokens);
+		if (bounds == null || bounds.length < 2) {
+			return new DescentParser(tokens.scanner(compilation), compilation).parse();
+		}
+		NameTable names = compilation.getNames();
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.kind(i) == sym.ID) {
+				tokens.value(i, names);
+			}
+		}
+		TreeNode[] groups = new TreeNode[bounds.length - 1];
+		mismatched = false;
+		pool.invoke(new Groups(bounds, groups, 0, groups.length));
+		if (mismatched) {
+			return new DescentParser(tokens.scanner(compilation), compilation).parse();
+		}
+		TreeNode declarations = new TreeNode(TreeNodeType.globaldeclarations);
+		for (TreeNode group : groups) {
+			declarations.addChildren(group);
+		}
+		compilation.getMetrics().countTokens(tokens.size());
+		parallel = true;
+		return new Tree(declarations);
+	}
+
+	/**
+	 * @return true if the last program was parsed in parallel, false if it was
+	 *         parsed by a single DescentParser
+	 */
+	public boolean parsedInParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @return the index of the first token of each global declaration, then
+	 *         that of the EOF, or null if the scanner found a warning or the
+	 *         braces don't balance
+	 */
+	static int[] bounds(TokenBuffer tokens) {
+		int size = tokens.size();
+		if (tokens.hasWarnings() || size == 0 || tokens.kind(size - 1) != sym.EOF) {
+			return null;
+		}
+		int[] bounds = new int[16];
+		int count = 1;
+		int depth = 0;
+		for (int i = 0; i < size - 1; i++) {
+			int kind = tokens.kind(i);
+			boolean end = false;
+			if (kind == sym.OPEN_CURLY_BRACES) {
+				depth++;
+			} else if (kind == sym.CLOSE_CURLY_BRACES) {
+				if (--depth < 0) {
+					return null;
+				}
+				end = depth == 0;
+			} else if (kind == sym.SEMI_COLON) {
+				end = depth == 0;
+			}
+			if (end) {
+				if (count == bounds.length) {
+					bounds = Arrays.copyOf(bounds, count * 2);
+				}
+				bounds[count++] = i + 1;
+			}
+		}
+		//Tokens after the last declaration are an incomplete one
+		if (depth != 0 || bounds[count - 1] != size - 1) {
+			return null;
+		}
+		return Arrays.copyOf(bounds, count);
+	}
+
+	/**
+	 * Parses a range of the declarations, splitting it in two near the middle
+	 * token until it is a single declaration or a small enough group
+	 */
+	private class Groups extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] bounds;
+		/**
+		 * Where the declarations of each group are put, at the index of its first
+		 * declaration
+		 */
+		private final TreeNode[] groups;
+		private final int from;
+		private final int to;
+
+		private Groups(int[] bounds, TreeNode[] groups, int from, int to) {
+			this.bounds = bounds;
+			this.groups = groups;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1 && bounds[to] - bounds[from] > GROUP_SIZE) {
+				int middle = Arrays.binarySearch(bounds, from, to, (bounds[from] + bounds[to]) >>> 1);
+				if (middle < 0) {
+					middle = -middle - 1;
+				}
+				middle = Math.max(from + 1, Math.min(to - 1, middle));
+				invokeAll(new Groups(bounds, groups, from, middle), new Groups(bounds, groups, middle, to));
+				return;
+			}
+			TreeNode group = new TreeNode(TreeNodeType.globaldeclarations);
+			try {
+				Scan scanner = tokens.scanner(compilation, bounds[from], bounds[to]);
+				if (!new DescentParser(scanner, compilation, new CompilerMetrics(false)).parseDeclarations(group)) {
+					mismatched = true;
+				}
+			} catch (Exception e) {
+				mismatched = true;
+			}
+			groups[from] = group;
+		}
+	}
+}
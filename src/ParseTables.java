@@ -0,0 +1,362 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+/**
+ *
+ */
+
+/**
+ * The parse tables of the generated parser, expanded so that the action of a
+ * state on a terminal, and the state reached after reducing to a nonterminal,
+ * are each found by indexing an array. CUP keeps a row of pairs per state,
+ * searched for every token, and encodes its tables in strings that every JVM
+ * decodes as the parser class is initialized.
+ * <p>
+ * The build expands the tables once, into ParseTableData, a class of strings
+ * that hold the tables, a char per entry, which the JVM loads without running
+ * any code, and which are copied into chars as they are. A file of the tables
+ * next to the classes would need the resource and URL classes to read it,
+ * which cost a fresh JVM more than decoding the strings of CUP. Without ParseTableData, when the classes
+ * are compiled by javac alone, the tables are expanded from the strings of the
+ * generated parser the first time a program is parsed; parser keeps those
+ * without decoding them.
+ *
+ * @author charl
+ */
+public class ParseTables {
+	/**
+	 * The name of the class the build generates
+	 */
+	static final String GENERATED = "ParseTableData";
+	/**
+	 * The most entries written in a string of ParseTableData, which keeps each
+	 * under the 65535 bytes a constant of a class may take
+	 */
+	private static final int ENTRIES_PER_STRING = 4096;
+	/**
+	 * The strings of the production, action and reduce tables of the generated
+	 * parser, in the order it initializes them
+	 */
+	private static final String[][] strings = new String[3][];
+	private static int kept = 0;
+	/**
+	 * The generated tables, decoded as CUP does, for the error recovery of CUP
+	 */
+	private static short[][][] generated;
+
+	private final int terminals;
+	private final int nonterminals;
+	/**
+	 * The action of each state on each terminal, as CUP encodes it: the state
+	 * shifted to plus one, minus the production reduced by minus one, or 0 for
+	 * an error. Each is kept in a char, less actionBase
+	 */
+	private final char[] action;
+	private final int actionBase;
+	/**
+	 * The state reached after reducing to each nonterminal from each state, or
+	 * -1, less reduceBase
+	 */
+	private final char[] reduce;
+	private final int reduceBase;
+	/**
+	 * The nonterminal of each production, and the number of symbols it reduces
+	 */
+	private final char[] left;
+	private final char[] length;
+
+	/**
+	 * Writes ParseTableData, the expanded tables of the generated parser, at
+	 * build time. Usage: directory
+	 *
+	 * @param args
+	 *            The command line arguments
+	 * @throws Exception
+	 *             If the class could not be written
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: ParseTables directory");
+			System.exit(1);
+		}
+		//Initializing the parser hands its strings to keep
+		Class.forName("parser");
+		ParseTables tables = expand(generated());
+		File directory = new File(args[0]);
+		directory.mkdirs();
+		try (PrintWriter out = new PrintWriter(new FileWriter(new File(directory, GENERATED + ".java")))) {
+			out.println("//----------------------------------------------------");
+			out.println("// Generated by ParseTables from the tables of parser");
+			out.println("//----------------------------------------------------");
+			out.println();
+			out.println("/**");
+			out.println(" * The expanded parse tables of parser, a char per entry");
+			out.println(" */");
+			out.println("class " + GENERATED + " extends ParseTables {");
+			out.println("\t" + GENERATED + "() {");
+			out.println("\t\tsuper(" + tables.terminals + ", " + tables.nonterminals + ", " + tables.actionBase + ", "
+					+ tables.reduceBase + ",");
+			char[][] all = { tables.action, tables.reduce, tables.left, tables.length };
+			for (int t = 0; t < all.length; t++) {
+				out.print("\t\t\tnew String[] {");
+				for (int i = 0; i < all[t].length; i++) {
+					out.print(i == 0 ? " \"" : i % ENTRIES_PER_STRING == 0 ? "\",\n\t\t\t\t\t\""
+							: i % 16 == 0 ? "\" +\n\t\t\t\t\t\"" : "");
+					//Octal below 256, since unicode escapes are read before the literals are, and can't
+					//then be taken for a quote, a backslash or the end of a line
+					out.printf(all[t][i] < 0x100 ? "\\%03o" : "\\u%04x", (int) all[t][i]);
+				}
+				out.println(t + 1 < all.length ? "\" }," : "\" });");
+			}
+			out.println("\t}");
+			out.println("}");
+		}
+	}
+
+	/**
+	 * Creates the tables from the strings of ParseTableData, each table in as
+	 * many strings as it takes, whose chars are copied as they are
+	 */
+	ParseTables(int terminals, int nonterminals, int actionBase, int reduceBase, String[] action,
+			String[] reduce, String[] left, String[] length) {
+		this(terminals, nonterminals, chars(action), actionBase, chars(reduce), reduceBase, chars(left),
+				chars(length));
+	}
+
+	private ParseTables(int terminals, int nonterminals, char[] action, int actionBase, char[] reduce,
+			int reduceBase, char[] left, char[] length) {
+		this.terminals = terminals;
+		this.nonterminals = nonterminals;
+		this.action = action;
+		this.actionBase = actionBase;
+		this.reduce = reduce;
+		this.reduceBase = reduceBase;
+		this.left = left;
+		this.length = length;
+	}
+
+	/**
+	 * @return the tables, loaded or expanded the first time they are asked for
+	 */
+	static ParseTables get() {
+		return Loaded.tables;
+	}
+
+	/**
+	 * Keeps the strings of a table of the generated parser, which hands over
+	 * its production, action and reduce tables in turn as it is initialized
+	 */
+	static void keep(String[] table) {
+		strings[kept++] = table;
+	}
+
+	/**
+	 * @return the production, action and reduce tables of the generated parser,
+	 *         decoded from their strings as CUP does, once
+	 */
+	static synchronized short[][][] generated() {
+		if (generated == null) {
+			generated = new short[][][] { decode(strings[0]), decode(strings[1]), decode(strings[2]) };
+		}
+		return generated;
+	}
+
+	/**
+	 * @return the action of the state on the terminal
+	 */
+	int action(int state, int terminal) {
+		return action[state * terminals + terminal] + actionBase;
+	}
+
+	/**
+	 * @return the state reached after reducing to the nonterminal from the state
+	 */
+	int reduce(int state, int nonterminal) {
+		return reduce[state * nonterminals + nonterminal] + reduceBase;
+	}
+
+	/**
+	 * @return the nonterminal the production reduces to
+	 */
+	int left(int production) {
+		return left[production];
+	}
+
+	/**
+	 * @return the number of symbols the production reduces
+	 */
+	int length(int production) {
+		return length[production];
+	}
+
+	/**
+	 * Loads the tables the build generated, or expands them from the generated
+	 * parser if the classes were compiled without them
+	 */
+	private static ParseTables load() {
+		try {
+			return (ParseTables) Class.forName(GENERATED).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return expand(generated());
+		}
+	}
+
+	/**
+	 * Expands the generated tables, looking up every action and reduction as
+	 * CUP does
+	 *
+	 * @param tables
+	 *            The production, action and reduce tables of the generated
+	 *            parser
+	 */
+	private static ParseTables expand(short[][][] tables) {
+		short[][] productions = tables[0];
+		short[][] actions = tables[1];
+		short[][] reductions = tables[2];
+		int terminals = 0;
+		for (short[] row : actions) {
+			for (int i = 0; i + 1 < row.length; i += 2) {
+				terminals = Math.max(terminals, row[i] + 1);
+			}
+		}
+		int nonterminals = 0;
+		for (short[] production : productions) {
+			nonterminals = Math.max(nonterminals, production[0] + 1);
+		}
+		short[] action = new short[actions.length * terminals];
+		short[] reduce = new short[actions.length * nonterminals];
+		for (int state = 0; state < actions.length; state++) {
+			for (int terminal = 0; terminal < terminals; terminal++) {
+				action[state * terminals + terminal] = action(actions[state], terminal);
+			}
+			for (int nonterminal = 0; nonterminal < nonterminals; nonterminal++) {
+				reduce[state * nonterminals + nonterminal] = reduce(reductions[state], nonterminal);
+			}
+		}
+		short[] left = new short[productions.length];
+		short[] length = new short[productions.length];
+		for (int production = 0; production < productions.length; production++) {
+			left[production] = productions[production][0];
+			length[production] = productions[production][1];
+		}
+		int actionBase = base(action);
+		int reduceBase = base(reduce);
+		return new ParseTables(terminals, nonterminals, chars(action, actionBase), actionBase,
+				chars(reduce, reduceBase), reduceBase, chars(left, 0), chars(length, 0));
+	}
+
+	/**
+	 * @return what is taken from each entry of the table to keep it in a char,
+	 *         which leaves the least entry 1, since 0 takes two bytes in the
+	 *         constants of a class
+	 */
+	private static int base(short[] table) {
+		int least = 0;
+		for (short s : table) {
+			least = Math.min(least, s);
+		}
+		return least - 1;
+	}
+
+	/**
+	 * @return the table less the base, a char per entry
+	 */
+	private static char[] chars(short[] table, int base) {
+		char[] chars = new char[table.length];
+		for (int i = 0; i < table.length; i++) {
+			chars[i] = (char) (table[i] - base);
+		}
+		return chars;
+	}
+
+	/**
+	 * @return the strings of a table of ParseTableData, joined
+	 */
+	private static char[] chars(String[] table) {
+		StringBuffer joined = new StringBuffer();
+		for (String s : table) {
+			joined.append(s);
+		}
+		return joined.toString().toCharArray();
+	}
+
+	/**
+	 * Code copied from the get_action of CUP: rows of pairs of a terminal and an
+	 * action, searched in turn when short and by bisection when long, which end
+	 * with a default action
+	 */
+	private static short action(short[] row, int terminal) {
+		if (row.length < 20) {
+			for (int i = 0; i < row.length; i++) {
+				int tag = row[i++];
+				if (tag == terminal || tag == -1) {
+					return row[i];
+				}
+			}
+			return 0;
+		}
+		int first = 0;
+		int last = (row.length - 1) / 2 - 1;
+		while (first <= last) {
+			int probe = (first + last) / 2;
+			if (terminal == row[probe * 2]) {
+				return row[probe * 2 + 1];
+			} else if (terminal > row[probe * 2]) {
+				first = probe + 1;
+			} else {
+				last = probe - 1;
+			}
+		}
+		return row[row.length - 1];
+	}
+
+	/**
+	 * Code copied from the get_reduce of CUP
+	 */
+	private static short reduce(short[] row, int nonterminal) {
+		if (row == null) {
+			return -1;
+		}
+		for (int i = 0; i < row.length; i++) {
+			int tag = row[i++];
+			if (tag == nonterminal || tag == -1) {
+				return row[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Code copied from the unpackFromStrings of CUP: the number of rows, then
+	 * each row as its length and its elements, each plus 2, with the numbers
+	 * over 16 bits in two chars
+	 */
+	private static short[][] decode(String[] table) {
+		StringBuffer packed = new StringBuffer(table[0]);
+		for (int i = 1; i < table.length; i++) {
+			packed.append(table[i]);
+		}
+		int n = 0;
+		int rows = (packed.charAt(n) << 16) | packed.charAt(n + 1);
+		n += 2;
+		short[][] decoded = new short[rows][];
+		for (int i = 0; i < rows; i++) {
+			int size = (packed.charAt(n) << 16) | packed.charAt(n + 1);
+			n += 2;
+			decoded[i] = new short[size];
+			for (int j = 0; j < size; j++) {
+				decoded[i][j] = (short) (packed.charAt(n++) - 2);
+			}
+		}
+		return decoded;
+	}
+
+	/**
+	 * Holds the tables, so they are only loaded when the first program is
+	 * parsed
+	 */
+	private static class Loaded {
+		static final ParseTables tables = load();
+	}
+}
@@ -2,10 +2,10 @@
 /* The following code was generated by JFlex 1.7.0 */
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Reader;
-import java_cup.runtime.ComplexSymbolFactory;
+import java_cup.runtime.ComplexSymbolFactory.Location;
 import java_cup.runtime.Symbol;
 
 /**
@@ -249,42 +249,138 @@ public class Scan implements java_cup.runtime.Scanner {
 	private int zzFinalHighSurrogate = 0;
 
 	/* user code: */
-	private static int warningCount = 0;
-	static ComplexSymbolFactory symbolFactory = new ComplexSymbolFactory();
-	static String inputFileName = "";
+	/**
+	 * The compilation this scanner belongs to, which counts the warnings
+	 */
+	private Compilation compilation;
+	/**
+	 * The name of the file being scanned, used in warnings
+	 */
+	private String inputFileName;
+	/**
+	 * Where the lines of the source start. Tokens only keep their offset, and
+	 * their line and column are found in the index when they are printed
+	 */
+	private LineIndex lines;
 
 	public static void main(String[] args) {
-		Scan scanner;
-		//If there is a single arguement specified
-		if (args.length == 1) {
-			inputFileName = args[0];
-			FileInputStream input = null;
+		//With -o, the output of a single file is written to the file given instead of stdout. With -stream,
+		//it is compiled one global declaration at a time. With -fast, a plain ASCII file is scanned by FastScan.
+		//With -tokens, it is scanned whole into a TokenBuffer before it is parsed. With -descent, it is parsed by
+		//DescentParser. With -parallel, it is scanned into a TokenBuffer and its global declarations are parsed in
+		//parallel. With -flat, its tree is kept in a FlatTree
+		String outputFileName = null;
+		boolean streaming = false;
+		boolean fast = false;
+		boolean tokens = false;
+		boolean descent = false;
+		boolean parallel = false;
+		boolean flat = false;
+		int first = 0;
+		while (first < args.length) {
+			if (args[first].equals("-o") && first + 1 < args.length) {
+				outputFileName = args[first + 1];
+				first += 2;
+			} else if (args[first].equals("-stream")) {
+				streaming = true;
+				first++;
+			} else if (args[first].equals("-fast")) {
+				fast = true;
+				first++;
+			} else if (args[first].equals("-tokens")) {
+				tokens = true;
+				first++;
+			} else if (args[first].equals("-descent")) {
+				descent = true;
+				first++;
+			} else if (args[first].equals("-parallel")) {
+				parallel = true;
+				tokens = true;
+				first++;
+			} else if (args[first].equals("-flat")) {
+				flat = true;
+				first++;
+			} else {
+				break;
+			}
+		}
+		//-fast alone is also taken by BatchCompiler, for several files or a directory
+		boolean batch = fast && outputFileName == null && !streaming && !tokens && !descent && !flat
+				&& args.length > first && (args.length - first > 1 || new File(args[first]).isDirectory());
+		if (first > 0 && !batch) {
+			if (args.length - first != 1) {
+				error("-o, -stream, -fast, -tokens, -descent, -parallel and -flat take a single input file");
+			}
+			if (streaming && (fast || tokens)) {
+				error("-stream reads the file through a reader, and can't be used with -fast, -tokens or -parallel");
+			}
+			if (streaming && descent) {
+				error("-stream is parsed by the generated parser, and can't be used with -descent");
+			}
+			if (flat && (streaming || parallel)) {
+				error("-flat is filled a declaration at a time, and can't be used with -stream or -parallel");
+			}
+			args = new String[] { args[first] };
+		}
+		//If there is a single file specified, compile it and print the output
+		if (args.length == 1 && !batch && !new File(args[0]).isDirectory()) {
+			String inputFileName = args[0];
+			Reader reader = null;
 			//Open the file specified. If the file was not found, print the error and exit
 			try {
-				input = new FileInputStream(new File(inputFileName));
-			} catch (FileNotFoundException e1) {
+				reader = SourceReader.open(new File(inputFileName));
+			} catch (IOException e1) {
 				error("The file with filepath " + inputFileName
 						+ " was not found. Enclose with \'\' or \"\" if filename has spaces");
 			}
-			//set up the Reader and Scan classes for the lexer
-			Reader reader = new java.io.InputStreamReader(input);
-			scanner = new Scan(reader);
-			parser p = new parser(scanner, symbolFactory);
-			//If the scanner is not at the end of the file, scan the tokens and print them
+			PrintStream out = System.out;
+			if (outputFileName != null) {
+				try {
+					out = new PrintStream(ChannelOutputStream.create(new File(outputFileName)));
+				} catch (IOException e1) {
+					error("Could not write " + outputFileName + ": " + e1.getMessage());
+				}
+			}
+			boolean success = false;
+			int status = 0;
 			try {
-				p.parse();
-				SemanticAnalyzer semAnalyze = new SemanticAnalyzer(p.tree);
-				semAnalyze.analyze();
-				System.out.println(p.tree);
-				CodeGen codeGen = new CodeGen(p.tree, semAnalyze.defaultScopeName);
-				codeGen.generate();
-				codeGen.fprint();
+				if (streaming) {
+					//The file is read again, twice
+					reader.close();
+					new Compilation(inputFileName, System.err).compileStreaming(new File(inputFileName), out);
+				} else if (tokens) {
+					reader.close();
+					new Compilation(inputFileName, System.err).setDescent(descent).setParallel(parallel).setFlat(flat)
+							.compileTokens(FastScan.read(new File(inputFileName)), out);
+				} else if (fast) {
+					reader.close();
+					new Compilation(inputFileName, System.err).setDescent(descent).setFlat(flat)
+							.compile(FastScan.read(new File(inputFileName)), out);
+				} else {
+					new Compilation(inputFileName, System.err).setDescent(descent).setFlat(flat).compile(reader, out);
+				}
+				success = true;
+			} catch (CompilerExitException e) {
+				status = 1;
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
-			//If the number of aurguements isn't 1, print the error and exit
+			if (outputFileName != null) {
+				out.close();
+				//Don't leave a broken module behind
+				if (!success || out.checkError()) {
+					new File(outputFileName).delete();
+				}
+			}
+			if (status != 0) {
+				System.exit(status);
+			}
+			//If several files or a directory are specified, compile them all in this JVM
+		} else if (args.length > 0) {
+			System.exit(BatchCompiler.compileAll(args));
+			//If there are no arguments, print the error and exit
 		} else {
-			error("Please give 1 and only 1 input file name. Enclose with \'\' or \"\" if filename has spaces");
+			error("Please give at least 1 input file name or directory. Enclose with \'\' or \"\" if filename has spaces");
 		}
 	}
 
@@ -292,10 +388,12 @@ public class Scan implements java_cup.runtime.Scanner {
 	 * @return a new Token with the specified type and an empty attribute, and adds
 	 *         the line and column info to the token
 	 */
-	public Symbol token(int terminalcode, String lexem) {
-		return symbolFactory.newSymbol(sym.terminalNames[terminalcode], terminalcode,
-				new NewLocation(inputFileName, yyline + 1, yycolumn + 1),
-				new NewLocation(inputFileName, yyline + 1, yycolumn + yylength()), lexem);
+	public Symbol token(int terminalcode, Object lexem) {
+		Location left = lines.location(yychar, 1);
+		//The locations are never changed, so a token of one character has the same at both ends
+		Location right = yylength() == 1 ? left : lines.location(yychar, yylength());
+		return compilation.getSymbolFactory().newSymbol(sym.terminalNames[terminalcode], terminalcode, left, right,
+				lexem);
 	}
 
 	/**
@@ -303,15 +401,14 @@ public class Scan implements java_cup.runtime.Scanner {
 	 *         and column info to the token
 	 */
 	private Symbol token(int terminalcode) {
-		//Add one to line and column numbers to display more intuitively.
-		return symbolFactory.newSymbol(sym.terminalNames[terminalcode], terminalcode,
-				new NewLocation(inputFileName, yyline + 1, yycolumn + 1),
-				new NewLocation(inputFileName, yyline + 1, yycolumn + yylength()));
-
+		Location left = lines.location(yychar, 1);
+		Location right = yylength() == 1 ? left : lines.location(yychar, yylength());
+		return compilation.getSymbolFactory().newSymbol(sym.terminalNames[terminalcode], terminalcode, left, right);
 	}
 
 	/**
-	 * Prints an error, and terminates the program with exit code 1.
+	 * Prints an error, and terminates the program with exit code 1. Only used for
+	 * errors in the command line arguments
 	 * 
 	 * @param s
 	 *            The warning to be printed
@@ -323,20 +420,15 @@ public class Scan implements java_cup.runtime.Scanner {
 	}
 
 	/**
-	 * Print a warning. When the total number of printed warnings exceeds ten, this
-	 * will also terminate the program with exit code 1.
+	 * Print a warning through the compilation, which stops after too many warnings
 	 * 
 	 * @param s
 	 *            The warning to be printed
+	 * @throws CompilerExitException
+	 *             If there have been too many warnings
 	 */
-	private static void warning(String s) {
-		System.err.println(s);
-		if (warningCount < 10) {
-			warningCount++;
-		} else {
-			System.err.println("Too many errors. Compiler exiting with code 1");
-			System.exit(1);
-		}
+	private void warning(String s) throws CompilerExitException {
+		compilation.warning(s);
 	}
 
 	/**
@@ -345,8 +437,12 @@ public class Scan implements java_cup.runtime.Scanner {
 	 * @param in
 	 *            the java.io.Reader to read input from.
 	 */
-	public Scan(java.io.Reader in) {
-
+	public Scan(java.io.Reader in, Compilation compilation) {
+		this.compilation = compilation;
+		this.inputFileName = compilation.getInputFileName();
+		//The source is indexed as it is read
+		this.lines = new LineIndex(inputFileName);
+		in = lines.reader(in);
 		this.zzReader = in;
 	}
 
@@ -567,7 +663,7 @@ public class Scan implements java_cup.runtime.Scanner {
 	 * @exception java.io.IOException
 	 *                if any I/O-Error occurs
 	 */
-	public java_cup.runtime.Symbol next_token() throws java.io.IOException {
+	public java_cup.runtime.Symbol next_token() throws java.io.IOException, CompilerExitException {
 		int zzInput;
 		int zzAction;
 
@@ -585,61 +681,8 @@ public class Scan implements java_cup.runtime.Scanner {
 		while (true) {
 			zzMarkedPosL = zzMarkedPos;
 
-			boolean zzR = false;
-			int zzCh;
-			int zzCharCount;
-			for (zzCurrentPosL = zzStartRead; zzCurrentPosL < zzMarkedPosL; zzCurrentPosL += zzCharCount) {
-				zzCh = Character.codePointAt(zzBufferL, zzCurrentPosL, zzMarkedPosL);
-				zzCharCount = Character.charCount(zzCh);
-				switch (zzCh) {
-				case '\u000B': // fall through
-				case '\u000C': // fall through
-				case '\u0085': // fall through
-				case '\u2028': // fall through
-				case '\u2029':
-					yyline++;
-					yycolumn = 0;
-					zzR = false;
-					break;
-				case '\r':
-					yyline++;
-					yycolumn = 0;
-					zzR = true;
-					break;
-				case '\n':
-					if (zzR)
-						zzR = false;
-					else {
-						yyline++;
-						yycolumn = 0;
-					}
-					break;
-				default:
-					zzR = false;
-					yycolumn += zzCharCount;
-				}
-			}
+			yychar += zzMarkedPosL - zzStartRead;
 
-			if (zzR) {
-				// peek one character ahead if it is \n (if we have counted one line too much)
-				boolean zzPeek;
-				if (zzMarkedPosL < zzEndReadL)
-					zzPeek = zzBufferL[zzMarkedPosL] == '\n';
-				else if (zzAtEOF)
-					zzPeek = false;
-				else {
-					boolean eof = zzRefill();
-					zzEndReadL = zzEndRead;
-					zzMarkedPosL = zzMarkedPos;
-					zzBufferL = zzBuffer;
-					if (eof)
-						zzPeek = false;
-					else
-						zzPeek = zzBufferL[zzMarkedPosL] == '\n';
-				}
-				if (zzPeek)
-					yyline--;
-			}
 			zzAction = -1;
 
 			zzCurrentPosL = zzCurrentPos = zzStartRead = zzMarkedPosL;
@@ -707,8 +750,8 @@ public class Scan implements java_cup.runtime.Scanner {
 			} else {
 				switch (zzAction < 0 ? zzAction : ZZ_ACTION[zzAction]) {
 				case 1: { //Add one to line and column numbers to display more intuitively.
-					warning("WARNING: Unknown character " + yytext() + " found at line " + (yyline + 1)
-							+ ", and column " + (yycolumn + 1) + " in file " + inputFileName);
+					warning("WARNING: Unknown character " + yytext() + " found at line " + (lines.line(yychar) + 1)
+							+ ", and column " + (lines.column(yychar) + 1) + " in file " + inputFileName);
 				}
 				// fall through
 				case 39:
@@ -809,7 +852,8 @@ public class Scan implements java_cup.runtime.Scanner {
 				case 55:
 					break;
 				case 18: {
-					return token(sym.ID, yytext());
+					//Interned straight from the buffer, so a name seen before isn't made into a String again
+					return token(sym.ID, compilation.getNames().intern(zzBuffer, zzStartRead, zzMarkedPos - zzStartRead));
 				}
 				// fall through
 				case 56:
@@ -821,8 +865,8 @@ public class Scan implements java_cup.runtime.Scanner {
 				case 57:
 					break;
 				case 20: { //Add one to line and column numbers to display more intuitively.
-					warning("WARNING: Missing closing quotation after " + yytext() + " at line " + (yyline + 1)
-							+ ", and column " + (yycolumn + 1 + yytext().length()) + " in file " + inputFileName);
+					warning("WARNING: Missing closing quotation after " + yytext() + " at line " + (lines.line(yychar) + 1)
+							+ ", and column " + (lines.column(yychar) + 1 + yytext().length()) + " in file " + inputFileName);
 				}
 				// fall through
 				case 58:
@@ -871,7 +915,7 @@ public class Scan implements java_cup.runtime.Scanner {
 					break;
 				case 28: { //Add one to line and column numbers to display more intuitively.
 					warning("WARNING: Newline in String literal " + yytext().substring(0, yytext().length() - 2)
-							+ " at end of line " + (yyline + 1) + " in file " + inputFileName);
+							+ " at end of line " + (lines.line(yychar) + 1) + " in file " + inputFileName);
 				}
 				// fall through
 				case 66:
@@ -1,5 +1,4 @@
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 
 import java_cup.runtime.ComplexSymbolFactory.Location;
 
@@ -25,14 +24,10 @@ public class Scope {
 	private ArrayList<Type> varType = new ArrayList<Type>();
 	/**
 	 * Links the name of a variable to the index that is used to access its info in
-	 * varType
-	 */
-	private LinkedHashMap<String, Integer> varNameToInt = new LinkedHashMap<String, Integer>();
-	/**
-	 * The number of variables in this scope, which is also the index of the next
+	 * varType. The number of variables in it is also the index of the next
 	 * variable to be added
 	 */
-	private int numVar = 0;
+	private NameMap varNameToInt = new NameMap();
 	/**
 	 * Where the scope starts, helps for identifying the scope
 	 */
@@ -106,8 +101,8 @@ public class Scope {
 	 *            The ID to check
 	 * @return true if the ID is already in the scope, false otherwise
 	 */
-	public boolean contains(String ID) {
-		return varNameToInt.containsKey(ID);
+	public boolean contains(Name ID) {
+		return varNameToInt.get(ID) >= 0;
 	}
 
 	/**
@@ -117,8 +112,8 @@ public class Scope {
 	 *            The ID to check
 	 * @return true if there is a variable with the ID in the scope, false otherwise
 	 */
-	public boolean containsVar(String ID) {
-		return varNameToInt.containsKey(ID);
+	public boolean containsVar(Name ID) {
+		return varNameToInt.get(ID) >= 0;
 	}
 
 	/**
@@ -129,7 +124,7 @@ public class Scope {
 	 *            The ID of the variable to get the type for
 	 * @return The type of the variable
 	 */
-	public Type getVarType(String ID) {
+	public Type getVarType(Name ID) {
 		return varType.get(varNameToInt.get(ID));
 	}
 
@@ -140,6 +135,13 @@ public class Scope {
 		return retType;
 	}
 
+	/**
+	 * @return the number of variables in the scope
+	 */
+	public int getNumVar() {
+		return varNameToInt.size();
+	}
+
 	/**
 	 * @return the name of the scope
 	 */
@@ -156,11 +158,24 @@ public class Scope {
 	 * @param type
 	 *            The type of the variable
 	 */
-	public void addVar(String varName, Type type) {
-		varNameToInt.put(varName, numVar++);
+	public void addVar(Name varName, Type type) {
+		varNameToInt.add(varName);
 		varType.add(type);
 	}
 
+	/**
+	 * Returns the name of the specified variable or function in the generated
+	 * code, which is built once for each
+	 * 
+	 * @param ID
+	 *            The ID of the variable or function
+	 * @return $, then the name of the scope, then the ID
+	 */
+	public String getCodeName(Name ID) {
+		int index = varNameToInt.get(ID);
+		return index >= 0 ? varNameToInt.getCodeName(index, name) : "$" + name + ID;
+	}
+
 	/**
 	 * Prints the location of the scope
 	 */
@@ -175,9 +190,9 @@ public class Scope {
 	 */
 	protected void printVar() {
 		StringBuffer s = new StringBuffer();
-		for (String name : varNameToInt.keySet()) {
-			s.append("var:\t" + varType.get(varNameToInt.get(name)) + " ");
-			s.append(name);
+		for (int i = 0; i < varNameToInt.size(); i++) {
+			s.append("var:\t" + varType.get(i) + " ");
+			s.append(varNameToInt.getName(i));
 			s.append("\n");
 		}
 		System.out.print(s);
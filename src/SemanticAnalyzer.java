@@ -1,6 +1,5 @@
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
 /**
@@ -17,6 +16,15 @@ public class SemanticAnalyzer {
 	 * The AST that the analyzer will analyze
 	 */
 	private Tree tree;
+	/**
+	 * The compilation the AST belongs to. Semantic errors are printed to its error
+	 * stream
+	 */
+	private Compilation compilation;
+	/**
+	 * The identifiers of the compilation, which the scopes are keyed on
+	 */
+	private NameTable names;
 	/**
 	 * Set this to true to view scopes (for debugging purposes, etc)
 	 */
@@ -25,6 +33,19 @@ public class SemanticAnalyzer {
 	 * A stack of the scopes
 	 */
 	private Deque<Scope> scopes;
+	/**
+	 * The function and loop scopes in the stack of scopes, innermost first, so
+	 * they are found without going through the block scopes above them
+	 */
+	private Deque<Scope> funcScopes = new ArrayDeque<Scope>();
+	private Deque<Scope> loopScopes = new ArrayDeque<Scope>();
+	/**
+	 * The visitors of the passes. Each walks one statement or expression at a time
+	 */
+	private final StatementChecker statementChecker = new StatementChecker();
+	private final TypeChecker typeChecker = new TypeChecker();
+	private final ReturnChecker returnChecker = new ReturnChecker();
+	private final ExpressionNamer expressionNamer = new ExpressionNamer();
 	/**
 	 * The default scope, contains the getchar(), halt(), printb(boolean),
 	 * printc(int), printi(int), prints(String) functions
@@ -34,26 +55,55 @@ public class SemanticAnalyzer {
 	 * The global scope, contains user defined functions and global variables
 	 */
 	private GlobalScope gScope ;
+	/**
+	 * The function, block and loop scopes created since they were last counted,
+	 * for the metrics
+	 */
+	private List<Scope> createdScopes = new ArrayList<Scope>();
+	/**
+	 * The number of scopes counted so far, and of the variables declared in them
+	 */
+	private long scopeCount = 0;
+	private long scopeSymbols = 0;
+	/**
+	 * The number of declarations analyzed in streaming mode so far
+	 */
+	private int streamed = 0;
+	/**
+	 * In streaming mode, the first error found, which is only reported once the
+	 * whole program has been parsed, since a syntax error must be reported
+	 * instead. Null if there is none
+	 */
+	private Exception pendingError;
+	/**
+	 * The pass that found pendingError. An error of pass 1 in any function is
+	 * reported before an error of pass 2, like when the passes run one after the
+	 * other
+	 */
+	private int pendingPass;
 
 	/**
 	 * Constructor for the semantic analyzer, also initializes the default scope to
 	 * contain the required default functions, and creates an empty global scope
 	 * 
 	 * @param tree
+	 * @param compilation
 	 */
-	public SemanticAnalyzer(Tree tree) {
+	public SemanticAnalyzer(Tree tree, Compilation compilation) {
 		this.tree = tree;
+		this.compilation = compilation;
+		this.names = compilation.getNames();
 		scopes = new ArrayDeque<Scope>();
 		//add the default runtime functions to default scope
 		defaultScope = new GlobalScope(defaultScopeName);
 		scopes.addFirst(defaultScope);
 
-		defaultScope.addFunc("getchar", new ArrayList<Type>(), Type.INT);
-		defaultScope.addFunc("halt", new ArrayList<Type>(), Type.VOID);
-		defaultScope.addFunc("printb", new ArrayList<Type>((Arrays.asList(Type.BOOLEAN))), Type.VOID);
-		defaultScope.addFunc("printc", new ArrayList<Type>((Arrays.asList(Type.INT))), Type.VOID);
-		defaultScope.addFunc("printi", new ArrayList<Type>((Arrays.asList(Type.INT))), Type.VOID);
-		defaultScope.addFunc("prints", new ArrayList<Type>((Arrays.asList(Type.STRING))), Type.VOID);
+		defaultScope.addFunc(names.intern("getchar"), compilation.getFunction(Type.INT));
+		defaultScope.addFunc(names.intern("halt"), compilation.getFunction(Type.VOID));
+		defaultScope.addFunc(names.intern("printb"), compilation.getFunction(Type.VOID).with(Type.BOOLEAN));
+		defaultScope.addFunc(names.intern("printc"), compilation.getFunction(Type.VOID).with(Type.INT));
+		defaultScope.addFunc(names.intern("printi"), compilation.getFunction(Type.VOID).with(Type.INT));
+		defaultScope.addFunc(names.intern("prints"), compilation.getFunction(Type.VOID).with(Type.STRING));
 
 		//create global scope
 		gScope = new GlobalScope("G");
@@ -61,32 +111,196 @@ public class SemanticAnalyzer {
 	}
 
 	/**
-	 * Analyze the AST for semantic errors. Exits the program if a semantic error is
-	 * found
+	 * Analyze the AST for semantic errors. Stops the compilation if a semantic
+	 * error is found
+	 * 
+	 * @throws CompilerExitException
+	 *             If a semantic error was found. The error has already been
+	 *             printed
 	 */
-	public void analyze() {
+	public void analyze() throws CompilerExitException {
 		try {
 			//display default scope if scope display is enabled
 			if (displayScopes)
 				defaultScope.print();
+			CompilerMetrics metrics = compilation.getMetrics();
 			//Run the 0th pass, which collects global functions and variables and stores them in the global scope
+			long time = metrics.time();
+			long allocated = metrics.allocated();
 			pass0();
+			metrics.add(CompilerMetrics.PASS0, time, allocated);
 			if (displayScopes)
 				gScope.print();
 			//Run the 1st pass, which does type checking, argument checking for return and function calls, checks for
 			//undeclared functions and variables, and checks if breaks are inside loops
+			time = metrics.time();
+			allocated = metrics.allocated();
 			pass1();
+			metrics.add(CompilerMetrics.PASS1, time, allocated);
 			//Run the 2nd pass, which checks if non-void functions are guaranteed to return on all execution paths
+			time = metrics.time();
+			allocated = metrics.allocated();
 			pass2();
+			metrics.add(CompilerMetrics.PASS2, time, allocated);
+			if (metrics.isEnabled()) {
+				countScopes(metrics);
+			}
 			//If an error is throw by any of the passes, print info about the error and exit	
 		} catch (SemanticException e) {
-			System.err.println(e.getMessage());
-			System.exit(1);
+			compilation.getErr().println(e.getMessage());
+			throw new CompilerExitException(e.getMessage());
 		} catch (ASTFormatException e) {
-			e.printStackTrace();
-			System.exit(1);
+			e.printStackTrace(compilation.getErr());
+			throw new CompilerExitException(e.getMessage());
+		}
+
+	}
+
+	/**
+	 * Puts a new function, block or loop scope on top of the stack of scopes
+	 * 
+	 * @param scope
+	 *            The new scope
+	 */
+	private void pushScope(Scope scope) {
+		compilation.countScope(scope.start);
+		scopes.addFirst(scope);
+		createdScopes.add(scope);
+		if (scope.getType() == ScopeType.func) {
+			funcScopes.push(scope);
+		} else if (scope.getType() == ScopeType.loop) {
+			loopScopes.push(scope);
 		}
+	}
 
+	/**
+	 * Records the number of scopes created, and the number of variables and
+	 * functions declared in them, in the metrics
+	 * 
+	 * @param metrics
+	 *            The metrics of the compilation
+	 */
+	private void countScopes(CompilerMetrics metrics) {
+		countCreatedScopes();
+		//The default and global scopes, then the others
+		metrics.countScopes(2 + scopeCount, gScope.getNumVar() + gScope.getNumFunc() + scopeSymbols);
+	}
+
+	/**
+	 * Adds the scopes created since the last call, and their variables, to the
+	 * counts, then forgets them, so they don't outlive their function in streaming
+	 * mode
+	 */
+	private void countCreatedScopes() {
+		for (Scope scope : createdScopes) {
+			scopeSymbols += scope.getNumVar();
+		}
+		scopeCount += createdScopes.size();
+		createdScopes.clear();
+	}
+
+	/**
+	 * Starts the analysis of a program in streaming mode: runs pass 0 on the tree
+	 * given to the constructor, which holds the global declarations without their
+	 * blocks, as found by SignatureScan. The declarations are then given one at a
+	 * time to analyzeDeclaration, in the same order, as they are parsed. An error
+	 * is not reported until finish is called
+	 */
+	public void declareGlobals() {
+		CompilerMetrics metrics = compilation.getMetrics();
+		long time = metrics.time();
+		long allocated = metrics.allocated();
+		try {
+			pass0();
+		} catch (SemanticException | ASTFormatException e) {
+			defer(e, 0);
+		}
+		metrics.add(CompilerMetrics.PASS0, time, allocated);
+	}
+
+	/**
+	 * Runs pass 1 and pass 2 on the next global declaration, in streaming mode
+	 * 
+	 * @param node
+	 *            The declaration, as parsed
+	 * @return true if no error has been found so far, so code should be generated
+	 *         for the declaration
+	 */
+	public boolean analyzeDeclaration(TreeNode node) {
+		TreeNode declared = tree.root.getChild(Math.min(streamed++, tree.root.getChildren().size() - 1));
+		//Once an error of pass 0 or 1 is found, only the parse goes on
+		if (pendingError != null && pendingPass < 2) {
+			return false;
+		}
+		CompilerMetrics metrics = compilation.getMetrics();
+		long time = metrics.time();
+		long allocated = metrics.allocated();
+		try {
+			if (streamed > tree.root.getChildren().size() || node.getType() != declared.getType()
+					|| !node.getChild(1).getAttr().equals(declared.getChild(1).getAttr())) {
+				throw new ASTFormatException("The declaration " + node.getChild(1).getAttr()
+						+ " was not found by the signature scan");
+			}
+			//Take the signature pass 0 gave to the declaration
+			node.getChild(1).annotate(declared.getChild(1).sig, declared.getChild(1).getScope());
+			pass1(node);
+		} catch (SemanticException | ASTFormatException e) {
+			defer(e, 1);
+		}
+		metrics.add(CompilerMetrics.PASS1, time, allocated);
+		if (pendingError != null) {
+			return false;
+		}
+		time = metrics.time();
+		allocated = metrics.allocated();
+		try {
+			pass2(node);
+		} catch (SemanticException | ASTFormatException e) {
+			defer(e, 2);
+		}
+		metrics.add(CompilerMetrics.PASS2, time, allocated);
+		countCreatedScopes();
+		return pendingError == null;
+	}
+
+	/**
+	 * Ends the analysis of a program in streaming mode, once it has been parsed
+	 * 
+	 * @throws CompilerExitException
+	 *             If a semantic error was found. The error has now been printed
+	 */
+	public void finish() throws CompilerExitException {
+		if (pendingError == null && streamed != tree.root.getChildren().size()) {
+			defer(new ASTFormatException("The signature scan found " + tree.root.getChildren().size()
+					+ " declarations, but " + streamed + " were parsed"), 1);
+		}
+		if (pendingError instanceof SemanticException) {
+			compilation.getErr().println(pendingError.getMessage());
+			throw new CompilerExitException(pendingError.getMessage());
+		} else if (pendingError != null) {
+			pendingError.printStackTrace(compilation.getErr());
+			throw new CompilerExitException(pendingError.getMessage());
+		}
+		CompilerMetrics metrics = compilation.getMetrics();
+		if (metrics.isEnabled()) {
+			countScopes(metrics);
+		}
+	}
+
+	/**
+	 * Keeps the error to report at the end of a streaming compilation, unless an
+	 * error of an earlier pass is already kept
+	 * 
+	 * @param e
+	 *            The error
+	 * @param pass
+	 *            The pass that found it
+	 */
+	private void defer(Exception e, int pass) {
+		if (pendingError == null || pass < pendingPass) {
+			pendingError = e;
+			pendingPass = pass;
+		}
 	}
 
 	/**
@@ -104,6 +318,10 @@ public class SemanticAnalyzer {
 	 */
 	private void pass0() throws SemanticException, ASTFormatException {
 
+		//A program of only comments and white space has no tree, and no main function
+		if (tree == null) {
+			throw new SemanticException(SemanticExceptionTypes.NoMain, "Program has no main function");
+		}
 		boolean hasMain = false;
 		if (tree.root.getType() == TreeNodeType.globaldeclarations) {
 			for (TreeNode node : tree.root.getChildren()) {
@@ -116,6 +334,7 @@ public class SemanticAnalyzer {
 					throw new ASTFormatException(
 							"An incorrect child of globaldeclarations was found  of type " + node.type);
 				}
+				Name name = nameOf(node.getChild(1));
 
 				switch (node.getType()) {
 
@@ -129,50 +348,40 @@ public class SemanticAnalyzer {
 					//Set the flag for alreadying having a main to be true
 					hasMain = true;
 					//Add the main function to the global scope
-					gScope.addMainFunc(node.getChild(1).getAttr());
+					gScope.addMainFunc(name);
 					//Set the signature of the function
-					node.getChild(1).annotate("main()", gScope);
+					node.getChild(1).annotate(Signature.main(), gScope);
 					break;
 				case functiondeclaration:
 					//If the node is a function
 					//If a function or variable with the same name is already found, throw a duplicate function semantic error
-					if (gScope.contains(ID)) {
+					if (gScope.contains(name)) {
 						throw new SemanticException(SemanticExceptionTypes.DuplicateFunction, ID,
 								node.getChild(1).getLoc(),
 								"Function names must be unique from other functions or variables");
 					}
 
-					//ArrayList to store the parameter types of the function
-					ArrayList<Type> argTypes = new ArrayList<Type>();
-					//Get the return type of the function
-					Type returnType = getTypeFromNodeType(node.getChild(0).getType());
-					//Create a stringbuffer to store the text list of the parameter types to aid with error message
-					StringBuffer paramTypes = new StringBuffer();
-					//Add the parameter types to the arraylist of parameter types
+					//Start the signature from the return type of the function
+					Signature signature = compilation.getFunction(getTypeFromNodeType(node.getChild(0).getType()));
+					//Add the parameter types to the signature
 					for (TreeNode formalParameter : node.getChild(2).getChildren()) {
-						argTypes.add(getTypeFromNodeType(formalParameter.getChild(0).getType()));
-					}
-					//Build the string representation of the list of paramter types
-					for (Type argType : argTypes) {
-						if (paramTypes.length() != 0)
-							paramTypes.append(", ");
-						paramTypes.append(argType);
+						signature = signature.with(getTypeFromNodeType(formalParameter.getChild(0).getType()));
 					}
-					//Add the function, along with its parameter types and return type to the global scope
-					gScope.addFunc(node.getChild(1).getAttr(), argTypes, returnType);
+					//Add the function, along with its signature to the global scope
+					gScope.addFunc(name, signature);
 					//Set the signature of the function
-					node.getChild(1).annotate(returnType + " f(" + paramTypes.toString() + ")", gScope);
+					node.getChild(1).annotate(signature, gScope);
 					break;
 				case variabledeclaration:
 					//If the node is a variable
 					//If a function or variable with the same name is already found, throw a duplicate variable semantic error
-					if (gScope.contains(ID)) {
+					if (gScope.contains(name)) {
 						throw new SemanticException(SemanticExceptionTypes.DuplicateVariable, ID,
 								node.getChild(1).getLoc(),
 								"Variable names must be unique from other functions or variables");
 					}
 					//Add the variable and its type to the global scope
-					gScope.addVar(ID, getTypeFromNodeType(node.getChild(0).getType()));
+					gScope.addVar(name, getTypeFromNodeType(node.getChild(0).getType()));
 					//Set the signature of the variable
 					setSigForVar(node, gScope);
 					break;
@@ -191,7 +400,7 @@ public class SemanticAnalyzer {
 	}
 
 	/**
-	 * Runs a recursive check on the program, which will proceed line by line, top
+	 * Runs a check on the program, which will proceed line by line, top
 	 * to bottom. Checks if the typing is correct for operators, return statements,
 	 * or function calls. Also checks if break statements are inside a loop, if a
 	 * variable is only declared in outermost block, if a duplicate variable is
@@ -210,17 +419,32 @@ public class SemanticAnalyzer {
 	private void pass1() throws SemanticException, ASTFormatException {
 		//Check every function in the program
 		for (TreeNode node : tree.root.getChildren()) {
-			switch (node.getType()) {
-			//Check the block inside functions
-			case functiondeclaration:
-			case mainfunctiondeclaration:
-				funcBlock(node);
-				break;
-			case variabledeclaration:
-				break;
-			default:
-				throw new ASTFormatException("An incorrect child of globaldeclarations was found of type " + node.type);
-			}
+			pass1(node);
+		}
+	}
+
+	/**
+	 * Runs pass 1 on a single global declaration
+	 * 
+	 * @param node
+	 *            The declaration
+	 * @throws SemanticException
+	 *             If a semantic error is found in the declaration
+	 * @throws ASTFormatException
+	 *             If the AST given does not conform to the grammar (or my code is
+	 *             bugged)
+	 */
+	private void pass1(TreeNode node) throws SemanticException, ASTFormatException {
+		switch (node.getType()) {
+		//Check the block inside functions
+		case functiondeclaration:
+		case mainfunctiondeclaration:
+			funcBlock(node);
+			break;
+		case variabledeclaration:
+			break;
+		default:
+			throw new ASTFormatException("An incorrect child of globaldeclarations was found of type " + node.type);
 		}
 	}
 
@@ -248,18 +472,22 @@ public class SemanticAnalyzer {
 		if (funcNode.getType() == TreeNodeType.functiondeclaration
 				|| funcNode.getType() == TreeNodeType.mainfunctiondeclaration) {
 			//Adds a new function local scope to the scope stack
-			scopes.addFirst(
+			pushScope(
 					new Scope(ScopeType.func, funcNode.getLoc(), getTypeFromNodeType(funcNode.getChild(0).getType())));
 
 			//Adds the variables declared by the parameters of the function declaration to the local scope
 			for (TreeNode formalParameter : funcNode.getChild(2).getChildren()) {
-				scopes.peek().addVar(formalParameter.getChild(1).getAttr(),
+				scopes.peek().addVar(nameOf(formalParameter.getChild(1)),
 						getTypeFromNodeType(formalParameter.getChild(0).getType()));
 				//Set the signature of the variable
 				setSigForVar(formalParameter, scopes.peek());
 			}
-			//Analyze the remaining block
-			analyzeBlock(funcNode.getChild(3));
+			//Analyze the remaining block, which pops the function scope at its end
+			TreeNode blockNode = funcNode.getChild(3);
+			if (blockNode.type != TreeNodeType.block) {
+				throw new ASTFormatException("Called analyzeBlock on non-block node: " + blockNode);
+			}
+			statementChecker.walk(blockNode);
 		} else {
 			throw new ASTFormatException(
 					"funcBlock(TreeNode) was called on a node that is not a functiondeclaration or a mainfunctiondeclaration");
@@ -268,54 +496,103 @@ public class SemanticAnalyzer {
 	}
 
 	/**
-	 * <p>
-	 * Checks the block that is contained in the blockNode block, which should have
-	 * TreeNodeType block, for if the typing is correct for operators, return
-	 * statements, or function calls. Also checks if break statements are inside a
-	 * loop, if a variable is only declared in outermost block, if a duplicate
-	 * variable is declared, if a variable used before it is declared, or if an
-	 * undeclared function is called. Then pops the top element of the scope stack.
-	 * </p>
-	 * <p>
-	 * Please create a new scope before calling this function
-	 * </p>
+	 * Walks the statements of a function for pass 1. Each statement is checked by
+	 * analyzeStatement when it is entered. A block inside a block gets a new scope,
+	 * and so does the statement of each branch of an if, else or while statement,
+	 * whether or not it is a block. The block of a function uses the function
+	 * scope, which is popped at the end of the block
 	 * 
-	 * @param blockNode
-	 *            The node which contains the block
-	 * @throws SemanticException
-	 *             If a semantic error is found in the sub-AST rooted by bockNode:
-	 *             type mismatch, argument number mismatch, break not inside loop,
-	 *             variable declared in inner block, a variable or function name is
-	 *             redefined in the same scope, undeclared variable or function
-	 * @throws ASTFormatException
-	 *             If the AST given does not conform to the grammar (or my code is
-	 *             bugged)
+	 * @author charl
 	 */
-	private void analyzeBlock(TreeNode blockNode) throws SemanticException, ASTFormatException {
+	private class StatementChecker extends TreeVisitor<SemanticException, ASTFormatException> {
+		@Override
+		protected void enter(TreeNode statementNode) throws SemanticException, ASTFormatException {
+			if (statementNode.getType() == TreeNodeType.block) {
+				if (getParent() != null && getParent().getType() == TreeNodeType.block) {
+					pushScope(new Scope(ScopeType.block, statementNode.getLoc()));
+				}
+			} else {
+				analyzeStatement(statementNode);
+			}
+		}
 
-		if (blockNode.type == TreeNodeType.block) {
-			//Analyze each individual statement in the block for the specified errors
-			for (TreeNode node : blockNode.getChildren()) {
-				analyzeStatement(node);
+		@Override
+		protected TreeNode next(TreeNode statementNode, int step) {
+			switch (statementNode.getType()) {
+			case block:
+				return step < statementNode.getChildren().size() ? statementNode.getChild(step) : null;
+			case IF:
+				//The if block, in a new scope
+				if (step == 0) {
+					pushScope(new Scope(ScopeType.block, statementNode.getChild(1).getLoc()));
+					return statementNode.getChild(1);
+				}
+				popScope();
+				return null;
+			case IFELSE:
+				//The if block, then the else block, each in a new scope
+				if (step == 0) {
+					pushScope(new Scope(ScopeType.block, statementNode.getChild(1).getLoc()));
+					return statementNode.getChild(1);
+				}
+				popScope();
+				if (step == 1) {
+					pushScope(new Scope(ScopeType.block, statementNode.getChild(2).getLoc()));
+					return statementNode.getChild(2);
+				}
+				return null;
+			case WHILE:
+				//The loop block, in a new loop scope
+				if (statementNode.getChildren().size() > 1) {
+					if (step == 0) {
+						pushScope(new Scope(ScopeType.loop, statementNode.getChild(1).getLoc()));
+						return statementNode.getChild(1);
+					}
+					popScope();
+				}
+				return null;
+			default:
+				//The expressions of other statements were checked when they were entered
+				return null;
+			}
+		}
+
+		@Override
+		protected void exit(TreeNode statementNode) {
+			//The scope of a branch is popped by its statement
+			if (statementNode.getType() == TreeNodeType.block
+					&& (getParent() == null || getParent().getType() == TreeNodeType.block)) {
+				popScope();
 			}
-		} else {
-			throw new ASTFormatException("Called analyzeBlock on non-block node: " + blockNode);
 		}
-		//display the local scope if scope display is enabled
+	}
+
+	/**
+	 * Pops the top element of the scope stack, displaying it first if scope
+	 * display is enabled
+	 */
+	private void popScope() {
 		if (displayScopes)
 			scopes.peek().print();
-		//pop the local scope of the block
-		scopes.pop();
+		Scope scope = scopes.pop();
+		if (scope.getType() == ScopeType.func) {
+			funcScopes.pop();
+		} else if (scope.getType() == ScopeType.loop) {
+			loopScopes.pop();
+		}
 	}
 
 	/**
+	 * Checks a statement other than a block when the StatementChecker enters it.
+	 * The statements inside it are checked after, by the StatementChecker
+	 * 
 	 * @param statementNode
 	 * @throws SemanticException
-	 *             If a semantic error is found in the sub-AST rooted by
-	 *             statementNode: type mismatch, argument number mismatch, break not
-	 *             inside loop, variable declared in inner block, a variable or
-	 *             function name is redefined in the same scope, undeclared variable
-	 *             or function
+	 *             If a semantic error is found in the statement, outside of the
+	 *             statements inside it: type mismatch, argument number mismatch,
+	 *             break not inside loop, variable declared in inner block, a
+	 *             variable or function name is redefined in the same scope,
+	 *             undeclared variable or function
 	 * @throws ASTFormatException
 	 *             If the AST given does not conform to the grammar (or my code is
 	 *             bugged)
@@ -324,19 +601,15 @@ public class SemanticAnalyzer {
 		Scope scope = null;
 		//For each statement type, there are different actions to take:
 		switch (statementNode.getType()) {
-		case block:
-			//If it's a block, add a new scope for the block, then analyze the block
-			scopes.addFirst(new Scope(ScopeType.block, statementNode.getLoc()));
-			analyzeBlock(statementNode);
-			break;
 		case variabledeclaration:
 			//If it's a variable declaration
 			//If the declaration is inside the outermost block of a function and if the scope doesn't already have the variable, add the variable to the scope
 			//Otherwise throw the appropriate semantic error
 			if (scopes.peek().getType() == ScopeType.func) {
 				String ID = statementNode.getChild(1).getAttr();
-				if (!scopes.peek().contains(ID)) {
-					scopes.peek().addVar(ID, getTypeFromNodeType(statementNode.getChild(0).getType()));
+				Name name = nameOf(statementNode.getChild(1));
+				if (!scopes.peek().contains(name)) {
+					scopes.peek().addVar(name, getTypeFromNodeType(statementNode.getChild(0).getType()));
 					setSigForVar(statementNode, scopes.peek());
 				} else {
 					throw new SemanticException(SemanticExceptionTypes.DuplicateVariable, ID,
@@ -358,7 +631,7 @@ public class SemanticAnalyzer {
 			break;
 		case functioninvocation:
 			//If it is a function call, checks the function call parameters
-			functionInvocation(statementNode);
+			getExpressionType(statementNode);
 			break;
 		case nullStatement:
 			//do not need to check a null statement
@@ -372,22 +645,9 @@ public class SemanticAnalyzer {
 						getExpressionName(statementNode.getChild(0)), statementNode.getChild(0).getLoc(),
 						"Type boolean was expected");
 			}
-			//Add a new scope for the if block
-			scopes.addFirst(new Scope(ScopeType.block, statementNode.getChild(1).getLoc()));
-			//If it's a block, analyze the block (which will pop the scope at the end), if it's a null statement, 
-			//just pop the scope. If it's a single statement, analyze that statement and then pop the scope
-			if (statementNode.getChild(1).getType() == TreeNodeType.block) {
-				analyzeBlock(statementNode.getChild(1));
-			} else if (statementNode.getChild(1).getType() == TreeNodeType.nullStatement) {
-				scopes.pop();
-			} else {
-				analyzeStatement(statementNode.getChild(1));
-				scopes.pop();
-			}
-
+			//The if block is checked after, in a new scope
 			break;
 		case IFELSE:
-
 			//If it's an if-else statement, start the same way as the if statement
 			if (getExpressionType(statementNode.getChild(0)) == Type.BOOLEAN) {
 			} else {
@@ -395,28 +655,7 @@ public class SemanticAnalyzer {
 						getExpressionName(statementNode.getChild(0)), statementNode.getChild(0).getLoc(),
 						"Type boolean was expected");
 			}
-
-			scopes.addFirst(new Scope(ScopeType.block, statementNode.getChild(1).getLoc()));
-			if (statementNode.getChild(1).getType() == TreeNodeType.block) {
-				analyzeBlock(statementNode.getChild(1));
-			} else if (statementNode.getChild(1).getType() == TreeNodeType.nullStatement) {
-				scopes.pop();
-			} else {
-				analyzeStatement(statementNode.getChild(1));
-				scopes.pop();
-			}
-
-			//Same logic for the else block as with the if block
-			scopes.addFirst(new Scope(ScopeType.block, statementNode.getChild(2).getLoc()));
-			if (statementNode.getChild(2).getType() == TreeNodeType.block) {
-				analyzeBlock(statementNode.getChild(2));
-			} else if (statementNode.getChild(2).getType() == TreeNodeType.nullStatement) {
-				scopes.pop();
-			} else {
-				analyzeStatement(statementNode.getChild(2));
-				scopes.pop();
-			}
-
+			//The if and else blocks are checked after, each in a new scope
 			break;
 		case WHILE:
 			//Same logic as the if statement, but the new scope is ScopeType.loop
@@ -426,28 +665,11 @@ public class SemanticAnalyzer {
 						getExpressionName(statementNode.getChild(0)), statementNode.getChild(0).getLoc(),
 						"Type boolean was expected");
 			}
-			if (statementNode.getChildren().size() > 1) {
-				scopes.addFirst(new Scope(ScopeType.loop, statementNode.getChild(1).getLoc()));
-				if (statementNode.getChild(1).getType() == TreeNodeType.block) {
-					analyzeBlock(statementNode.getChild(1));
-				} else if (statementNode.getChild(1).getType() == TreeNodeType.nullStatement) {
-					scopes.pop();
-				} else {
-					analyzeStatement(statementNode.getChild(1));
-					scopes.pop();
-				}
-			}
 			break;
 		case RETURN:
 			//If it is a return statement
-			scope = null;
 			//find the outermost scope of the function so that return type can be found
-			for (Scope s : scopes) {
-				if (s.getType() == ScopeType.func) {
-					scope = s;
-					break;
-				}
-			}
+			scope = funcScopes.peek();
 			//If the scope was found
 			if (scope != null) {
 				//If the function return type is non-void, the return argument type should match the function return type
@@ -480,13 +702,7 @@ public class SemanticAnalyzer {
 			break;
 		case BREAK:
 			//Find the innermost while loop scope that the break statement is in
-			scope = null;
-			for (Scope s : scopes) {
-				if (s.getType() == ScopeType.loop) {
-					scope = s;
-					break;
-				}
-			}
+			scope = loopScopes.peek();
 			//If the scope was found, and the break node doesn't have children, then annotate the 
 			//loop scope onto the break node, otherwise throw the appropriate semantic error
 			if (scope != null) {
@@ -524,15 +740,21 @@ public class SemanticAnalyzer {
 	 */
 	private Scope findVarInScopeStack(TreeNode id) throws SemanticException, ASTFormatException {
 		if (id.getType() == TreeNodeType.ID) {
-			String ID = id.getAttr();
-			//Go through the scopes from the top
-			for (Scope scope : scopes) {
+			Name name = nameOf(id);
+			//Go through the scopes from the top. Variables can only be declared in the outermost block of a function,
+			//so the block and loop scopes are skipped
+			for (Scope scope : funcScopes) {
 				//If a scope contains the variable, return that scope
-				if (scope.containsVar(ID)) {
+				if (scope.containsVar(name)) {
 					return scope;
 				}
 			}
-			throw new SemanticException(SemanticExceptionTypes.UndeclaredVariable, ID, id.getLoc(),
+			if (gScope.containsVar(name)) {
+				return gScope;
+			} else if (defaultScope.containsVar(name)) {
+				return defaultScope;
+			}
+			throw new SemanticException(SemanticExceptionTypes.UndeclaredVariable, id.getAttr(), id.getLoc(),
 					"Variables must be declared before use");
 		} else {
 			throw new ASTFormatException("Interpreted a non-ID node " + id + " as a variable");
@@ -546,6 +768,8 @@ public class SemanticAnalyzer {
 	 * 
 	 * @param funcInvoke
 	 *            The function invocation TreeNode to get the return type for
+	 * @param argTypes
+	 *            The types of the arguments of the function call
 	 * @return The return type of the function call
 	 * @throws SemanticException
 	 *             If the function is undeclared or the arguments are incorrect
@@ -553,87 +777,49 @@ public class SemanticAnalyzer {
 	 *             If the AST given does not conform to the grammar (or my code is
 	 *             bugged)
 	 */
-	private Type functionInvocation(TreeNode funcInvoke) throws SemanticException, ASTFormatException {
+	private Type functionInvocation(TreeNode funcInvoke, Type[] argTypes)
+			throws SemanticException, ASTFormatException {
 		if (funcInvoke.getType() == TreeNodeType.functioninvocation) {
 			String ID = funcInvoke.getChild(0).getAttr();
-			ArrayList<Type> argTypes = new ArrayList<Type>();
+			Name name = nameOf(funcInvoke.getChild(0));
 
-			//Get the expression type of each of the arguments
-			for (TreeNode args : funcInvoke.getChild(1).getChildren()) {
-				argTypes.add(getExpressionType(args));
-
-			}
-			//Make a string representation of the arguments for error messaging
-			StringBuffer paramTypes = new StringBuffer();
-			for (Type argType : argTypes) {
-				if (paramTypes.length() != 0)
-					paramTypes.append(", ");
-				paramTypes.append(argType);
-			}
-
-			//If the global scope contains the function
-			if (gScope.containsFunc(ID)) {
-				//If the list of declared parameter types is equal to the argument types of the function call, 
-				//annote the function call and return the function return type, otherwise throw an error about
-				//how the function call is incorrect
-				List<Type> declaredParamTypes = gScope.getFuncInputType(ID);
-				if (declaredParamTypes.equals(argTypes)) {
-					funcInvoke.getChild(0).annotate(gScope.getFuncReturnType(ID) + " f(" + paramTypes.toString() + ")",
-							gScope);
-					return gScope.getFuncReturnType(ID);
-				} else {
-					//Argument mismatch if the sizes are different
-					if (declaredParamTypes.size() != argTypes.size()) {
-						throw new SemanticException(SemanticExceptionTypes.ArgumentMismatch,
-								getExpressionName(funcInvoke), funcInvoke.getLoc(),
-								"Number of arguments must match the number of declared parameters of called function");
-					} else {
-						//Sizes are different, so find which specific type is wrong, and inform user though type
-						//mismatch error
-						for (int i = 0; i < argTypes.size(); i++) {
-							if (declaredParamTypes.get(i) != argTypes.get(i)) {
-								throw new SemanticException(SemanticExceptionTypes.TypeMismatch,
-										getExpressionName(funcInvoke.getChild(1).getChild(i)),
-										funcInvoke.getChild(1).getChild(i).getLoc(),
-										"Type " + declaredParamTypes.get(i) + " was expected");
-							}
-						}
-						throw new ASTFormatException("Size and elements of two unequal lists were equal");
-					}
+			//Find the scope that declares the function, the global scope before the default one
+			GlobalScope scope = gScope.containsFunc(name) ? gScope
+					: defaultScope.containsFunc(name) ? defaultScope : null;
+			if (scope != null) {
+				//If the signature of the call, the declared return type with the argument types, is the declared
+				//signature, annote the function call and return the function return type, otherwise throw an error
+				//about how the function call is incorrect
+				Signature declared = scope.getFuncSignature(name);
+				Signature call = compilation.getFunction(declared.getReturnType());
+				for (Type argType : argTypes) {
+					call = call.with(argType);
 				}
-
-				//Otherwise if the global scope contains the function
-			} else if (defaultScope.containsFunc(ID)) {
-				//If the list of declared parameter types is equal to the argument types of the function call, 
-				//annote the function call and return the function return type, otherwise throw an error about
-				//how the function call is incorrect
-				List<Type> declaredParamTypes = defaultScope.getFuncInputType(ID);
-				if (declaredParamTypes.equals(argTypes)) {
-					funcInvoke.getChild(0).annotate(
-							defaultScope.getFuncReturnType(ID) + " f(" + paramTypes.toString() + ")", defaultScope);
-					return defaultScope.getFuncReturnType(ID);
+				if (call == declared) {
+					funcInvoke.getChild(0).annotate(declared, scope);
+					return declared.getReturnType();
 				} else {
 					//Argument mismatch if the sizes are different
-					if (declaredParamTypes.size() != argTypes.size()) {
+					if (declared.getParameterCount() != argTypes.length) {
 						throw new SemanticException(SemanticExceptionTypes.ArgumentMismatch,
 								getExpressionName(funcInvoke), funcInvoke.getLoc(),
 								"Number of arguments must match the number of declared parameters of called function");
 					} else {
-						//Sizes are different, so find which specific type is wrong, and inform user though type
+						//Sizes are the same, so find which specific type is wrong, and inform user though type
 						//mismatch error
-						for (int i = 0; i < argTypes.size(); i++) {
-							if (declaredParamTypes.get(i) != argTypes.get(i)) {
+						for (int i = 0; i < argTypes.length; i++) {
+							if (declared.getParameter(i) != argTypes[i]) {
 								throw new SemanticException(SemanticExceptionTypes.TypeMismatch,
 										getExpressionName(funcInvoke.getChild(1).getChild(i)),
 										funcInvoke.getChild(1).getChild(i).getLoc(),
-										"Type " + declaredParamTypes.get(i) + " was expected");
+										"Type " + declared.getParameter(i) + " was expected");
 							}
 						}
-						throw new ASTFormatException("Size and elements of two unequal lists were equal");
+						throw new ASTFormatException("Two unequal signatures had the same types");
 					}
 				}
 			} else {
-				if(gScope.getMainFuncID().equals(ID)) {
+				if(gScope.getMainFuncID() == name) {
 					throw new SemanticException(SemanticExceptionTypes.CallMain, ID, funcInvoke.getLoc(),
 							"Cannot call the main function");
 				}
@@ -659,37 +845,119 @@ public class SemanticAnalyzer {
 	 *             bugged)
 	 */
 	private Type getExpressionType(TreeNode expressionNode) throws SemanticException, ASTFormatException {
+		typeChecker.types.clear();
+		typeChecker.walk(expressionNode);
+		return typeChecker.types.pop();
+	}
+
+	/**
+	 * Walks an expression, finding the type of each operand before the type of
+	 * its operator
+	 * 
+	 * @author charl
+	 */
+	private class TypeChecker extends TreeVisitor<SemanticException, ASTFormatException> {
+		/**
+		 * The types of the expressions exited whose operator hasn't been exited yet
+		 */
+		private Deque<Type> types = new ArrayDeque<Type>();
+
+		@Override
+		protected TreeNode next(TreeNode expressionNode, int step) throws ASTFormatException {
+			switch (expressionNode.getType()) {
+			case ID:
+			case NUM:
+			case TRUE:
+			case FALSE:
+			case STRING:
+				return null;
+			case ASSIGN:
+				if (step == 0 && expressionNode.getChild(0).getType() != TreeNodeType.ID) {
+					//Grammar only allows IDs to the left side of an assignment
+					throw new ASTFormatException(
+							"Left hand side of assignment must be a variable, at " + expressionNode.getLoc());
+				}
+				return step < 2 ? expressionNode.getChild(step) : null;
+			case EQ:
+			case NEQ:
+			case SUB:
+			case MUL:
+			case DIV:
+			case MOD:
+			case ADD:
+			case LT:
+			case GT:
+			case LE:
+			case GE:
+			case AND:
+			case OR:
+				return step < 2 ? expressionNode.getChild(step) : null;
+			case UNARY_SUB:
+			case NOT:
+				return step < 1 ? expressionNode.getChild(0) : null;
+			case functioninvocation:
+				//The arguments of the call
+				TreeNode argList = expressionNode.getChild(1);
+				return step < argList.getChildren().size() ? argList.getChild(step) : null;
+			default:
+				throw new ASTFormatException("Unexpected statement expression type " + expressionNode);
+			}
+		}
+
+		@Override
+		protected void exit(TreeNode expressionNode) throws SemanticException, ASTFormatException {
+			types.push(checkExpression(expressionNode, types));
+		}
+	}
+
+	/**
+	 * Checks the types of the operands of an expression, once they are known
+	 * 
+	 * @param expressionNode
+	 *            The expression to check
+	 * @param types
+	 *            The types of the operands of the expression on top, the last
+	 *            operand first. They are popped
+	 * @return The return type of the expression
+	 * @throws SemanticException
+	 *             if the types for an operator are incorrect
+	 * @throws ASTFormatException
+	 *             If the AST given does not conform to the grammar (or my code is
+	 *             bugged)
+	 */
+	private Type checkExpression(TreeNode expressionNode, Deque<Type> types)
+			throws SemanticException, ASTFormatException {
 		Type left;
 		Type right;
 		switch (expressionNode.getType()) {
 		case ID:
 			//If it is an ID, look for the type of that variable, annotate the variable, and return the type
 			Scope scope = findVarInScopeStack(expressionNode);
-			left = scope.getVarType(expressionNode.getAttr());
-			expressionNode.annotate(left.toString(), scope);
+			left = scope.getVarType(nameOf(expressionNode));
+			expressionNode.annotate(Signature.of(left), scope);
 			return left;
 		case NUM:
 			//Annotate the expression and return int
-			expressionNode.annotate(Type.INT.toString());
+			expressionNode.annotate(Signature.of(Type.INT));
 			return Type.INT;
 		case TRUE:
 		case FALSE:
 			//Annotate the expression and return boolean
-			expressionNode.annotate(Type.BOOLEAN.toString());
+			expressionNode.annotate(Signature.of(Type.BOOLEAN));
 			return Type.BOOLEAN;
 		case STRING:
 			//Annotate the expression and return string
-			expressionNode.annotate(Type.STRING.toString());
+			expressionNode.annotate(Signature.of(Type.STRING));
 			return Type.STRING;
 		case ASSIGN:
 
 			if (expressionNode.getChild(0).getType() == TreeNodeType.ID) {
 				//Check if the right type matches the type of the variable, if they do, annotate the expression 
 				//and return the type. Otherwise throw a type mismatch on the right hand side expression
-				left = getExpressionType(expressionNode.getChild(0));
-				right = getExpressionType(expressionNode.getChild(1));
+				right = types.pop();
+				left = types.pop();
 				if (right == left) {
-					expressionNode.annotate(left.toString());
+					expressionNode.annotate(Signature.of(left));
 					return left;
 				} else {
 					throw new SemanticException(SemanticExceptionTypes.TypeMismatch,
@@ -706,10 +974,10 @@ public class SemanticAnalyzer {
 		case NEQ:
 			//Check if the right and left type match, if they do, annotate the expression to be boolean
 			//and return boolean. Otherwise throw a type mismatch on the right hand side expression
-			left = getExpressionType(expressionNode.getChild(0));
-			right = getExpressionType(expressionNode.getChild(1));
+			right = types.pop();
+			left = types.pop();
 			if (right == left) {
-				expressionNode.annotate(Type.BOOLEAN.toString());
+				expressionNode.annotate(Signature.of(Type.BOOLEAN));
 				return Type.BOOLEAN;
 			} else {
 				throw new SemanticException(SemanticExceptionTypes.TypeMismatch,
@@ -723,10 +991,10 @@ public class SemanticAnalyzer {
 		case ADD:
 			//Check if the left and right types are ints. If they are, annotate the expression and return int.
 			//Otherwise throw a type mismatch on the side that isn't an int
-			left = getExpressionType(expressionNode.getChild(0));
-			right = getExpressionType(expressionNode.getChild(1));
+			right = types.pop();
+			left = types.pop();
 			if (right == Type.INT && left == Type.INT) {
-				expressionNode.annotate(Type.INT.toString());
+				expressionNode.annotate(Signature.of(Type.INT));
 				return Type.INT;
 			} else if (left != Type.INT) {
 				throw new SemanticException(SemanticExceptionTypes.TypeMismatch,
@@ -743,10 +1011,10 @@ public class SemanticAnalyzer {
 		case GE:
 			//Check if the left and right types are ints. If they are, annotate the expression and return boolean.
 			//Otherwise throw a type mismatch on the side that isn't an int
-			left = getExpressionType(expressionNode.getChild(0));
-			right = getExpressionType(expressionNode.getChild(1));
+			right = types.pop();
+			left = types.pop();
 			if (right == Type.INT && left == Type.INT) {
-				expressionNode.annotate(Type.BOOLEAN.toString());
+				expressionNode.annotate(Signature.of(Type.BOOLEAN));
 				return Type.BOOLEAN;
 			} else if (left != Type.INT) {
 				throw new SemanticException(SemanticExceptionTypes.TypeMismatch,
@@ -762,10 +1030,10 @@ public class SemanticAnalyzer {
 		case OR:
 			//Check if the left and right types are booleans. If they are, annotate the expression and return boolean.
 			//Otherwise throw a type mismatch on the side that isn't a boolean
-			left = getExpressionType(expressionNode.getChild(0));
-			right = getExpressionType(expressionNode.getChild(1));
+			right = types.pop();
+			left = types.pop();
 			if (right == Type.BOOLEAN && left == Type.BOOLEAN) {
-				expressionNode.annotate(Type.BOOLEAN.toString());
+				expressionNode.annotate(Signature.of(Type.BOOLEAN));
 				return Type.BOOLEAN;
 			} else if (left != Type.BOOLEAN) {
 				throw new SemanticException(SemanticExceptionTypes.TypeMismatch,
@@ -779,9 +1047,9 @@ public class SemanticAnalyzer {
 		case UNARY_SUB:
 			//Check if the right side is an int. If it is, annotate the expression and return int.
 			//Otherwise throw a type mismatch on the right side
-			right = getExpressionType(expressionNode.getChild(0));
+			right = types.pop();
 			if (right == Type.INT) {
-				expressionNode.annotate(Type.INT.toString());
+				expressionNode.annotate(Signature.of(Type.INT));
 				return Type.INT;
 			} else {
 				throw new SemanticException(SemanticExceptionTypes.TypeMismatch,
@@ -791,9 +1059,9 @@ public class SemanticAnalyzer {
 		case NOT:
 			//Check if the right side is a boolean. If it is, annotate the expression and return boolean.
 			//Otherwise throw a type mismatch on the right side
-			right = getExpressionType(expressionNode.getChild(0));
+			right = types.pop();
 			if (right == Type.BOOLEAN) {
-				expressionNode.annotate(Type.BOOLEAN.toString());
+				expressionNode.annotate(Signature.of(Type.BOOLEAN));
 				return Type.BOOLEAN;
 			} else {
 				throw new SemanticException(SemanticExceptionTypes.TypeMismatch,
@@ -802,7 +1070,11 @@ public class SemanticAnalyzer {
 			}
 		case functioninvocation:
 			//Return the type of the function call
-			return functionInvocation(expressionNode);
+			Type[] argTypes = new Type[expressionNode.getChild(1).getChildren().size()];
+			for (int i = argTypes.length - 1; i >= 0; i--) {
+				argTypes[i] = types.pop();
+			}
+			return functionInvocation(expressionNode, argTypes);
 		default:
 			throw new ASTFormatException("Unexpected statement expression type " + expressionNode);
 		}
@@ -821,24 +1093,40 @@ public class SemanticAnalyzer {
 	 */
 	private void pass2() throws SemanticException, ASTFormatException {
 		for (TreeNode node : tree.root.getChildren()) {
-			switch (node.getType()) {
-			case functiondeclaration:
-			case mainfunctiondeclaration:
-				//Only need to check for non-void functions
-				if (node.getChild(0).getType() != TreeNodeType.VOID) {
-					//If the function block does not always return, throw a funciton does not return error
-					if (checkReturnBlock(node.getChild(3)) != ReturnTypes.AlwaysReturns) {
-						throw new SemanticException(SemanticExceptionTypes.FunctionDoesNotReturn,
-								node.getChild(1).getAttr(), node.getLoc(),
-								node.getChild(0).getType().toString() + " functions must return a value");
-					}
+			pass2(node);
+		}
+	}
+
+	/**
+	 * Runs pass 2 on a single global declaration
+	 * 
+	 * @param node
+	 *            The declaration
+	 * @throws SemanticException
+	 *             If the declaration is a non-void function that doesn't always
+	 *             return
+	 * @throws ASTFormatException
+	 *             If the AST given does not conform to the grammar (or my code is
+	 *             bugged)
+	 */
+	private void pass2(TreeNode node) throws SemanticException, ASTFormatException {
+		switch (node.getType()) {
+		case functiondeclaration:
+		case mainfunctiondeclaration:
+			//Only need to check for non-void functions
+			if (node.getChild(0).getType() != TreeNodeType.VOID) {
+				//If the function block does not always return, throw a funciton does not return error
+				if (checkReturnBlock(node.getChild(3)) != ReturnTypes.AlwaysReturns) {
+					throw new SemanticException(SemanticExceptionTypes.FunctionDoesNotReturn,
+							node.getChild(1).getAttr(), node.getLoc(),
+							node.getChild(0).getType().toString() + " functions must return a value");
 				}
-				break;
-			case variabledeclaration:
-				break;
-			default:
-				throw new ASTFormatException("An incorrect child of globaldeclarations was found of type " + node.type);
 			}
+			break;
+		case variabledeclaration:
+			break;
+		default:
+			throw new ASTFormatException("An incorrect child of globaldeclarations was found of type " + node.type);
 		}
 	}
 
@@ -856,51 +1144,90 @@ public class SemanticAnalyzer {
 	 *             bugged)
 	 */
 	private ReturnTypes checkReturnBlock(TreeNode node) throws SemanticException, ASTFormatException {
-		//If the node is a block
-		if (node.getType() == TreeNodeType.block) {
-			//If one of the statements of the block always break or always return, then this block always breaks or always returns, respectively
-			for (TreeNode expressionNode : node.getChildren()) {
-				ReturnTypes ret = checkReturnStatement(expressionNode);
-				if (ret != ReturnTypes.DoesNotAlwaysReturn) {
-					return ret;
+		returnChecker.results.clear();
+		returnChecker.walk(node);
+		return returnChecker.results.pop();
+	}
+
+	/**
+	 * Walks the statements of a function, finding the return type of each block
+	 * and if-else statement from the return types of the statements inside it
+	 * 
+	 * @author charl
+	 */
+	private class ReturnChecker extends TreeVisitor<SemanticException, ASTFormatException> {
+		/**
+		 * The return types of the statements exited whose block or if-else statement
+		 * hasn't been exited yet. A block keeps the return type it has so far on the
+		 * stack while its statements are checked
+		 */
+		private Deque<ReturnTypes> results = new ArrayDeque<ReturnTypes>();
+
+		@Override
+		protected void enter(TreeNode node) {
+			if (node.getType() == TreeNodeType.block) {
+				results.push(ReturnTypes.DoesNotAlwaysReturn);
+			}
+		}
+
+		@Override
+		protected TreeNode next(TreeNode node, int step) {
+			switch (node.getType()) {
+			case block:
+				//If one of the statements of the block always break or always return, then this block always breaks or
+				//always returns, respectively, and the statements after it are not checked
+				if (step > 0) {
+					ReturnTypes ret = results.pop();
+					if (ret != ReturnTypes.DoesNotAlwaysReturn) {
+						results.pop();
+						results.push(ret);
+						return null;
+					}
 				}
+				return step < node.getChildren().size() ? node.getChild(step) : null;
+			case IFELSE:
+				//Both branches
+				return step < 2 ? node.getChild(step + 1) : null;
+			default:
+				return null;
 			}
-			//Otherwise the block does not always return
-			return ReturnTypes.DoesNotAlwaysReturn;
-		} else {
-			//Otherwise it's a single statement, return the return type of the single statement
-			return checkReturnStatement(node);
+		}
 
+		@Override
+		protected void exit(TreeNode node) throws ASTFormatException {
+			if (node.getType() != TreeNodeType.block) {
+				results.push(checkReturnStatement(node, results));
+			}
 		}
 	}
 
 	/**
-	 * * Checks the return type of statement represented by the given node
+	 * Checks the return type of statement represented by the given node, other
+	 * than a block
 	 * 
 	 * @param expressionNode
 	 *            The statement node
+	 * @param results
+	 *            The return types of the branches of an if-else statement on top,
+	 *            the else branch first. They are popped
 	 * @return The return type of the statement. ReturnTypes.AlwaysReturns if the
 	 *         block always returns, ReturnTypes.AlwaysBreaks, if the block always
 	 *         breaks, and ReturnTypes.DoesNotAlwaysReturn by default
-	 * @throws SemanticException
 	 * @throws ASTFormatException
 	 *             If the AST given does not conform to the grammar (or my code is
 	 *             bugged)
 	 */
-	private ReturnTypes checkReturnStatement(TreeNode expressionNode) throws SemanticException, ASTFormatException {
+	private ReturnTypes checkReturnStatement(TreeNode expressionNode, Deque<ReturnTypes> results)
+			throws ASTFormatException {
 		switch (expressionNode.getType()) {
-		case block:
-			//If the statement is a block, return the return type of the block
-			ReturnTypes ret = checkReturnBlock(expressionNode);
-			return ret;
 		case RETURN:
 			//If the statement is a return, the statement always returns
 			return ReturnTypes.AlwaysReturns;
 		case IFELSE:
 			//If the statement is an ifelse, and both branches always return, then the ifelse always returns
 			//If both branches always break, then the ifelse always breaks
-			ReturnTypes ret1 = checkReturnBlock(expressionNode.getChild(1));
-			ReturnTypes ret2 = checkReturnBlock(expressionNode.getChild(2));
+			ReturnTypes ret2 = results.pop();
+			ReturnTypes ret1 = results.pop();
 			if (ret1 == ReturnTypes.AlwaysReturns && ret2 == ReturnTypes.AlwaysReturns) {
 				return ReturnTypes.AlwaysReturns;
 			} else if (ret1 == ReturnTypes.AlwaysBreaks && ret2 == ReturnTypes.AlwaysBreaks) {
@@ -923,10 +1250,10 @@ public class SemanticAnalyzer {
 			if (ID.equals("halt")) {
 				for (Scope scope : scopes) {
 					//If the halt() function is found in a non-default scope, then it doesn't halt the program
-					if (scope != defaultScope && scope.contains(ID)) {
+					if (scope != defaultScope && scope.contains(nameOf(expressionNode.getChild(0)))) {
 						break;
 						//Otherwise if the halt() function is found in the default scope, the it always halts the program
-					} else if (scope == defaultScope && scope.contains(ID)) {
+					} else if (scope == defaultScope && scope.contains(nameOf(expressionNode.getChild(0)))) {
 						return ReturnTypes.AlwaysReturns;
 					}
 				}
@@ -961,56 +1288,113 @@ public class SemanticAnalyzer {
 	 *             bugged)
 	 */
 	private String getExpressionName(TreeNode expressionNode) throws ASTFormatException {
-		switch (expressionNode.getType()) {
-		case ID:
-		case STRING:
-		case NUM:
-			//Return the attribute
-			return expressionNode.getAttr();
-		case BOOL:
-		case TRUE:
-		case FALSE:
-			//return the literal
-			return expressionNode.getType().toString();
-		case functioninvocation:
-			//Make a string representation of the arguments for error messaging
-			StringBuffer paramNames = new StringBuffer();
-			for (TreeNode args : expressionNode.getChild(1).getChildren()) {
-				if (paramNames.length() != 0)
-					paramNames.append(", ");
-				paramNames.append(getExpressionName(args));
-
-			}
+		expressionNamer.name.setLength(0);
+		expressionNamer.walk(expressionNode);
+		return expressionNamer.name.toString();
+	}
 
-			//return the id and the arguments of the function call
-			return expressionNode.getChild(0).getAttr() + "(" + paramNames + ")";
+	/**
+	 * Walks an expression, writing each operand and operator in order
+	 * 
+	 * @author charl
+	 */
+	private class ExpressionNamer extends TreeVisitor<ASTFormatException, RuntimeException> {
+		private StringBuffer name = new StringBuffer();
+		/**
+		 * For each function call being written, where its arguments start in name
+		 */
+		private Deque<Integer> argStarts = new ArrayDeque<Integer>();
 
-		case ASSIGN:
-		case EQ:
-		case NEQ:
-		case SUB:
-		case MUL:
-		case DIV:
-		case MOD:
-		case ADD:
-		case LT:
-		case GT:
-		case LE:
-		case GE:
-		case AND:
-		case OR:
-			//return the left of the operator, the operator, the right of the operator
-			return getExpressionName(expressionNode.getChild(0)) + " " + expressionNode.getType() + " "
-					+ getExpressionName(expressionNode.getChild(1));
+		@Override
+		protected void enter(TreeNode expressionNode) throws ASTFormatException {
+			switch (expressionNode.getType()) {
+			case ID:
+			case STRING:
+			case NUM:
+				//The attribute
+				name.append(expressionNode.getAttr());
+				break;
+			case BOOL:
+			case TRUE:
+			case FALSE:
+				//The literal
+				name.append(expressionNode.getType().toString());
+				break;
+			case functioninvocation:
+				//The id, then the arguments of the function call
+				name.append(expressionNode.getChild(0).getAttr() + "(");
+				argStarts.push(name.length());
+				break;
+			case ASSIGN:
+			case EQ:
+			case NEQ:
+			case SUB:
+			case MUL:
+			case DIV:
+			case MOD:
+			case ADD:
+			case LT:
+			case GT:
+			case LE:
+			case GE:
+			case AND:
+			case OR:
+				break;
+			case UNARY_SUB:
+			case NOT:
+				//The operator, then the right of the operator
+				name.append(expressionNode.getType());
+				break;
+			default:
+				throw new ASTFormatException("Unexpected statement expression type " + expressionNode);
+			}
+		}
 
-		case UNARY_SUB:
-		case NOT:
-			//return the operator and the right of the operator
-			return expressionNode.getType() + getExpressionName(expressionNode.getChild(0));
-		default:
-			throw new ASTFormatException("Unexpected statement expression type " + expressionNode);
+		@Override
+		protected TreeNode next(TreeNode expressionNode, int step) {
+			switch (expressionNode.getType()) {
+			case functioninvocation:
+				TreeNode argList = expressionNode.getChild(1);
+				if (step < argList.getChildren().size()) {
+					if (name.length() != argStarts.peek())
+						name.append(", ");
+					return argList.getChild(step);
+				}
+				return null;
+			case ASSIGN:
+			case EQ:
+			case NEQ:
+			case SUB:
+			case MUL:
+			case DIV:
+			case MOD:
+			case ADD:
+			case LT:
+			case GT:
+			case LE:
+			case GE:
+			case AND:
+			case OR:
+				//The left of the operator, the operator, the right of the operator
+				if (step == 1) {
+					name.append(" " + expressionNode.getType() + " ");
+				}
+				return step < 2 ? expressionNode.getChild(step) : null;
+			case UNARY_SUB:
+			case NOT:
+				return step < 1 ? expressionNode.getChild(0) : null;
+			default:
+				return null;
+			}
 		}
 
+		@Override
+		protected void exit(TreeNode expressionNode) {
+			if (expressionNode.getType() == TreeNodeType.functioninvocation) {
+				argStarts.pop();
+				name.append(')');
+			}
+		}
 	}
 
 	/**
@@ -1049,7 +1433,26 @@ public class SemanticAnalyzer {
 	 * @param scope
 	 *            The scope to annotate onto the node
 	 */
-	private void setSigForVar(TreeNode node, Scope scope) {
-		node.getChild(1).annotate(node.getChild(0).getType().toString(), scope);
+	private void setSigForVar(TreeNode node, Scope scope) throws ASTFormatException {
+		node.getChild(1).annotate(Signature.of(getTypeFromNodeType(node.getChild(0).getType())), scope);
+	}
+
+	/**
+	 * Returns the name of an ID node in the identifiers of this compilation. A
+	 * node parsed by another compilation, like the signature scan of streaming
+	 * mode, or only given an attribute, is given the name of this compilation,
+	 * which the code generator then uses too
+	 * 
+	 * @param id
+	 *            The ID node
+	 * @return The interned name of the node
+	 */
+	private Name nameOf(TreeNode id) {
+		Name name = id.getName();
+		if (name == null || !names.owns(name)) {
+			name = names.intern(id.getAttr());
+			id.setName(name);
+		}
+		return name;
 	}
 }
@@ -41,7 +41,7 @@ public class SemanticException extends Exception {
 	 *            The message to send
 	 */
 	public SemanticException(SemanticExceptionTypes type, Location loc, String msg) {
-		super(type + " at " + loc + " in file " + Scan.inputFileName + "\n" + msg);
+		super(type + " at " + loc + " in file " + fileOf(loc) + "\n" + msg);
 		this.type = type;
 		this.loc = loc;
 	}
@@ -60,7 +60,7 @@ public class SemanticException extends Exception {
 	 *            The message to send
 	 */
 	public SemanticException(SemanticExceptionTypes type, String name, Location loc, String msg) {
-		super(type + " at " + loc + " in file " + Scan.inputFileName + " on token: " + name + "\n" + msg);
+		super(type + " at " + loc + " in file " + fileOf(loc) + " on token: " + name + "\n" + msg);
 		this.name = name;
 		this.type = type;
 		this.loc = loc;
@@ -73,6 +73,17 @@ public class SemanticException extends Exception {
 		return type;
 
 	}
+
+	/**
+	 * The locations of the tokens carry the name of the file they were read from
+	 * 
+	 * @param loc
+	 *            The location of the error
+	 * @return The name of the file containing the location
+	 */
+	private static String fileOf(Location loc) {
+		return loc != null ? loc.getUnit() : "unknown";
+	}
 }
 
 /**
@@ -0,0 +1,218 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *
+ */
+
+/**
+ * The type the semantic analyzer gives a node: the type of a variable or an
+ * expression, or the signature of a function, its return type and the types
+ * of its parameters. Signatures are interned, so the same types are always the
+ * same Signature, shared by every node annotated with them, and two are
+ * compared with ==. The signature of a function is made from that of its
+ * return type by adding its parameters one at a time, each a lookup in an
+ * array of the signatures with one more parameter, so a call finds the
+ * signature of its arguments without building a string or a list. A signature
+ * only keeps the one it was made from and its last parameter, so the
+ * signatures of a function of n parameters take memory linear in n; the array
+ * of its parameters, and its text, as printed with the tree, are only built
+ * when asked for.
+ * <p>
+ * The signatures of functions are interned by the compilation they belong to,
+ * which keeps the signature of a function of no parameters returning each
+ * type, so they are freed with it, and a resident compiler doesn't keep those
+ * of every program it was sent. Only signatures of the same compilation are
+ * compared. They are made safely by any thread.
+ *
+ * @author charl
+ */
+public final class Signature {
+	private static final Type[] types = Type.values();
+	/**
+	 * The signature of a variable or an expression of each type, which no
+	 * signature is made from
+	 */
+	private static final Signature[] values = new Signature[types.length];
+	/**
+	 * The signature of the main function, which can't be called, and takes no
+	 * parameters
+	 */
+	private static final Signature main = new Signature(Type.VOID, 0, false);
+
+	static {
+		for (Type type : types) {
+			values[type.ordinal()] = new Signature(type, -1, false);
+		}
+	}
+
+	private final Type returnType;
+	/**
+	 * The signature of the function without its last parameter, and that
+	 * parameter, or null for a variable, an expression or a function of no
+	 * parameters
+	 */
+	private final Signature shorter;
+	private final Type last;
+	/**
+	 * The number of parameters of the function, or -1 for a variable or an
+	 * expression
+	 */
+	private final int count;
+	/**
+	 * The types of the parameters, a bit per type by its ordinal
+	 */
+	private final int taken;
+	/**
+	 * The signatures of a function with one more parameter, by its type, each
+	 * made the first time it is asked for
+	 */
+	private final AtomicReferenceArray<Signature> longer;
+	/**
+	 * The types of the parameters, made the first time one is asked for by its
+	 * index
+	 */
+	private volatile Type[] parameters;
+
+	/**
+	 * Creates the signature of a variable or an expression, with a count of -1,
+	 * or of a function of no parameters, with a count of 0
+	 *
+	 * @param extended
+	 *            true if parameters can be added to the signature
+	 */
+	private Signature(Type returnType, int count, boolean extended) {
+		this.returnType = returnType;
+		shorter = null;
+		last = null;
+		this.count = count;
+		taken = 0;
+		longer = extended ? new AtomicReferenceArray<Signature>(types.length) : null;
+	}
+
+	/**
+	 * Creates the signature of a function with the parameters of shorter, then
+	 * one of the type last
+	 */
+	private Signature(Signature shorter, Type last) {
+		returnType = shorter.returnType;
+		this.shorter = shorter;
+		this.last = last;
+		count = shorter.count + 1;
+		taken = shorter.taken | 1 << last.ordinal();
+		longer = new AtomicReferenceArray<Signature>(types.length);
+	}
+
+	/**
+	 * @return the signature of a variable or an expression of the type
+	 */
+	public static Signature of(Type type) {
+		return values[type.ordinal()];
+	}
+
+	/**
+	 * Creates the signatures of the functions of no parameters returning each
+	 * type, by its ordinal, from which a compilation makes all of its own
+	 *
+	 * @return the signatures
+	 */
+	static Signature[] functions() {
+		Signature[] functions = new Signature[types.length];
+		for (Type type : types) {
+			functions[type.ordinal()] = new Signature(type, 0, true);
+		}
+		return functions;
+	}
+
+	/**
+	 * @return the signature of the main function
+	 */
+	public static Signature main() {
+		return main;
+	}
+
+	/**
+	 * @return the signature of a function with the parameters of this one, then
+	 *         one of the given type
+	 * @throws IllegalStateException
+	 *             If this is not the signature of a function
+	 */
+	public Signature with(Type parameter) {
+		if (longer == null) {
+			throw new IllegalStateException("The type " + this + " takes no parameters");
+		}
+		Signature signature = longer.get(parameter.ordinal());
+		if (signature == null) {
+			//Another thread may have made it first, whose is kept
+			longer.compareAndSet(parameter.ordinal(), null, new Signature(this, parameter));
+			signature = longer.get(parameter.ordinal());
+		}
+		return signature;
+	}
+
+	/**
+	 * @return the type of the variable or the expression, or the return type of
+	 *         the function
+	 */
+	public Type getReturnType() {
+		return returnType;
+	}
+
+	/**
+	 * @return true if this is the signature of a function
+	 */
+	public boolean isFunction() {
+		return count >= 0;
+	}
+
+	/**
+	 * @return the number of parameters of the function, 0 for a variable or an
+	 *         expression
+	 */
+	public int getParameterCount() {
+		return Math.max(count, 0);
+	}
+
+	/**
+	 * @return the type of the index-th parameter of the function
+	 */
+	public Type getParameter(int index) {
+		Type[] known = parameters;
+		if (known == null) {
+			known = new Type[getParameterCount()];
+			for (Signature s = this; s.shorter != null; s = s.shorter) {
+				known[s.count - 1] = s.last;
+			}
+			parameters = known;
+		}
+		return known[index];
+	}
+
+	/**
+	 * @return true if the function has a parameter of the type
+	 */
+	public boolean takes(Type type) {
+		return (taken & 1 << type.ordinal()) != 0;
+	}
+
+	/**
+	 * @return the type, as int, or the function, as int f(int, boolean), or
+	 *         main()
+	 */
+	@Override
+	public String toString() {
+		if (!isFunction()) {
+			return returnType.toString();
+		} else if (this == main) {
+			return "main()";
+		}
+		StringBuffer s = new StringBuffer();
+		s.append(returnType).append(" f(");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				s.append(", ");
+			}
+			s.append(getParameter(i));
+		}
+		return s.append(')').toString();
+	}
+}
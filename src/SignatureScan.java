@@ -0,0 +1,194 @@
+import java_cup.runtime.ComplexSymbolFactory.ComplexSymbol;
+
+/**
+ *
+ */
+
+/**
+ * Finds the global declarations of a program from its tokens alone, without
+ * parsing the bodies of the functions, for the streaming mode of the compiler.
+ * Each declaration is returned as the node the parser would build for it, but
+ * without the block of the function, so pass 0 of the semantic analyzer can
+ * fill the global scope before any function is parsed.
+ * <p>
+ * Only programs that follow the grammar at the top level are understood. For
+ * anything else null is returned, and the program is compiled the normal way,
+ * which reports the syntax error.
+ *
+ * @author charl
+ */
+public class SignatureScan {
+	private final Scan scanner;
+	private ComplexSymbol token;
+
+	/**
+	 * @param scanner
+	 *            The scanner of the program, which should not print its warnings
+	 */
+	private SignatureScan(Scan scanner) {
+		this.scanner = scanner;
+	}
+
+	/**
+	 * Scans the whole program for its global declarations
+	 *
+	 * @param scanner
+	 *            The scanner of the program, which should not print its warnings
+	 * @return a tree of the declarations, without the blocks of the functions, or
+	 *         null if the program has no declarations or doesn't follow the
+	 *         grammar at the top level
+	 * @throws Exception
+	 *             If the program could not be read
+	 */
+	public static Tree scan(Scan scanner) throws Exception {
+		try {
+			return new SignatureScan(scanner).globalDeclarations();
+		} catch (CompilerExitException e) {
+			//Too many lexical errors, which the parser will report
+			return null;
+		}
+	}
+
+	/**
+	 * @return the tree of the declarations, or null
+	 */
+	private Tree globalDeclarations() throws Exception {
+		TreeNode root = new TreeNode(TreeNodeType.globaldeclarations);
+		next();
+		while (token.sym != sym.EOF) {
+			TreeNode declaration;
+			if (token.sym == sym.ID) {
+				declaration = mainFunctionDeclaration();
+			} else {
+				declaration = declaration();
+			}
+			if (declaration == null) {
+				return null;
+			}
+			root.addChild(declaration);
+		}
+		return root.getChildren().isEmpty() ? null : new Tree(root);
+	}
+
+	/**
+	 * Reads a global variable or a function declaration
+	 *
+	 * @return the declaration, or null
+	 */
+	private TreeNode declaration() throws Exception {
+		TreeNode type = type(true);
+		if (type == null || next().sym != sym.ID) {
+			return null;
+		}
+		TreeNode id = identifier();
+		if (next().sym == sym.SEMI_COLON && type.getType() != TreeNodeType.VOID) {
+			next();
+			return new TreeNode(TreeNodeType.variabledeclaration, type.getLoc()).addChild(type).addChild(id);
+		}
+		if (token.sym != sym.OPEN_ROUND_BRACES) {
+			return null;
+		}
+		TreeNode parameters = new TreeNode(TreeNodeType.formalparameterlist);
+		if (next().sym != sym.CLOSE_ROUND_BRACES) {
+			while (true) {
+				TreeNode parameterType = type(false);
+				if (parameterType == null || next().sym != sym.ID) {
+					return null;
+				}
+				parameters.addChild(new TreeNode(TreeNodeType.formalparameter, parameterType.getLoc())
+						.addChild(parameterType).addChild(identifier()));
+				if (next().sym == sym.CLOSE_ROUND_BRACES) {
+					break;
+				}
+				if (token.sym != sym.COMMA) {
+					return null;
+				}
+				next();
+			}
+		}
+		if (!skipBlock()) {
+			return null;
+		}
+		return new TreeNode(TreeNodeType.functiondeclaration, type.getLoc()).addChild(type).addChild(id)
+				.addChild(parameters);
+	}
+
+	/**
+	 * Reads the main function declaration. Like the parser, skips any parameters
+	 *
+	 * @return the declaration, or null
+	 */
+	private TreeNode mainFunctionDeclaration() throws Exception {
+		TreeNode id = identifier();
+		if (next().sym != sym.OPEN_ROUND_BRACES) {
+			return null;
+		}
+		while (next().sym != sym.CLOSE_ROUND_BRACES) {
+			if (token.sym == sym.EOF) {
+				return null;
+			}
+		}
+		if (!skipBlock()) {
+			return null;
+		}
+		return new TreeNode(TreeNodeType.mainfunctiondeclaration, id.getLoc())
+				.addChild(new TreeNode(TreeNodeType.VOID)).addChild(id)
+				.addChild(new TreeNode(TreeNodeType.formalparameterlist));
+	}
+
+	/**
+	 * Skips the block after the next token, leaving the token after it
+	 *
+	 * @return false if there is no complete block
+	 */
+	private boolean skipBlock() throws Exception {
+		if (next().sym != sym.OPEN_CURLY_BRACES) {
+			return false;
+		}
+		int depth = 1;
+		while (depth > 0) {
+			switch (next().sym) {
+			case sym.OPEN_CURLY_BRACES:
+				depth++;
+				break;
+			case sym.CLOSE_CURLY_BRACES:
+				depth--;
+				break;
+			case sym.EOF:
+				return false;
+			}
+		}
+		next();
+		return true;
+	}
+
+	/**
+	 * @param allowVoid
+	 *            Whether void is a type here
+	 * @return the node of the type in token, or null if it isn't a type
+	 */
+	private TreeNode type(boolean allowVoid) {
+		switch (token.sym) {
+		case sym.KW_INT:
+			return new TreeNode(TreeNodeType.INT, token.xleft);
+		case sym.KW_BOOLEAN:
+			return new TreeNode(TreeNodeType.BOOL, token.xleft);
+		case sym.KW_VOID:
+			return allowVoid ? new TreeNode(TreeNodeType.VOID, token.xleft) : null;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return the node of the identifier in token
+	 */
+	private TreeNode identifier() {
+		return new TreeNode(TreeNodeType.ID, token.xleft).setName((Name) token.value);
+	}
+
+	private ComplexSymbol next() throws Exception {
+		token = (ComplexSymbol) scanner.next_token();
+		return token;
+	}
+}
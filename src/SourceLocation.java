@@ -0,0 +1,88 @@
+/**
+ *
+ */
+
+/**
+ * The location of a token, which only keeps its offset in the source. The
+ * line and column are found in the index of the source when they are asked
+ * for, so they cost nothing unless a warning or an error prints them. The
+ * column kept by Location is what is added to the column of the offset
+ *
+ * @author charl
+ * @see LineIndex
+ */
+public class SourceLocation extends NewLocation {
+	private final LineIndex lines;
+
+	/**
+	 * @param lines
+	 *            The index of the source
+	 * @param offset
+	 *            The offset of the token
+	 * @param column
+	 *            What is added to the column of the offset counted from 0: 1 for
+	 *            the first char of the token, its length for the last
+	 */
+	public SourceLocation(LineIndex lines, int offset, int column) {
+		super(lines.getUnit(), 0, column, offset);
+		this.lines = lines;
+	}
+
+	/**
+	 * @return the location of the same token, which moves with the shift from
+	 *         where it is now
+	 */
+	SourceLocation anchored(Shift shift) {
+		return new Anchored(lines, getOffset() - shift.chars, super.getColumn(), shift);
+	}
+
+	/**
+	 * @return the index of the source the token is in
+	 */
+	LineIndex getIndex() {
+		return lines;
+	}
+
+	/**
+	 * @return what is added to the column of the offset, 1 for the first char
+	 *         of the token
+	 */
+	int getAddend() {
+		return super.getColumn();
+	}
+
+	@Override
+	public int getLine() {
+		return lines.line(getOffset()) + 1;
+	}
+
+	@Override
+	public int getColumn() {
+		return lines.column(getOffset()) + super.getColumn();
+	}
+
+	/**
+	 * How far the tokens of a declaration moved since they were anchored to it,
+	 * which IncrementalParser changes to move them all at once
+	 */
+	static class Shift {
+		int chars = 0;
+	}
+
+	/**
+	 * The location of a token that moves with the declaration it is in
+	 */
+	private static class Anchored extends SourceLocation {
+		private final Shift shift;
+
+		private Anchored(LineIndex lines, int offset, int column, Shift shift) {
+			super(lines, offset, column);
+			this.shift = shift;
+		}
+
+		@Override
+		public int getOffset() {
+			return super.getOffset() + shift.chars;
+		}
+	}
+}
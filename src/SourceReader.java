@@ -0,0 +1,155 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ */
+
+/**
+ * Reads a source file for the scanner. Large files are memory mapped, and the
+ * bytes are decoded straight from the mapping into the buffer of the scanner,
+ * so the source is never copied into a byte array or a stream buffer on the
+ * way. Small files are read with a single read instead, since mapping them
+ * costs more than it saves.
+ * <p>
+ * Like an InputStreamReader, malformed input is replaced, not reported. A
+ * mapping stays until it is garbage collected, even after the reader is closed.
+ *
+ * @author charl
+ */
+public class SourceReader extends Reader {
+	/**
+	 * Files smaller than this are read instead of mapped
+	 */
+	private static final long mapThreshold = 256 * 1024;
+	/**
+	 * Files larger than this are mapped one window at a time, since a single
+	 * mapping can't be larger than 2 GB
+	 */
+	private static final long windowSize = 1L << 30;
+
+	/**
+	 * The open file, or null once the whole file is in bytes
+	 */
+	private FileChannel channel;
+	private final long size;
+	/**
+	 * The position in the file of the start of bytes
+	 */
+	private long windowStart = 0;
+	/**
+	 * The mapped window, or the whole content of a small file
+	 */
+	private ByteBuffer bytes;
+	private final CharsetDecoder decoder;
+	/**
+	 * The second char of a character decoded when there was only room for one
+	 */
+	private final CharBuffer carry = (CharBuffer) CharBuffer.allocate(2).flip();
+	/**
+	 * Whether all the input has been decoded and the decoder flushed
+	 */
+	private boolean done = false;
+
+	/**
+	 * Opens the file, decoding it with the default charset like an
+	 * InputStreamReader
+	 *
+	 * @param file
+	 *            The file to read
+	 * @return a reader of the file
+	 * @throws IOException
+	 *             If the file could not be opened or read
+	 */
+	public static SourceReader open(File file) throws IOException {
+		return new SourceReader(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Opens the file
+	 *
+	 * @param file
+	 *            The file to read
+	 * @param charset
+	 *            The charset of the file
+	 * @throws IOException
+	 *             If the file could not be opened or read
+	 */
+	public SourceReader(File file, Charset charset) throws IOException {
+		decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			size = channel.size();
+			if (size < mapThreshold) {
+				bytes = ByteBuffer.allocate((int) size);
+				while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+				}
+				bytes.flip();
+			} else {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, windowSize));
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		//The mapping stays valid once the channel is closed
+		if (bytes.limit() == size) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (carry.hasRemaining()) {
+			cbuf[off] = carry.get();
+			return 1;
+		}
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		while (!done && out.position() == off) {
+			boolean last = windowStart + bytes.limit() >= size;
+			CoderResult result = decoder.decode(bytes, out, last);
+			if (result.isOverflow()) {
+				if (out.position() == off) {
+					//A surrogate pair doesn't fit in a single char, keep its second half
+					carry.clear();
+					decoder.decode(bytes, carry, last);
+					carry.flip();
+					out.put(carry.get());
+				}
+				break;
+			}
+			if (!last) {
+				//Map the next window, starting with any bytes of a character cut in half
+				windowStart += bytes.position();
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+						Math.min(size - windowStart, windowSize));
+			} else if (decoder.flush(out).isUnderflow()) {
+				done = true;
+			}
+		}
+		int read = out.position() - off;
+		return read == 0 && done ? -1 : read;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,514 @@
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import java_cup.runtime.ComplexSymbolFactory.Location;
+import java_cup.runtime.Symbol;
+
+/**
+ *
+ */
+
+/**
+ * The tokens of a whole source, kept as arrays of ints instead of a symbol
+ * object per token: the kind, and the offset and length in the source. The
+ * value of a token and its locations are only created when they are asked for,
+ * and the line and column of a location only when it is printed, so scanning a
+ * plain ASCII source into the buffer allocates nothing per token.
+ * <p>
+ * The warnings of the scanner are kept with the token they were found before,
+ * and printed when the parser reads that token, so the warnings and errors of
+ * a compilation come out in the same order as with Scan.
+ * <p>
+ * No token or warning spans a line break: comments end at the end of their
+ * line, and a string literal ends at a newline. So a large source is split into
+ * chunks that end after a newline, which are tokenized in parallel on the
+ * common fork/join pool, each into a buffer of its own, and the buffers are
+ * joined in order. The offsets are those in the whole source, so the tokens,
+ * their locations and the warnings are the same as tokenizing it in one go.
+ *
+ * @author charl
+ */
+public class TokenBuffer {
+	/**
+	 * The least number of bytes in a chunk of a source tokenized in parallel,
+	 * below which it is tokenized in one go
+	 */
+	private static final int CHUNK_SIZE = 1024 * 1024;
+	private final ByteBuffer bytes;
+	/**
+	 * Where the lines of the source start
+	 */
+	private final LineIndex lines;
+	/**
+	 * The kinds of the tokens, which all fit in a byte
+	 */
+	private byte[] kinds;
+	private int[] starts;
+	private int[] lengths;
+	private int size = 0;
+	/**
+	 * The warnings, and the index of the token each was found before
+	 */
+	private final List<String> warnings = new ArrayList<String>();
+	private int[] warningTokens = new int[4];
+
+	/**
+	 * @param bytes
+	 *            The source, which must be plain ASCII
+	 * @param lines
+	 *            Where the lines of the source start
+	 * @param capacity
+	 *            The number of tokens there is room for at first
+	 */
+	private TokenBuffer(ByteBuffer bytes, LineIndex lines, int capacity) {
+		this.bytes = bytes;
+		this.lines = lines;
+		capacity = Math.max(16, capacity);
+		kinds = new byte[capacity];
+		starts = new int[capacity];
+		lengths = new int[capacity];
+	}
+
+	/**
+	 * Scans the whole source into a buffer, in parallel if it is large enough
+	 * and the common pool has more than one thread
+	 *
+	 * @param source
+	 *            The source, from its position to its limit. Not changed
+	 * @param compilation
+	 *            The compilation the source belongs to
+	 * @return the tokens of the source, or null if it isn't plain ASCII
+	 */
+	public static TokenBuffer tokenize(ByteBuffer source, Compilation compilation) {
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		if (parallelism < 2) {
+			return tokenize(source, compilation, Integer.MAX_VALUE);
+		}
+		//A few chunks per thread, so a thread that finishes early takes another
+		return tokenize(source, compilation, Math.max(CHUNK_SIZE, source.remaining() / (parallelism * 4)));
+	}
+
+	/**
+	 * Scans the whole source into a buffer, splitting it into chunks of at least
+	 * chunkSize bytes that are tokenized in parallel
+	 *
+	 * @param source
+	 *            The source, from its position to its limit. Not changed
+	 * @param compilation
+	 *            The compilation the source belongs to
+	 * @param chunkSize
+	 *            The least number of bytes in a chunk. Each chunk runs on to the
+	 *            end of the line it reaches, so 1 makes a chunk of every line
+	 * @return the tokens of the source, or null if it isn't plain ASCII
+	 */
+	public static TokenBuffer tokenize(ByteBuffer source, Compilation compilation, int chunkSize) {
+		if (!FastScan.canScan(source)) {
+			return null;
+		}
+		ByteBuffer bytes = source.duplicate();
+		LineIndex lines = new LineIndex(compilation.getInputFileName(), bytes);
+		int[] bounds = chunks(bytes, chunkSize);
+		//About one token every four bytes in most programs
+		if (bounds.length == 2) {
+			TokenBuffer tokens = new TokenBuffer(bytes, lines, bytes.remaining() / 4);
+			new FastScan(bytes, lines, compilation).tokenize(tokens);
+			return tokens;
+		}
+		TokenBuffer[] chunks = new TokenBuffer[bounds.length - 1];
+		ForkJoinPool.commonPool().invoke(new Chunks(bytes, lines, compilation, bounds, chunks, 0, chunks.length));
+		int capacity = 0;
+		for (TokenBuffer chunk : chunks) {
+			capacity += chunk.size;
+		}
+		TokenBuffer tokens = new TokenBuffer(bytes, lines, capacity);
+		long maximum = compilation.getLimits().get(CompileLimits.TOKENS);
+		for (int c = 0; c < chunks.length; c++) {
+			TokenBuffer chunk = chunks[c];
+			//Only the EOF of the last chunk is the end of the source
+			int count = c < chunks.length - 1 && chunk.size > 0 && chunk.kinds[chunk.size - 1] == sym.EOF
+					? chunk.size - 1 : chunk.size;
+			if (tokens.append(chunk, count, maximum)) {
+				break;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Splits the source into chunks, each but the last ending after a newline
+	 *
+	 * @return the offset at which each chunk starts, then the end of the source
+	 */
+	private static int[] chunks(ByteBuffer bytes, int chunkSize) {
+		int[] bounds = new int[8];
+		int size = 0;
+		int start = bytes.position();
+		bounds[size++] = start;
+		while (start < bytes.limit()) {
+			int end;
+			if (bytes.limit() - start <= chunkSize) {
+				end = bytes.limit();
+			} else {
+				end = start + Math.max(chunkSize, 1);
+				while (end < bytes.limit() && bytes.get(end - 1) != '\n') {
+					end++;
+				}
+			}
+			if (size == bounds.length) {
+				bounds = Arrays.copyOf(bounds, size * 2);
+			}
+			bounds[size++] = end;
+			start = end;
+		}
+		if (size == 1) {
+			//An empty source is a single empty chunk
+			bounds[size++] = start;
+		}
+		return Arrays.copyOf(bounds, size);
+	}
+
+	/**
+	 * Adds the first count tokens of a chunk, and its warnings, stopping where
+	 * tokenizing the whole source in one go would have: at the warning that
+	 * makes too many, or at the token that goes over the tokens limit
+	 *
+	 * @return true if tokenizing stopped
+	 */
+	private boolean append(TokenBuffer chunk, int count, long maximum) {
+		int from = 0;
+		for (int w = 0; w < chunk.warnings.size(); w++) {
+			int to = Math.min(chunk.warningTokens[w], count);
+			if (append(chunk, from, to, maximum)) {
+				return true;
+			}
+			from = to;
+			if (warning(chunk.warnings.get(w)) > Compilation.maxWarnings) {
+				return true;
+			}
+		}
+		return append(chunk, from, count, maximum);
+	}
+
+	/**
+	 * Adds the tokens of a chunk from one index to another, up to the first
+	 * over the tokens limit
+	 *
+	 * @return true if the tokens went over the limit
+	 */
+	private boolean append(TokenBuffer chunk, int from, int to, long maximum) {
+		int count = to - from <= maximum - size ? to - from : (int) (maximum - size) + 1;
+		if (size + count > kinds.length) {
+			int capacity = Math.max(size + count, size * 2);
+			kinds = Arrays.copyOf(kinds, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+		}
+		System.arraycopy(chunk.kinds, from, kinds, size, count);
+		System.arraycopy(chunk.starts, from, starts, size, count);
+		System.arraycopy(chunk.lengths, from, lengths, size, count);
+		size += count;
+		return size > maximum;
+	}
+
+	/**
+	 * Creates the scanner of a source: one reading the tokens from a buffer if
+	 * the source is plain ASCII, otherwise a Scan of the decoded source
+	 *
+	 * @param source
+	 *            The source, from its position to its limit. Not changed
+	 * @param compilation
+	 *            The compilation the source belongs to
+	 * @return the scanner
+	 */
+	public static Scan open(ByteBuffer source, Compilation compilation) {
+		TokenBuffer tokens = tokenize(source, compilation);
+		if (tokens == null) {
+			return FastScan.open(source, compilation);
+		}
+		return tokens.scanner(compilation);
+	}
+
+	/**
+	 * @param compilation
+	 *            The compilation the tokens belong to, which prints the warnings
+	 *            and creates the symbols
+	 * @return a scanner that returns the tokens of this buffer to the parser
+	 */
+	public Scan scanner(Compilation compilation) {
+		return new Replay(compilation, 0, size);
+	}
+
+	/**
+	 * @param compilation
+	 *            The compilation the tokens belong to, which creates the symbols
+	 * @param from
+	 *            The first token returned
+	 * @param to
+	 *            The token before which the scanner returns EOF, at the location
+	 *            of that token
+	 * @return a scanner that returns a range of the tokens of this buffer to the
+	 *         parser, without the warnings
+	 */
+	Scan scanner(Compilation compilation, int from, int to) {
+		return new Replay(compilation, from, to);
+	}
+
+	/**
+	 * Makes the tokens of a source edited from this one, where only the whole
+	 * lines from one offset to another were changed. Those lines are scanned
+	 * again, and the tokens of the other lines are the same, those after moved
+	 * by the change in length, since a token never spans two lines. The line
+	 * index is edited to match, so this buffer is no longer valid
+	 *
+	 * @param source
+	 *            The edited source, at the same position as this one
+	 * @param from
+	 *            The offset of the first line changed
+	 * @param to
+	 *            The offset after the last line changed, before the edit
+	 * @param compilation
+	 *            The compilation the source belongs to
+	 * @return the tokens of the edited source, or null if the lines changed
+	 *         aren't plain ASCII or hold a warning
+	 */
+	TokenBuffer edit(ByteBuffer source, int from, int to, Compilation compilation) {
+		int delta = source.limit() - bytes.limit();
+		ByteBuffer changed = source.duplicate();
+		changed.limit(to + delta);
+		changed.position(from);
+		if (!FastScan.canScan(changed)) {
+			return null;
+		}
+		//EOF is always kept
+		int first = indexAt(from);
+		int last = Math.min(indexAt(to), size - 1);
+		lines.edit(source, from, to, delta);
+		TokenBuffer middle = new TokenBuffer(source, lines, changed.remaining() / 4);
+		new FastScan(changed, lines, compilation).tokenize(middle);
+		if (!middle.warnings.isEmpty()) {
+			return null;
+		}
+		int count = middle.size - 1;
+		TokenBuffer tokens = new TokenBuffer(source.duplicate(), lines, first + count + size - last);
+		System.arraycopy(kinds, 0, tokens.kinds, 0, first);
+		System.arraycopy(starts, 0, tokens.starts, 0, first);
+		System.arraycopy(lengths, 0, tokens.lengths, 0, first);
+		System.arraycopy(middle.kinds, 0, tokens.kinds, first, count);
+		System.arraycopy(middle.starts, 0, tokens.starts, first, count);
+		System.arraycopy(middle.lengths, 0, tokens.lengths, first, count);
+		int moved = first + count;
+		System.arraycopy(kinds, last, tokens.kinds, moved, size - last);
+		System.arraycopy(lengths, last, tokens.lengths, moved, size - last);
+		for (int i = last; i < size; i++) {
+			tokens.starts[moved + i - last] = starts[i] + delta;
+		}
+		tokens.size = moved + size - last;
+		return tokens;
+	}
+
+	/**
+	 * @return the index of the first token that starts at or after the offset,
+	 *         or the number of tokens if there is none
+	 */
+	int indexAt(int offset) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (starts[middle] < offset) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Adds a token
+	 */
+	void add(int kind, int start, int length) {
+		if (size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+		}
+		kinds[size] = (byte) kind;
+		starts[size] = start;
+		lengths[size] = length;
+		size++;
+	}
+
+	/**
+	 * Adds a warning found before the next token
+	 *
+	 * @return the number of warnings
+	 */
+	int warning(String s) {
+		if (warnings.size() == warningTokens.length) {
+			warningTokens = Arrays.copyOf(warningTokens, warningTokens.length * 2);
+		}
+		warningTokens[warnings.size()] = size;
+		warnings.add(s);
+		return warnings.size();
+	}
+
+	/**
+	 * @return true if the scanner found a warning in the source
+	 */
+	public boolean hasWarnings() {
+		return !warnings.isEmpty();
+	}
+
+	/**
+	 * @return the number of tokens, with EOF
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the kind of the token, one of the constants of sym
+	 */
+	public int kind(int token) {
+		return kinds[token];
+	}
+
+	/**
+	 * @return the offset of the token in the source
+	 */
+	public int start(int token) {
+		return starts[token];
+	}
+
+	/**
+	 * @return the length of the token in the source
+	 */
+	public int length(int token) {
+		return lengths[token];
+	}
+
+	/**
+	 * @return the value of the token: the name of the identifier interned in
+	 *         names, the number, or the string without its quotation marks, or
+	 *         null for other tokens
+	 */
+	public Object value(int token, NameTable names) {
+		return FastScan.value(bytes, kinds[token], starts[token], lengths[token], names);
+	}
+
+	/**
+	 * @return the location of the first character of the token
+	 */
+	public Location left(int token) {
+		return lines.location(starts[token], 1);
+	}
+
+	/**
+	 * @return the location of the last character of the token, which Scan puts
+	 *         one before the start for EOF
+	 */
+	public Location right(int token) {
+		return lines.location(starts[token], lengths[token]);
+	}
+
+	/**
+	 * Tokenizes a range of the chunks of a source, splitting it in two until
+	 * there is a single chunk
+	 */
+	private static class Chunks extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ByteBuffer bytes;
+		private final LineIndex lines;
+		private final Compilation compilation;
+		private final int[] bounds;
+		/**
+		 * Where the tokens of each chunk are put
+		 */
+		private final TokenBuffer[] chunks;
+		private final int from;
+		private final int to;
+
+		private Chunks(ByteBuffer bytes, LineIndex lines, Compilation compilation, int[] bounds, TokenBuffer[] chunks,
+				int from, int to) {
+			this.bytes = bytes;
+			this.lines = lines;
+			this.compilation = compilation;
+			this.bounds = bounds;
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Chunks(bytes, lines, compilation, bounds, chunks, from, middle),
+						new Chunks(bytes, lines, compilation, bounds, chunks, middle, to));
+				return;
+			}
+			ByteBuffer chunk = bytes.duplicate();
+			chunk.limit(bounds[to]);
+			chunk.position(bounds[from]);
+			TokenBuffer tokens = new TokenBuffer(bytes, lines, chunk.remaining() / 4);
+			new FastScan(chunk, lines, compilation).tokenize(tokens);
+			chunks[from] = tokens;
+		}
+	}
+
+	/**
+	 * Returns the tokens of the buffer to the parser, creating the symbol of each
+	 * when it is read, and printing the warnings found before it. A range short
+	 * of the whole buffer ends with an EOF of its own, and prints no warnings
+	 */
+	private class Replay extends Scan {
+		private final Compilation compilation;
+		private final int end;
+		private int next;
+		private int nextWarning;
+
+		private Replay(Compilation compilation, int from, int to) {
+			super(new StringReader(""), compilation);
+			this.compilation = compilation;
+			this.end = to;
+			next = from;
+			nextWarning = to == size ? 0 : warnings.size();
+		}
+
+		@Override
+		public Symbol next_token() throws CompilerExitException {
+			while (nextWarning < warnings.size() && warningTokens[nextWarning] <= next) {
+				compilation.warning(warnings.get(nextWarning++));
+			}
+			int token = next;
+			if (token == end && end < size) {
+				return compilation.getSymbolFactory().newSymbol(sym.terminalNames[sym.EOF], sym.EOF, left(token),
+						right(token));
+			}
+			if (token == size) {
+				//Tokenizing stopped at a warning, which stopped the compilation when it was printed
+				throw new CompilerExitException("Too many errors");
+			}
+			//Like Scan, keeps returning EOF at the end of the input
+			if (kinds[token] != sym.EOF) {
+				next++;
+			}
+			int kind = kinds[token];
+			Location left = left(token);
+			//The locations are never changed, so a token of one character has the same at both ends
+			Location right = lengths[token] == 1 ? left : right(token);
+			Object value = value(token, compilation.getNames());
+			if (value == null) {
+				return compilation.getSymbolFactory().newSymbol(sym.terminalNames[kind], kind, left, right);
+			}
+			return compilation.getSymbolFactory().newSymbol(sym.terminalNames[kind], kind, left, right, value);
+		}
+	}
+}
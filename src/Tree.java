@@ -25,10 +25,8 @@ public class Tree {
 	 * Outputs a String representation of this tree. The information about each node
 	 * is enclosed in { }. The children of the node are enclosed in [ ]. The string
 	 * is formatting into lines and appropriate tabbing is utilized. Nodes which are
-	 * more tabbed having larger depth in the tree. This function recursively calls
-	 * TreeNode.toString on the root, which recursively calls TreeNode.toString on
-	 * each of that node's children. This may affect certain runtimes of Java due to
-	 * the recursive depth limit.
+	 * more tabbed having larger depth in the tree. The tree is walked with a
+	 * TreeVisitor, so trees of any depth can be printed.
 	 * 
 	 * @return A string representation of the tree, starting at the root
 	 */
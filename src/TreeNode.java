@@ -17,8 +17,12 @@ public class TreeNode {
 	protected ArrayList<TreeNode> children = new ArrayList<TreeNode>();
 	protected TreeNodeType type;
 	protected String attr;
+	/**
+	 * The interned name of an ID node, whose text is also the attribute
+	 */
+	protected Name name;
 	protected Location loc;
-	protected String sig;
+	protected Signature sig;
 	/**
 	 * @return the scope of the node
 	 */
@@ -27,6 +31,13 @@ public class TreeNode {
 	}
 
 	protected Scope scope;
+	/**
+	 * The number of nodes and the number of levels of the subtree rooted at this
+	 * node, kept up to date as children are added, so the limits of a
+	 * compilation can be checked as the parser builds the tree
+	 */
+	private int size = 1;
+	private int height = 1;
 
 	/**
 	 * Adds the specified signature and scope to this node
@@ -34,7 +45,7 @@ public class TreeNode {
 	 * @param sig
 	 * @param scope
 	 */
-	public void annotate(String sig, Scope scope) {
+	public void annotate(Signature sig, Scope scope) {
 		this.sig = sig;
 		this.scope = scope;
 	}
@@ -44,10 +55,17 @@ public class TreeNode {
 	 * 
 	 * @param sig
 	 */
-	public void annotate(String sig) {
+	public void annotate(Signature sig) {
 		this.sig = sig;
 	}
 
+	/**
+	 * @return the signature of the node, or null if it has none
+	 */
+	public Signature getSig() {
+		return sig;
+	}
+
 	/**
 	 * Adds the specified scope to this node
 	 * 
@@ -110,8 +128,10 @@ public class TreeNode {
 	 * @return This TreeNode
 	 */
 	public TreeNode addChild(TreeNode child) {
-		if (child != null)
+		if (child != null) {
 			children.add(child);
+			grow(child);
+		}
 		return this;
 	}
 
@@ -173,7 +193,57 @@ public class TreeNode {
 	 * @return This TreeNode
 	 */
 	public TreeNode setChild(int index, TreeNode child) {
-		children.set(index, child);
+		TreeNode replaced = children.set(index, child);
+		if (replaced != null) {
+			size -= replaced.size;
+			//The replaced child may have been the deepest
+			if (replaced.height + 1 == height) {
+				height = 1;
+				for (TreeNode other : children) {
+					if (other != null && other != child) {
+						height = Math.max(height, other.height + 1);
+					}
+				}
+			}
+		}
+		if (child != null) {
+			grow(child);
+		}
+		return this;
+	}
+
+	/**
+	 * Adds a new child to the size and height of this node
+	 */
+	private void grow(TreeNode child) {
+		size += child.size;
+		height = Math.max(height, child.height + 1);
+	}
+
+	/**
+	 * @return the number of nodes of the subtree rooted at this node
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of levels of the subtree rooted at this node, 1 for a
+	 *         leaf
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Sets the location of this node, for a node whose source moved
+	 * 
+	 * @param loc
+	 *            The location of the node
+	 * @return This TreeNode
+	 */
+	public TreeNode setLoc(Location loc) {
+		this.loc = loc;
 		return this;
 	}
 
@@ -196,6 +266,27 @@ public class TreeNode {
 		return attr;
 	}
 
+	/**
+	 * Sets the name of this ID node, and its attribute to the text of the name
+	 * 
+	 * @param name
+	 *            The interned name of the identifier
+	 * @return This TreeNode
+	 */
+	public TreeNode setName(Name name) {
+		this.name = name;
+		this.attr = name.toString();
+		return this;
+	}
+
+	/**
+	 * @return The interned name of this ID node, or null if it was only given an
+	 *         attribute
+	 */
+	public Name getName() {
+		return name;
+	}
+
 	@Override
 	public String toString() {
 		//Output the information of this node, if the value is null, don't append it
@@ -230,19 +321,73 @@ public class TreeNode {
 
 	}
 
+	/**
+	 * Stands in for a null child while a tree is printed
+	 */
+	private static final TreeNode nullChild = new TreeNode(null);
+
 	/**
 	 * Returns a String representation of this node and all it's children. The
 	 * information about this node is enclosed in { }. The children of this node are
-	 * enclosed in [ ]. The string is unformatted. This function recursively calls
-	 * child.toString on each of this node's children. This may affect certain
-	 * runtimes of Java due to the recursive depth limit.
+	 * enclosed in [ ]. The string is unformatted. The tree is walked with a
+	 * TreeVisitor, so trees of any depth can be printed.
 	 * 
 	 * @return A string representation of this node and all it's children, with the
 	 *         given tabbing
 	 */
-	protected String toTabbedString(int tabs) {
+	protected String toTabbedString(final int tabs) {
+		final StringBuffer out = new StringBuffer();
+		new TreeVisitor<RuntimeException, RuntimeException>() {
+			@Override
+			protected void enter(TreeNode node) {
+				if (node != nullChild) {
+					node.appendInfo(out, tabs + getDepth());
+					if (node.children.size() != 0) {
+						out.append('[');
+					}
+				}
+			}
+
+			@Override
+			protected TreeNode next(TreeNode node, int step) {
+				if (node == nullChild || step >= node.children.size()) {
+					return null;
+				}
+				TreeNode child = node.children.get(step);
+				if (child != null) {
+					out.append('\n');
+					return child;
+				} else {
+					out.append("null");
+					return nullChild;
+				}
+			}
+
+			@Override
+			protected void exit(TreeNode node) {
+				if (node != nullChild && node.children.size() != 0) {
+					out.append('\n');
+					for (int i = 0; i < tabs + getDepth(); i++) {
+						out.append('\t');
+					}
+					out.append(']');
+				}
+			}
+		}.walk(this);
+		return out.toString();
+	}
+
+	/**
+	 * Appends the information of this node, enclosed in { }, with the given
+	 * tabbing
+	 * 
+	 * @param out
+	 *            Where to append the information
+	 * @param tabs
+	 *            The number of tabs before the information
+	 */
+	private void appendInfo(StringBuffer out, int tabs) {
 		//Output the information of this node, if the value is null, don't append it
-		StringBuffer out = new StringBuffer();
 		for (int i = 0; i < tabs; i++) {
 			out.append('\t');
 		}
@@ -277,25 +422,5 @@ public class TreeNode {
 			out.replace(out.length() - 2, out.length() - 1, "}");
 		} else
 			out.append('}');
-		//Add the string representation of each of the children of this node between '[' ']' 
-
-		if (children.size() != 0) {
-			out.append('[');
-			for (TreeNode child : children) {
-				if (child != null) {
-					out.append('\n');
-					out.append(child.toTabbedString(tabs + 1));
-				} else {
-					out.append("null");
-				}
-			}
-			out.append('\n');
-			for (int i = 0; i < tabs; i++) {
-				out.append('\t');
-			}
-			out.append(']');
-		}
-
-		return out.toString();
 	}
 }
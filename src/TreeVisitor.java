@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ *
+ */
+
+/**
+ * Walks the subtree of a node depth first. The path from the root of the walk
+ * to the current node is kept in arrays on the heap instead of on the call
+ * stack, so a tree of any depth can be walked with the default stack size of
+ * the JVM.
+ * <p>
+ * The walk calls enter when it reaches a node, then next to ask for each child
+ * of the node to visit, and exit once next returns null. By default every child
+ * is visited in order. A visitor may instead skip children, visit the children
+ * of a child, or write code between two children, by overriding next. A
+ * visitor walks one tree at a time.
+ *
+ * @param <S>
+ *            The first type of exception the visitor may throw
+ * @param <A>
+ *            The second type of exception the visitor may throw
+ * @author charl
+ */
+public abstract class TreeVisitor<S extends Exception, A extends Exception> {
+	/**
+	 * The nodes from the root of the walk to the current node
+	 */
+	private TreeNode[] path = new TreeNode[64];
+	/**
+	 * For each node of the path, the number of times next has been called on it
+	 */
+	private int[] steps = new int[64];
+	/**
+	 * The number of nodes in the path
+	 */
+	private int depth;
+
+	/**
+	 * Walks the subtree rooted at the given node
+	 *
+	 * @param root
+	 *            The root of the subtree
+	 * @throws S
+	 *             If the visitor throws it, which ends the walk
+	 * @throws A
+	 *             If the visitor throws it, which ends the walk
+	 */
+	public void walk(TreeNode root) throws S, A {
+		depth = 0;
+		push(root);
+		while (depth > 0) {
+			int top = depth - 1;
+			TreeNode child = next(path[top], steps[top]++);
+			if (child != null) {
+				push(child);
+			} else {
+				exit(path[top]);
+				//Forget the node, so the path doesn't keep the tree alive
+				path[top] = null;
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Adds the node to the path and enters it
+	 */
+	private void push(TreeNode node) throws S, A {
+		if (depth == path.length) {
+			path = Arrays.copyOf(path, depth * 2);
+			steps = Arrays.copyOf(steps, depth * 2);
+		}
+		path[depth] = node;
+		steps[depth] = 0;
+		depth++;
+		enter(node);
+	}
+
+	/**
+	 * @return the number of nodes above the node being entered, visited or exited,
+	 *         up to the root of the walk. 0 for the root
+	 */
+	protected int getDepth() {
+		return depth - 1;
+	}
+
+	/**
+	 * @return the node the node being entered, visited or exited was visited
+	 *         from, or null for the root of the walk
+	 */
+	protected TreeNode getParent() {
+		return depth > 1 ? path[depth - 2] : null;
+	}
+
+	/**
+	 * Called when the walk reaches a node, before any of its children
+	 *
+	 * @param node
+	 *            The node
+	 * @throws S
+	 * @throws A
+	 */
+	protected void enter(TreeNode node) throws S, A {
+	}
+
+	/**
+	 * Chooses the next child of a node to visit. Called after the node is entered,
+	 * and again each time the child returned has been exited
+	 *
+	 * @param node
+	 *            The node
+	 * @param step
+	 *            The number of times next has already been called on the node
+	 * @return The child to visit, or null to exit the node
+	 * @throws S
+	 * @throws A
+	 */
+	protected TreeNode next(TreeNode node, int step) throws S, A {
+		return step < node.getChildren().size() ? node.getChild(step) : null;
+	}
+
+	/**
+	 * Called when the walk leaves a node, after all of its children
+	 *
+	 * @param node
+	 *            The node
+	 * @throws S
+	 * @throws A
+	 */
+	protected void exit(TreeNode node) throws S, A {
+	}
+}
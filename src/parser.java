@@ -426,7 +426,18 @@ public class parser extends java_cup.runtime.lr_parser {
     throws java.lang.Exception
     {
 
-		return s.next_token();
+		//Nested statements are all shifted before any of them is reduced, so the stack is checked before the tree is
+		compilation.checkParseStack(stack.size(), cur_token);
+		CompilerMetrics metrics = compilation.getMetrics();
+		if (!metrics.isEnabled()) {
+			return s.next_token();
+		}
+		long time = metrics.time();
+		long allocated = metrics.allocated();
+		Symbol token = s.next_token();
+		metrics.add(CompilerMetrics.SCAN, time, allocated);
+		metrics.countToken();
+		return token;
 
     }
 
@@ -434,12 +445,21 @@ public class parser extends java_cup.runtime.lr_parser {
     Scan s;
 	int depth = 0;
 	Tree tree;
+	/**
+	*	The compilation this parser belongs to. Syntax errors are printed to its error stream
+	*/
+	Compilation compilation;
+	/**
+	*	In streaming mode, receives each global declaration as soon as it is parsed, and the tree is left empty
+	*/
+	DeclarationListener listener;
 	/** 
-	*	Construct a parser with the specified Scan and ComplexSymbolFactory
+	*	Construct a parser with the specified Scan, using the symbol factory of the compilation
 	*/
-	parser(Scan s, ComplexSymbolFactory sf){ 
-		super(s, sf);
+	parser(Scan s, Compilation compilation){ 
+		super(s, compilation.getSymbolFactory());
 		this.s=s;
+		this.compilation=compilation;
 	}
 
 	/**
@@ -449,34 +469,45 @@ public class parser extends java_cup.runtime.lr_parser {
 	public void report_error(String message, Object info) {
 		if (info instanceof ComplexSymbol) {
 			ComplexSymbol cs = (ComplexSymbol) info;
-			System.err.println(message + " for input symbol \"" + cs.getName() + "\" spanning from " + cs.getLeft()
-					+ " to " + cs.getRight() + " in file " + Scan.inputFileName);
+			compilation.getErr().println(message + " for input symbol \"" + cs.getName() + "\" spanning from " + cs.getLeft()
+					+ " to " + cs.getRight() + " in file " + compilation.getInputFileName());
 			return;
 		}
 
-		System.err.print(message);
-		System.err.flush();
+		compilation.getErr().print(message);
+		compilation.getErr().flush();
 		if (info instanceof Symbol)
 			if (((Symbol) info).left != -1)
-				System.err.println(" at character " + ((Symbol) info).left + " of input");
+				compilation.getErr().println(" at character " + ((Symbol) info).left + " of input");
 			else
-				System.err.println("");
+				compilation.getErr().println("");
 
 	}
 	/**
-	* Override the default fatal error reporting to catch the exception and exit the compiler with exit code 1
+	* Override the default fatal error reporting to catch the exception and stop the compilation of the current file
 	*/	
 	@Override
-	public void report_fatal_error(String message, Object info){
+	public void report_fatal_error(String message, Object info) throws CompilerExitException{
 		try{
 			super.report_fatal_error(message,info);
 		}catch(java.lang.Exception e){
-			System.err.println("Compiler exiting with code 1");
-			System.exit(1);
+			compilation.getErr().println("Compiler exiting with code 1");
+			throw new CompilerExitException(message);
+		}
+	}
+	/**
+	*	Adds the declaration to the global declarations, or in streaming mode, hands it to the listener instead
+	*/
+	TreeNode declared(TreeNode declarations, TreeNode declaration) throws Exception {
+		if (listener == null) {
+			return declarations.addChild(declaration);
 		}
+		compilation.countStreamed(declaration);
+		listener.declaration(declaration);
+		return declarations;
 	}
 	/**
-	* Override the default reporting of expected token classes to output to standard error.
+	* Override the default reporting of expected token classes to output to the error stream of the compilation.
 	*/	
 	@Override
 	protected void report_expected_token_ids() {
@@ -494,7 +525,121 @@ public class parser extends java_cup.runtime.lr_parser {
 			//Replace the last ", " with a "]"
 			s.replace(s.length()-2, s.length(), "]");
 		}
-		System.err.println(s);
+		compilation.getErr().println(s);
+	}
+	/**
+	*	Hides the decoding of CUP, which the generated tables call as this class is initialized. The strings are kept by
+	*	ParseTables instead, so the tables are only decoded if a syntax error needs them. The generated tables, and the
+	*	methods that return them, are left null, so every method of CUP that reads them is overridden to decode them first
+	*/
+	protected static short[][] unpackFromStrings(String[] table) {
+		ParseTables.keep(table);
+		return null;
+	}
+	/**
+	*	Whether parse() prints what it does, as the debug_parse() of CUP does
+	*/
+	private boolean debug = false;
+	/**
+	*	Decodes the generated tables for the methods of CUP that read them, the first time one needs them
+	*/
+	private void decodeTables() {
+		if (action_tab == null) {
+			short[][][] generated = ParseTables.generated();
+			production_tab = generated[0];
+			action_tab = generated[1];
+			reduce_tab = generated[2];
+		}
+	}
+	/**
+	*	Decodes the generated tables first, since CUP finds the expected tokens in them
+	*/
+	@Override
+	public List<Integer> expected_token_ids() {
+		decodeTables();
+		return super.expected_token_ids();
+	}
+	/**
+	*	Parses as parse() does, printing each token, shift, reduction and goto as CUP does, since the debug_parse() of
+	*	CUP reads the generated tables before they are decoded
+	*/
+	@Override
+	public Symbol debug_parse() throws java.lang.Exception {
+		debug = true;
+		try {
+			return parse();
+		} finally {
+			debug = false;
+		}
+	}
+	/**
+	*	Code copied from CUP source, modified to find the actions and reductions in the expanded ParseTables instead of
+	*	searching the rows of the generated tables, and to only decode those for the error recovery of CUP. The check
+	*	that the scanner returns a new symbol for each token is left out, since the flag it reads is private to CUP
+	*/
+	@Override
+	@SuppressWarnings("unchecked")
+	public Symbol parse() throws java.lang.Exception {
+		ParseTables tables = ParseTables.get();
+		Symbol lhs = null;
+		if (debug) {
+			debug_message("# Initializing parser");
+		}
+		init_actions();
+		user_init();
+		cur_token = scan();
+		if (debug) {
+			debug_message("# Current Symbol is #" + cur_token.sym);
+		}
+		stack.removeAllElements();
+		stack.push(getSymbolFactory().startSymbol("START", 0, start_state()));
+		tos = 0;
+		int state = start_state();
+		for (_done_parsing = false; !_done_parsing;) {
+			int act = tables.action(state, cur_token.sym);
+			if (act > 0) {
+				//Shift
+				state = act - 1;
+				cur_token.parse_state = state;
+				if (debug) {
+					debug_shift(cur_token);
+				}
+				stack.push(cur_token);
+				tos++;
+				cur_token = scan();
+				if (debug) {
+					debug_message("# Current token is " + cur_token);
+				}
+			} else if (act < 0) {
+				//Reduce
+				int production = -act - 1;
+				lhs = do_action(production, this, stack, tos);
+				int handle = tables.length(production);
+				if (debug) {
+					debug_reduce(production, tables.left(production), handle);
+				}
+				stack.setSize(stack.size() - handle);
+				tos -= handle;
+				state = tables.reduce(((Symbol) stack.peek()).parse_state, tables.left(production));
+				lhs.parse_state = state;
+				stack.push(lhs);
+				tos++;
+				if (debug) {
+					debug_message("# Goto state #" + state);
+				}
+			} else {
+				decodeTables();
+				syntax_error(cur_token);
+				if (!error_recovery(debug)) {
+					unrecovered_syntax_error(cur_token);
+					done_parsing();
+				} else {
+					lhs = (Symbol) stack.peek();
+					state = lhs.parse_state;
+				}
+			}
+		}
+		return lhs;
 	}
 
 
@@ -640,7 +785,7 @@ class CUP$parser$actions {
 		Location gdxright = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.peek()).xright;
 		TreeNode gd = (TreeNode)((java_cup.runtime.Symbol) CUP$parser$stack.peek()).value;
 		
-							RESULT=gds.addChild(gd);
+							RESULT=declared(gds, gd);
 						
               CUP$parser$result = parser.getSymbolFactory().newSymbol("globaldeclarations",3, ((java_cup.runtime.Symbol)CUP$parser$stack.elementAt(CUP$parser$top-1)), ((java_cup.runtime.Symbol)CUP$parser$stack.peek()), RESULT);
             }
@@ -654,7 +799,7 @@ class CUP$parser$actions {
 		Location gdxright = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.peek()).xright;
 		TreeNode gd = (TreeNode)((java_cup.runtime.Symbol) CUP$parser$stack.peek()).value;
 		
-							RESULT = new TreeNode(TreeNodeType.globaldeclarations).addChild(gd);
+							RESULT = declared(new TreeNode(TreeNodeType.globaldeclarations), gd);
 						
               CUP$parser$result = parser.getSymbolFactory().newSymbol("globaldeclarations",3, ((java_cup.runtime.Symbol)CUP$parser$stack.peek()), ((java_cup.runtime.Symbol)CUP$parser$stack.peek()), RESULT);
             }
@@ -717,8 +862,8 @@ class CUP$parser$actions {
               TreeNode RESULT =null;
 		Location idxleft = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.peek()).xleft;
 		Location idxright = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.peek()).xright;
-		String id = (String)((java_cup.runtime.Symbol) CUP$parser$stack.peek()).value;
-		RESULT=new TreeNode(TreeNodeType.ID,idxleft).setAttr(id);
+		Name id = (Name)((java_cup.runtime.Symbol) CUP$parser$stack.peek()).value;
+		RESULT=new TreeNode(TreeNodeType.ID,idxleft).setName(id);
               CUP$parser$result = parser.getSymbolFactory().newSymbol("identifier",6, ((java_cup.runtime.Symbol)CUP$parser$stack.peek()), ((java_cup.runtime.Symbol)CUP$parser$stack.peek()), RESULT);
             }
           return CUP$parser$result;
@@ -882,7 +1027,7 @@ class CUP$parser$actions {
 		Location bracexright = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.elementAt(CUP$parser$top-2)).xright;
 		Object brace = (Object)((java_cup.runtime.Symbol) CUP$parser$stack.elementAt(CUP$parser$top-2)).value;
 		
-							System.err.println("Main function declaration should not have arguments. Skipping ahead to next \"CLOSE_ROUND_BRACES\"");
+							compilation.getErr().println("Main function declaration should not have arguments. Skipping ahead to next \"CLOSE_ROUND_BRACES\"");
 							RESULT=new TreeNode(TreeNodeType.mainfunctiondeclarator,idxleft).addChild(new TreeNode(TreeNodeType.VOID)).addChild(id).addChild(new TreeNode(TreeNodeType.formalparameterlist));
 						
               CUP$parser$result = parser.getSymbolFactory().newSymbol("mainfunctiondeclarator",13, ((java_cup.runtime.Symbol)CUP$parser$stack.elementAt(CUP$parser$top-3)), ((java_cup.runtime.Symbol)CUP$parser$stack.peek()), RESULT);
@@ -999,7 +1144,7 @@ class CUP$parser$actions {
 		Location exleft = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.elementAt(CUP$parser$top-1)).xleft;
 		Location exright = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.elementAt(CUP$parser$top-1)).xright;
 		Object e = (Object)((java_cup.runtime.Symbol) CUP$parser$stack.elementAt(CUP$parser$top-1)).value;
-		System.err.println("Skipping ahead to next \"SEMI_COLON\"");
+		compilation.getErr().println("Skipping ahead to next \"SEMI_COLON\"");
               CUP$parser$result = parser.getSymbolFactory().newSymbol("statement",17, ((java_cup.runtime.Symbol)CUP$parser$stack.elementAt(CUP$parser$top-1)), ((java_cup.runtime.Symbol)CUP$parser$stack.peek()), RESULT);
             }
           return CUP$parser$result;
@@ -1011,7 +1156,7 @@ class CUP$parser$actions {
 		Location exleft = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.elementAt(CUP$parser$top-1)).xleft;
 		Location exright = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.elementAt(CUP$parser$top-1)).xright;
 		Object e = (Object)((java_cup.runtime.Symbol) CUP$parser$stack.elementAt(CUP$parser$top-1)).value;
-		System.err.println("Skipping ahead to next \"CLOSE_CURLY_BRACES\"");
+		compilation.getErr().println("Skipping ahead to next \"CLOSE_CURLY_BRACES\"");
               CUP$parser$result = parser.getSymbolFactory().newSymbol("statement",17, ((java_cup.runtime.Symbol)CUP$parser$stack.elementAt(CUP$parser$top-1)), ((java_cup.runtime.Symbol)CUP$parser$stack.peek()), RESULT);
             }
           return CUP$parser$result;
@@ -1023,7 +1168,7 @@ class CUP$parser$actions {
 		Location exleft = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.elementAt(CUP$parser$top-1)).xleft;
 		Location exright = ((java_cup.runtime.ComplexSymbolFactory.ComplexSymbol)CUP$parser$stack.elementAt(CUP$parser$top-1)).xright;
 		Object e = (Object)((java_cup.runtime.Symbol) CUP$parser$stack.elementAt(CUP$parser$top-1)).value;
-		System.err.println("Skipping ahead to next \"CLOSE_ROUND_BRACES\"");
+		compilation.getErr().println("Skipping ahead to next \"CLOSE_ROUND_BRACES\"");
               CUP$parser$result = parser.getSymbolFactory().newSymbol("statement",17, ((java_cup.runtime.Symbol)CUP$parser$stack.elementAt(CUP$parser$top-1)), ((java_cup.runtime.Symbol)CUP$parser$stack.peek()), RESULT);
             }
           return CUP$parser$result;